@@ -0,0 +1,94 @@
+package io.github.djd.outbox.benchmarks;
+
+import static io.github.djd.outbox.model.MongoOutboxMessageFields.*;
+
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mongodb.MongoClientSettings;
+
+import io.github.djd.outbox.model.MessageProcessingStatus;
+import io.github.djd.outbox.model.OutboxMessage;
+import io.github.djd.outbox.storage.OutboxMessageCodec;
+import io.github.djd.outbox.storage.OutboxUtil;
+
+/**
+ * Cost of turning a claimed outbox document into an {@link OutboxMessage}: from an already
+ * materialized {@link Document}, from the raw BSON the driver receives via a {@code Document},
+ * and from the raw BSON with {@link OutboxMessageCodec}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DocumentDecodeBenchmark {
+
+	private static final Codec<Document> DOCUMENT_CODEC = MongoClientSettings.getDefaultCodecRegistry().get(Document.class);
+	private static final OutboxMessageCodec MESSAGE_CODEC = new OutboxMessageCodec();
+
+	@Param({ "256", "4096" })
+	private int payloadSize;
+
+	private Document document;
+	private byte[] bson;
+
+	@Setup
+	public void setUp() {
+		StringBuilder payload = new StringBuilder(payloadSize);
+		while (payload.length() < payloadSize) {
+			payload.append("{\"field\":\"value\"}");
+		}
+		document = new Document(ID, UUID.randomUUID().toString())
+				.append(TOPIC, "orders")
+				.append(PAYLOAD, payload.substring(0, payloadSize))
+				.append(STATUS, MessageProcessingStatus.IN_PROGRESS.name())
+				.append(CREATED_AT, new Date())
+				.append(RETRY_COUNT, 0)
+				.append(PROCESSED_AT, System.currentTimeMillis())
+				.append(PROCESSED_BY, UUID.randomUUID().toString())
+				.append(CLAIM_TOKEN, UUID.randomUUID().toString())
+				.append(LEASE_EXPIRES_AT, new Date());
+		BasicOutputBuffer buffer = new BasicOutputBuffer();
+		DOCUMENT_CODEC.encode(new BsonBinaryWriter(buffer), document, EncoderContext.builder().build());
+		bson = buffer.toByteArray();
+	}
+
+	@Benchmark
+	public OutboxMessage fromDocument() {
+		return OutboxUtil.fromDocument(document);
+	}
+
+	@Benchmark
+	public OutboxMessage fromBson() {
+		Document decoded = DOCUMENT_CODEC.decode(new BsonBinaryReader(ByteBuffer.wrap(bson)), DecoderContext.builder().build());
+		return OutboxUtil.fromDocument(decoded);
+	}
+
+	@Benchmark
+	public OutboxMessage fromBsonWithCodec() {
+		return MESSAGE_CODEC.decode(new BsonBinaryReader(ByteBuffer.wrap(bson)), DecoderContext.builder().build());
+	}
+}
@@ -0,0 +1,44 @@
+package io.github.djd.outbox.benchmarks;
+
+import java.lang.reflect.Proxy;
+
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.codecs.Codec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.MongoCollection;
+
+/**
+ * Stand-in for a {@link MongoCollection} whose {@code insertOne} encodes the document to BSON,
+ * the way the driver would before sending it, and then discards it.
+ */
+final class EncodingCollection {
+
+	private static final Codec<Document> DOCUMENT_CODEC = MongoClientSettings.getDefaultCodecRegistry().get(Document.class);
+
+	private EncodingCollection() {
+	}
+
+	@SuppressWarnings("unchecked")
+	static MongoCollection<Document> create() {
+		return (MongoCollection<Document>) Proxy.newProxyInstance(
+				EncodingCollection.class.getClassLoader(),
+				new Class<?>[] { MongoCollection.class },
+				(proxy, method, args) -> {
+					switch (method.getName()) {
+					case "insertOne":
+						BasicOutputBuffer buffer = new BasicOutputBuffer();
+						DOCUMENT_CODEC.encode(new BsonBinaryWriter(buffer), (Document) args[0], EncoderContext.builder().build());
+						return null;
+					case "getNamespace":
+						return new MongoNamespace("benchmarks", "outbox");
+					default:
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+	}
+}
@@ -0,0 +1,55 @@
+package io.github.djd.outbox.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.github.djd.outbox.model.OutboxMessage;
+import io.github.djd.outbox.storage.OutboxStorage;
+
+/**
+ * Minimal thread-safe {@link OutboxStorage} that keeps pending messages in a queue and only
+ * counts acknowledgements, so that benchmarks measure the processor and not a database.
+ */
+class InMemoryOutboxStorage implements OutboxStorage {
+
+	private final Queue<OutboxMessage> pending = new ConcurrentLinkedQueue<>();
+	private final AtomicLong acknowledged = new AtomicLong();
+
+	@Override
+	public void saveMessage(OutboxMessage message) {
+		pending.add(message);
+	}
+
+	@Override
+	public List<OutboxMessage> fetchUnprocessedMessages(int batchSize) {
+		List<OutboxMessage> claimed = new ArrayList<>(batchSize);
+		OutboxMessage message;
+		while (claimed.size() < batchSize && (message = pending.poll()) != null) {
+			claimed.add(message);
+		}
+		return claimed;
+	}
+
+	@Override
+	public void markMessageAsProcessed(String messageId) {
+		acknowledged.incrementAndGet();
+	}
+
+	@Override
+	public void markMessagesAsProcessed(Collection<String> messageIds) {
+		acknowledged.addAndGet(messageIds.size());
+	}
+
+	@Override
+	public void markMessageAsFailed(String messageId, int maxRetries) {
+		acknowledged.incrementAndGet();
+	}
+
+	long getAcknowledged() {
+		return acknowledged.get();
+	}
+}
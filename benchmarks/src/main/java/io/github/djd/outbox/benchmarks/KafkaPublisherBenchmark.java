@@ -0,0 +1,63 @@
+package io.github.djd.outbox.benchmarks;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.github.djd.outbox.model.OutboxMessage;
+import io.github.djd.outbox.publisher.KafkaPublisher;
+
+/**
+ * Client-side cost of {@link KafkaPublisher} per message, against Kafka's {@link MockProducer}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KafkaPublisherBenchmark {
+
+	private MockProducer<String, byte[]> producer;
+	private KafkaPublisher publisher;
+	private OutboxMessage message;
+
+	@Setup
+	public void setUp() {
+		producer = new MockProducer<>(true, new StringSerializer(), new ByteArraySerializer());
+		publisher = new KafkaPublisher(producer, "orders");
+		message = new OutboxMessage("orders", "{\"orderId\":42,\"status\":\"CREATED\"}");
+	}
+
+	/**
+	 * The mock producer keeps every record, drop them so the heap does not grow across iterations.
+	 */
+	@Setup(Level.Iteration)
+	public void clearHistory() {
+		producer.clear();
+	}
+
+	@Benchmark
+	public void publish() {
+		publisher.publish(message);
+	}
+
+	@Benchmark
+	public CompletableFuture<Void> publishAsync() {
+		return publisher.publishAsync(message);
+	}
+}
@@ -0,0 +1,18 @@
+package io.github.djd.outbox.benchmarks;
+
+import io.github.djd.outbox.model.OutboxMessage;
+import io.github.djd.outbox.publisher.MessagePublisher;
+
+/**
+ * Publisher that accepts every message immediately.
+ */
+class NoOpPublisher implements MessagePublisher {
+
+	@Override
+	public void publish(OutboxMessage message) {
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,77 @@
+package io.github.djd.outbox.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.github.djd.outbox.model.OutboxMessage;
+import io.github.djd.outbox.processor.PollingProcessor;
+import io.github.djd.outbox.processor.PollingProcessorConfig;
+
+/**
+ * Overhead of moving messages through {@link PollingProcessor} (claim, dispatch, publish,
+ * acknowledge) with an in-memory storage and a no-op publisher. Measured in messages per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PollingDispatchBenchmark {
+
+	private static final int MESSAGES_PER_INVOCATION = 1000;
+
+	/**
+	 * 0 publishes on the polling thread, otherwise the number of worker lanes.
+	 */
+	@Param({ "0", "8" })
+	private int workerLanes;
+
+	private InMemoryOutboxStorage storage;
+	private PollingProcessor processor;
+	private long expectedAcknowledged;
+
+	@Setup
+	public void setUp() {
+		storage = new InMemoryOutboxStorage();
+		PollingProcessorConfig config = new PollingProcessorConfig()
+				.withBatchSize(100)
+				.withPollingInterval(1, 1);
+		if (workerLanes > 0) {
+			config.withWorkerLanes(workerLanes, 1000);
+		}
+		processor = new PollingProcessor(storage, new NoOpPublisher(), 3, config);
+		processor.startProcessing();
+	}
+
+	@TearDown
+	public void tearDown() {
+		processor.stopProcessing();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(MESSAGES_PER_INVOCATION)
+	public void dispatch() {
+		for (int i = 0; i < MESSAGES_PER_INVOCATION; i++) {
+			storage.saveMessage(new OutboxMessage("topic-" + (i & 15), "payload"));
+		}
+		expectedAcknowledged += MESSAGES_PER_INVOCATION;
+		while (storage.getAcknowledged() < expectedAcknowledged) {
+			LockSupport.parkNanos(10_000);
+		}
+	}
+}
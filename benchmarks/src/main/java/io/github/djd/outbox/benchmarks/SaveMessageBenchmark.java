@@ -0,0 +1,55 @@
+package io.github.djd.outbox.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.github.djd.outbox.model.OutboxMessage;
+import io.github.djd.outbox.storage.IndexBootstrap;
+import io.github.djd.outbox.storage.MongoOutboxConfig;
+import io.github.djd.outbox.storage.MongoOutboxStorage;
+
+/**
+ * Per-message cost of {@link MongoOutboxStorage#saveMessage(OutboxMessage)} on the client:
+ * building the {@code Document} and encoding it to BSON, without the network round trip.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SaveMessageBenchmark {
+
+	@Param({ "256", "4096" })
+	private int payloadSize;
+
+	private MongoOutboxStorage storage;
+	private String payload;
+
+	@Setup
+	public void setUp() {
+		storage = new MongoOutboxStorage(EncodingCollection.create(),
+				new MongoOutboxConfig().withIndexBootstrap(IndexBootstrap.DISABLED));
+		StringBuilder builder = new StringBuilder(payloadSize);
+		while (builder.length() < payloadSize) {
+			builder.append("{\"field\":\"value\"}");
+		}
+		payload = builder.substring(0, payloadSize);
+	}
+
+	@Benchmark
+	public void saveMessage() {
+		storage.saveMessage(new OutboxMessage("orders", payload));
+	}
+}
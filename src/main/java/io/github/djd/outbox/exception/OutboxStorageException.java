@@ -0,0 +1,42 @@
+package io.github.djd.outbox.exception;
+
+import io.github.djd.outbox.storage.OutboxStorage;
+
+/**
+ * Exception thrown when an {@link OutboxStorage} fails to read or write the outbox.
+ * <p>
+ * This exception is used for failures of the underlying database that the caller
+ * cannot handle, e.g. a lost connection or a rejected statement.
+ * </p>
+ * <p>
+ * The exception may wrap the underlying cause of the failure, providing 
+ * additional context for debugging and error handling.
+ * </p>
+ *
+ * @author DJD
+ * @version 1.0
+ */
+public class OutboxStorageException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+	/**
+     * Constructs a new {@code OutboxStorageException} with the specified detail message.
+     *
+     * @param message The detail message explaining the reason for the failure.
+     */
+    public OutboxStorageException(String message) {
+        super(message);
+    }
+
+    /**
+     * Constructs a new {@code OutboxStorageException} with the specified detail message 
+     * and cause.
+     *
+     * @param message The detail message explaining the reason for the failure.
+     * @param cause   The underlying cause of the exception.
+     */
+    public OutboxStorageException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
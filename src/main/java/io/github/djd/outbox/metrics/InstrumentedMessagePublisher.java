@@ -0,0 +1,70 @@
+package io.github.djd.outbox.metrics;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import io.github.djd.outbox.exception.MessagePublishingException;
+import io.github.djd.outbox.model.OutboxMessage;
+import io.github.djd.outbox.publisher.MessagePublisher;
+
+/**
+ * {@link MessagePublisher} decorator that reports the latency and outcome of every publish per
+ * topic, and the lag from each message's creation until it was published, to {@link OutboxMetrics}.
+ */
+public class InstrumentedMessagePublisher implements MessagePublisher {
+
+	private final MessagePublisher publisher;
+	private final OutboxMetrics metrics;
+
+	public InstrumentedMessagePublisher(MessagePublisher publisher, OutboxMetrics metrics) {
+		this.publisher = publisher;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void publish(OutboxMessage message) throws MessagePublishingException {
+		long start = System.nanoTime();
+		boolean success = false;
+		try {
+			publisher.publish(message);
+			success = true;
+		} finally {
+			published(message, success, System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public CompletableFuture<Void> publishAsync(OutboxMessage message) {
+		long start = System.nanoTime();
+		CompletableFuture<Void> result = publisher.publishAsync(message);
+		result.whenComplete((ignored, error) -> published(message, error == null, System.nanoTime() - start));
+		return result;
+	}
+
+	@Override
+	public void publishBatch(List<OutboxMessage> messages) throws MessagePublishingException {
+		long start = System.nanoTime();
+		boolean success = false;
+		try {
+			publisher.publishBatch(messages);
+			success = true;
+		} finally {
+			long duration = System.nanoTime() - start;
+			for (OutboxMessage message : messages) {
+				published(message, success, duration);
+			}
+		}
+	}
+
+	private void published(OutboxMessage message, boolean success, long durationNanos) {
+		metrics.recordPublish(message.getTopic(), success, durationNanos);
+		if (success && message.getCreatedAt() != null) {
+			metrics.recordLag(message.getTopic(), System.currentTimeMillis() - message.getCreatedAt().getTime());
+		}
+	}
+
+	@Override
+	public void close() throws Exception {
+		publisher.close();
+	}
+}
@@ -0,0 +1,166 @@
+package io.github.djd.outbox.metrics;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import io.github.djd.outbox.model.OutboxMessage;
+import io.github.djd.outbox.storage.OutboxStorage;
+import io.github.djd.outbox.storage.PriorityRange;
+import io.github.djd.outbox.storage.TopicSelector;
+
+/**
+ * {@link OutboxStorage} decorator that reports the latency and batch size of saves, claims and
+ * acknowledgements to {@link OutboxMetrics}. Every call, including the batch variants, is
+ * forwarded to the wrapped storage as is.
+ */
+public class InstrumentedOutboxStorage implements OutboxStorage {
+
+	private final OutboxStorage storage;
+	private final OutboxMetrics metrics;
+
+	public InstrumentedOutboxStorage(OutboxStorage storage, OutboxMetrics metrics) {
+		this.storage = storage;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void saveMessage(OutboxMessage message) {
+		long start = System.nanoTime();
+		storage.saveMessage(message);
+		metrics.recordSave(1, System.nanoTime() - start);
+	}
+
+	@Override
+	public void saveMessages(List<OutboxMessage> messages) {
+		long start = System.nanoTime();
+		storage.saveMessages(messages);
+		metrics.recordSave(messages.size(), System.nanoTime() - start);
+	}
+
+	@Override
+	public List<OutboxMessage> fetchUnprocessedMessages(int batchSize) {
+		long start = System.nanoTime();
+		List<OutboxMessage> messages = storage.fetchUnprocessedMessages(batchSize);
+		metrics.recordClaim(messages.size(), System.nanoTime() - start);
+		return messages;
+	}
+
+	@Override
+	public List<OutboxMessage> fetchUnprocessedMessages(int batchSize, Date createdBefore) {
+		long start = System.nanoTime();
+		List<OutboxMessage> messages = storage.fetchUnprocessedMessages(batchSize, createdBefore);
+		metrics.recordClaim(messages.size(), System.nanoTime() - start);
+		return messages;
+	}
+
+	@Override
+	public List<OutboxMessage> fetchUnprocessedMessages(int batchSize, Date createdBefore, TopicSelector topics) {
+		long start = System.nanoTime();
+		List<OutboxMessage> messages = storage.fetchUnprocessedMessages(batchSize, createdBefore, topics);
+		metrics.recordClaim(messages.size(), System.nanoTime() - start);
+		return messages;
+	}
+
+	@Override
+	public List<OutboxMessage> fetchUnprocessedMessages(int batchSize, Date createdBefore, TopicSelector topics,
+			PriorityRange priorities) {
+		long start = System.nanoTime();
+		List<OutboxMessage> messages = storage.fetchUnprocessedMessages(batchSize, createdBefore, topics, priorities);
+		metrics.recordClaim(messages.size(), System.nanoTime() - start);
+		return messages;
+	}
+
+	@Override
+	public List<OutboxMessage> claimMessages(Collection<String> messageIds) {
+		long start = System.nanoTime();
+		List<OutboxMessage> messages = storage.claimMessages(messageIds);
+		metrics.recordClaim(messages.size(), System.nanoTime() - start);
+		return messages;
+	}
+
+	@Override
+	public void markMessageAsProcessed(String messageId) {
+		long start = System.nanoTime();
+		storage.markMessageAsProcessed(messageId);
+		metrics.recordAck(1, System.nanoTime() - start);
+	}
+
+	@Override
+	public void markMessageAsFailed(String messageId, int maxRetries) {
+		long start = System.nanoTime();
+		storage.markMessageAsFailed(messageId, maxRetries);
+		metrics.recordAck(1, System.nanoTime() - start);
+	}
+
+	@Override
+	public void markMessageAsFailed(String messageId, int maxRetries, Throwable error) {
+		long start = System.nanoTime();
+		storage.markMessageAsFailed(messageId, maxRetries, error);
+		metrics.recordAck(1, System.nanoTime() - start);
+	}
+
+	@Override
+	public void markMessagesAsProcessed(Collection<String> messageIds) {
+		if (messageIds.isEmpty()) {
+			storage.markMessagesAsProcessed(messageIds);
+			return;
+		}
+		long start = System.nanoTime();
+		storage.markMessagesAsProcessed(messageIds);
+		metrics.recordAck(messageIds.size(), System.nanoTime() - start);
+	}
+
+	@Override
+	public void markMessagesAsFailed(Collection<String> messageIds, int maxRetries) {
+		if (messageIds.isEmpty()) {
+			storage.markMessagesAsFailed(messageIds, maxRetries);
+			return;
+		}
+		long start = System.nanoTime();
+		storage.markMessagesAsFailed(messageIds, maxRetries);
+		metrics.recordAck(messageIds.size(), System.nanoTime() - start);
+	}
+
+	@Override
+	public void markMessagesAsFailed(Map<String, Throwable> errors, int maxRetries) {
+		if (errors.isEmpty()) {
+			storage.markMessagesAsFailed(errors, maxRetries);
+			return;
+		}
+		long start = System.nanoTime();
+		storage.markMessagesAsFailed(errors, maxRetries);
+		metrics.recordAck(errors.size(), System.nanoTime() - start);
+	}
+
+	@Override
+	public void extendLeases(Collection<String> messageIds) {
+		storage.extendLeases(messageIds);
+	}
+
+	@Override
+	public void releaseLeases() {
+		storage.releaseLeases();
+	}
+
+	@Override
+	public void releaseMessages(Collection<String> messageIds) {
+		storage.releaseMessages(messageIds);
+	}
+
+	@Override
+	public int reclaimExpiredLeases() {
+		return storage.reclaimExpiredLeases();
+	}
+
+	@Override
+	public int releaseDueRetries() {
+		return storage.releaseDueRetries();
+	}
+
+	@Override
+	public void close() {
+		storage.close();
+	}
+}
@@ -0,0 +1,118 @@
+package io.github.djd.outbox.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * {@link OutboxMetrics} adapter for Micrometer. Requires {@code io.micrometer:micrometer-core}
+ * on the classpath, which the library declares as an optional dependency.
+ * <p>
+ * Meters, all prefixed with {@code outbox.}: {@code save}, {@code claim} and {@code ack} timers
+ * with matching {@code .batch} size summaries; {@code publish} timers tagged with {@code topic}
+ * and {@code outcome}; the {@code publish.lag} timer per topic; and {@code retries} and
+ * {@code failed} counters per topic. Timers publish a percentile histogram, so the p99 lag can be
+ * computed by the monitoring backend, e.g. to drive autoscaling. Per-topic meters are registered
+ * on first use and looked up without allocating afterwards.
+ * </p>
+ */
+public class MicrometerOutboxMetrics implements OutboxMetrics {
+
+	private final MeterRegistry registry;
+	private final Timer saveTimer;
+	private final DistributionSummary saveBatch;
+	private final Timer claimTimer;
+	private final DistributionSummary claimBatch;
+	private final Timer ackTimer;
+	private final DistributionSummary ackBatch;
+	private final Map<String, Timer> publishSuccess = new ConcurrentHashMap<>();
+	private final Map<String, Timer> publishFailure = new ConcurrentHashMap<>();
+	private final Map<String, Timer> lag = new ConcurrentHashMap<>();
+	private final Map<String, Counter> retries = new ConcurrentHashMap<>();
+	private final Map<String, Counter> failed = new ConcurrentHashMap<>();
+	private final Function<String, Timer> newPublishSuccess;
+	private final Function<String, Timer> newPublishFailure;
+	private final Function<String, Timer> newLag;
+	private final Function<String, Counter> newRetries;
+	private final Function<String, Counter> newFailed;
+
+	public MicrometerOutboxMetrics(MeterRegistry registry) {
+		this.registry = registry;
+		this.saveTimer = timer("outbox.save", "Time to save messages to the outbox").register(registry);
+		this.saveBatch = DistributionSummary.builder("outbox.save.batch").description("Messages per save").register(registry);
+		this.claimTimer = timer("outbox.claim", "Time to claim a batch of messages").register(registry);
+		this.claimBatch = DistributionSummary.builder("outbox.claim.batch").description("Messages per claim").register(registry);
+		this.ackTimer = timer("outbox.ack", "Time to acknowledge messages").register(registry);
+		this.ackBatch = DistributionSummary.builder("outbox.ack.batch").description("Messages per acknowledgement").register(registry);
+		// created once, so that looking up a per-topic meter does not allocate a lambda
+		this.newPublishSuccess = topic -> publishTimer(topic, "success");
+		this.newPublishFailure = topic -> publishTimer(topic, "failure");
+		this.newLag = topic -> timer("outbox.publish.lag", "Time from saving a message to publishing it")
+				.tag("topic", topic).register(this.registry);
+		this.newRetries = topic -> Counter.builder("outbox.retries").description("Messages returned to PENDING after failed attempts")
+				.tag("topic", topic).register(this.registry);
+		this.newFailed = topic -> Counter.builder("outbox.failed").description("Messages marked FAILED")
+				.tag("topic", topic).register(this.registry);
+	}
+
+	private static Timer.Builder timer(String name, String description) {
+		return Timer.builder(name).description(description).publishPercentileHistogram();
+	}
+
+	private Timer publishTimer(String topic, String outcome) {
+		return timer("outbox.publish", "Time to publish a message").tag("topic", topic).tag("outcome", outcome).register(registry);
+	}
+
+	@Override
+	public void recordSave(int messages, long durationNanos) {
+		saveTimer.record(durationNanos, TimeUnit.NANOSECONDS);
+		saveBatch.record(messages);
+	}
+
+	@Override
+	public void recordClaim(int messages, long durationNanos) {
+		claimTimer.record(durationNanos, TimeUnit.NANOSECONDS);
+		claimBatch.record(messages);
+	}
+
+	@Override
+	public void recordAck(int messages, long durationNanos) {
+		ackTimer.record(durationNanos, TimeUnit.NANOSECONDS);
+		ackBatch.record(messages);
+	}
+
+	@Override
+	public void recordPublish(String topic, boolean success, long durationNanos) {
+		Timer timer = success
+				? meter(publishSuccess, topic, newPublishSuccess)
+				: meter(publishFailure, topic, newPublishFailure);
+		timer.record(durationNanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public void recordLag(String topic, long lagMillis) {
+		meter(lag, topic, newLag).record(lagMillis, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void recordRetry(String topic) {
+		meter(retries, topic, newRetries).increment();
+	}
+
+	@Override
+	public void recordFailed(String topic) {
+		meter(failed, topic, newFailed).increment();
+	}
+
+	private static <M> M meter(Map<String, M> meters, String topic, Function<String, M> factory) {
+		String name = topic == null ? "" : topic;
+		M meter = meters.get(name);
+		return meter != null ? meter : meters.computeIfAbsent(name, factory);
+	}
+}
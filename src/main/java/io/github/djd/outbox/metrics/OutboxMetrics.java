@@ -0,0 +1,66 @@
+package io.github.djd.outbox.metrics;
+
+/**
+ * Receives measurements from the outbox storage, publishers and processors.
+ * <p>
+ * Implementations are called on the hot path, once per operation, and must neither block nor
+ * allocate per call. Every method defaults to doing nothing, so an implementation only overrides
+ * what it records. Durations are in nanoseconds, the publish lag is in milliseconds.
+ * </p>
+ * <p>
+ * Storages and publishers are instrumented by wrapping them in {@link InstrumentedOutboxStorage}
+ * and {@link InstrumentedMessagePublisher}; processors report retries and failures when the
+ * metrics are set in their config.
+ * </p>
+ */
+public interface OutboxMetrics {
+
+	/**
+	 * Metrics that record nothing, the default everywhere.
+	 */
+	OutboxMetrics NOOP = new OutboxMetrics() {
+	};
+
+	/**
+	 * {@code messages} were saved by one call that took {@code durationNanos}.
+	 */
+	default void recordSave(int messages, long durationNanos) {
+	}
+
+	/**
+	 * One claim ({@code fetchUnprocessedMessages} or {@code claimMessages}) returned {@code messages}
+	 * and took {@code durationNanos}.
+	 */
+	default void recordClaim(int messages, long durationNanos) {
+	}
+
+	/**
+	 * {@code messages} were marked as processed or failed by one call that took {@code durationNanos}.
+	 */
+	default void recordAck(int messages, long durationNanos) {
+	}
+
+	/**
+	 * One publish attempt of a message to {@code topic}.
+	 */
+	default void recordPublish(String topic, boolean success, long durationNanos) {
+	}
+
+	/**
+	 * Time from a message's creation in the outbox until it was published to {@code topic}.
+	 */
+	default void recordLag(String topic, long lagMillis) {
+	}
+
+	/**
+	 * A message to {@code topic} exhausted the in-process attempts and was returned to PENDING for another round.
+	 */
+	default void recordRetry(String topic) {
+	}
+
+	/**
+	 * A message to {@code topic} exhausted all its retries and was marked FAILED.
+	 */
+	default void recordFailed(String topic) {
+	}
+}
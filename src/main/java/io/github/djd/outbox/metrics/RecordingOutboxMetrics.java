@@ -0,0 +1,138 @@
+package io.github.djd.outbox.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link OutboxMetrics} that keeps everything in memory, in {@link LatencyHistogram}s and
+ * counters, without any metrics library. Read the values from a reporter or a health endpoint,
+ * e.g. {@code getPublishLag().valueAtPercentile(99)} for the p99 publish lag.
+ */
+public class RecordingOutboxMetrics implements OutboxMetrics {
+
+	private final LatencyHistogram saveLatency = new LatencyHistogram();
+	private final LatencyHistogram claimLatency = new LatencyHistogram();
+	private final LatencyHistogram claimBatchSize = new LatencyHistogram();
+	private final LatencyHistogram ackLatency = new LatencyHistogram();
+	private final LatencyHistogram publishLatency = new LatencyHistogram();
+	private final LatencyHistogram publishLag = new LatencyHistogram();
+	private final LongAdder saved = new LongAdder();
+	private final LongAdder acknowledged = new LongAdder();
+	private final Map<String, TopicCounters> topics = new ConcurrentHashMap<>();
+
+	@Override
+	public void recordSave(int messages, long durationNanos) {
+		saveLatency.record(durationNanos);
+		saved.add(messages);
+	}
+
+	@Override
+	public void recordClaim(int messages, long durationNanos) {
+		claimLatency.record(durationNanos);
+		claimBatchSize.record(messages);
+	}
+
+	@Override
+	public void recordAck(int messages, long durationNanos) {
+		ackLatency.record(durationNanos);
+		acknowledged.add(messages);
+	}
+
+	@Override
+	public void recordPublish(String topic, boolean success, long durationNanos) {
+		publishLatency.record(durationNanos);
+		TopicCounters counters = countersOf(topic);
+		if (success) {
+			counters.published.increment();
+		} else {
+			counters.publishFailures.increment();
+		}
+	}
+
+	@Override
+	public void recordLag(String topic, long lagMillis) {
+		publishLag.record(lagMillis);
+	}
+
+	@Override
+	public void recordRetry(String topic) {
+		countersOf(topic).retries.increment();
+	}
+
+	@Override
+	public void recordFailed(String topic) {
+		countersOf(topic).failed.increment();
+	}
+
+	private TopicCounters countersOf(String topic) {
+		String name = topic == null ? "" : topic;
+		TopicCounters counters = topics.get(name);
+		if (counters == null) {
+			counters = topics.computeIfAbsent(name, t -> new TopicCounters());
+		}
+		return counters;
+	}
+
+	public LatencyHistogram getSaveLatency() {
+		return saveLatency;
+	}
+
+	public LatencyHistogram getClaimLatency() {
+		return claimLatency;
+	}
+
+	public LatencyHistogram getClaimBatchSize() {
+		return claimBatchSize;
+	}
+
+	public LatencyHistogram getAckLatency() {
+		return ackLatency;
+	}
+
+	public LatencyHistogram getPublishLatency() {
+		return publishLatency;
+	}
+
+	/**
+	 * Milliseconds from the creation of a message to its publication.
+	 */
+	public LatencyHistogram getPublishLag() {
+		return publishLag;
+	}
+
+	public long getSaved() {
+		return saved.sum();
+	}
+
+	public long getAcknowledged() {
+		return acknowledged.sum();
+	}
+
+	public long getPublished(String topic) {
+		TopicCounters counters = topics.get(topic);
+		return counters == null ? 0 : counters.published.sum();
+	}
+
+	public long getPublishFailures(String topic) {
+		TopicCounters counters = topics.get(topic);
+		return counters == null ? 0 : counters.publishFailures.sum();
+	}
+
+	public long getRetries(String topic) {
+		TopicCounters counters = topics.get(topic);
+		return counters == null ? 0 : counters.retries.sum();
+	}
+
+	public long getFailed(String topic) {
+		TopicCounters counters = topics.get(topic);
+		return counters == null ? 0 : counters.failed.sum();
+	}
+
+	private static class TopicCounters {
+		final LongAdder published = new LongAdder();
+		final LongAdder publishFailures = new LongAdder();
+		final LongAdder retries = new LongAdder();
+		final LongAdder failed = new LongAdder();
+	}
+}
@@ -4,5 +4,6 @@ public enum MessageProcessingStatus {
     PENDING,    // Message is waiting to be processed
     IN_PROGRESS, // Message processing has started
     COMPLETED,  // Message processing is successfully completed
-    FAILED      // Message processing has failed
+    FAILED,     // Message processing has failed
+    SCHEDULED   // Message processing has failed and waits for its next attempt
 }
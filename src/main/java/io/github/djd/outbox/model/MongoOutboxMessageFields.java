@@ -2,10 +2,21 @@ package io.github.djd.outbox.model;
 public class MongoOutboxMessageFields {
     public static final String ID = "_id";
     public static final String TOPIC = "messageTopic";
+    public static final String KEY = "messageKey";
     public static final String PAYLOAD = "messagePayload";
+    public static final String PAYLOAD_ENCODING = "payloadEncoding";
     public static final String STATUS = "processingStatus";
     public static final String CREATED_AT = "createdAt";
     public static final String PROCESSED_AT = "processedAt";
     public static final String PROCESSED_BY = "processedByInstance";
     public static final String RETRY_COUNT = "retryCount";
+    public static final String PRIORITY = "priority";
+    public static final String CLAIM_TOKEN = "claimToken";
+    public static final String LEASE_EXPIRES_AT = "leaseExpiresAt";
+    public static final String PARTITION = "partition";
+    public static final String LAST_ERROR = "lastError";
+    public static final String ERROR_TYPE = "errorType";
+    public static final String ATTEMPTS = "attempts";
+    public static final String DEAD_LETTERED_AT = "deadLetteredAt";
+    public static final String NEXT_ATTEMPT_AT = "nextAttemptAt";
 }
\ No newline at end of file
@@ -1,17 +1,23 @@
 package io.github.djd.outbox.model;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
 import java.util.UUID;
 
+import org.bson.codecs.pojo.annotations.BsonIgnore;
+
 public class OutboxMessage {
     private String id;
     private String topic;
+    private String key;
     private String payload;
+    private byte[] binaryPayload; // set instead of payload for binary (e.g. Avro, Protobuf) messages
     private MessageProcessingStatus status;
     private Date createdAt;
     private Date processedAt;
     private String processedBy;
     private int retryCount;
+    private int priority; // 0 by default, higher is claimed first
     
     public OutboxMessage() {}
     
@@ -24,6 +30,25 @@ public class OutboxMessage {
         this.retryCount = 0;
 	}    
 
+    /**
+     * @param key Optional ordering key; messages with the same key are published in order.
+     *            Messages without a key are ordered per topic.
+     */
+    public OutboxMessage(String topic, String key, String payload) {
+    	this(topic, payload);
+    	this.key = key;
+    }
+
+    /**
+     * Creates a message with a binary payload, which is stored and published as raw bytes.
+     *
+     * @param key Optional ordering key; messages with the same key are published in order.
+     */
+    public OutboxMessage(String topic, String key, byte[] payload) {
+    	this(topic, key, (String) null);
+    	this.binaryPayload = payload;
+    }
+
 	public OutboxMessage(String id, String topic, String payload, MessageProcessingStatus status, Date createdAt,
 			Date processedAt, String processedBy, int retryCount) {
 		super();
@@ -45,10 +70,40 @@ public class OutboxMessage {
 		return topic;
 	}
 
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * The text payload, or null for a binary message.
+	 */
 	public String getPayload() {
 		return payload;
 	}
 
+	/**
+	 * The binary payload, or null for a text message.
+	 */
+	public byte[] getBinaryPayload() {
+		return binaryPayload;
+	}
+
+	@BsonIgnore // derived, not stored by the POJO codec
+	public boolean isBinary() {
+		return binaryPayload != null;
+	}
+
+	/**
+	 * The payload as bytes: the binary payload as is, or the text payload encoded as UTF-8.
+	 */
+	@BsonIgnore // derived, not stored by the POJO codec
+	public byte[] getPayloadBytes() {
+		if (binaryPayload != null) {
+			return binaryPayload;
+		}
+		return payload == null ? null : payload.getBytes(StandardCharsets.UTF_8);
+	}
+
 	public MessageProcessingStatus getStatus() {
 		return status;
 	}
@@ -69,6 +124,14 @@ public class OutboxMessage {
 		return retryCount;
 	}
 
+	/**
+	 * Claim priority: messages with a higher priority are claimed before older messages with a
+	 * lower one. 0 by default.
+	 */
+	public int getPriority() {
+		return priority;
+	}
+
 	// define the setter for the mutable fields
 	public void setStatus(MessageProcessingStatus status) {
 		this.status = status;
@@ -85,5 +148,28 @@ public class OutboxMessage {
 	public void setRetryCount(int retryCount) {
 		this.retryCount = retryCount;
 	}
+
+	public void setKey(String key) {
+		this.key = key;
+	}
+
+	public void setPayload(String payload) {
+		this.payload = payload;
+	}
+
+	public void setBinaryPayload(byte[] binaryPayload) {
+		this.binaryPayload = binaryPayload;
+	}
+
+	/**
+	 * @param priority 0 (the default) or higher; higher priorities are claimed first.
+	 * @throws IllegalArgumentException if {@code priority} is negative.
+	 */
+	public void setPriority(int priority) {
+		if (priority < 0) {
+			throw new IllegalArgumentException("The priority must not be negative: " + priority);
+		}
+		this.priority = priority;
+	}
     
 }
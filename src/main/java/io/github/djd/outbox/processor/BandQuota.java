@@ -0,0 +1,16 @@
+package io.github.djd.outbox.processor;
+
+/**
+ * Lanes reserved for one priority band, see
+ * {@link PollingProcessorConfig#withPriorityBand(int, int, int)}.
+ */
+class BandQuota {
+
+	final int workerLanes;
+	final int maxInFlight;
+
+	BandQuota(int workerLanes, int maxInFlight) {
+		this.workerLanes = workerLanes;
+		this.maxInFlight = maxInFlight;
+	}
+}
@@ -1,27 +1,73 @@
 package io.github.djd.outbox.processor;
 
+import static io.github.djd.outbox.model.MongoOutboxMessageFields.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
+import org.bson.BsonDocument;
 import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.mongodb.MongoException;
-import com.mongodb.client.MongoClient;
-import com.mongodb.client.MongoClients;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
 import com.mongodb.client.MongoCollection;
-import com.mongodb.client.MongoCursor;
-import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
 import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
 
-import io.github.djd.outbox.exception.MessagePublishingException;
+import io.github.djd.outbox.model.MessageProcessingStatus;
 import io.github.djd.outbox.model.OutboxMessage;
 import io.github.djd.outbox.publisher.MessagePublisher;
 import io.github.djd.outbox.storage.OutboxStorage;
-import io.github.djd.outbox.storage.OutboxUtil;
 
+/**
+ * Publishes outbox messages as they are inserted, by listening to a change stream on the
+ * outbox collection.
+ * <p>
+ * The change stream is filtered on the server to inserts of PENDING messages, so the
+ * processor's own acknowledgements do not come back through the stream. Announced messages are
+ * claimed by id before they are published, like messages claimed by polling: the leases of the
+ * messages being published are renewed, and expired leases are reclaimed. An announced message
+ * that another instance holds, e.g. one that was still claimed by the previous run after a
+ * restart, is claimed again every reclaim interval until it can be claimed or is no longer in
+ * progress. When a checkpoint collection is given, resume tokens are checkpointed in batches and
+ * the stream resumes from the last checkpoint on start, so messages inserted while the processor
+ * was down are not missed.
+ * </p>
+ * <p>
+ * Messages that become PENDING again without a new insert event (an expired lease, a failed
+ * attempt, a release) are claimed by a low-rate poll every redelivery interval, see
+ * {@link CDCProcessorConfig#withRedeliveryInterval(long)}.
+ * </p>
+ * <p>
+ * A single reader thread consumes the stream and hands the messages to ordered worker lanes
+ * through a bounded buffer; when the buffer is full the reader stops pulling from the cursor.
+ * Failed publishes are retried with exponential backoff on a timer, never on the reader thread.
+ * A checkpoint only ever covers events whose processing has finished. After an error the stream
+ * is reopened from the last checkpoint.
+ * </p>
+ */
 public class CDCProcessor implements MessageProcessor {
 	
 	private static final Logger logger = LoggerFactory.getLogger(CDCProcessor.class);
@@ -29,92 +75,425 @@ public class CDCProcessor implements MessageProcessor {
     private final OutboxStorage storage;
     private final MessagePublisher publisher;
     private MongoCollection<Document> collection;
-    private final ExecutorService executor;
+    private final ChangeStreamCheckpointer checkpointer; // null when resuming is disabled
+    private final CDCProcessorConfig config;
+    private final ExecutorService executor; // reads the change stream
+    private final ClaimMaintenance maintenance; // renews the leases of claimed messages
+    private OrderedLaneDispatcher dispatcher; // publishes
+    private TimerWheel retryWheel; // re-dispatches failed messages after their backoff
+    private final Deque<TrackedEvent> unfinishedEvents = new ArrayDeque<>(); // in stream order, reader thread only
+    private final Map<String, TrackedEvent> contested = new LinkedHashMap<>(); // held by another instance, reader thread only
+    private BsonDocument resumeToken; // where the stream is reopened, reader thread only
+    private long contestedClaimedAt; // reader thread only
+    private long redeliveredAt; // reader thread only
     private volatile boolean running = true;
     
     // Retry parameters
     private static final int MAX_RETRIES = 3;
-    private static final long INITIAL_BACKOFF_TIME_MS = 1000; // 1 second
-    private static final long MAX_BACKOFF_TIME_MS = 30000; // 30 seconds
+    private static final long RETRY_WHEEL_TICK_MS = 10;
+    private static final int RETRY_WHEEL_BUCKETS = 512;
+
+    // Change stream parameters
+    private static final long MAX_AWAIT_TIME_MS = 1000; // how often an idle stream checks for shutdown
+    private static final long RECONNECT_DELAY_MS = 1000;
+    private static final int CHECKPOINT_BATCH_SIZE = 100;
+    private static final long CHECKPOINT_INTERVAL_MS = 1000;
+    private static final int CHANGE_STREAM_HISTORY_LOST = 286;
+    private static final long SHUTDOWN_TIMEOUT_MS = 30000;
+    private static final int MAX_CLAIM_BATCH_SIZE = 500;
 
     public CDCProcessor(OutboxStorage storage, MessagePublisher publisher, MongoCollection<Document> collection) {
+        this(storage, publisher, collection, null);
+    }
+
+    /**
+     * @param checkpointCollection Collection the resume token is checkpointed to, typically a small
+     *        collection next to the outbox collection. If null, the stream starts from "now" on every start.
+     */
+    public CDCProcessor(OutboxStorage storage, MessagePublisher publisher, MongoCollection<Document> collection,
+    		MongoCollection<Document> checkpointCollection) {
+        this(storage, publisher, collection, checkpointCollection, new CDCProcessorConfig());
+    }
+
+    public CDCProcessor(OutboxStorage storage, MessagePublisher publisher, MongoCollection<Document> collection,
+    		MongoCollection<Document> checkpointCollection, CDCProcessorConfig config) {
         this.storage = storage;
         this.publisher = publisher;
         this.collection = collection;
+        this.config = config;
+        this.checkpointer = checkpointCollection == null ? null
+        		: new ChangeStreamCheckpointer(checkpointCollection, collection.getNamespace().getFullName(), CHECKPOINT_BATCH_SIZE, CHECKPOINT_INTERVAL_MS);
         this.executor = Executors.newSingleThreadExecutor();
+        this.maintenance = new ClaimMaintenance(storage);
     }
 
     @Override
     public void startProcessing() {
     	logger.trace("startProcessing");
-        executor.submit(() -> {
-            try (MongoClient client = MongoClients.create()) {
-                MongoDatabase database = client.getDatabase(collection.getNamespace().getDatabaseName());
-                MongoCollection<Document> outboxCollection = database.getCollection(collection.getNamespace().getCollectionName());
-
-                // Listen for new messages in the outbox table using MongoDB Change Streams.
-                try (MongoCursor<ChangeStreamDocument<Document>> cursor = outboxCollection.watch().iterator()) {
-                	logger.info("Processing started.");
-                    while (running && cursor.hasNext()) {
-                        ChangeStreamDocument<Document> change = cursor.next();
-                        Document doc = change.getFullDocument();
-                        
-                        if (doc != null) {
-                            OutboxMessage message = OutboxUtil.fromDocument(doc);
-                            
-                            // Retry logic for message publishing
-                            boolean success = false;
-                            int retries = 0;
-                            while (!success && retries < MAX_RETRIES) {
-                                try {
-                                    publisher.publish(message);
-                                    storage.markMessageAsProcessed(message.getId()); // Mark message as processed
-                                    success = true; // Publish successful
-                                } catch (MessagePublishingException e) {
-                                    retries++;
-                                    long backoffTime = Math.min(INITIAL_BACKOFF_TIME_MS * (1L << retries), MAX_BACKOFF_TIME_MS);
-                                    logger.error("Failed to publish message with ID: {}. Attempt {} of {}. Retrying in {} ms...", message.getId(), retries, MAX_RETRIES, backoffTime, e);
-                                    storage.markMessageAsFailed(message.getId(), MAX_RETRIES);
-                                    
-                                    // Sleep before retrying
-                                    try {
-                                        TimeUnit.MILLISECONDS.sleep(backoffTime);
-                                    } catch (InterruptedException ie) {
-                                        Thread.currentThread().interrupt();
-                                        logger.error("Retry sleep was interrupted.", ie);
-                                    }
-                                }
-                            }
-
-                            if (!success) {
-                            	logger.error("Failed to publish message with ID: {} after {} retries.", message.getId(), MAX_RETRIES);
-                                // Optionally: Add message to a dead-letter queue (DLQ) or further failure handling.
-                            }
-                        }
-                    }
+    	dispatcher = new OrderedLaneDispatcher(config.getWorkerLanes(), config.getBufferCapacity(), config.isVirtualThreads());
+    	retryWheel = new TimerWheel("outbox-cdc-retry", RETRY_WHEEL_TICK_MS, RETRY_WHEEL_BUCKETS);
+    	maintenance.start(config.getHeartbeatIntervalMs(), config.getReclaimIntervalMs(), config.getRetryReleaseIntervalMs());
+        executor.submit(this::follow);
+    }
+
+    /**
+     * Follows the change stream until the processor is stopped, reopening it after errors from
+     * the last checkpoint (without a checkpointer, from the last event read). Events delivered
+     * again are skipped by the claim if their messages are still in flight.
+     */
+    private void follow() {
+    	boolean loaded = checkpointer == null;
+    	while (running) {
+    		try {
+    			if (!loaded) {
+    				resumeToken = checkpointer.load();
+    				loaded = true;
+    			}
+    			watch();
+    		} catch (MongoException e) {
+    			if (resumeToken != null && e.getCode() == CHANGE_STREAM_HISTORY_LOST) {
+    				// The checkpoint fell out of the oplog, the gap is picked up by the redelivery poll
+    				logger.error("Resume token is no longer in the oplog, restarting the change stream from now.");
+    				resetCheckpoint();
+    				continue;
+    			}
+    			logger.error("MongoDB error while processing change stream, reconnecting: " + e.getMessage());
+    			try {
+    				TimeUnit.MILLISECONDS.sleep(RECONNECT_DELAY_MS);
+    			} catch (InterruptedException ie) {
+    				Thread.currentThread().interrupt();
+    				return;
+    			}
+    		} catch (InterruptedException e) {
+    			Thread.currentThread().interrupt();
+    			logger.error("Change stream reader interrupted, shutting down...");
+    			return;
+    		} catch (Exception e) {
+    			logger.error("Unexpected error during CDC processing: ", e);
+    			return;
+    		}
+    	}
+    }
+
+    private void resetCheckpoint() {
+    	resumeToken = null;
+    	try {
+    		if (checkpointer != null) {
+    			checkpointer.reset();
+    		}
+    	} catch (MongoException e) {
+    		logger.error("Failed to reset the change stream checkpoint: " + e.getMessage());
+    	}
+    }
+
+    /**
+     * Processes the change stream from {@link #resumeToken} until the processor is stopped.
+     */
+    private void watch() throws InterruptedException {
+        ChangeStreamIterable<Document> changeStream = collection.watch(pendingInsertsPipeline())
+        		.maxAwaitTime(MAX_AWAIT_TIME_MS, TimeUnit.MILLISECONDS);
+        if (resumeToken != null) {
+        	changeStream = changeStream.resumeAfter(resumeToken);
+        	logger.info("Resuming change stream.");
+        }
+
+        // Listen for new messages in the outbox table using MongoDB Change Streams.
+        Map<String, TrackedEvent> announced = new LinkedHashMap<>(); // by message id, in stream order, not yet dispatched
+        try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = changeStream.cursor()) {
+        	logger.info("Processing started.");
+            while (running) {
+                ChangeStreamDocument<Document> change = cursor.tryNext();
+                if (change != null && change.getDocumentKey() != null) {
+                	announced.put(change.getDocumentKey().getString("_id").getValue(), track(change.getResumeToken(), false));
+                } else if (change == null) {
+                	// Also advances past events filtered out on the server while the stream is idle
+                	track(cursor.getResumeToken(), true);
+                }
+                if (!announced.isEmpty() && (change == null || cursor.available() == 0 || announced.size() >= MAX_CLAIM_BATCH_SIZE)) {
+                	claimAndDispatch(announced);
+                }
+                redeliver();
+                if (checkpointer == null && announced.isEmpty() && contested.isEmpty()) {
+                	resumeToken = cursor.getResumeToken();
                 }
-            } catch (MongoException e) {
-            	logger.error("MongoDB error while processing change stream: " + e.getMessage());
-            } catch (Exception e) {
-            	logger.error("Unexpected error during CDC processing: " + e.getMessage());
+                checkpoint();
             }
-        });
+        } finally {
+        	forgetUndispatched(announced);
+        	if (checkpointer != null) {
+        		checkpoint();
+        		checkpointer.flush();
+        	}
+        }
+    }
+
+    /**
+     * Claims the announced messages in one call and dispatches the claimed ones in stream order,
+     * removing each from {@code announced} once handled. A message that another instance holds
+     * IN_PROGRESS is moved to {@link #contested}, its event unfinished: that instance may die
+     * before publishing it. The events of all other messages count as finished, as they are
+     * settled, published by this instance already, or PENDING again for the redelivery poll.
+     */
+    private void claimAndDispatch(Map<String, TrackedEvent> announced) throws InterruptedException {
+    	Map<String, OutboxMessage> claimed = new HashMap<>();
+    	for (OutboxMessage message : maintenance.track(storage.claimMessages(announced.keySet()))) {
+    		claimed.put(message.getId(), message);
+    	}
+    	Set<String> heldElsewhere = new HashSet<>();
+    	if (claimed.size() < announced.size()) {
+    		List<String> unclaimed = new ArrayList<>();
+    		for (String messageId : announced.keySet()) {
+    			if (!claimed.containsKey(messageId) && !maintenance.isTracked(messageId)) {
+    				unclaimed.add(messageId);
+    			}
+    		}
+    		heldElsewhere = inProgress(unclaimed);
+    		logger.debug("{} of {} announced messages were not claimable, {} are in progress elsewhere.",
+    				announced.size() - claimed.size(), announced.size(), heldElsewhere.size());
+    	}
+    	Map<String, TrackedEvent> held = new LinkedHashMap<>();
+    	try {
+    		for (Iterator<Map.Entry<String, TrackedEvent>> it = announced.entrySet().iterator(); it.hasNext();) {
+    			Map.Entry<String, TrackedEvent> entry = it.next();
+    			OutboxMessage message = claimed.get(entry.getKey());
+    			if (message != null) {
+    				// Blocks while the buffer is full, which stops reading from the cursor
+    				dispatch(message, 1, entry.getValue());
+    			} else if (heldElsewhere.contains(entry.getKey())) {
+    				held.put(entry.getKey(), entry.getValue());
+    			} else {
+    				entry.getValue().finished = true;
+    			}
+    			it.remove();
+    		}
+    	} finally {
+    		contested.putAll(held);
+    	}
+    }
+
+    /**
+     * The ids among {@code messageIds} of messages that are IN_PROGRESS.
+     */
+    private Set<String> inProgress(Collection<String> messageIds) {
+    	Set<String> ids = new HashSet<>();
+    	if (messageIds.isEmpty()) {
+    		return ids;
+    	}
+    	for (Document doc : collection.find(Filters.and(Filters.in(ID, messageIds),
+    			Filters.eq(STATUS, MessageProcessingStatus.IN_PROGRESS.name()))).projection(Projections.include(ID))) {
+    		ids.add(doc.getString(ID));
+    	}
+    	return ids;
+    }
+
+    /**
+     * Runs on the reader thread between events: claims the {@link #contested} messages again every
+     * reclaim interval, so that the ones whose lease was reclaimed are published and the others
+     * finish once they are settled, and claims the messages that became PENDING again without an
+     * insert event every redelivery interval.
+     */
+    private void redeliver() throws InterruptedException {
+    	long now = System.currentTimeMillis();
+    	if (!contested.isEmpty() && now - contestedClaimedAt >= config.getReclaimIntervalMs()) {
+    		contestedClaimedAt = now;
+    		claimAndDispatch(contested);
+    	}
+    	if (now - redeliveredAt >= config.getRedeliveryIntervalMs()) {
+    		redeliveredAt = now;
+    		// Newer messages are announced by the change stream
+    		List<OutboxMessage> messages = maintenance.track(storage.fetchUnprocessedMessages(MAX_CLAIM_BATCH_SIZE,
+    				new Date(now - config.getRedeliveryIntervalMs())));
+    		if (!messages.isEmpty()) {
+    			logger.info("Redelivering {} messages that are PENDING again.", messages.size());
+    		}
+    		for (OutboxMessage message : messages) {
+    			dispatch(message, 1, new TrackedEvent(null, false)); // outside the stream, nothing to checkpoint
+    		}
+    	}
     }
 
+    /**
+     * Drops the events from the first one that was never dispatched on, including the contested
+     * ones, so that no checkpoint passes them; the reopened stream delivers them again.
+     */
+    private void forgetUndispatched(Map<String, TrackedEvent> announced) {
+    	Set<TrackedEvent> undispatched = new HashSet<>(announced.values());
+    	undispatched.addAll(contested.values());
+    	contested.clear();
+    	TrackedEvent first = null;
+    	for (TrackedEvent event : unfinishedEvents) {
+    		if (undispatched.contains(event)) {
+    			first = event;
+    			break;
+    		}
+    	}
+    	if (first != null) {
+    		while (unfinishedEvents.pollLast() != first) {
+    		}
+    	}
+    }
+
+    /**
+     * Server-side filter keeping only inserts of PENDING messages, projected to the message id;
+     * the messages themselves are read when they are claimed.
+     */
+    static List<Bson> pendingInsertsPipeline() {
+    	return Arrays.asList(
+    			pendingInsertsMatch(),
+    			Aggregates.project(Projections.include("operationType", "documentKey")));
+    }
+
+    /**
+     * Change stream stage keeping only inserts of PENDING messages.
+     */
+    private static Bson pendingInsertsMatch() {
+    	return Aggregates.match(Filters.and(
+    			Filters.eq("operationType", OperationType.INSERT.getValue()),
+    			Filters.eq("fullDocument." + STATUS, MessageProcessingStatus.PENDING.name())));
+    }
+
+    private TrackedEvent track(BsonDocument resumeToken, boolean finished) {
+    	TrackedEvent event = new TrackedEvent(resumeToken, finished);
+    	if (checkpointer != null && resumeToken != null) {
+    		unfinishedEvents.addLast(event);
+    	}
+    	return event;
+    }
+
+    /**
+     * Records the resume token of the latest event up to which all events have finished.
+     */
+    private void checkpoint() {
+    	if (checkpointer == null) {
+    		return;
+    	}
+    	TrackedEvent lastFinished = null;
+    	while (!unfinishedEvents.isEmpty() && unfinishedEvents.peekFirst().finished) {
+    		lastFinished = unfinishedEvents.pollFirst();
+    	}
+    	if (lastFinished != null) {
+    		checkpointer.record(lastFinished.resumeToken);
+    		resumeToken = lastFinished.resumeToken;
+    	}
+    }
+
+    private void dispatch(OutboxMessage message, int attempt, TrackedEvent event) throws InterruptedException {
+    	dispatcher.dispatch(OrderedLaneDispatcher.laneKey(message), () -> publish(message, attempt, event));
+    }
+
+    /**
+     * Publishes the message once. On failure, the next attempt is scheduled on the retry wheel
+     * after the configured backoff and the message's ordering key is parked, so that the lane
+     * carries on with other keys in the meantime while the later messages of this key wait. Unless a retry
+     * is scheduled, the event is finished however the attempt ends; a message whose acknowledgement
+     * fails stays claimed until its lease expires.
+     */
+    private void publish(OutboxMessage message, int attempt, TrackedEvent event) {
+    	boolean retryScheduled = false;
+        try {
+        	try {
+        		publisher.publish(message);
+        	} catch (Exception e) {
+        		if (attempt < MAX_RETRIES) {
+        			long backoffTime = config.getRetryBackoff().delayMs(attempt);
+        			logger.error("Failed to publish message with ID: {}. Attempt {} of {}. Retrying in {} ms...", message.getId(), attempt, MAX_RETRIES, backoffTime, e);
+        			dispatcher.park(OrderedLaneDispatcher.laneKey(message));
+        			scheduleRetry(message, attempt + 1, event, backoffTime);
+        			retryScheduled = true;
+        			return;
+        		}
+        		logger.error("Failed to publish message with ID: {} after {} retries.", message.getId(), MAX_RETRIES);
+        		if (message.getRetryCount() >= MAX_RETRIES) {
+        			config.getMetrics().recordFailed(message.getTopic());
+        		} else {
+        			config.getMetrics().recordRetry(message.getTopic());
+        		}
+        		maintenance.untrack(message.getId());
+        		storage.markMessageAsFailed(message.getId(), MAX_RETRIES, e);
+        		return;
+        	}
+            maintenance.untrack(message.getId());
+            storage.markMessageAsProcessed(message.getId()); // Mark message as processed
+        } catch (Exception e) {
+        	logger.error("Failed to settle message with ID: {}.", message.getId(), e);
+        } finally {
+        	if (!retryScheduled) {
+        		event.finished = true;
+        	}
+        }
+    }
+
+    private void scheduleRetry(OutboxMessage message, int attempt, TrackedEvent event, long backoffTime) {
+    	retryWheel.schedule(() -> retry(message, attempt, event), backoffTime);
+    }
+
+    /**
+     * Runs on the retry wheel: queues the next attempt on the message's lane, ahead of the later
+     * messages of its parked ordering key.
+     */
+    private void retry(OutboxMessage message, int attempt, TrackedEvent event) {
+    	try {
+    		if (running) {
+    			dispatcher.resume(OrderedLaneDispatcher.laneKey(message), () -> publish(message, attempt, event));
+    			return;
+    		}
+    	} catch (RejectedExecutionException e) {
+    		// Stopped in between
+    	}
+    	// Shutting down; the message is released with the leases and the checkpoint stays before it
+    	logger.warn("Retry of message with ID: {} dropped during shutdown.", message.getId());
+    }
+
+    /**
+     * Stops reading the stream, lets the lanes finish the messages they hold, then releases what
+     * is still claimed. If publishing does not finish in time, the remaining claims are left to
+     * expire rather than released while still in flight.
+     */
     @Override
     public void stopProcessing() {
     	logger.trace("stopProcessing");
         running = false;
         try {
-			publisher.close();
+        	boolean drained = true;
 			if (executor != null && !executor.isShutdown()) {
 	            executor.shutdown();
-	            logger.info("Processing stopped.");
+	            drained = executor.awaitTermination(MAX_AWAIT_TIME_MS * 2, TimeUnit.MILLISECONDS);
 	        }
+			if (retryWheel != null) {
+				retryWheel.stop(); // waiting retries are released with the leases below
+			}
+			if (dispatcher != null) {
+				drained &= dispatcher.shutdown(SHUTDOWN_TIMEOUT_MS);
+				maintenance.stop(SHUTDOWN_TIMEOUT_MS);
+				if (drained) {
+					// Hand whatever is still claimed back to the other instances
+					storage.releaseLeases();
+				} else {
+					logger.warn("Publishing did not finish within {} ms, leaving {} claimed messages to expire.",
+							SHUTDOWN_TIMEOUT_MS, maintenance.claimedCount());
+				}
+			}
+			publisher.close();
+			logger.info("Processing stopped.");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.error("Interrupted while stopping CDCProcessor. ", e);
 		} catch (Exception e) {
 			logger.error("Error stopping CDCProcessor. ", e);		
 		}        
     }
-    
-    
+
+    /**
+     * A change event whose resume token may only be checkpointed once it and all events
+     * before it have finished processing.
+     */
+    private static class TrackedEvent {
+    	private final BsonDocument resumeToken;
+    	private volatile boolean finished;
+
+    	TrackedEvent(BsonDocument resumeToken, boolean finished) {
+    		this.resumeToken = resumeToken;
+    		this.finished = finished;
+    	}
+    }
 }
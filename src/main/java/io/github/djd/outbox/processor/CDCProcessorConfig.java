@@ -0,0 +1,125 @@
+package io.github.djd.outbox.processor;
+
+import io.github.djd.outbox.metrics.OutboxMetrics;
+import io.github.djd.outbox.storage.RetryBackoff;
+
+/**
+ * Tuning options for {@link CDCProcessor}.
+ */
+public class CDCProcessorConfig {
+
+	private int workerLanes = 8;
+	private int bufferCapacity = 1000;
+	private boolean virtualThreads = false;
+	private OutboxMetrics metrics = OutboxMetrics.NOOP;
+	private RetryBackoff retryBackoff = new RetryBackoff();
+	private long heartbeatIntervalMs = 5000;
+	private long reclaimIntervalMs = 5000;
+	private long retryReleaseIntervalMs = 1000;
+	private long redeliveryIntervalMs = 5000;
+
+	public int getWorkerLanes() {
+		return workerLanes;
+	}
+
+	public int getBufferCapacity() {
+		return bufferCapacity;
+	}
+
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	public OutboxMetrics getMetrics() {
+		return metrics;
+	}
+
+	public RetryBackoff getRetryBackoff() {
+		return retryBackoff;
+	}
+
+	public long getHeartbeatIntervalMs() {
+		return heartbeatIntervalMs;
+	}
+
+	public long getReclaimIntervalMs() {
+		return reclaimIntervalMs;
+	}
+
+	public long getRetryReleaseIntervalMs() {
+		return retryReleaseIntervalMs;
+	}
+
+	public long getRedeliveryIntervalMs() {
+		return redeliveryIntervalMs;
+	}
+
+	/**
+	 * Publishes change events on {@code workerLanes} ordered lanes (per ordering key, or per topic).
+	 * At most {@code bufferCapacity} events are read ahead of publishing; once the buffer is full,
+	 * the change stream is not read any further until the lanes catch up.
+	 */
+	public CDCProcessorConfig withWorkerLanes(int workerLanes, int bufferCapacity) {
+		this.workerLanes = workerLanes;
+		this.bufferCapacity = bufferCapacity;
+		return this;
+	}
+
+	/**
+	 * Runs the worker lanes on virtual threads when the JVM supports them (Java 21+).
+	 */
+	public CDCProcessorConfig withVirtualThreads(boolean virtualThreads) {
+		this.virtualThreads = virtualThreads;
+		return this;
+	}
+
+	/**
+	 * Reports messages that are returned for another round or marked FAILED to {@code metrics}.
+	 * Latencies and publish lag are reported by the storage and publisher when they are wrapped
+	 * in {@link io.github.djd.outbox.metrics.InstrumentedOutboxStorage} and
+	 * {@link io.github.djd.outbox.metrics.InstrumentedMessagePublisher}.
+	 */
+	public CDCProcessorConfig withMetrics(OutboxMetrics metrics) {
+		this.metrics = metrics;
+		return this;
+	}
+
+	/**
+	 * Delay between the attempts to publish a message; 1 s doubling up to 30 s with 20% jitter by default.
+	 */
+	public CDCProcessorConfig withRetryBackoff(RetryBackoff backoff) {
+		this.retryBackoff = backoff;
+		return this;
+	}
+
+	/**
+	 * Renews the leases of the messages being published every {@code heartbeatIntervalMs}, which
+	 * must be well below the storage's lease duration, and returns expired leases to PENDING every
+	 * {@code reclaimIntervalMs}; 5 s each by default.
+	 */
+	public CDCProcessorConfig withLeaseMaintenance(long heartbeatIntervalMs, long reclaimIntervalMs) {
+		this.heartbeatIntervalMs = heartbeatIntervalMs;
+		this.reclaimIntervalMs = reclaimIntervalMs;
+		return this;
+	}
+
+	/**
+	 * How often messages the storage scheduled for a later attempt are checked and, once due,
+	 * returned to PENDING (see {@link io.github.djd.outbox.storage.OutboxStorage#releaseDueRetries()}).
+	 */
+	public CDCProcessorConfig withRetryReleaseInterval(long retryReleaseIntervalMs) {
+		this.retryReleaseIntervalMs = retryReleaseIntervalMs;
+		return this;
+	}
+
+	/**
+	 * How often PENDING messages created at least {@code redeliveryIntervalMs} ago are claimed by
+	 * polling; 5 s by default. These are messages that became PENDING again without a new insert
+	 * event, e.g. after their lease expired, after a failed attempt or when a stopping instance
+	 * released them, and messages inserted while the change stream history was lost.
+	 */
+	public CDCProcessorConfig withRedeliveryInterval(long redeliveryIntervalMs) {
+		this.redeliveryIntervalMs = redeliveryIntervalMs;
+		return this;
+	}
+}
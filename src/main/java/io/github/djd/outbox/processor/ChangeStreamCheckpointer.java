@@ -0,0 +1,105 @@
+package io.github.djd.outbox.processor;
+
+import java.util.Date;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOptions;
+
+/**
+ * Persists the resume token of a change stream so that processing continues where it
+ * stopped after a restart.
+ * <p>
+ * Tokens are written in batches: at most once every {@code batchSize} recorded tokens or
+ * every {@code intervalMs}, whichever comes first. Only tokens of fully processed events may
+ * be recorded; after a crash, the events since the last checkpoint are delivered again.
+ * </p>
+ */
+class ChangeStreamCheckpointer {
+
+	private static final Logger logger = LoggerFactory.getLogger(ChangeStreamCheckpointer.class);
+
+	private static final String RESUME_TOKEN = "resumeToken";
+	private static final String UPDATED_AT = "updatedAt";
+
+	private final MongoCollection<Document> checkpointCollection;
+	private final String checkpointId;
+	private final int batchSize;
+	private final long intervalMs;
+
+	private BsonDocument pendingToken;
+	private int pendingCount;
+	private long lastWriteMs = System.currentTimeMillis();
+
+	ChangeStreamCheckpointer(MongoCollection<Document> checkpointCollection, String checkpointId, int batchSize, long intervalMs) {
+		this.checkpointCollection = checkpointCollection;
+		this.checkpointId = checkpointId;
+		this.batchSize = batchSize;
+		this.intervalMs = intervalMs;
+	}
+
+	/**
+	 * @return the last checkpointed resume token, or null if there is none.
+	 */
+	BsonDocument load() {
+		Document checkpoint = checkpointCollection.find(Filters.eq("_id", checkpointId)).first();
+		if (checkpoint == null) {
+			return null;
+		}
+		Document token = checkpoint.get(RESUME_TOKEN, Document.class);
+		return token == null ? null : token.toBsonDocument();
+	}
+
+	/**
+	 * Records the resume token of a processed event, writing it if the batch is full or the
+	 * interval has elapsed.
+	 */
+	void record(BsonDocument resumeToken) {
+		if (resumeToken == null) {
+			return;
+		}
+		pendingToken = resumeToken;
+		pendingCount++;
+		if (pendingCount >= batchSize || System.currentTimeMillis() - lastWriteMs >= intervalMs) {
+			flush();
+		}
+	}
+
+	/**
+	 * Writes the most recently recorded token, if it has not been written yet.
+	 */
+	void flush() {
+		if (pendingToken == null) {
+			return;
+		}
+		try {
+			checkpointCollection.replaceOne(
+					Filters.eq("_id", checkpointId),
+					new Document("_id", checkpointId)
+							.append(RESUME_TOKEN, pendingToken)
+							.append(UPDATED_AT, new Date()),
+					new ReplaceOptions().upsert(true));
+			logger.trace("Checkpointed change stream {} after {} events.", checkpointId, pendingCount);
+			pendingToken = null;
+			pendingCount = 0;
+			lastWriteMs = System.currentTimeMillis();
+		} catch (MongoException e) {
+			logger.error("Failed to checkpoint change stream {}: {}", checkpointId, e.getMessage());
+		}
+	}
+
+	/**
+	 * Forgets the stored token, e.g. because it is no longer in the oplog.
+	 */
+	void reset() {
+		pendingToken = null;
+		pendingCount = 0;
+		checkpointCollection.deleteOne(Filters.eq("_id", checkpointId));
+	}
+}
@@ -0,0 +1,136 @@
+package io.github.djd.outbox.processor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.github.djd.outbox.model.OutboxMessage;
+import io.github.djd.outbox.storage.OutboxStorage;
+
+/**
+ * Background upkeep of the claims of one processor, on one daemon thread.
+ * <p>
+ * The processor registers the messages it claims with {@link #track(List)} and deregisters them
+ * with {@link #untrack(Collection)} before it acknowledges, fails or releases them. Every
+ * heartbeat renews the leases of the tracked messages only, so a claim the processor lost track
+ * of expires. Expired leases of all instances are returned to PENDING every reclaim interval, and
+ * messages the storage scheduled for a later attempt once they are due.
+ * </p>
+ */
+class ClaimMaintenance {
+
+	private static final Logger logger = LoggerFactory.getLogger(ClaimMaintenance.class);
+
+	private final OutboxStorage storage;
+	private final Set<String> claimedIds = ConcurrentHashMap.newKeySet(); // claimed and not yet settled
+	private final ScheduledExecutorService executor;
+
+	ClaimMaintenance(OutboxStorage storage) {
+		this.storage = storage;
+		this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "outbox-maintenance");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Starts renewing leases every {@code heartbeatIntervalMs}, reclaiming expired ones every
+	 * {@code reclaimIntervalMs}, the first time right away, and releasing due retries every
+	 * {@code retryReleaseIntervalMs}.
+	 */
+	void start(long heartbeatIntervalMs, long reclaimIntervalMs, long retryReleaseIntervalMs) {
+		executor.scheduleWithFixedDelay(this::extendLeases, heartbeatIntervalMs, heartbeatIntervalMs, TimeUnit.MILLISECONDS);
+		executor.scheduleWithFixedDelay(this::reclaimExpiredLeases, 0, reclaimIntervalMs, TimeUnit.MILLISECONDS);
+		schedule(this::releaseDueRetries, retryReleaseIntervalMs);
+	}
+
+	/**
+	 * Runs {@code task} every {@code intervalMs} on the maintenance thread, e.g. to flush
+	 * acknowledgements independently of the processor's own schedule.
+	 */
+	void schedule(Runnable task, long intervalMs) {
+		executor.scheduleWithFixedDelay(task, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Registers claimed messages, whose leases are renewed from now on.
+	 *
+	 * @return the messages.
+	 */
+	List<OutboxMessage> track(List<OutboxMessage> messages) {
+		for (OutboxMessage message : messages) {
+			claimedIds.add(message.getId());
+		}
+		return messages;
+	}
+
+	/**
+	 * Stops renewing the leases of the messages; called before they are settled, so that a claim
+	 * whose acknowledgement fails is not renewed forever.
+	 */
+	void untrack(Collection<String> messageIds) {
+		for (String messageId : messageIds) {
+			claimedIds.remove(messageId);
+		}
+	}
+
+	void untrack(String messageId) {
+		claimedIds.remove(messageId);
+	}
+
+	/**
+	 * Whether this processor holds the message and is publishing it.
+	 */
+	boolean isTracked(String messageId) {
+		return claimedIds.contains(messageId);
+	}
+
+	int claimedCount() {
+		return claimedIds.size();
+	}
+
+	/**
+	 * Stops the background tasks, waiting up to {@code timeoutMs} for a running one to finish, so
+	 * that none of them runs alongside the processor's final acknowledgements and release.
+	 */
+	void stop(long timeoutMs) throws InterruptedException {
+		executor.shutdown();
+		executor.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS);
+	}
+
+	private void extendLeases() {
+		if (claimedIds.isEmpty()) {
+			return;
+		}
+		try {
+			storage.extendLeases(new ArrayList<>(claimedIds));
+		} catch (Exception e) {
+			logger.error("Failed to extend leases: ", e);
+		}
+	}
+
+	private void reclaimExpiredLeases() {
+		try {
+			storage.reclaimExpiredLeases();
+		} catch (Exception e) {
+			logger.error("Failed to reclaim expired leases: ", e);
+		}
+	}
+
+	private void releaseDueRetries() {
+		try {
+			storage.releaseDueRetries();
+		} catch (Exception e) {
+			logger.error("Failed to release due retries: ", e);
+		}
+	}
+}
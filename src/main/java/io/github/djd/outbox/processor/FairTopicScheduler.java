@@ -0,0 +1,138 @@
+package io.github.djd.outbox.processor;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.github.djd.outbox.model.OutboxMessage;
+import io.github.djd.outbox.storage.OutboxStorage;
+import io.github.djd.outbox.storage.PriorityRange;
+import io.github.djd.outbox.storage.TopicSelector;
+
+/**
+ * Splits the claim budget of a poll across topics with deficit round robin, so that a topic with
+ * a large backlog cannot starve the others.
+ * <p>
+ * Every configured topic is a class of its own; all other topics share one more class. Per poll,
+ * each class earns a quantum of the budget proportional to its weight and claims up to its
+ * accumulated deficit from its own claim query. A class that comes back short has drained its
+ * backlog and loses its deficit; a class held back by its rate limit keeps it, up to one budget.
+ * The class served first rotates between polls. Budget that idle classes leave over goes to the
+ * classes that are still backlogged, so the poll stays work-conserving.
+ * </p>
+ * <p>
+ * Not thread-safe; it is only used by the polling thread.
+ * </p>
+ */
+class FairTopicScheduler {
+
+	private static final Logger logger = LoggerFactory.getLogger(FairTopicScheduler.class);
+
+	private final List<TopicClass> classes = new ArrayList<>();
+	private final int totalWeight;
+	private int next;
+
+	/**
+	 * @param rateLimits Token bucket per rate-limited topic, see {@link #rateLimits(Map)}; schedulers
+	 *            of different priority bands share them so that a limit holds across the bands.
+	 */
+	FairTopicScheduler(Map<String, TopicQuota> quotas, int defaultWeight, Map<String, TokenBucket> rateLimits) {
+		int weights = 0;
+		for (Map.Entry<String, TopicQuota> entry : quotas.entrySet()) {
+			classes.add(new TopicClass(TopicSelector.only(entry.getKey()), entry.getValue().weight, rateLimits.get(entry.getKey())));
+			weights += entry.getValue().weight;
+		}
+		if (defaultWeight > 0) {
+			classes.add(new TopicClass(TopicSelector.excluding(quotas.keySet()), defaultWeight, null));
+			weights += defaultWeight;
+		}
+		this.totalWeight = weights;
+	}
+
+	static Map<String, TokenBucket> rateLimits(Map<String, TopicQuota> quotas) {
+		Map<String, TokenBucket> rateLimits = new HashMap<>();
+		for (Map.Entry<String, TopicQuota> entry : quotas.entrySet()) {
+			TopicQuota quota = entry.getValue();
+			if (quota.messagesPerSecond > 0) {
+				rateLimits.put(entry.getKey(), new TokenBucket(quota.messagesPerSecond, quota.burst));
+			}
+		}
+		return rateLimits;
+	}
+
+	/**
+	 * Claims up to {@code budget} messages created before {@code createdBefore} (null for no limit)
+	 * with a priority in {@code priorities} (null for all), shared across the topic classes by their
+	 * weights and limited by their rate limits. The topics in {@code excludedTopics} are left out.
+	 */
+	List<OutboxMessage> claim(OutboxStorage storage, int budget, Date createdBefore, PriorityRange priorities,
+			Set<String> excludedTopics) {
+		List<OutboxMessage> claimed = new ArrayList<>(budget);
+		int count = classes.size();
+		for (int i = 0; i < count && claimed.size() < budget; i++) {
+			TopicClass topicClass = classes.get((next + i) % count);
+			int quantum = Math.max(1, (int) ((long) budget * topicClass.weight / totalWeight));
+			topicClass.deficit = Math.min(topicClass.deficit + quantum, budget);
+			int got = claim(storage, topicClass, Math.min(topicClass.deficit, budget - claimed.size()), createdBefore, priorities,
+					excludedTopics, claimed);
+			topicClass.deficit = topicClass.backlogged ? topicClass.deficit - got : 0;
+		}
+		for (int i = 0; i < count && claimed.size() < budget; i++) {
+			TopicClass topicClass = classes.get((next + i) % count);
+			if (topicClass.backlogged) {
+				claim(storage, topicClass, budget - claimed.size(), createdBefore, priorities, excludedTopics, claimed);
+			}
+		}
+		next = (next + 1) % count;
+		return claimed;
+	}
+
+	/**
+	 * Claims up to {@code wanted} messages of one class into {@code claimed}, as far as its rate
+	 * limit allows, and records whether it has more waiting.
+	 *
+	 * @return The number of messages claimed.
+	 */
+	private int claim(OutboxStorage storage, TopicClass topicClass, int wanted, Date createdBefore, PriorityRange priorities,
+			Set<String> excludedTopics, List<OutboxMessage> claimed) {
+		TopicSelector topics = excludedTopics.isEmpty() ? topicClass.topics : topicClass.topics.without(excludedTopics);
+		if (topics.isEmpty()) {
+			topicClass.backlogged = false; // its only topics are paused, do not let it build up a deficit
+			return 0;
+		}
+		int allowed = topicClass.bucket != null ? topicClass.bucket.tryAcquire(wanted) : wanted;
+		if (allowed == 0) {
+			return 0; // rate limited, the backlog state is unchanged
+		}
+		List<OutboxMessage> messages = storage.fetchUnprocessedMessages(allowed, createdBefore, topics, priorities);
+		if (topicClass.bucket != null && messages.size() < allowed) {
+			topicClass.bucket.release(allowed - messages.size());
+		}
+		topicClass.backlogged = messages.size() >= allowed;
+		claimed.addAll(messages);
+		if (!messages.isEmpty()) {
+			logger.trace("Claimed {} of {} messages for {}.", messages.size(), wanted, topics);
+		}
+		return messages.size();
+	}
+
+	private static class TopicClass {
+		final TopicSelector topics;
+		final int weight;
+		final TokenBucket bucket; // null without a rate limit
+		int deficit;
+		boolean backlogged = true; // until a claim comes back short
+
+		TopicClass(TopicSelector topics, int weight, TokenBucket bucket) {
+			this.topics = topics;
+			this.weight = weight;
+			this.bucket = bucket;
+		}
+	}
+}
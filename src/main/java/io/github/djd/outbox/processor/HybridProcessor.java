@@ -0,0 +1,153 @@
+package io.github.djd.outbox.processor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+
+import io.github.djd.outbox.model.OutboxMessage;
+import io.github.djd.outbox.publisher.MessagePublisher;
+import io.github.djd.outbox.storage.OutboxStorage;
+
+/**
+ * Combines change data capture for low latency with polling for reliability.
+ * <p>
+ * Inserted messages are announced by a change stream and claimed by id right away. A
+ * low-frequency {@link PollingProcessor} sweep claims PENDING messages older than a minimum
+ * age, which picks up anything the stream missed (e.g. while it was disconnected). Both paths
+ * claim through the storage, which hands each message out only once, and publish through the
+ * same worker lanes, so no message is published twice.
+ * </p>
+ */
+public class HybridProcessor implements MessageProcessor {
+
+	private static final Logger logger = LoggerFactory.getLogger(HybridProcessor.class);
+
+	private final OutboxStorage storage;
+	private final MongoCollection<Document> collection;
+	private final PollingProcessor sweeper;
+	private final ExecutorService executor;
+	private volatile boolean running = true;
+
+	// Change stream parameters
+	private static final long MAX_AWAIT_TIME_MS = 1000; // how often an idle stream checks for shutdown
+	private static final long RECONNECT_DELAY_MS = 1000;
+	private static final int MAX_CLAIM_BATCH_SIZE = 500;
+
+	// Sweep defaults
+	private static final long DEFAULT_MIN_SWEEP_AGE_MS = 10000;
+	private static final long DEFAULT_MIN_SWEEP_INTERVAL_MS = 1000;
+	private static final long DEFAULT_MAX_SWEEP_INTERVAL_MS = 30000;
+
+	public HybridProcessor(OutboxStorage storage, MessagePublisher publisher, MongoCollection<Document> collection, int maxRetries) {
+		this(storage, publisher, collection, maxRetries, new PollingProcessorConfig()
+				.withWorkerLanes(8, 1000)
+				.withPollingInterval(DEFAULT_MIN_SWEEP_INTERVAL_MS, DEFAULT_MAX_SWEEP_INTERVAL_MS)
+				.withMinMessageAge(DEFAULT_MIN_SWEEP_AGE_MS));
+	}
+
+	/**
+	 * @param sweepConfig Configuration of the sweep and of the worker lanes shared with the change stream.
+	 *        {@link PollingProcessorConfig#withMinMessageAge(long)} should be set, so that the sweep
+	 *        does not compete with the change stream for fresh messages.
+	 */
+	public HybridProcessor(OutboxStorage storage, MessagePublisher publisher, MongoCollection<Document> collection,
+			int maxRetries, PollingProcessorConfig sweepConfig) {
+		this.storage = storage;
+		this.collection = collection;
+		this.sweeper = new PollingProcessor(storage, publisher, maxRetries, sweepConfig);
+		this.executor = Executors.newSingleThreadExecutor();
+	}
+
+	@Override
+	public void startProcessing() {
+		logger.trace("startProcessing");
+		sweeper.startProcessing();
+		executor.submit(this::watch);
+	}
+
+	/**
+	 * Follows the change stream until the processor is stopped, reopening it after errors.
+	 * Events missed while the stream was down are left to the sweep.
+	 */
+	private void watch() {
+		while (running) {
+			try {
+				followChangeStream();
+			} catch (MongoException e) {
+				logger.error("MongoDB error while processing change stream, reconnecting: " + e.getMessage());
+				try {
+					TimeUnit.MILLISECONDS.sleep(RECONNECT_DELAY_MS);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				logger.error("Change stream reader interrupted, shutting down...");
+				return;
+			} catch (Exception e) {
+				logger.error("Unexpected error during CDC processing: ", e);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Collects the ids of inserted messages and claims them in one call as soon as the
+	 * cursor has no further events buffered.
+	 */
+	private void followChangeStream() throws InterruptedException {
+		try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = collection
+				.watch(CDCProcessor.pendingInsertsPipeline())
+				.maxAwaitTime(MAX_AWAIT_TIME_MS, TimeUnit.MILLISECONDS)
+				.cursor()) {
+			logger.info("Processing started.");
+			List<String> announcedIds = new ArrayList<>();
+			while (running) {
+				ChangeStreamDocument<Document> change = cursor.tryNext();
+				if (change != null && change.getDocumentKey() != null) {
+					announcedIds.add(change.getDocumentKey().getString("_id").getValue());
+				}
+				if (!announcedIds.isEmpty() && (change == null || cursor.available() == 0 || announcedIds.size() >= MAX_CLAIM_BATCH_SIZE)) {
+					claimAndSubmit(announcedIds);
+					announcedIds = new ArrayList<>();
+				}
+			}
+		}
+	}
+
+	private void claimAndSubmit(List<String> announcedIds) throws InterruptedException {
+		List<OutboxMessage> claimed = storage.claimMessages(announcedIds);
+		if (claimed.size() < announcedIds.size()) {
+			logger.debug("{} of {} announced messages were already claimed elsewhere.", announcedIds.size() - claimed.size(), announcedIds.size());
+		}
+		sweeper.submit(claimed);
+	}
+
+	@Override
+	public void stopProcessing() {
+		logger.trace("stopProcessing");
+		running = false;
+		try {
+			executor.shutdown();
+			executor.awaitTermination(MAX_AWAIT_TIME_MS * 2, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.error("Interrupted while stopping HybridProcessor. ", e);
+		}
+		// Drains the lanes, acknowledges, releases remaining claims and closes the publisher
+		sweeper.stopProcessing();
+		logger.info("Processing stopped.");
+	}
+}
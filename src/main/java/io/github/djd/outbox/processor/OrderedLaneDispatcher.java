@@ -0,0 +1,219 @@
+package io.github.djd.outbox.processor;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.github.djd.outbox.model.OutboxMessage;
+
+/**
+ * Runs tasks on a fixed set of single-threaded lanes.
+ * <p>
+ * Tasks with the same lane key always run on the same lane, in submission order, while tasks
+ * of different lanes run concurrently. The number of submitted but unfinished tasks is bounded;
+ * {@link #dispatch(String, Runnable)} blocks once the bound is reached.
+ * </p>
+ * <p>
+ * A task that has to be retried later parks its lane key with {@link #park(String)}. The later
+ * tasks of that key are then held, still counting against the bound, while the tasks of other
+ * keys on the same lane carry on. {@link #resume(String, Runnable)} runs the retry ahead of the
+ * held tasks, and then the held tasks in order unless the retry parked the key again.
+ * </p>
+ */
+class OrderedLaneDispatcher {
+
+	private static final Logger logger = LoggerFactory.getLogger(OrderedLaneDispatcher.class);
+
+	private final ExecutorService[] lanes;
+	private final Semaphore inFlight;
+	private final Map<String, Parking> parked = new HashMap<>(); // by lane key, guarded by itself
+
+	OrderedLaneDispatcher(int laneCount, int maxInFlight, boolean virtualThreads) {
+		this.lanes = new ExecutorService[laneCount];
+		this.inFlight = new Semaphore(maxInFlight);
+		ThreadFactory threadFactory = virtualThreads ? virtualThreadFactory() : null;
+		AtomicInteger laneIndex = new AtomicInteger();
+		if (threadFactory == null) {
+			threadFactory = r -> new Thread(r, "outbox-lane-" + laneIndex.getAndIncrement());
+		}
+		for (int i = 0; i < laneCount; i++) {
+			lanes[i] = Executors.newSingleThreadExecutor(threadFactory);
+		}
+	}
+
+	/**
+	 * Number of tasks that can be dispatched without blocking.
+	 */
+	int availableCapacity() {
+		return inFlight.availablePermits();
+	}
+
+	/**
+	 * Queues the task on the lane of {@code laneKey}, blocking while the in-flight bound is reached.
+	 */
+	void dispatch(String laneKey, Runnable task) throws InterruptedException {
+		inFlight.acquire();
+		execute(laneKey, task);
+	}
+
+	/**
+	 * Queues the task on the lane of {@code laneKey} unless the in-flight bound is reached.
+	 *
+	 * @return false if the task was not queued.
+	 */
+	boolean tryDispatch(String laneKey, Runnable task) {
+		if (!inFlight.tryAcquire()) {
+			return false;
+		}
+		execute(laneKey, task);
+		return true;
+	}
+
+	private void execute(String laneKey, Runnable task) {
+		try {
+			lanes[laneOf(laneKey)].execute(() -> {
+				if (!hold(laneKey, task)) {
+					runAndRelease(task);
+				}
+			});
+		} catch (RuntimeException e) {
+			inFlight.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Holds the later tasks of {@code laneKey} until {@link #resume(String, Runnable)} is called for
+	 * it. Only called by a task of that key, on its lane.
+	 */
+	void park(String laneKey) {
+		synchronized (parked) {
+			parked.computeIfAbsent(laneKey, k -> new Parking()).waiting = true;
+		}
+	}
+
+	/**
+	 * Runs {@code task}, which does not count against the bound, on the lane of the parked
+	 * {@code laneKey} ahead of the tasks held for it, then runs those in order until one of them
+	 * parks the key again. If {@code task} parks the key again itself, they stay held.
+	 */
+	void resume(String laneKey, Runnable task) {
+		lanes[laneOf(laneKey)].execute(() -> {
+			synchronized (parked) {
+				Parking parking = parked.get(laneKey);
+				if (parking != null) {
+					parking.waiting = false;
+				}
+			}
+			try {
+				task.run();
+			} finally {
+				runHeld(laneKey);
+			}
+		});
+	}
+
+	/**
+	 * @return true if the key is parked and the task was held, keeping its permit until it runs.
+	 */
+	private boolean hold(String laneKey, Runnable task) {
+		synchronized (parked) {
+			Parking parking = parked.get(laneKey);
+			if (parking == null) {
+				return false;
+			}
+			parking.held.addLast(task);
+			return true;
+		}
+	}
+
+	private void runHeld(String laneKey) {
+		while (true) {
+			Runnable next;
+			synchronized (parked) {
+				Parking parking = parked.get(laneKey);
+				if (parking == null || parking.waiting) {
+					return;
+				}
+				next = parking.held.pollFirst();
+				if (next == null) {
+					parked.remove(laneKey);
+					return;
+				}
+			}
+			try {
+				runAndRelease(next);
+			} catch (RuntimeException e) {
+				logger.error("Task of lane key {} failed: ", laneKey, e); // the rest must still run
+			}
+		}
+	}
+
+	private void runAndRelease(Runnable task) {
+		try {
+			task.run();
+		} finally {
+			inFlight.release();
+		}
+	}
+
+	/**
+	 * Lane key of a message: its ordering key, or its topic if it has none.
+	 */
+	static String laneKey(OutboxMessage message) {
+		return message.getKey() != null ? message.getKey() : message.getTopic();
+	}
+
+	private int laneOf(String laneKey) {
+		return laneKey == null ? 0 : (laneKey.hashCode() & Integer.MAX_VALUE) % lanes.length;
+	}
+
+	/**
+	 * Stops accepting tasks and waits up to {@code timeoutMs} for queued tasks to finish. Tasks held
+	 * for a parked key that is not resumed before the lanes stop are not run.
+	 *
+	 * @return false if some lane still had tasks running or queued when the time was up.
+	 */
+	boolean shutdown(long timeoutMs) throws InterruptedException {
+		for (ExecutorService lane : lanes) {
+			lane.shutdown();
+		}
+		long deadline = System.currentTimeMillis() + timeoutMs;
+		boolean terminated = true;
+		for (ExecutorService lane : lanes) {
+			terminated &= lane.awaitTermination(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+		}
+		return terminated;
+	}
+
+	/**
+	 * Looks up {@code Thread.ofVirtual().factory()} reflectively so the library still runs on
+	 * JVMs without virtual threads.
+	 */
+	private static ThreadFactory virtualThreadFactory() {
+		try {
+			Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderType.getMethod("name", String.class, long.class).invoke(builder, "outbox-lane-", 0L);
+			return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException e) {
+			logger.warn("Virtual threads are not supported by this JVM, using platform threads.");
+			return null;
+		}
+	}
+
+	private static class Parking {
+		final Deque<Runnable> held = new ArrayDeque<>();
+		boolean waiting; // a retry is scheduled; the held tasks run after it
+	}
+}
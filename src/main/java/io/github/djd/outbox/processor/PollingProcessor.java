@@ -1,8 +1,21 @@
 package io.github.djd.outbox.processor;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.concurrent.Executors;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
@@ -12,85 +25,706 @@ import io.github.djd.outbox.exception.MessagePublishingException;
 import io.github.djd.outbox.model.OutboxMessage;
 import io.github.djd.outbox.publisher.MessagePublisher;
 import io.github.djd.outbox.storage.OutboxStorage;
+import io.github.djd.outbox.storage.PriorityRange;
+import io.github.djd.outbox.storage.TopicSelector;
 
 public class PollingProcessor implements MessageProcessor {
 	
     private final OutboxStorage storage;
     private final MessagePublisher publisher;
+    private final PollingProcessorConfig config;
     private ScheduledExecutorService executor;
+    private final ClaimMaintenance maintenance; // leases, retries and acknowledgements
+    private TimerWheel retryWheel; // null when failed publishes are retried at once
+    private final List<PriorityBand> bands = new ArrayList<>(); // highest priorities first
+    private final boolean laneMode; // false when publishing on the polling thread
+    private final Queue<String> processedIds = new ConcurrentLinkedQueue<>(); // published by lanes, not yet acknowledged
+    private final TopicCircuitBreakers breakers; // null without circuit breakers
+    private final Queue<String> releasedIds = new ConcurrentLinkedQueue<>(); // held back by lanes for an open circuit, not yet released
     private volatile boolean running = true;
+    private long emptyPollDelayMs = 0; // current back-off while the outbox is empty
     
     // retry parameters
-    private final int pollingIntervalMs;
     private final int maxRetries;
-    private static final int POLLING_BATCH_SIZE =10;
+    private static final long SHUTDOWN_TIMEOUT_MS = 30000;
+    private static final long RETRY_WHEEL_TICK_MS = 10;
+    private static final int RETRY_WHEEL_BUCKETS = 512;
     
     //logger
     private static final Logger logger = LoggerFactory.getLogger(PollingProcessor.class);
     
+    /**
+     * Creates a processor that backs off up to {@code pollingIntervalMs} while the outbox is empty.
+     */
     public PollingProcessor(OutboxStorage storage, MessagePublisher publisher, int pollingIntervalMs, int maxRetries) {
+        this(storage, publisher, maxRetries, new PollingProcessorConfig()
+        		.withPollingInterval(Math.min(PollingProcessorConfig.DEFAULT_MIN_POLLING_INTERVAL_MS, pollingIntervalMs), pollingIntervalMs));
+    }
+
+    public PollingProcessor(OutboxStorage storage, MessagePublisher publisher, int maxRetries, PollingProcessorConfig config) {
         this.storage = storage;
         this.publisher = publisher;
-        this.pollingIntervalMs = pollingIntervalMs;
         this.maxRetries = maxRetries;
+        this.config = config;
+        Map<String, TokenBucket> rateLimits = FairTopicScheduler.rateLimits(config.getTopicQuotas());
+        int upper = Integer.MAX_VALUE;
+        for (Map.Entry<Integer, BandQuota> band : config.getPriorityBands().descendingMap().entrySet()) {
+        	bands.add(new PriorityBand(PriorityRange.between(band.getKey(), upper), band.getValue().workerLanes,
+        			band.getValue().maxInFlight, scheduler(rateLimits)));
+        	upper = band.getKey();
+        }
+        if (upper > 0) {
+        	// the priorities below the lowest band, or all of them without bands
+        	bands.add(new PriorityBand(bands.isEmpty() ? null : PriorityRange.below(upper), config.getWorkerLanes(),
+        			config.getMaxInFlight(), scheduler(rateLimits)));
+        }
+        this.laneMode = config.getWorkerLanes() > 0 || !config.getPriorityBands().isEmpty();
+        this.maintenance = new ClaimMaintenance(storage);
+        this.breakers = config.getCircuitBreakerFailureThreshold() > 0
+        		? new TopicCircuitBreakers(config.getCircuitBreakerFailureThreshold(), config.getCircuitBreakerOpenDurationMs())
+        		: null;
+    }
+
+    private FairTopicScheduler scheduler(Map<String, TokenBucket> rateLimits) {
+    	return config.getTopicQuotas().isEmpty() ? null
+    			: new FairTopicScheduler(config.getTopicQuotas(), config.getDefaultTopicWeight(), rateLimits);
     }
     
     @Override
     public void startProcessing() {
-    	executor = Executors.newSingleThreadScheduledExecutor();
-        executor.scheduleAtFixedRate(this::processMessages, 0, pollingIntervalMs, TimeUnit.MILLISECONDS);
+    	if (laneMode) {
+    		for (PriorityBand band : bands) {
+    			int lanes = Math.max(1, band.workerLanes);
+    			band.dispatcher = new OrderedLaneDispatcher(lanes, band.maxInFlight, config.isVirtualThreads());
+    			logger.info("Dispatching {} on {} worker lanes with at most {} messages in flight.",
+    					band.priorities != null ? band.priorities : "all messages", lanes, band.maxInFlight);
+    		}
+    	}
+    	if (config.getRetryBackoff() != null) {
+    		retryWheel = new TimerWheel("outbox-retry", RETRY_WHEEL_TICK_MS, RETRY_WHEEL_BUCKETS);
+    	}
+    	ScheduledThreadPoolExecutor pollExecutor = new ScheduledThreadPoolExecutor(1);
+    	pollExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false); // a shutdown need not wait for the next poll
+    	executor = pollExecutor;
+        executor.execute(this::poll);
+        maintenance.start(config.getHeartbeatIntervalMs(), config.getReclaimIntervalMs(), config.getRetryReleaseIntervalMs());
+        if (laneMode) {
+        	// Polls may be far apart, acknowledge lane results independently of them
+        	maintenance.schedule(this::safeFlushAcknowledgements, config.getMinPollingIntervalMs());
+        }
         logger.info("PollingProcessor started.");
     }
 
-    private void processMessages() {
-    	while (running) {
-            try {
-                List<OutboxMessage> messages = storage.fetchUnprocessedMessages(POLLING_BATCH_SIZE);
-                for (OutboxMessage message : messages) {
-                    processMessageWithRetries(message);
+    private void safeFlushAcknowledgements() {
+    	try {
+    		flushAcknowledgements();
+    	} catch (Exception e) {
+    		logger.error("Failed to acknowledge published messages: ", e);
+    	}
+    }
+
+    /**
+     * Runs one poll and schedules the next one: immediately if the batch came back full,
+     * after the minimum interval if it was partially filled, and with an exponentially growing
+     * delay (capped at the maximum interval) while the outbox stays empty.
+     */
+    private void poll() {
+    	if (!running) {
+    		return;
+    	}
+    	long delayMs;
+        try {
+            delayMs = laneMode ? dispatchToLanes() : processBatch();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("PollingProcessor interrupted, shutting down...");
+            return;
+        } catch (Exception e) {
+            logger.error("Unexpected error in PollingProcessor: ", e);
+            delayMs = backOff();
+        }
+        if (running) {
+        	try {
+        		executor.schedule(this::poll, delayMs, TimeUnit.MILLISECONDS);
+        	} catch (RejectedExecutionException e) {
+        		logger.debug("PollingProcessor is shutting down, no further polls scheduled.");
+        	}
+        }
+    }
+
+    private long processBatch() throws InterruptedException {
+        List<OutboxMessage> messages = claimProbes();
+        messages.addAll(claim(bands.get(0), config.getBatchSize()));
+        processBatchWithRetries(messages);
+        return nextDelay(!messages.isEmpty(), messages.size() >= config.getBatchSize());
+    }
+
+    private long nextDelay(boolean claimed, boolean full) {
+    	if (claimed) {
+    		emptyPollDelayMs = 0;
+    		return full ? 0 : config.getMinPollingIntervalMs();
+    	}
+    	return backOff();
+    }
+
+    private long backOff() {
+    	emptyPollDelayMs = emptyPollDelayMs == 0
+    			? config.getMinPollingIntervalMs()
+    			: Math.min(emptyPollDelayMs * 2, config.getMaxPollingIntervalMs());
+    	return emptyPollDelayMs;
+    }
+    
+    /**
+     * Acknowledges what the lanes have published since the last poll, then claims for every
+     * priority band, highest first, as many messages as its lanes can take and hands each one to
+     * the lane of its ordering key.
+     */
+    private long dispatchToLanes() throws InterruptedException {
+        flushAcknowledgements();
+        for (OutboxMessage probe : claimProbes()) {
+            dispatchToLane(bandOf(probe), probe);
+        }
+        boolean claimed = false;
+        boolean full = false;
+        boolean saturated = false;
+        for (PriorityBand band : bands) {
+            int capacity = Math.min(config.getBatchSize(), band.dispatcher.availableCapacity());
+            if (capacity == 0) {
+                saturated = true; // poll again soon, the lanes may have drained by then
+                continue;
+            }
+            List<OutboxMessage> messages = claim(band, capacity);
+            for (OutboxMessage message : messages) {
+                dispatchToLane(band, message);
+            }
+            claimed |= !messages.isEmpty();
+            full |= messages.size() >= capacity;
+        }
+        long delayMs = nextDelay(claimed, full);
+        return saturated ? Math.min(delayMs, config.getMinPollingIntervalMs()) : delayMs;
+    }
+
+    private void dispatchToLane(PriorityBand band, OutboxMessage message) throws InterruptedException {
+        band.dispatcher.dispatch(OrderedLaneDispatcher.laneKey(message), () -> publishOnLane(band, message, 1));
+    }
+
+    /**
+     * Publishes the message on the calling lane. With a retry back-off, a failed attempt is handed
+     * to the retry wheel and its ordering key is parked, so that the lane moves on to the messages
+     * of other keys while the later messages of this key wait for the retry.
+     */
+    private void publishOnLane(PriorityBand band, OutboxMessage message, int attempt) {
+        if (circuitOpen(message)) {
+            releasedIds.add(message.getId());
+            return;
+        }
+        if (retryWheel == null) {
+            if (processMessageWithRetries(message)) {
+                processedIds.add(message.getId());
+            }
+            return;
+        }
+        Throwable error = tryPublish(message, attempt);
+        if (error == null) {
+            processedIds.add(message.getId());
+        } else if (circuitOpen(message)) {
+            releasedIds.add(message.getId());
+        } else if (attempt < maxRetries) {
+            band.dispatcher.park(OrderedLaneDispatcher.laneKey(message));
+            retryWheel.schedule(() -> retryOnLane(band, message, attempt + 1), config.getRetryBackoff().delayMs(attempt));
+        } else {
+            returnToOutbox(message, error);
+        }
+    }
+
+    /**
+     * Runs on the retry wheel: queues the next attempt on the message's lane, ahead of the later
+     * messages of its parked ordering key. Retries still waiting on shutdown are dropped, their
+     * messages and the ones held behind them are released with the leases.
+     */
+    private void retryOnLane(PriorityBand band, OutboxMessage message, int attempt) {
+        if (!running) {
+            return;
+        }
+        try {
+            band.dispatcher.resume(OrderedLaneDispatcher.laneKey(message), () -> publishOnLane(band, message, attempt));
+        } catch (RejectedExecutionException e) {
+            logger.debug("PollingProcessor is shutting down, retry dropped.");
+        }
+    }
+
+    /**
+     * Runs on the retry wheel: hands {@code retry} to the polling thread, which runs it between polls.
+     */
+    private void retryOnPollingThread(Runnable retry) {
+        if (!running) {
+            return;
+        }
+        try {
+            executor.execute(retry);
+        } catch (RejectedExecutionException e) {
+            logger.debug("PollingProcessor is shutting down, retry dropped.");
+        }
+    }
+
+    /**
+     * Claims up to {@code count} messages of the band, only those older than the configured minimum
+     * age if set, shared across topics by their weights if configured.
+     */
+    private List<OutboxMessage> claim(PriorityBand band, int count) {
+        Date createdBefore = config.getMinMessageAgeMs() > 0
+        		? new Date(System.currentTimeMillis() - config.getMinMessageAgeMs())
+        		: null;
+        Set<String> excludedTopics = breakers != null ? breakers.excludedTopics() : Collections.<String>emptySet();
+        if (band.scheduler != null) {
+            return track(band.scheduler.claim(storage, count, createdBefore, band.priorities, excludedTopics));
+        }
+        if (!excludedTopics.isEmpty()) {
+            return track(storage.fetchUnprocessedMessages(count, createdBefore, TopicSelector.excluding(excludedTopics), band.priorities));
+        }
+        if (band.priorities != null) {
+            return track(storage.fetchUnprocessedMessages(count, createdBefore, null, band.priorities));
+        }
+        if (createdBefore != null) {
+            return track(storage.fetchUnprocessedMessages(count, createdBefore));
+        }
+        return track(storage.fetchUnprocessedMessages(count));
+    }
+
+    /**
+     * Claims one message of every topic whose open circuit is due for a probe. A topic without
+     * PENDING messages has nothing left to protect, so its circuit is closed instead.
+     */
+    private List<OutboxMessage> claimProbes() {
+        List<OutboxMessage> probes = new ArrayList<>();
+        if (breakers == null) {
+            return probes;
+        }
+        for (String topic : breakers.topicsToProbe()) {
+            List<OutboxMessage> probe = storage.fetchUnprocessedMessages(1, null, TopicSelector.only(topic));
+            if (probe.isEmpty()) {
+                breakers.recordSuccess(topic);
+            } else {
+                logger.info("Probing the circuit of topic {} with message {}.", topic, probe.get(0).getId());
+                probes.addAll(track(probe));
+            }
+        }
+        return probes;
+    }
+
+    private boolean circuitOpen(OutboxMessage message) {
+        return breakers != null && breakers.isOpen(message.getTopic());
+    }
+
+    /**
+     * Returns the messages whose topic's circuit is open to PENDING, without counting an attempt.
+     *
+     * @return the other messages.
+     */
+    private List<OutboxMessage> releaseIfCircuitOpen(List<OutboxMessage> messages) {
+        if (breakers == null || breakers.excludedTopics().isEmpty()) {
+            return messages;
+        }
+        List<OutboxMessage> publishable = new ArrayList<>(messages.size());
+        List<String> released = new ArrayList<>();
+        for (OutboxMessage message : messages) {
+            if (breakers.isOpen(message.getTopic())) {
+                released.add(message.getId());
+            } else {
+                publishable.add(message);
+            }
+        }
+        if (!released.isEmpty()) {
+            release(released);
+            logger.debug("Released {} claimed messages of topics with an open circuit.", released.size());
+        }
+        return publishable;
+    }
+
+    /**
+     * Publishes messages that were claimed outside of the polling loop, e.g. from a change stream,
+     * through the same lanes (or, without lanes, on the calling thread) and acknowledgement path.
+     */
+    void submit(List<OutboxMessage> messages) throws InterruptedException {
+        track(messages);
+        if (!laneMode) {
+            processBatchWithRetries(messages);
+            return;
+        }
+        for (OutboxMessage message : messages) {
+            dispatchToLane(bandOf(message), message);
+        }
+    }
+
+    private PriorityBand bandOf(OutboxMessage message) {
+        for (PriorityBand band : bands) {
+            if (band.priorities == null || band.priorities.matches(message.getPriority())) {
+                return band;
+            }
+        }
+        return bands.get(bands.size() - 1);
+    }
+
+    private void flushAcknowledgements() {
+        List<String> ids = new ArrayList<>();
+        String id;
+        while ((id = processedIds.poll()) != null) {
+            ids.add(id);
+        }
+        acknowledge(ids);
+        if (!releasedIds.isEmpty()) {
+            List<String> released = new ArrayList<>();
+            while ((id = releasedIds.poll()) != null) {
+                released.add(id);
+            }
+            release(released);
+            logger.debug("Released {} claimed messages of topics with an open circuit.", released.size());
+        }
+    }
+
+    /**
+     * Publishes the message on the calling lane, retrying up to {@code maxRetries} times.
+     * Retries happen in place so later messages of the same lane stay behind this one.
+     * 
+     * @return true if the message was published and still has to be acknowledged.
+     */
+    private boolean processMessageWithRetries(OutboxMessage message) {
+        Throwable lastError = null;
+        for (int attempt = 1; attempt <= maxRetries; attempt++) {
+            lastError = tryPublish(message, attempt);
+            if (lastError == null) {
+                return true;
+            }
+            if (circuitOpen(message)) {
+                releasedIds.add(message.getId());
+                return false;
+            }
+        }
+        returnToOutbox(message, lastError);
+        return false;
+    }
+
+    /**
+     * Publishes the message once.
+     *
+     * @return the cause of the failure, or null if the message was published.
+     */
+    private Throwable tryPublish(OutboxMessage message, int attempt) {
+        Throwable error;
+        try {
+            publisher.publish(message);
+            error = null;
+        } catch (MessagePublishingException e) {
+            logger.error("Failed to publish message: {}  (Attempt {}/{})", message.getId(), attempt, maxRetries);
+            error = e;
+        } catch (RuntimeException e) {
+            logger.error("Unexpected error publishing message: {}  (Attempt {}/{})", message.getId(), attempt, maxRetries, e);
+            error = e;
+        }
+        recordOutcome(message.getTopic(), error == null);
+        return error;
+    }
+
+    private void recordOutcome(String topic, boolean published) {
+        if (breakers == null) {
+            return;
+        }
+        if (published) {
+            breakers.recordSuccess(topic);
+        } else {
+            breakers.recordFailure(topic);
+        }
+    }
+
+    private void returnToOutbox(OutboxMessage message, Throwable lastError) {
+        logger.error("Max retries reached for message {}, returning it to the outbox with its error.", message.getId());
+        // Mark message as failed (retry or mark as permanently failed, to be moved to the dead-letter queue)
+        recordFailure(message);
+        maintenance.untrack(message.getId());
+        storage.markMessageAsFailed(message.getId(), maxRetries, lastError);
+    }
+
+    /**
+     * Publishes the whole batch with all sends in flight at once, then retries the failed
+     * messages up to {@code maxRetries} times. Messages are only acknowledged after the
+     * publisher has confirmed them.
+     */
+    private void processBatchWithRetries(List<OutboxMessage> messages) throws InterruptedException {
+    	logger.trace("processBatchWithRetries");
+        if (config.isBatchPublishing()) {
+            if (retryWheel != null) {
+                publishBatchWithBackoff(messages, 1);
+            } else {
+                publishBatchWithRetries(messages);
+            }
+            return;
+        }
+        if (retryWheel != null) {
+            publishWithBackoff(messages, 1);
+            return;
+        }
+        List<String> processedIds = new ArrayList<>(messages.size());
+        Map<String, Throwable> lastErrors = new HashMap<>();
+        List<OutboxMessage> pending = messages;
+        for (int attempt = 1; attempt <= maxRetries && !pending.isEmpty(); attempt++) {
+            pending = publishAll(releaseIfCircuitOpen(pending), attempt, processedIds, lastErrors);
+        }
+        acknowledge(processedIds);
+        returnToOutbox(releaseIfCircuitOpen(pending), lastErrors);
+    }
+
+    /**
+     * Publishes one attempt of the messages with all sends in flight at once, then acknowledges
+     * those that were published and hands the others to the retry wheel, or returns them to the
+     * outbox once they have had {@code maxRetries} attempts.
+     */
+    private void publishWithBackoff(List<OutboxMessage> messages, int attempt) throws InterruptedException {
+        List<String> processedIds = new ArrayList<>(messages.size());
+        Map<String, Throwable> lastErrors = new HashMap<>();
+        List<OutboxMessage> failed = releaseIfCircuitOpen(publishAll(releaseIfCircuitOpen(messages), attempt, processedIds, lastErrors));
+        acknowledge(processedIds);
+        if (failed.isEmpty()) {
+            return;
+        }
+        if (attempt < maxRetries) {
+            retryWheel.schedule(() -> retryOnPollingThread(() -> {
+                try {
+                    publishWithBackoff(failed, attempt + 1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 }
-                Thread.sleep(pollingIntervalMs);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                logger.error("PollingProcessor interrupted, shutting down...");
-                break;
-            } catch (Exception e) {
-                logger.error("Unexpected error in PollingProcessor: ", e);
+            }), config.getRetryBackoff().delayMs(attempt));
+        } else {
+            returnToOutbox(failed, lastErrors);
+        }
+    }
+
+    /**
+     * Sends all messages at once and waits for the results.
+     *
+     * @return the messages that failed, their errors having been put into {@code lastErrors}.
+     */
+    private List<OutboxMessage> publishAll(List<OutboxMessage> messages, int attempt, List<String> processedIds,
+            Map<String, Throwable> lastErrors) throws InterruptedException {
+        List<CompletableFuture<Void>> results = new ArrayList<>(messages.size());
+        for (OutboxMessage message : messages) {
+            results.add(publisher.publishAsync(message));
+        }
+        List<OutboxMessage> failed = new ArrayList<>();
+        for (int i = 0; i < messages.size(); i++) {
+            OutboxMessage message = messages.get(i);
+            try {
+                results.get(i).get();
+                processedIds.add(message.getId());
+                recordOutcome(message.getTopic(), true);
+            } catch (ExecutionException e) {
+                logger.error("Failed to publish message: {}  (Attempt {}/{})", message.getId(), attempt, maxRetries);
+                lastErrors.put(message.getId(), e.getCause());
+                failed.add(message);
+                recordOutcome(message.getTopic(), false);
             }
         }
+        return failed;
+    }
+
+    private void returnToOutbox(List<OutboxMessage> messages, Map<String, Throwable> lastErrors) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        logger.error("Max retries reached for {} messages, returning them to the outbox with their errors.", messages.size());
+        // Mark messages as failed (retry or mark as permanently failed, to be moved to the dead-letter queue)
+        Map<String, Throwable> errors = new LinkedHashMap<>();
+        for (OutboxMessage message : messages) {
+            errors.put(message.getId(), lastErrors.get(message.getId()));
+            recordFailure(message);
+        }
+        maintenance.untrack(errors.keySet());
+        storage.markMessagesAsFailed(errors, maxRetries);
     }
     
-    private void processMessageWithRetries(OutboxMessage message) {
-    	logger.trace("processMessageWithRetries");
-        int attempts = 0;
-        while (attempts < maxRetries) {
-            try {
-                publisher.publish(message);
-                storage.markMessageAsProcessed(message.getId());
+    /**
+     * Publishes the whole batch with one {@link MessagePublisher#publishBatch(List)} call, retrying
+     * it as a whole up to {@code maxRetries} times, and acknowledges it only after that call has
+     * returned, i.e. after the publisher has committed the batch.
+     */
+    private void publishBatchWithRetries(List<OutboxMessage> messages) {
+        List<OutboxMessage> batch = messages;
+        Throwable lastError = null;
+        for (int attempt = 1; attempt <= maxRetries; attempt++) {
+            batch = releaseIfCircuitOpen(batch);
+            if (batch.isEmpty()) {
                 return;
-            } catch (MessagePublishingException e) {
-                attempts++;
-                logger.error("Failed to publish message: {}  (Attempt {}/{})", message.getId(), attempts, maxRetries);
-                if (attempts == maxRetries) {
-                    logger.error("Max retries reached. Moving message to DLQ or alerting...");
-                    // Mark message as failed (retry or mark as permanently failed)
-                    storage.markMessageAsFailed(message.getId(), maxRetries);
-                }
             }
+            lastError = tryPublishBatch(batch, attempt);
+            if (lastError == null) {
+                return;
+            }
+        }
+        batch = releaseIfCircuitOpen(batch);
+        if (!batch.isEmpty()) {
+            returnBatchToOutbox(batch, lastError);
         }
     }
-    
+
+    /**
+     * Publishes one attempt of the whole batch like {@link #publishBatchWithRetries(List)}, handing
+     * the batch to the retry wheel if it fails and has attempts left.
+     */
+    private void publishBatchWithBackoff(List<OutboxMessage> messages, int attempt) {
+        List<OutboxMessage> batch = releaseIfCircuitOpen(messages);
+        if (batch.isEmpty()) {
+            return;
+        }
+        Throwable error = tryPublishBatch(batch, attempt);
+        if (error == null) {
+            return;
+        }
+        if (attempt < maxRetries) {
+            retryWheel.schedule(() -> retryOnPollingThread(() -> publishBatchWithBackoff(batch, attempt + 1)),
+                    config.getRetryBackoff().delayMs(attempt));
+        } else {
+            List<OutboxMessage> failed = releaseIfCircuitOpen(batch);
+            if (!failed.isEmpty()) {
+                returnBatchToOutbox(failed, error);
+            }
+        }
+    }
+
+    /**
+     * Publishes the batch with one {@link MessagePublisher#publishBatch(List)} call and acknowledges it.
+     * The outcome counts for the circuit of every topic in the batch.
+     *
+     * @return the cause of the failure, or null if the batch was published.
+     */
+    private Throwable tryPublishBatch(List<OutboxMessage> messages, int attempt) {
+        Throwable error;
+        try {
+            publisher.publishBatch(messages);
+            List<String> processedIds = new ArrayList<>(messages.size());
+            for (OutboxMessage message : messages) {
+                processedIds.add(message.getId());
+            }
+            acknowledge(processedIds);
+            error = null;
+        } catch (MessagePublishingException e) {
+            logger.error("Failed to publish batch of {} messages  (Attempt {}/{})", messages.size(), attempt, maxRetries, e);
+            error = e;
+        } catch (RuntimeException e) {
+            logger.error("Unexpected error publishing batch of {} messages  (Attempt {}/{})", messages.size(), attempt, maxRetries, e);
+            error = e;
+        }
+        if (breakers != null) {
+            Set<String> topics = new LinkedHashSet<>();
+            for (OutboxMessage message : messages) {
+                topics.add(message.getTopic());
+            }
+            for (String topic : topics) {
+                recordOutcome(topic, error == null);
+            }
+        }
+        return error;
+    }
+
+    private void returnBatchToOutbox(List<OutboxMessage> messages, Throwable lastError) {
+        logger.error("Max retries reached for {} messages, returning them to the outbox with their errors.", messages.size());
+        Map<String, Throwable> errors = new LinkedHashMap<>();
+        for (OutboxMessage message : messages) {
+            errors.put(message.getId(), lastError);
+            recordFailure(message);
+        }
+        maintenance.untrack(errors.keySet());
+        storage.markMessagesAsFailed(errors, maxRetries);
+    }
+
+    private List<OutboxMessage> track(List<OutboxMessage> messages) {
+        return maintenance.track(messages);
+    }
+
+    private void acknowledge(List<String> messageIds) {
+        maintenance.untrack(messageIds);
+        storage.markMessagesAsProcessed(messageIds);
+    }
+
+    private void release(List<String> messageIds) {
+        maintenance.untrack(messageIds);
+        storage.releaseMessages(messageIds);
+    }
+
+    /**
+     * Counts a message that is about to be marked as failed: the storage marks it FAILED once its
+     * stored retry count has reached {@code maxRetries}, and returns it to PENDING otherwise.
+     */
+    private void recordFailure(OutboxMessage message) {
+        if (message.getRetryCount() >= maxRetries) {
+            config.getMetrics().recordFailed(message.getTopic());
+        } else {
+            config.getMetrics().recordRetry(message.getTopic());
+        }
+    }
+
+    /**
+     * Stops polling, lets the current poll and the lanes finish the messages they hold and
+     * acknowledges them, then releases what is still claimed. If publishing does not finish in
+     * time, the remaining claims are left to expire rather than released while still in flight.
+     */
     @Override
     public void stopProcessing() {
     	running = false;
+    	if (retryWheel != null) {
+    		retryWheel.stop(); // waiting retries are released with the leases below
+    	}
+    	long deadline = System.currentTimeMillis() + SHUTDOWN_TIMEOUT_MS;
     	try {
-			publisher.close();
-			if (executor != null && !executor.isShutdown()) {
+    		boolean drained = true;
+			if (executor != null) {
 	            executor.shutdown();
-	            logger.info("PollingProcessor stopped.");
+	            drained = executor.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
 	        }
+			if (laneMode) {
+				for (PriorityBand band : bands) {
+					if (band.dispatcher != null) {
+						drained &= band.dispatcher.shutdown(Math.max(0, deadline - System.currentTimeMillis()));
+					}
+				}
+			}
+			if (executor != null) {
+				maintenance.stop(Math.max(0, deadline - System.currentTimeMillis()));
+				if (laneMode) {
+					flushAcknowledgements();
+				}
+				if (drained) {
+					// Hand whatever is still claimed back to the other instances
+					storage.releaseLeases();
+				} else {
+					logger.warn("Publishing did not finish within {} ms, leaving {} claimed messages to expire.",
+							SHUTDOWN_TIMEOUT_MS, maintenance.claimedCount());
+				}
+			}
+			publisher.close();
+			logger.info("PollingProcessor stopped.");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.error("Interrupted while stopping PollingProcessor. ", e);
 		} catch (Exception e) {
 			logger.error("Error stopping PollingProcessor. ", e);
 		}        
     }
+
+    /**
+     * The messages of one priority range with the lanes and the topic scheduler serving them.
+     */
+    private static class PriorityBand {
+    	final PriorityRange priorities; // null for all priorities
+    	final int workerLanes;
+    	final int maxInFlight;
+    	final FairTopicScheduler scheduler; // null without topic weights
+    	OrderedLaneDispatcher dispatcher; // null when publishing on the polling thread
+
+    	PriorityBand(PriorityRange priorities, int workerLanes, int maxInFlight, FairTopicScheduler scheduler) {
+    		this.priorities = priorities;
+    		this.workerLanes = workerLanes;
+    		this.maxInFlight = maxInFlight;
+    		this.scheduler = scheduler;
+    	}
+    }
 }
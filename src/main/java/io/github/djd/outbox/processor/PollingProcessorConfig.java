@@ -0,0 +1,273 @@
+package io.github.djd.outbox.processor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import io.github.djd.outbox.metrics.OutboxMetrics;
+import io.github.djd.outbox.storage.RetryBackoff;
+
+/**
+ * Tuning options for {@link PollingProcessor}.
+ * <p>
+ * The defaults reproduce the single-threaded behaviour; override only what is needed, e.g.
+ * {@code new PollingProcessorConfig().withWorkerLanes(16, 1000)}.
+ * </p>
+ */
+public class PollingProcessorConfig {
+
+	public static final int DEFAULT_BATCH_SIZE = 100;
+	public static final long DEFAULT_MIN_POLLING_INTERVAL_MS = 100;
+	public static final long DEFAULT_MAX_POLLING_INTERVAL_MS = 5000;
+
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private long minPollingIntervalMs = DEFAULT_MIN_POLLING_INTERVAL_MS;
+	private long maxPollingIntervalMs = DEFAULT_MAX_POLLING_INTERVAL_MS;
+	private long minMessageAgeMs = 0;
+	private long heartbeatIntervalMs = 5000;
+	private long reclaimIntervalMs = 5000;
+	private int workerLanes = 0; // 0 publishes on the polling thread
+	private int maxInFlight = 1000;
+	private boolean virtualThreads = false;
+	private boolean batchPublishing = false;
+	private OutboxMetrics metrics = OutboxMetrics.NOOP;
+	private final Map<String, TopicQuota> topicQuotas = new LinkedHashMap<>();
+	private int defaultTopicWeight = 1;
+	private final TreeMap<Integer, BandQuota> priorityBands = new TreeMap<>(); // by minimum priority
+	private RetryBackoff retryBackoff; // null retries failed publishes at once
+	private long retryReleaseIntervalMs = 1000;
+	private int circuitBreakerFailureThreshold = 0; // 0 disables the circuit breakers
+	private long circuitBreakerOpenDurationMs = 30000;
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public long getMinPollingIntervalMs() {
+		return minPollingIntervalMs;
+	}
+
+	public long getMaxPollingIntervalMs() {
+		return maxPollingIntervalMs;
+	}
+
+	public long getMinMessageAgeMs() {
+		return minMessageAgeMs;
+	}
+
+	public long getHeartbeatIntervalMs() {
+		return heartbeatIntervalMs;
+	}
+
+	public long getReclaimIntervalMs() {
+		return reclaimIntervalMs;
+	}
+
+	public int getWorkerLanes() {
+		return workerLanes;
+	}
+
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	public boolean isBatchPublishing() {
+		return batchPublishing;
+	}
+
+	public OutboxMetrics getMetrics() {
+		return metrics;
+	}
+
+	Map<String, TopicQuota> getTopicQuotas() {
+		return topicQuotas;
+	}
+
+	public int getDefaultTopicWeight() {
+		return defaultTopicWeight;
+	}
+
+	TreeMap<Integer, BandQuota> getPriorityBands() {
+		return priorityBands;
+	}
+
+	public RetryBackoff getRetryBackoff() {
+		return retryBackoff;
+	}
+
+	public long getRetryReleaseIntervalMs() {
+		return retryReleaseIntervalMs;
+	}
+
+	public int getCircuitBreakerFailureThreshold() {
+		return circuitBreakerFailureThreshold;
+	}
+
+	public long getCircuitBreakerOpenDurationMs() {
+		return circuitBreakerOpenDurationMs;
+	}
+
+	/**
+	 * Maximum number of messages claimed per poll. A full batch triggers the next poll immediately.
+	 */
+	public PollingProcessorConfig withBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+		return this;
+	}
+
+	/**
+	 * Polls again after {@code minIntervalMs} when the last batch was only partially filled, and
+	 * doubles the delay up to {@code maxIntervalMs} for every poll that finds the outbox empty.
+	 */
+	public PollingProcessorConfig withPollingInterval(long minIntervalMs, long maxIntervalMs) {
+		this.minPollingIntervalMs = minIntervalMs;
+		this.maxPollingIntervalMs = maxIntervalMs;
+		return this;
+	}
+
+	/**
+	 * Only claims messages that have been PENDING for at least {@code minMessageAgeMs}. Used when
+	 * polling is a fallback that sweeps up what a faster path missed.
+	 */
+	public PollingProcessorConfig withMinMessageAge(long minMessageAgeMs) {
+		this.minMessageAgeMs = minMessageAgeMs;
+		return this;
+	}
+
+	/**
+	 * Renews the leases of claimed messages every {@code heartbeatIntervalMs}, which must be well
+	 * below the storage's lease duration, and returns expired leases of other (dead) instances to
+	 * PENDING every {@code reclaimIntervalMs}.
+	 */
+	public PollingProcessorConfig withLeaseMaintenance(long heartbeatIntervalMs, long reclaimIntervalMs) {
+		this.heartbeatIntervalMs = heartbeatIntervalMs;
+		this.reclaimIntervalMs = reclaimIntervalMs;
+		return this;
+	}
+
+	/**
+	 * Publishes claimed messages concurrently on {@code workerLanes} lanes. Messages with the same
+	 * ordering key (or, without a key, the same topic) always go to the same lane and are published
+	 * in claim order. At most {@code maxInFlight} claimed messages are waiting or being published.
+	 */
+	public PollingProcessorConfig withWorkerLanes(int workerLanes, int maxInFlight) {
+		this.workerLanes = workerLanes;
+		this.maxInFlight = maxInFlight;
+		return this;
+	}
+
+	/**
+	 * Runs the worker lanes on virtual threads when the JVM supports them (Java 21+).
+	 */
+	public PollingProcessorConfig withVirtualThreads(boolean virtualThreads) {
+		this.virtualThreads = virtualThreads;
+		return this;
+	}
+
+	/**
+	 * Publishes each claimed batch with one {@link io.github.djd.outbox.publisher.MessagePublisher#publishBatch(java.util.List)}
+	 * call, retried as a whole, and acknowledges it only once that call has returned, e.g. after the
+	 * Kafka transaction of a transactional {@link io.github.djd.outbox.publisher.KafkaPublisher}
+	 * committed. Applies when publishing on the polling thread; worker lanes publish message by message.
+	 */
+	public PollingProcessorConfig withBatchPublishing(boolean batchPublishing) {
+		this.batchPublishing = batchPublishing;
+		return this;
+	}
+
+	/**
+	 * Reports messages that are returned for another round or marked FAILED to {@code metrics}.
+	 * Latencies and publish lag are reported by the storage and publisher when they are wrapped
+	 * in {@link io.github.djd.outbox.metrics.InstrumentedOutboxStorage} and
+	 * {@link io.github.djd.outbox.metrics.InstrumentedMessagePublisher}.
+	 */
+	public PollingProcessorConfig withMetrics(OutboxMetrics metrics) {
+		this.metrics = metrics;
+		return this;
+	}
+
+	/**
+	 * Schedules claims fairly across topics: each poll's batch is shared by weight between
+	 * {@code topic} and the other configured topics, with all remaining topics sharing
+	 * {@link #withDefaultTopicWeight(int)}. A topic with a large backlog then only delays the others
+	 * by its share instead of filling every batch. Each topic class costs one claim query per poll.
+	 */
+	public PollingProcessorConfig withTopicWeight(String topic, int weight) {
+		topicQuotas.computeIfAbsent(topic, t -> new TopicQuota()).weight = weight;
+		return this;
+	}
+
+	/**
+	 * Claims at most {@code messagesPerSecond} messages of {@code topic}, with bursts of up to
+	 * {@code burst} messages. Enables fair scheduling like {@link #withTopicWeight(String, int)}.
+	 */
+	public PollingProcessorConfig withTopicRateLimit(String topic, double messagesPerSecond, int burst) {
+		TopicQuota quota = topicQuotas.computeIfAbsent(topic, t -> new TopicQuota());
+		quota.messagesPerSecond = messagesPerSecond;
+		quota.burst = burst;
+		return this;
+	}
+
+	/**
+	 * Weight shared by the topics without a weight or rate limit of their own, 1 by default;
+	 * 0 claims the configured topics only.
+	 */
+	public PollingProcessorConfig withDefaultTopicWeight(int weight) {
+		this.defaultTopicWeight = weight;
+		return this;
+	}
+
+	/**
+	 * Reserves {@code workerLanes} lanes and up to {@code maxInFlight} in-flight messages for the
+	 * messages with a priority of {@code minPriority} and above (up to the next band), claimed
+	 * separately from the lower priorities. A backlog of low-priority messages then fills only its
+	 * own lanes and can never hold up urgent ones. Priorities below the lowest band use the lanes
+	 * of {@link #withWorkerLanes(int, int)}, or a single lane if none are configured.
+	 * <p>
+	 * Messages are only kept in order within a band, so messages sharing an ordering key should
+	 * share a priority. Every band costs one claim query per poll.
+	 * </p>
+	 */
+	public PollingProcessorConfig withPriorityBand(int minPriority, int workerLanes, int maxInFlight) {
+		priorityBands.put(minPriority, new BandQuota(workerLanes, maxInFlight));
+		return this;
+	}
+
+	/**
+	 * Waits {@code backoff} between the attempts to publish a message instead of retrying at once.
+	 * The waits are kept on a timer wheel, so lanes and the polling thread go on publishing other
+	 * messages meanwhile. On a lane, the later messages of the failed message's ordering key wait
+	 * for its retry, so they are still published in order, while other keys are not held up.
+	 */
+	public PollingProcessorConfig withRetryBackoff(RetryBackoff backoff) {
+		this.retryBackoff = backoff;
+		return this;
+	}
+
+	/**
+	 * How often messages the storage scheduled for a later attempt are checked and, once due,
+	 * returned to PENDING (see {@link io.github.djd.outbox.storage.OutboxStorage#releaseDueRetries()}).
+	 */
+	public PollingProcessorConfig withRetryReleaseInterval(long retryReleaseIntervalMs) {
+		this.retryReleaseIntervalMs = retryReleaseIntervalMs;
+		return this;
+	}
+
+	/**
+	 * Opens a topic's circuit after {@code failureThreshold} consecutive failed publish attempts.
+	 * For {@code openDurationMs} the topic is then left out of the claims, and the messages of it
+	 * that are already claimed are returned to PENDING without counting a retry; afterwards a single
+	 * message of the topic is claimed as a probe, which closes the circuit if it is published.
+	 * With {@link #withBatchPublishing(boolean)}, a failed batch counts against every topic in it.
+	 * Requires a storage that supports {@link io.github.djd.outbox.storage.OutboxStorage#releaseMessages(java.util.Collection)}.
+	 */
+	public PollingProcessorConfig withCircuitBreaker(int failureThreshold, long openDurationMs) {
+		this.circuitBreakerFailureThreshold = failureThreshold;
+		this.circuitBreakerOpenDurationMs = openDurationMs;
+		return this;
+	}
+}
@@ -0,0 +1,127 @@
+package io.github.djd.outbox.processor;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hashed timer wheel running delayed tasks on one daemon thread.
+ * <p>
+ * Scheduling is a lock-free enqueue, and every tick only looks at the tasks of one bucket, so
+ * thousands of pending retries cost neither a thread each nor a sleeping worker. Tasks run on
+ * the wheel's thread no earlier than their delay, rounded up to the tick; they must only hand
+ * work off (e.g. to a lane), never publish themselves.
+ * </p>
+ */
+class TimerWheel {
+
+	private static final Logger logger = LoggerFactory.getLogger(TimerWheel.class);
+
+	private final long tickNanos;
+	private final List<List<Timeout>> buckets;
+	private final int mask;
+	private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+	private final Thread worker;
+	private final long startNanos = System.nanoTime();
+	private volatile boolean running = true;
+	private long tick; // accessed by the worker only
+
+	TimerWheel(String name, long tickMs, int bucketCount) {
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMs));
+		int size = Integer.highestOneBit(Math.max(2, bucketCount - 1)) << 1; // next power of two
+		this.buckets = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			buckets.add(new ArrayList<>());
+		}
+		this.mask = size - 1;
+		this.worker = new Thread(this::run, name);
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * Runs {@code task} on the wheel's thread after {@code delayMs}.
+	 */
+	void schedule(Runnable task, long delayMs) {
+		scheduled.add(new Timeout(task, System.nanoTime() - startNanos + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMs))));
+	}
+
+	/**
+	 * Stops the wheel; tasks that have not run yet are dropped.
+	 */
+	void stop() {
+		running = false;
+		LockSupport.unpark(worker);
+	}
+
+	private void run() {
+		while (running) {
+			long deadline = (tick + 1) * tickNanos;
+			long sleep;
+			while (running && (sleep = deadline - (System.nanoTime() - startNanos)) > 0) {
+				LockSupport.parkNanos(this, sleep);
+			}
+			if (!running) {
+				break;
+			}
+			transferScheduled();
+			expire(buckets.get((int) (tick & mask)));
+			tick++;
+		}
+	}
+
+	/**
+	 * Moves newly scheduled tasks into the bucket of their deadline tick, counting the full turns
+	 * of the wheel they still have to wait.
+	 */
+	private void transferScheduled() {
+		Timeout timeout;
+		while ((timeout = scheduled.poll()) != null) {
+			long deadlineTick = Math.max(tick, timeout.deadlineNanos / tickNanos);
+			timeout.rounds = (deadlineTick - tick) / buckets.size();
+			buckets.get((int) (deadlineTick & mask)).add(timeout);
+		}
+	}
+
+	private void expire(List<Timeout> bucket) {
+		Iterator<Timeout> iterator = bucket.iterator();
+		List<Timeout> due = null;
+		while (iterator.hasNext()) {
+			Timeout timeout = iterator.next();
+			if (timeout.rounds-- <= 0) {
+				iterator.remove();
+				if (due == null) {
+					due = new ArrayList<>();
+				}
+				due.add(timeout);
+			}
+		}
+		if (due != null) {
+			for (Timeout timeout : due) {
+				try {
+					timeout.task.run();
+				} catch (RuntimeException e) {
+					logger.error("Scheduled task failed: ", e);
+				}
+			}
+		}
+	}
+
+	private static class Timeout {
+		final Runnable task;
+		final long deadlineNanos; // relative to the wheel's start
+		long rounds;
+
+		Timeout(Runnable task, long deadlineNanos) {
+			this.task = task;
+			this.deadlineNanos = deadlineNanos;
+		}
+	}
+}
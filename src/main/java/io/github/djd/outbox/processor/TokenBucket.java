@@ -0,0 +1,41 @@
+package io.github.djd.outbox.processor;
+
+/**
+ * Token bucket refilled continuously at a fixed rate up to its burst size. Not thread-safe; it is
+ * only used by the polling thread.
+ */
+class TokenBucket {
+
+	private final double tokensPerNano;
+	private final double capacity;
+	private double tokens;
+	private long refilledAt;
+
+	TokenBucket(double tokensPerSecond, int burst) {
+		this.tokensPerNano = tokensPerSecond / 1_000_000_000d;
+		this.capacity = Math.max(1, burst);
+		this.tokens = capacity;
+		this.refilledAt = System.nanoTime();
+	}
+
+	/**
+	 * Takes up to {@code wanted} whole tokens.
+	 *
+	 * @return The number of tokens taken, possibly 0.
+	 */
+	int tryAcquire(int wanted) {
+		long now = System.nanoTime();
+		tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerNano);
+		refilledAt = now;
+		int granted = (int) Math.min(wanted, Math.floor(tokens));
+		tokens -= granted;
+		return granted;
+	}
+
+	/**
+	 * Returns tokens that were acquired but not used.
+	 */
+	void release(int unused) {
+		tokens = Math.min(capacity, tokens + unused);
+	}
+}
@@ -0,0 +1,131 @@
+package io.github.djd.outbox.processor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One circuit breaker per topic around publishing.
+ * <p>
+ * A topic's breaker opens after {@code failureThreshold} consecutive failed publish attempts.
+ * While it is open the processor leaves the topic out of its claims and releases the messages of
+ * the topic it still holds, without counting them as failed. Once {@code openDurationMs} has
+ * passed the breaker is half-open: a single message of the topic is claimed as a probe, and its
+ * outcome closes the breaker or opens it again.
+ * </p>
+ * <p>
+ * Topics that never failed have no breaker, so recording a success costs one map lookup.
+ * </p>
+ */
+class TopicCircuitBreakers {
+
+	private static final Logger logger = LoggerFactory.getLogger(TopicCircuitBreakers.class);
+
+	private enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final int failureThreshold;
+	private final long openDurationMs;
+	private final Map<String, Breaker> breakers = new ConcurrentHashMap<>(); // changed while holding this
+	private volatile Set<String> excludedTopics = Collections.emptySet(); // open and half-open topics
+
+	TopicCircuitBreakers(int failureThreshold, long openDurationMs) {
+		this.failureThreshold = failureThreshold;
+		this.openDurationMs = openDurationMs;
+	}
+
+	/**
+	 * Topics that must not be claimed, apart from their probes.
+	 */
+	Set<String> excludedTopics() {
+		return excludedTopics;
+	}
+
+	/**
+	 * Whether messages of the topic must be released instead of published.
+	 */
+	boolean isOpen(String topic) {
+		Breaker breaker = topic != null ? breakers.get(topic) : null;
+		return breaker != null && breaker.state == State.OPEN;
+	}
+
+	void recordSuccess(String topic) {
+		if (topic == null || !breakers.containsKey(topic)) {
+			return;
+		}
+		synchronized (this) {
+			Breaker breaker = breakers.remove(topic);
+			if (breaker != null && breaker.state != State.CLOSED) {
+				logger.info("Circuit of topic {} closed, publishing succeeded again.", topic);
+				refreshExcludedTopics();
+			}
+		}
+	}
+
+	/**
+	 * @return true if the topic's breaker is open now.
+	 */
+	synchronized boolean recordFailure(String topic) {
+		if (topic == null) {
+			return false;
+		}
+		Breaker breaker = breakers.computeIfAbsent(topic, t -> new Breaker());
+		if (breaker.state == State.HALF_OPEN
+				|| (breaker.state == State.CLOSED && ++breaker.consecutiveFailures >= failureThreshold)) {
+			logger.warn("Circuit of topic {} opened after {}, pausing its claims for {} ms.", topic,
+					breaker.state == State.HALF_OPEN ? "a failed probe" : breaker.consecutiveFailures + " consecutive failures",
+					openDurationMs);
+			breaker.state = State.OPEN;
+			breaker.since = System.currentTimeMillis();
+			refreshExcludedTopics();
+		}
+		return breaker.state == State.OPEN;
+	}
+
+	/**
+	 * Moves the breakers that have been open for {@code openDurationMs}, and the half-open ones
+	 * whose probe has not reported back within that time, to half-open.
+	 *
+	 * @return their topics, of which the caller claims one probe message each.
+	 */
+	synchronized List<String> topicsToProbe() {
+		if (breakers.isEmpty()) {
+			return Collections.emptyList();
+		}
+		List<String> topics = new ArrayList<>();
+		long now = System.currentTimeMillis();
+		for (Map.Entry<String, Breaker> entry : breakers.entrySet()) {
+			Breaker breaker = entry.getValue();
+			if (breaker.state != State.CLOSED && now - breaker.since >= openDurationMs) {
+				breaker.state = State.HALF_OPEN;
+				breaker.since = now;
+				topics.add(entry.getKey());
+			}
+		}
+		return topics;
+	}
+
+	private void refreshExcludedTopics() {
+		Set<String> topics = new HashSet<>();
+		for (Map.Entry<String, Breaker> entry : breakers.entrySet()) {
+			if (entry.getValue().state != State.CLOSED) {
+				topics.add(entry.getKey());
+			}
+		}
+		excludedTopics = Collections.unmodifiableSet(topics);
+	}
+
+	private static class Breaker {
+		volatile State state = State.CLOSED;
+		int consecutiveFailures;
+		long since; // when the breaker last opened or started probing
+	}
+}
@@ -0,0 +1,12 @@
+package io.github.djd.outbox.processor;
+
+/**
+ * Scheduling weight and optional rate limit of one topic, see
+ * {@link PollingProcessorConfig#withTopicWeight(String, int)}.
+ */
+class TopicQuota {
+
+	int weight = 1;
+	double messagesPerSecond = 0; // 0 for no rate limit
+	int burst = 0;
+}
@@ -0,0 +1,56 @@
+package io.github.djd.outbox.publisher;
+
+import com.azure.messaging.servicebus.ServiceBusMessage;
+import com.azure.messaging.servicebus.ServiceBusMessageBatch;
+import com.azure.messaging.servicebus.ServiceBusSenderClient;
+
+/**
+ * {@link ServiceBusTopicSender} backed by an Azure {@link ServiceBusSenderClient}.
+ */
+class ClientServiceBusTopicSender implements ServiceBusTopicSender {
+
+    private final ServiceBusSenderClient senderClient;
+
+    ClientServiceBusTopicSender(ServiceBusSenderClient senderClient) {
+        this.senderClient = senderClient;
+    }
+
+    @Override
+    public void sendMessage(ServiceBusMessage message) {
+        senderClient.sendMessage(message);
+    }
+
+    @Override
+    public Batch createBatch() {
+        return new ClientBatch(senderClient.createMessageBatch());
+    }
+
+    @Override
+    public void sendBatch(Batch batch) {
+        senderClient.sendMessages(((ClientBatch) batch).messageBatch);
+    }
+
+    @Override
+    public void close() {
+        senderClient.close();
+    }
+
+    private static class ClientBatch implements Batch {
+
+        private final ServiceBusMessageBatch messageBatch;
+
+        ClientBatch(ServiceBusMessageBatch messageBatch) {
+            this.messageBatch = messageBatch;
+        }
+
+        @Override
+        public boolean tryAddMessage(ServiceBusMessage message) {
+            return messageBatch.tryAddMessage(message);
+        }
+
+        @Override
+        public int getCount() {
+            return messageBatch.getCount();
+        }
+    }
+}
@@ -1,39 +1,297 @@
 package io.github.djd.outbox.publisher;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
 
 import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.errors.AuthorizationException;
+import org.apache.kafka.common.errors.OutOfOrderSequenceException;
+import org.apache.kafka.common.errors.ProducerFencedException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.github.djd.outbox.exception.MessagePublishingException;
 import io.github.djd.outbox.model.OutboxMessage;
 
+/**
+ * {@link MessagePublisher} for Apache Kafka. Each message is sent to the topic of the message (or
+ * the fixed topic of {@link KafkaPublisherConfig#withTopic(String)}), keyed by its ordering key so
+ * that messages with the same key land on the same partition in order, and with its outbox id in a
+ * header. The producer is idempotent, so retries inside the producer neither duplicate nor reorder
+ * records.
+ * <p>
+ * In transactional mode ({@link KafkaPublisherConfig#withTransactionalId(String)}) every call
+ * publishes in a Kafka transaction of its own and returns once it is committed;
+ * {@link #publishBatch(List)} publishes the whole batch in one transaction. Transactions of one
+ * publisher run one at a time. A transaction that fails for any reason is aborted; after a fatal
+ * error, e.g. when another instance took over the transactional id, the producer is closed and a
+ * new one is created for the next transaction, if the publisher was given a way to create one.
+ * </p>
+ */
 public class KafkaPublisher implements MessagePublisher {
 	
 	private static final Logger logger = LoggerFactory.getLogger(KafkaPublisher.class);
 	
-    private final KafkaProducer<String, String> producer;
+    private final Supplier<Producer<String, byte[]>> producerFactory; // null if the producer cannot be recreated
+
+    private volatile Producer<String, byte[]> producer; // null after a fatal error until recreated
     
-    private final String topic;
+    private final KafkaPublisherConfig config;
 
+    /**
+     * Creates a publisher sending every message to {@code topic}.
+     */
     public KafkaPublisher(String brokerUrl, String topic) {
+        this(brokerUrl, topic, new Properties());
+    }
+
+    /**
+     * Creates a publisher sending every message to {@code topic}, whose producer settings can be
+     * tuned for throughput. Any entry in {@code producerOverrides} (e.g. {@code linger.ms},
+     * {@code batch.size}, {@code compression.type}, {@code max.in.flight.requests.per.connection})
+     * replaces the default.
+     *
+     * @param brokerUrl The Kafka bootstrap servers.
+     * @param topic The topic messages are published to.
+     * @param producerOverrides Producer properties overriding the defaults.
+     */
+    public KafkaPublisher(String brokerUrl, String topic, Properties producerOverrides) {
+        this(brokerUrl, new KafkaPublisherConfig().withTopic(topic).withProducerOverrides(producerOverrides));
+    }
+
+    /**
+     * Creates a publisher on top of an existing producer, e.g. a {@code MockProducer} in tests,
+     * sending every message to {@code topic}.
+     */
+    public KafkaPublisher(Producer<String, byte[]> producer, String topic) {
+        this(producer, new KafkaPublisherConfig().withTopic(topic));
+    }
+
+    /**
+     * @param brokerUrl The Kafka bootstrap servers.
+     * @param config Routing, transaction and producer options.
+     */
+    public KafkaPublisher(String brokerUrl, KafkaPublisherConfig config) {
+        this(() -> new KafkaProducer<String, byte[]>(producerConfig(brokerUrl, config)), config);
+    }
+
+    /**
+     * Creates a publisher on top of an existing producer. In transactional mode the producer must
+     * have been created with the {@code transactional.id}; its transactions are initialized here.
+     * It cannot be recreated, so after a fatal error every later publish fails.
+     */
+    public KafkaPublisher(Producer<String, byte[]> producer, KafkaPublisherConfig config) {
+        this(producer, null, config);
+    }
+
+    /**
+     * Creates a publisher whose producers come from {@code producerFactory}: one right away, and in
+     * transactional mode a new one whenever the previous one failed fatally. In transactional mode
+     * the producers must be created with the {@code transactional.id}.
+     */
+    public KafkaPublisher(Supplier<Producer<String, byte[]>> producerFactory, KafkaPublisherConfig config) {
+        this(producerFactory.get(), producerFactory, config);
+    }
+
+    private KafkaPublisher(Producer<String, byte[]> producer, Supplier<Producer<String, byte[]>> producerFactory,
+            KafkaPublisherConfig config) {
+        this.producer = producer;
+        this.producerFactory = producerFactory;
+        this.config = config;
+        if (config.isTransactional()) {
+            producer.initTransactions();
+        }
+    }
+
+    private static Properties producerConfig(String brokerUrl, KafkaPublisherConfig config) {
         Properties props = new Properties();
-        props.put("bootstrap.servers", brokerUrl);
-        props.put("key.serializer", "org.apache.kafka.common.serialization.StringSerializer");
-        props.put("value.serializer", "org.apache.kafka.common.serialization.StringSerializer");
-        this.producer = new KafkaProducer<>(props);
-        this.topic = topic;
+        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, brokerUrl);
+        props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, "org.apache.kafka.common.serialization.StringSerializer");
+        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, "org.apache.kafka.common.serialization.ByteArraySerializer"); // text payloads are sent as UTF-8, as StringSerializer would
+        // Broker-confirmed, ordered and pipelined delivery
+        props.put(ProducerConfig.ACKS_CONFIG, "all");
+        props.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, "true");
+        props.put(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, "5");
+        props.put(ProducerConfig.LINGER_MS_CONFIG, "5");
+        props.put(ProducerConfig.BATCH_SIZE_CONFIG, "65536");
+        props.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, "lz4");
+        if (config.isTransactional()) {
+            props.put(ProducerConfig.TRANSACTIONAL_ID_CONFIG, config.getTransactionalId());
+        }
+        props.putAll(config.getProducerOverrides());
+        return props;
     }
 
+    /**
+     * Publishes the message and blocks until the broker has acknowledged it (or, in transactional
+     * mode, until its transaction is committed).
+     */
     @Override
-    public void publish(OutboxMessage message) {
-        producer.send(new ProducerRecord<>(topic, message.getPayload()));
-        logger.debug("Published message with ID {}.", message.getId());
+    public void publish(OutboxMessage message) throws MessagePublishingException {
+        if (config.isTransactional()) {
+            publishBatch(Collections.singletonList(message));
+            return;
+        }
+        try {
+            publishAsync(message).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagePublishingException("Interrupted while publishing message with ID " + message.getId() + ". ", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof MessagePublishingException) {
+                throw (MessagePublishingException) e.getCause();
+            }
+            throw new MessagePublishingException("Failed to publish message with ID " + message.getId() + ". ", e.getCause());
+        }
+    }
+
+    /**
+     * Hands the message to the producer and returns immediately. The future completes from the
+     * producer's send callback once the broker has acknowledged the record, so many sends can be
+     * in flight at once. In transactional mode the message is published in a transaction of its
+     * own on the calling thread instead.
+     */
+    @Override
+    public CompletableFuture<Void> publishAsync(OutboxMessage message) {
+        if (config.isTransactional()) {
+            return MessagePublisher.super.publishAsync(message);
+        }
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        try {
+            producer.send(toRecord(message), (metadata, exception) -> {
+                if (exception != null) {
+                    result.completeExceptionally(new MessagePublishingException("Failed to publish message with ID " + message.getId() + ". ", exception));
+                } else {
+                    logger.debug("Published message with ID {} to {}-{}@{}.", message.getId(), metadata.topic(), metadata.partition(), metadata.offset());
+                    result.complete(null);
+                }
+            });
+        } catch (Exception e) {
+            result.completeExceptionally(new MessagePublishingException("Failed to publish message with ID " + message.getId() + ". ", e));
+        }
+        return result;
+    }
+
+    /**
+     * Sends all messages before waiting for any of them, and returns once all are acknowledged.
+     * In transactional mode the batch is one transaction: it returns once the transaction is
+     * committed, or aborts it and throws, in which case none of the messages is visible to
+     * consumers reading committed records.
+     */
+    @Override
+    public void publishBatch(List<OutboxMessage> messages) throws MessagePublishingException {
+        if (messages.isEmpty()) {
+            return;
+        }
+        if (config.isTransactional()) {
+            publishTransaction(messages);
+            return;
+        }
+        List<CompletableFuture<Void>> results = new ArrayList<>(messages.size());
+        for (OutboxMessage message : messages) {
+            results.add(publishAsync(message));
+        }
+        try {
+            CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagePublishingException("Interrupted while publishing a batch of " + messages.size() + " messages. ", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof MessagePublishingException) {
+                throw (MessagePublishingException) e.getCause();
+            }
+            throw new MessagePublishingException("Failed to publish a batch of " + messages.size() + " messages. ", e.getCause());
+        }
+    }
+
+    private synchronized void publishTransaction(List<OutboxMessage> messages) throws MessagePublishingException {
+        Producer<String, byte[]> producer = transactionalProducer();
+        try {
+            producer.beginTransaction();
+            List<Future<RecordMetadata>> sends = new ArrayList<>(messages.size());
+            for (OutboxMessage message : messages) {
+                sends.add(producer.send(toRecord(message)));
+            }
+            producer.commitTransaction(); // flushes the sends and fails if any of them failed
+            logger.debug("Committed a transaction of {} messages.", sends.size());
+        } catch (ProducerFencedException | OutOfOrderSequenceException | AuthorizationException e) {
+            // Fatal, the producer cannot be used any more: another instance took over the transactional id
+            discardProducer(producer);
+            throw new MessagePublishingException("Failed to publish a batch of " + messages.size()
+                    + " messages, the transactional producer failed fatally. ", e);
+        } catch (Exception e) {
+            abortTransaction(producer);
+            throw new MessagePublishingException("Failed to publish a batch of " + messages.size() + " messages. ", e);
+        }
+    }
+
+    /**
+     * The producer for the next transaction, created and initialized if the previous one was
+     * discarded.
+     */
+    private Producer<String, byte[]> transactionalProducer() throws MessagePublishingException {
+        if (producer != null) {
+            return producer;
+        }
+        if (producerFactory == null) {
+            throw new MessagePublishingException("The transactional producer failed fatally and cannot be recreated. ");
+        }
+        Producer<String, byte[]> created = producerFactory.get();
+        try {
+            created.initTransactions();
+        } catch (Exception e) {
+            created.close(Duration.ZERO);
+            throw new MessagePublishingException("Failed to initialize the transactions of a new producer. ", e);
+        }
+        logger.info("Recreated the transactional producer.");
+        producer = created;
+        return created;
+    }
+
+    private void abortTransaction(Producer<String, byte[]> producer) {
+        try {
+            producer.abortTransaction();
+        } catch (Exception e) {
+            // The producer is in an error state a later transaction cannot recover from
+            logger.warn("Failed to abort the Kafka transaction, recreating the producer: {}", e.getMessage());
+            discardProducer(producer);
+        }
+    }
+
+    private void discardProducer(Producer<String, byte[]> producer) {
+        this.producer = null;
+        try {
+            producer.close(Duration.ZERO);
+        } catch (Exception e) {
+            logger.warn("Failed to close the discarded Kafka producer: {}", e.getMessage());
+        }
+    }
+
+    private ProducerRecord<String, byte[]> toRecord(OutboxMessage message) {
+        ProducerRecord<String, byte[]> record = new ProducerRecord<>(
+                config.getTopic() != null ? config.getTopic() : message.getTopic(), message.getKey(), message.getPayloadBytes());
+        if (config.getMessageIdHeader() != null && message.getId() != null) {
+            record.headers().add(config.getMessageIdHeader(), message.getId().getBytes(StandardCharsets.UTF_8));
+        }
+        return record;
     }
     
-    public void close() {
-        producer.close();
+    public synchronized void close() {
+        if (producer != null) {
+            producer.close();
+        }
         logger.debug("closed");
     }
 }
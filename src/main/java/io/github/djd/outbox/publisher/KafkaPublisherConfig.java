@@ -0,0 +1,78 @@
+package io.github.djd.outbox.publisher;
+
+import java.util.Properties;
+
+/**
+ * Options for {@link KafkaPublisher}.
+ * <p>
+ * By default every message goes to the Kafka topic named by {@link io.github.djd.outbox.model.OutboxMessage#getTopic()},
+ * keyed by its ordering key and carrying its id in the {@value #DEFAULT_MESSAGE_ID_HEADER} header.
+ * </p>
+ */
+public class KafkaPublisherConfig {
+
+	public static final String DEFAULT_MESSAGE_ID_HEADER = "outbox-message-id";
+
+	private String topic; // null routes by the message topic
+	private String transactionalId;
+	private String messageIdHeader = DEFAULT_MESSAGE_ID_HEADER;
+	private Properties producerOverrides = new Properties();
+
+	public String getTopic() {
+		return topic;
+	}
+
+	public String getTransactionalId() {
+		return transactionalId;
+	}
+
+	public boolean isTransactional() {
+		return transactionalId != null;
+	}
+
+	public String getMessageIdHeader() {
+		return messageIdHeader;
+	}
+
+	public Properties getProducerOverrides() {
+		return producerOverrides;
+	}
+
+	/**
+	 * Publishes every message to {@code topic} instead of the topic of the message.
+	 */
+	public KafkaPublisherConfig withTopic(String topic) {
+		this.topic = topic;
+		return this;
+	}
+
+	/**
+	 * Uses a transactional producer: {@link KafkaPublisher#publishBatch(java.util.List)} sends the
+	 * batch in one Kafka transaction and only returns once it is committed, so consumers reading
+	 * committed records see all of the batch or none of it. {@code transactionalId} must be stable
+	 * per outbox instance and unique across instances, so that a restarted instance fences its
+	 * previous incarnation.
+	 */
+	public KafkaPublisherConfig withTransactionalId(String transactionalId) {
+		this.transactionalId = transactionalId;
+		return this;
+	}
+
+	/**
+	 * Name of the record header carrying the outbox message id, for consumers to de-duplicate on;
+	 * null sends no header.
+	 */
+	public KafkaPublisherConfig withMessageIdHeader(String messageIdHeader) {
+		this.messageIdHeader = messageIdHeader;
+		return this;
+	}
+
+	/**
+	 * Producer properties replacing the defaults, e.g. {@code linger.ms}, {@code batch.size},
+	 * {@code compression.type} or {@code max.in.flight.requests.per.connection}.
+	 */
+	public KafkaPublisherConfig withProducerOverrides(Properties producerOverrides) {
+		this.producerOverrides = producerOverrides;
+		return this;
+	}
+}
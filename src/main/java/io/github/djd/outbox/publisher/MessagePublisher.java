@@ -1,5 +1,8 @@
 package io.github.djd.outbox.publisher;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 import io.github.djd.outbox.exception.MessagePublishingException;
 import io.github.djd.outbox.model.OutboxMessage;
 
@@ -26,6 +29,47 @@ public interface MessagePublisher {
      */
     void publish(OutboxMessage message) throws MessagePublishingException;
 
+    /**
+     * Publishes a given message without blocking the caller.
+     * The returned future completes once the messaging system has confirmed the message,
+     * or exceptionally with a {@link MessagePublishingException}. Callers must only
+     * acknowledge the message in the outbox after the future has completed successfully.
+     * <p>
+     * The default implementation publishes synchronously on the calling thread; publishers
+     * whose client supports pipelining should override it.
+     * </p>
+     *
+     * @param message The {@link OutboxMessage} to be published.
+     * @return A future completed when the message has been confirmed.
+     */
+    default CompletableFuture<Void> publishAsync(OutboxMessage message) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        try {
+            publish(message);
+            result.complete(null);
+        } catch (MessagePublishingException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Publishes several messages, letting the publisher group them into as few broker
+     * operations as possible. If an exception is thrown, some of the messages may already
+     * have been delivered; callers retry the whole batch (at-least-once delivery).
+     * <p>
+     * The default implementation publishes the messages one by one.
+     * </p>
+     *
+     * @param messages The {@link OutboxMessage}s to be published.
+     * @throws MessagePublishingException if any of the messages could not be published.
+     */
+    default void publishBatch(List<OutboxMessage> messages) throws MessagePublishingException {
+        for (OutboxMessage message : messages) {
+            publish(message);
+        }
+    }
+
     /**
      * Cleans up any resources used by the publisher (e.g., client, threads etc.).
      */
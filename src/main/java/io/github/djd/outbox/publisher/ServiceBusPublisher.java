@@ -1,19 +1,44 @@
 package io.github.djd.outbox.publisher;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.azure.core.util.BinaryData;
 import com.azure.messaging.servicebus.ServiceBusClientBuilder;
 import com.azure.messaging.servicebus.ServiceBusMessage;
-import com.azure.messaging.servicebus.ServiceBusSenderClient;
 
 import io.github.djd.outbox.exception.MessagePublishingException;
 import io.github.djd.outbox.model.OutboxMessage;
 
+/**
+ * Publishes messages to Azure Service Bus topics.
+ * <p>
+ * Senders are created lazily per topic and cached, so the AMQP link is set up once and
+ * reused. The cache is bounded (least recently used senders are closed first) and senders
+ * that have been idle for longer than the idle timeout are closed in the background.
+ * A sender evicted while a send is still using it is closed once the last such send returns.
+ * </p>
+ */
 public class ServiceBusPublisher implements MessagePublisher {
     
 	private static final Logger logger = LoggerFactory.getLogger(ServiceBusPublisher.class);
 	
-	private final ServiceBusClientBuilder clientBuilder;
+	private static final int DEFAULT_MAX_SENDERS = 64;
+	private static final long DEFAULT_SENDER_IDLE_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(5);
+	
+	private final ServiceBusSenderFactory senderFactory;
+	private final int maxSenders;
+	private final long senderIdleTimeoutMs;
+	private final Map<String, CachedSender> senders;
+	private final ScheduledExecutorService evictionExecutor;
 
 //    public ServiceBusPublisher(String connectionString) {
 //        this.clientBuilder = new ServiceBusClientBuilder()
@@ -21,35 +46,198 @@ public class ServiceBusPublisher implements MessagePublisher {
 //    }
     
     public ServiceBusPublisher(ServiceBusClientBuilder clientBuilder) {
-        this.clientBuilder = clientBuilder;
+        this(topic -> new ClientServiceBusTopicSender(clientBuilder.sender().topicName(topic).buildClient()),
+        		DEFAULT_MAX_SENDERS, DEFAULT_SENDER_IDLE_TIMEOUT_MS);
+    }
+
+    /**
+     * @param senderFactory Creates the sender of a topic on first use.
+     * @param maxSenders Maximum number of cached senders.
+     * @param senderIdleTimeoutMs Senders unused for this long are closed.
+     */
+    public ServiceBusPublisher(ServiceBusSenderFactory senderFactory, int maxSenders, long senderIdleTimeoutMs) {
+        this.senderFactory = senderFactory;
+        this.maxSenders = maxSenders;
+        this.senderIdleTimeoutMs = senderIdleTimeoutMs;
+        this.senders = new LinkedHashMap<>(16, 0.75f, true); // access order, eldest is least recently used
+        this.evictionExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        	Thread thread = new Thread(r, "servicebus-sender-eviction");
+        	thread.setDaemon(true);
+        	return thread;
+        });
+        long sweepIntervalMs = Math.max(1000, senderIdleTimeoutMs / 2);
+        this.evictionExecutor.scheduleWithFixedDelay(this::evictIdleSenders, sweepIntervalMs, sweepIntervalMs, TimeUnit.MILLISECONDS);
     }
 
     @Override
     public void publish(OutboxMessage message) throws MessagePublishingException {
-    	ServiceBusSenderClient senderClient = null;
+    	CachedSender cached = null;
     	try {
     		// The message destination topic-name is in the message
-    		// Create a sender for the topic
-            senderClient = clientBuilder.sender()
-                    .topicName(message.getTopic())
-                    .buildClient();
-    		
-    		ServiceBusMessage serviceBusMessage = new ServiceBusMessage(message.getPayload());
-            serviceBusMessage.setSubject(message.getTopic());
-            senderClient.sendMessage(serviceBusMessage);
+    		cached = acquireSender(message.getTopic());
+    		cached.sender.sendMessage(toServiceBusMessage(message));
             logger.info("Published message with ID {}.", message.getId());
     	} catch(Exception e) {
     		throw new MessagePublishingException("Failed to publish message with ID " + message.getId() + ". ", e);
+    	} finally {
+    		if (cached != null) {
+    			releaseSender(message.getTopic(), cached);
+    		}
+    	}
+    }
+
+    /**
+     * Publishes the messages grouped by topic, packing each group into as few
+     * Service Bus batches as the size limit allows.
+     */
+    @Override
+    public void publishBatch(List<OutboxMessage> messages) throws MessagePublishingException {
+    	Map<String, List<OutboxMessage>> byTopic = new LinkedHashMap<>();
+    	for (OutboxMessage message : messages) {
+    		byTopic.computeIfAbsent(message.getTopic(), topic -> new ArrayList<>()).add(message);
+    	}
+    	for (Map.Entry<String, List<OutboxMessage>> entry : byTopic.entrySet()) {
+    		CachedSender cached = null;
+    		try {
+    			cached = acquireSender(entry.getKey());
+    			sendBatches(cached.sender, entry.getValue());
+    		} catch (MessagePublishingException e) {
+    			throw e;
+    		} catch (Exception e) {
+    			throw new MessagePublishingException("Failed to publish batch of " + entry.getValue().size() + " messages to topic " + entry.getKey() + ". ", e);
+    		} finally {
+    			if (cached != null) {
+    				releaseSender(entry.getKey(), cached);
+    			}
+    		}
+    	}
+    }
+
+    private void sendBatches(ServiceBusTopicSender sender, List<OutboxMessage> messages) {
+    	ServiceBusTopicSender.Batch batch = sender.createBatch();
+    	for (OutboxMessage message : messages) {
+    		ServiceBusMessage serviceBusMessage = toServiceBusMessage(message);
+    		if (batch.tryAddMessage(serviceBusMessage)) {
+    			continue;
+    		}
+    		// The batch is full, send it and start a new one
+    		if (batch.getCount() > 0) {
+    			sender.sendBatch(batch);
+    			batch = sender.createBatch();
+    		}
+    		if (!batch.tryAddMessage(serviceBusMessage)) {
+    			throw new MessagePublishingException("Message with ID " + message.getId() + " exceeds the maximum batch size.");
+    		}
+    	}
+    	if (batch.getCount() > 0) {
+    		sender.sendBatch(batch);
+    	}
+    	logger.info("Published {} messages.", messages.size());
+    }
+
+    private ServiceBusMessage toServiceBusMessage(OutboxMessage message) {
+    	ServiceBusMessage serviceBusMessage = message.isBinary()
+    			? new ServiceBusMessage(BinaryData.fromBytes(message.getBinaryPayload()))
+    			: new ServiceBusMessage(message.getPayload());
+        serviceBusMessage.setSubject(message.getTopic());
+        serviceBusMessage.setMessageId(message.getId());
+        return serviceBusMessage;
+    }
+
+    /**
+     * Returns the cached sender of the topic, creating it on first use, and counts the caller as
+     * using it until {@link #releaseSender(String, CachedSender)}.
+     */
+    private CachedSender acquireSender(String topic) {
+    	synchronized (senders) {
+    		CachedSender cached = senders.get(topic);
+    		if (cached == null) {
+    			cached = new CachedSender(senderFactory.create(topic));
+    			senders.put(topic, cached);
+    			logger.debug("Created Servicebus sender for topic {}.", topic);
+    		}
+    		cached.inUse++;
+    		cached.lastUsedMs = System.currentTimeMillis();
+    		evictEldestSenders();
+    		return cached;
+    	}
+    }
+
+    /**
+     * Ends a use of the sender, closing it if it was evicted meanwhile and this was its last use.
+     */
+    private void releaseSender(String topic, CachedSender cached) {
+    	synchronized (senders) {
+    		if (--cached.inUse == 0 && cached.evicted) {
+    			closeSender(topic, cached);
+    		}
+    	}
+    }
+
+    private void evictEldestSenders() {
+    	Iterator<Map.Entry<String, CachedSender>> it = senders.entrySet().iterator();
+    	while (senders.size() > maxSenders && it.hasNext()) {
+    		Map.Entry<String, CachedSender> eldest = it.next();
+    		it.remove();
+    		retireSender(eldest.getKey(), eldest.getValue());
+    	}
+    }
+
+    /**
+     * Closes a sender that has been removed from the cache, or, while sends are still using it,
+     * leaves it to the last of them to close. Called with the cache lock held.
+     */
+    private void retireSender(String topic, CachedSender cached) {
+    	if (cached.inUse > 0) {
+    		cached.evicted = true;
+    		logger.debug("Servicebus sender for topic {} evicted, closing it once its sends have returned.", topic);
+    	} else {
+    		closeSender(topic, cached);
+    	}
+    }
+
+    private void evictIdleSenders() {
+    	long idleSince = System.currentTimeMillis() - senderIdleTimeoutMs;
+    	synchronized (senders) {
+    		Iterator<Map.Entry<String, CachedSender>> it = senders.entrySet().iterator();
+    		while (it.hasNext()) {
+    			Map.Entry<String, CachedSender> entry = it.next();
+    			if (entry.getValue().lastUsedMs < idleSince) {
+    				it.remove();
+    				retireSender(entry.getKey(), entry.getValue());
+    			}
+    		}
+    	}
+    }
+
+    private void closeSender(String topic, CachedSender cached) {
+    	try {
+    		cached.sender.close();
+    		logger.debug("Servicebus sender for topic {} closed.", topic);
+    	} catch (Exception e) {
+    		logger.warn("Error closing Servicebus sender for topic {}.", topic, e);
     	}
-        finally {
-        	if(senderClient!=null) {
-        		senderClient.close();
-        		logger.debug("Servicebus client closed.");
-        	}
-        }
     }
 
     public void close() {
+    	evictionExecutor.shutdown();
+    	synchronized (senders) {
+    		for (Map.Entry<String, CachedSender> entry : senders.entrySet()) {
+    			retireSender(entry.getKey(), entry.getValue());
+    		}
+    		senders.clear();
+    	}
         logger.debug("closed");
     }
+
+    private static class CachedSender {
+    	private final ServiceBusTopicSender sender;
+    	private volatile long lastUsedMs;
+    	private int inUse; // sends currently using the sender; guarded by the cache lock
+    	private boolean evicted; // removed from the cache while in use, closed by its last send
+
+    	CachedSender(ServiceBusTopicSender sender) {
+    		this.sender = sender;
+    	}
+    }
 }
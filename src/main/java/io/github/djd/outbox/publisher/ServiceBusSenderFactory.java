@@ -0,0 +1,11 @@
+package io.github.djd.outbox.publisher;
+
+/**
+ * Creates the {@link ServiceBusTopicSender} for a topic. Called once per topic by
+ * {@link ServiceBusPublisher}, which caches the result.
+ */
+@FunctionalInterface
+public interface ServiceBusSenderFactory {
+
+    ServiceBusTopicSender create(String topic);
+}
@@ -0,0 +1,49 @@
+package io.github.djd.outbox.publisher;
+
+import com.azure.messaging.servicebus.ServiceBusMessage;
+
+/**
+ * A sender bound to one Service Bus topic.
+ * <p>
+ * This is the seam between {@link ServiceBusPublisher} and the Azure client, so that the
+ * publisher's caching and batching can be exercised with a fake sender and no namespace.
+ * </p>
+ */
+public interface ServiceBusTopicSender extends AutoCloseable {
+
+    /**
+     * Sends a single message.
+     */
+    void sendMessage(ServiceBusMessage message);
+
+    /**
+     * Creates an empty batch bounded by the maximum message size of the link.
+     */
+    Batch createBatch();
+
+    /**
+     * Sends all messages of the batch in one operation.
+     */
+    void sendBatch(Batch batch);
+
+    /**
+     * Closes the underlying link.
+     */
+    @Override
+    void close();
+
+    /**
+     * A size-bounded batch of messages.
+     */
+    interface Batch {
+
+        /**
+         * Adds the message if it still fits into the batch.
+         *
+         * @return false if the batch is full.
+         */
+        boolean tryAddMessage(ServiceBusMessage message);
+
+        int getCount();
+    }
+}
@@ -0,0 +1,169 @@
+package io.github.djd.outbox.service;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+
+import io.github.djd.outbox.model.OutboxMessage;
+import io.github.djd.outbox.storage.OutboxStorage;
+
+/**
+ * Gathers the messages of concurrent callers and writes them with one
+ * {@link OutboxStorage#saveMessages(List)} call (group commit).
+ * <p>
+ * A single writer thread takes the first queued message, then keeps collecting until
+ * {@code maxBatchSize} messages are gathered or {@code maxDelayMicros} has passed, and writes
+ * the batch. Messages arriving while a batch is being written form the next batch, so under load
+ * the batches grow on their own and every caller pays a share of one round trip.
+ * </p>
+ * <p>
+ * Each caller's future completes once the batch containing its message is durably stored. If the
+ * write fails, all futures of the batch complete exceptionally, except when a MongoDB bulk insert
+ * reports which of its messages failed: then only their futures do.
+ * </p>
+ */
+class GroupCommitWriter implements AutoCloseable {
+
+	private static final Logger logger = LoggerFactory.getLogger(GroupCommitWriter.class);
+
+	private final OutboxStorage storage;
+	private final int maxBatchSize;
+	private final long maxDelayNanos;
+	private final BlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();
+	private final Thread writer;
+	private volatile boolean running = true;
+
+	GroupCommitWriter(OutboxStorage storage, int maxBatchSize, long maxDelayMicros) {
+		this.storage = storage;
+		this.maxBatchSize = maxBatchSize;
+		this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+		this.writer = new Thread(this::run, "outbox-group-commit");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	CompletableFuture<Void> submit(OutboxMessage message) {
+		PendingWrite write = new PendingWrite(message);
+		if (!running) {
+			write.future.completeExceptionally(new IllegalStateException("The outbox group commit writer is closed."));
+			return write.future;
+		}
+		queue.add(write);
+		if (!running && queue.remove(write)) {
+			// Closed in between; neither the writer nor close() will see the message
+			write.future.completeExceptionally(new IllegalStateException("The outbox group commit writer is closed."));
+		}
+		return write.future;
+	}
+
+	private void run() {
+		List<PendingWrite> batch = new ArrayList<>(maxBatchSize);
+		while (running || !queue.isEmpty()) {
+			try {
+				PendingWrite first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+				long deadline = System.nanoTime() + maxDelayNanos;
+				while (batch.size() < maxBatchSize) {
+					queue.drainTo(batch, maxBatchSize - batch.size());
+					long remaining = deadline - System.nanoTime();
+					if (batch.size() >= maxBatchSize || remaining <= 0) {
+						break;
+					}
+					PendingWrite next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+					if (next == null) {
+						break;
+					}
+					batch.add(next);
+				}
+				write(batch);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} finally {
+				batch.clear();
+			}
+		}
+	}
+
+	private void write(List<PendingWrite> batch) {
+		List<OutboxMessage> messages = new ArrayList<>(batch.size());
+		for (PendingWrite write : batch) {
+			messages.add(write.message);
+		}
+		try {
+			storage.saveMessages(messages);
+			logger.trace("Group committed {} messages.", messages.size());
+		} catch (MongoBulkWriteException e) {
+			if (e.getWriteConcernError() != null) {
+				failAll(batch, e);
+				return;
+			}
+			Set<Integer> failed = new HashSet<>();
+			for (BulkWriteError error : e.getWriteErrors()) {
+				failed.add(error.getIndex());
+			}
+			logger.error("Failed to store {} of a batch of {} messages.", failed.size(), messages.size(), e);
+			for (int i = 0; i < batch.size(); i++) {
+				if (failed.contains(i)) {
+					batch.get(i).future.completeExceptionally(e);
+				} else {
+					batch.get(i).future.complete(null);
+				}
+			}
+			return;
+		} catch (Throwable e) { // an Error escaping here would end the writer thread and strand every later caller
+			failAll(batch, e);
+			return;
+		}
+		for (PendingWrite write : batch) {
+			write.future.complete(null);
+		}
+	}
+
+	private void failAll(List<PendingWrite> batch, Throwable e) {
+		logger.error("Failed to store a batch of {} messages.", batch.size(), e);
+		for (PendingWrite write : batch) {
+			write.future.completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * Stops accepting messages and waits until the ones already submitted are written.
+	 */
+	@Override
+	public void close() {
+		running = false;
+		try {
+			writer.join(TimeUnit.SECONDS.toMillis(10));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		PendingWrite write;
+		while ((write = queue.poll()) != null) {
+			write.future.completeExceptionally(new IllegalStateException("The outbox group commit writer was closed before the message was stored."));
+		}
+	}
+
+	private static class PendingWrite {
+		final OutboxMessage message;
+		final CompletableFuture<Void> future = new CompletableFuture<>();
+
+		PendingWrite(OutboxMessage message) {
+			this.message = message;
+		}
+	}
+}
@@ -1,5 +1,7 @@
 package io.github.djd.outbox.service;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -30,6 +32,7 @@ public class OutboxService {
     private final OutboxStorage storage;
     private MessageProcessor processor;
     private final ExecutorService executorService;
+    private volatile GroupCommitWriter groupCommitWriter; // null until group commit is enabled
     
     private static final int DEAFULT_POLLING_INTERVAL_IN_MILLI_SEC = 5000;
     private static final int DEFAULT_RETRY = 3;
@@ -62,7 +65,7 @@ public class OutboxService {
      * @return An instance of {@link OutboxService} initialized with a default {@link PollingProcessor}.
      */
     public static OutboxService withDefaultProcessor(OutboxStorage storage, MessagePublisher publisher) {
-        logger.info("Starting the PollingProcessor with polling interval {}ms and retry value {}.", DEAFULT_POLLING_INTERVAL_IN_MILLI_SEC, DEFAULT_RETRY);
+        logger.info("Starting the PollingProcessor with maximum polling interval {}ms and retry value {}.", DEAFULT_POLLING_INTERVAL_IN_MILLI_SEC, DEFAULT_RETRY);
         return new OutboxService(storage, new PollingProcessor(storage, publisher, DEAFULT_POLLING_INTERVAL_IN_MILLI_SEC, DEFAULT_RETRY));
     }
     
@@ -80,6 +83,58 @@ public class OutboxService {
         }
     }
 
+    /**
+     * Stores the provided messages in the outbox storage with a single write.
+     * 
+     * @param messages The {@link OutboxMessage} instances to be stored in the outbox.
+     */
+    public void storeMessages(List<OutboxMessage> messages) {
+        try {
+            storage.saveMessages(messages);
+            logger.debug("Saved {} messages", messages.size());
+        } catch (Exception e) {
+            logger.error("Failed to store {} messages: ", messages.size(), e);
+        }
+    }
+
+    /**
+     * Enables group commit for {@link #storeMessageAsync(OutboxMessage)}: messages of concurrent
+     * callers are gathered for up to {@code maxDelayMicros} or {@code maxBatchSize} messages and
+     * stored with one {@link OutboxStorage#saveMessages(List)} call.
+     * 
+     * @param maxBatchSize Maximum number of messages written together.
+     * @param maxDelayMicros Maximum time the first message of a batch waits for others.
+     * @return This service.
+     */
+    public synchronized OutboxService withGroupCommit(int maxBatchSize, long maxDelayMicros) {
+        if (groupCommitWriter == null) {
+            groupCommitWriter = new GroupCommitWriter(storage, maxBatchSize, maxDelayMicros);
+        }
+        return this;
+    }
+
+    /**
+     * Stores the provided message in the outbox storage. With group commit enabled the message is
+     * written together with those of concurrent callers, otherwise it is written immediately.
+     * 
+     * @param message The {@link OutboxMessage} to be stored in the outbox.
+     * @return A future that completes once the message is durably stored, or exceptionally if it could not be.
+     */
+    public CompletableFuture<Void> storeMessageAsync(OutboxMessage message) {
+        GroupCommitWriter writer = groupCommitWriter;
+        if (writer != null) {
+            return writer.submit(message);
+        }
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            storage.saveMessage(message);
+            future.complete(null);
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
     /**
      * Starts the message processing in a separate thread using the {@link ExecutorService}.
      * This method submits the {@link MessageProcessor}'s startProcessing method for execution.
@@ -95,7 +150,11 @@ public class OutboxService {
      */
     private void shutdown() {
         logger.debug("Shutting down OutboxService...");
+        if (groupCommitWriter != null) {
+            groupCommitWriter.close();  // Write the messages still being gathered
+        }
         processor.stopProcessing();  // Ensure processor stops
+        storage.close();  // Flush buffered acknowledgements
         executorService.shutdownNow();  // Stop executor
         logger.info("OutboxService shutdown successfully.");
     }
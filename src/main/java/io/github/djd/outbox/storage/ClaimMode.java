@@ -0,0 +1,18 @@
+package io.github.djd.outbox.storage;
+
+/**
+ * Strategy used by {@link MongoOutboxStorage} to claim (lock) PENDING messages.
+ */
+public enum ClaimMode {
+
+	/**
+	 * One {@code findOneAndUpdate} per message. A batch of N messages costs N round trips.
+	 */
+	SINGLE,
+
+	/**
+	 * Tags up to N PENDING messages with a per-call claim token in a single {@code updateMany}
+	 * and reads them back with one cursor. The claim cost is constant per batch.
+	 */
+	BATCH
+}
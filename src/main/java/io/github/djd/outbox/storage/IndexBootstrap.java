@@ -0,0 +1,22 @@
+package io.github.djd.outbox.storage;
+
+/**
+ * What {@link MongoOutboxStorage} does about the outbox indexes on startup.
+ */
+public enum IndexBootstrap {
+
+	/**
+	 * Neither create nor verify indexes; they are managed outside the application.
+	 */
+	DISABLED,
+
+	/**
+	 * Create the indexes and log a warning for every outbox query that would scan the collection.
+	 */
+	WARN_ON_COLLSCAN,
+
+	/**
+	 * Create the indexes and refuse to start if any outbox query would scan the collection.
+	 */
+	FAIL_ON_COLLSCAN
+}
@@ -0,0 +1,95 @@
+package io.github.djd.outbox.storage;
+
+/**
+ * Tuning options for {@link JdbcOutboxStorage}.
+ * <p>
+ * The defaults are suitable for most deployments; override only what is needed, e.g.
+ * {@code new JdbcOutboxConfig().withTableName("orders_outbox")}.
+ * </p>
+ */
+public class JdbcOutboxConfig {
+
+	private String tableName = "outbox";
+	private long leaseDurationMs = 15000;
+	private boolean createSchema = true;
+	private int partitionsAhead = 3;
+	private int retentionDays = 7;
+	private long partitionMaintenanceIntervalMs = 60 * 60 * 1000;
+	private RetryBackoff retryBackoff; // null returns failed messages to PENDING at once
+
+	public String getTableName() {
+		return tableName;
+	}
+
+	/**
+	 * Name of the outbox table; its daily partitions are named {@code <tableName>_pYYYYMMDD}.
+	 */
+	public JdbcOutboxConfig withTableName(String tableName) {
+		this.tableName = tableName;
+		return this;
+	}
+
+	public long getLeaseDurationMs() {
+		return leaseDurationMs;
+	}
+
+	/**
+	 * How long a claim stays valid without being renewed. Claims of an instance that stops
+	 * renewing them are returned to PENDING once this has elapsed.
+	 */
+	public JdbcOutboxConfig withLeaseDuration(long leaseDurationMs) {
+		this.leaseDurationMs = leaseDurationMs;
+		return this;
+	}
+
+	public boolean isCreateSchema() {
+		return createSchema;
+	}
+
+	/**
+	 * Whether the partitioned table and its indexes are created on startup if they do not exist.
+	 * Disable when the schema is managed by migrations.
+	 */
+	public JdbcOutboxConfig withCreateSchema(boolean createSchema) {
+		this.createSchema = createSchema;
+		return this;
+	}
+
+	public int getPartitionsAhead() {
+		return partitionsAhead;
+	}
+
+	public int getRetentionDays() {
+		return retentionDays;
+	}
+
+	public long getPartitionMaintenanceIntervalMs() {
+		return partitionMaintenanceIntervalMs;
+	}
+
+	/**
+	 * Daily partitions are created {@code partitionsAhead} days in advance, and dropped once they
+	 * are older than {@code retentionDays} and hold only COMPLETED or FAILED messages.
+	 * Maintenance runs on startup and every {@code maintenanceIntervalMs}.
+	 */
+	public JdbcOutboxConfig withDailyPartitions(int partitionsAhead, int retentionDays, long maintenanceIntervalMs) {
+		this.partitionsAhead = partitionsAhead;
+		this.retentionDays = retentionDays;
+		this.partitionMaintenanceIntervalMs = maintenanceIntervalMs;
+		return this;
+	}
+
+	public RetryBackoff getRetryBackoff() {
+		return retryBackoff;
+	}
+
+	/**
+	 * Schedules failed messages that have retries left (status SCHEDULED, with a {@code next_attempt_at}
+	 * following {@code backoff}) instead of returning them to PENDING at once;
+	 * {@link JdbcOutboxStorage#releaseDueRetries()} returns them to PENDING once they are due.
+	 */
+	public JdbcOutboxConfig withRetryBackoff(RetryBackoff backoff) {
+		this.retryBackoff = backoff;
+		return this;
+	}
+}
@@ -0,0 +1,638 @@
+package io.github.djd.outbox.storage;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.github.djd.outbox.exception.OutboxStorageException;
+import io.github.djd.outbox.model.MessageProcessingStatus;
+import io.github.djd.outbox.model.OutboxMessage;
+
+/**
+ * {@link OutboxStorage} on PostgreSQL (11 or later) through plain JDBC.
+ * <p>
+ * A batch is claimed with a single statement,
+ * {@code UPDATE ... WHERE (id, created_at) IN (SELECT ... FOR UPDATE SKIP LOCKED LIMIT n) RETURNING ...}:
+ * rows locked by a concurrent claim are skipped instead of waited for, so any number of instances
+ * can claim from the same table without blocking each other or claiming a message twice.
+ * Acknowledgements are sent as JDBC batches. The creation time of every claimed message is kept
+ * in memory until it is acknowledged, failed or released, so that these updates address one
+ * partition instead of probing the primary key index of each.
+ * </p>
+ * <p>
+ * The table is range-partitioned by day on {@code created_at}, so old messages are purged by
+ * dropping whole partitions instead of deleting rows. {@link #saveMessage(Connection, OutboxMessage)}
+ * writes with the caller's connection, so the message commits or rolls back with the caller's
+ * business transaction.
+ * </p>
+ */
+public class JdbcOutboxStorage implements OutboxStorage {
+
+	private static final Logger logger = LoggerFactory.getLogger(JdbcOutboxStorage.class);
+
+	private static final Pattern TABLE_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+	private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("yyyyMMdd");
+	private static final String COLUMNS = "id, topic, message_key, payload, payload_binary, status, created_at, processed_at, processed_by, retry_count, priority";
+	// Acknowledgements and failures only apply while this instance holds the claim, so a late one cannot overwrite a reclaimed message;
+	// the partition key lets PostgreSQL prune the update to the message's partition
+	private static final String HELD_BY_THIS_INSTANCE = "id = ? AND created_at = ? AND status = 'IN_PROGRESS' AND processed_by = ?";
+
+	private final DataSource dataSource;
+	private final JdbcOutboxConfig config;
+	private final String table;
+	private final String instanceId;
+	private final ScheduledExecutorService maintenanceScheduler;
+	private final Map<String, Timestamp> claimedCreatedAt = new ConcurrentHashMap<>(); // partition key of the messages claimed by this instance
+
+	public JdbcOutboxStorage(DataSource dataSource) {
+		this(dataSource, new JdbcOutboxConfig());
+	}
+
+	public JdbcOutboxStorage(DataSource dataSource, JdbcOutboxConfig config) {
+		if (!TABLE_NAME.matcher(config.getTableName()).matches()) {
+			throw new IllegalArgumentException("Invalid outbox table name: " + config.getTableName());
+		}
+		this.dataSource = dataSource;
+		this.config = config;
+		this.table = config.getTableName();
+		this.instanceId = UUID.randomUUID().toString(); // Unique ID for this service instance
+		if (config.isCreateSchema()) {
+			createSchema();
+		}
+		maintainPartitions();
+		this.maintenanceScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "outbox-partition-maintenance");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long interval = config.getPartitionMaintenanceIntervalMs();
+		this.maintenanceScheduler.scheduleWithFixedDelay(this::maintainPartitionsQuietly, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Creates the partitioned outbox table and the partial indexes serving the claim, lease and retry queries.
+	 */
+	private void createSchema() {
+		withConnection("create the outbox schema", connection -> {
+			try (Statement statement = connection.createStatement()) {
+				statement.execute("CREATE TABLE IF NOT EXISTS " + table + " ("
+						+ "id VARCHAR(64) NOT NULL, "
+						+ "topic VARCHAR(255) NOT NULL, "
+						+ "message_key VARCHAR(255), "
+						+ "payload TEXT, "
+						+ "payload_binary BYTEA, "
+						+ "status VARCHAR(16) NOT NULL, "
+						+ "created_at TIMESTAMPTZ NOT NULL, "
+						+ "processed_at TIMESTAMPTZ, "
+						+ "processed_by VARCHAR(64), "
+						+ "retry_count INT NOT NULL DEFAULT 0, "
+						+ "priority INT NOT NULL DEFAULT 0, "
+						+ "lease_expires_at TIMESTAMPTZ, "
+						+ "next_attempt_at TIMESTAMPTZ, "
+						+ "PRIMARY KEY (id, created_at)"
+						+ ") PARTITION BY RANGE (created_at)");
+				statement.execute("CREATE INDEX IF NOT EXISTS " + table + "_claim ON " + table + " (priority DESC, created_at) WHERE status = 'PENDING'");
+				statement.execute("CREATE INDEX IF NOT EXISTS " + table + "_claim_topic ON " + table + " (topic, priority DESC, created_at) WHERE status = 'PENDING'");
+				statement.execute("CREATE INDEX IF NOT EXISTS " + table + "_lease ON " + table + " (lease_expires_at) WHERE status = 'IN_PROGRESS'");
+				statement.execute("CREATE INDEX IF NOT EXISTS " + table + "_owner ON " + table + " (processed_by) WHERE status = 'IN_PROGRESS'");
+				statement.execute("CREATE INDEX IF NOT EXISTS " + table + "_retry ON " + table + " (next_attempt_at) WHERE status = 'SCHEDULED'");
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Creates the daily partitions for today and the configured number of days ahead, and drops
+	 * partitions older than the retention that no longer hold unprocessed or FAILED messages.
+	 */
+	public void maintainPartitions() {
+		LocalDate today = LocalDate.now(ZoneOffset.UTC);
+		withConnection("maintain the outbox partitions", connection -> {
+			try (Statement statement = connection.createStatement()) {
+				for (int day = 0; day <= config.getPartitionsAhead(); day++) {
+					LocalDate date = today.plusDays(day);
+					statement.execute("CREATE TABLE IF NOT EXISTS " + partitionName(date) + " PARTITION OF " + table
+							+ " FOR VALUES FROM ('" + date + " 00:00:00+00') TO ('" + date.plusDays(1) + " 00:00:00+00')");
+				}
+			}
+			LocalDate oldestKept = today.minusDays(config.getRetentionDays());
+			for (String partition : listPartitions(connection)) {
+				LocalDate date = partitionDate(partition);
+				if (date != null && date.isBefore(oldestKept)) {
+					dropIfSettled(connection, partition);
+				}
+			}
+			return null;
+		});
+	}
+
+	private void maintainPartitionsQuietly() {
+		try {
+			maintainPartitions();
+		} catch (OutboxStorageException e) {
+			logger.error("Outbox partition maintenance failed, retrying in {} ms.", config.getPartitionMaintenanceIntervalMs(), e);
+		}
+	}
+
+	private List<String> listPartitions(Connection connection) throws SQLException {
+		List<String> partitions = new ArrayList<>();
+		try (PreparedStatement statement = connection.prepareStatement(
+				"SELECT child.relname FROM pg_inherits i "
+						+ "JOIN pg_class child ON child.oid = i.inhrelid "
+						+ "JOIN pg_class parent ON parent.oid = i.inhparent "
+						+ "WHERE parent.relname = ?")) {
+			statement.setString(1, table.toLowerCase());
+			try (ResultSet rows = statement.executeQuery()) {
+				while (rows.next()) {
+					partitions.add(rows.getString(1));
+				}
+			}
+		}
+		return partitions;
+	}
+
+	private void dropIfSettled(Connection connection, String partition) throws SQLException {
+		try (Statement statement = connection.createStatement()) {
+			try (ResultSet open = statement.executeQuery("SELECT 1 FROM " + partition
+					+ " WHERE status IN ('PENDING', 'IN_PROGRESS', 'SCHEDULED', 'FAILED') LIMIT 1")) {
+				if (open.next()) {
+					logger.warn("Keeping expired outbox partition {}, it still holds unprocessed or failed messages.", partition);
+					return;
+				}
+			}
+			statement.execute("DROP TABLE " + partition);
+			logger.info("Dropped expired outbox partition {}.", partition);
+		}
+	}
+
+	private String partitionName(LocalDate date) {
+		return table + "_p" + PARTITION_SUFFIX.format(date);
+	}
+
+	private LocalDate partitionDate(String partition) {
+		String prefix = table.toLowerCase() + "_p";
+		if (!partition.startsWith(prefix) || partition.length() != prefix.length() + 8) {
+			return null;
+		}
+		try {
+			return LocalDate.parse(partition.substring(prefix.length()), PARTITION_SUFFIX);
+		} catch (RuntimeException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public void saveMessage(OutboxMessage message) {
+		withConnection("save message " + message.getId(), connection -> {
+			saveMessage(connection, message);
+			return null;
+		});
+	}
+
+	/**
+	 * Persists a new message with the caller's connection, without committing it, so that the
+	 * message becomes visible only when the caller's transaction commits.
+	 *
+	 * @param connection The connection of the business transaction the message belongs to.
+	 * @param message The {@link OutboxMessage} to be stored.
+	 */
+	public void saveMessage(Connection connection, OutboxMessage message) {
+		saveMessages(connection, Collections.singletonList(message));
+	}
+
+	@Override
+	public void saveMessages(List<OutboxMessage> messages) {
+		if (messages.isEmpty()) {
+			return;
+		}
+		withConnection("save " + messages.size() + " messages", connection -> {
+			saveMessages(connection, messages);
+			return null;
+		});
+	}
+
+	/**
+	 * Persists a batch of new messages with one JDBC batch on the caller's connection, without
+	 * committing it.
+	 *
+	 * @param connection The connection of the business transaction the messages belong to.
+	 * @param messages The {@link OutboxMessage} instances to be stored.
+	 */
+	public void saveMessages(Connection connection, List<OutboxMessage> messages) {
+		try (PreparedStatement statement = connection.prepareStatement("INSERT INTO " + table
+				+ " (id, topic, message_key, payload, payload_binary, status, created_at, retry_count, priority) VALUES (?, ?, ?, ?, ?, ?, now(), 0, ?)")) {
+			for (OutboxMessage message : messages) {
+				statement.setString(1, message.getId());
+				statement.setString(2, message.getTopic());
+				statement.setString(3, message.getKey());
+				statement.setString(4, message.getPayload());
+				statement.setBytes(5, message.getBinaryPayload());
+				statement.setString(6, MessageProcessingStatus.PENDING.name());
+				statement.setInt(7, message.getPriority());
+				statement.addBatch();
+			}
+			statement.executeBatch();
+		} catch (SQLException e) {
+			throw new OutboxStorageException("Failed to save " + messages.size() + " messages", e);
+		}
+		logger.debug("Added {} messages.", messages.size());
+	}
+
+	/**
+	 * Fetch a batch of messages and mark them as IN_PROGRESS atomically
+	 *
+	 * @return List of locked messages
+	 */
+	@Override
+	public List<OutboxMessage> fetchUnprocessedMessages(int count) {
+		return fetchUnprocessedMessages(count, null);
+	}
+
+	/**
+	 * Fetch a batch of messages created before the given time and mark them as IN_PROGRESS
+	 * atomically, skipping rows that concurrent claims hold locked.
+	 *
+	 * @return List of locked messages
+	 */
+	@Override
+	public List<OutboxMessage> fetchUnprocessedMessages(int count, Date createdBefore) {
+		return fetchUnprocessedMessages(count, createdBefore, null, null);
+	}
+
+	/**
+	 * Fetch a batch of messages of the selected topics created before the given time and mark them
+	 * as IN_PROGRESS atomically, skipping rows that concurrent claims hold locked.
+	 *
+	 * @return List of locked messages
+	 */
+	@Override
+	public List<OutboxMessage> fetchUnprocessedMessages(int count, Date createdBefore, TopicSelector topics) {
+		return fetchUnprocessedMessages(count, createdBefore, topics, null);
+	}
+
+	/**
+	 * Fetch a batch of messages of the selected topics and priorities created before the given time
+	 * and mark them as IN_PROGRESS atomically, highest priority first.
+	 *
+	 * @return List of locked messages
+	 */
+	@Override
+	public List<OutboxMessage> fetchUnprocessedMessages(int count, Date createdBefore, TopicSelector topics,
+			PriorityRange priorities) {
+		String candidates = "SELECT id, created_at FROM " + table + " WHERE status = 'PENDING'"
+				+ (createdBefore != null ? " AND created_at < ?" : "")
+				+ (topics != null ? (topics.isExcluding() ? " AND topic <> ALL(?)" : " AND topic = ANY(?)") : "")
+				+ (priorities != null ? " AND priority >= ? AND priority < ?" : "")
+				+ " ORDER BY priority DESC, created_at LIMIT ? FOR UPDATE SKIP LOCKED";
+		List<OutboxMessage> lockedMessages = claim(candidates, statement -> {
+			int index = 3;
+			if (createdBefore != null) {
+				statement.setTimestamp(index++, new Timestamp(createdBefore.getTime()));
+			}
+			if (topics != null) {
+				statement.setArray(index++, statement.getConnection().createArrayOf("varchar", topics.getTopics().toArray()));
+			}
+			if (priorities != null) {
+				statement.setInt(index++, priorities.getMin());
+				statement.setInt(index++, priorities.getMax());
+			}
+			statement.setInt(index, count);
+		});
+		logger.debug("Fetching {} {} for processing.", lockedMessages.size(), lockedMessages.size() == 1 ? "message" : "messages");
+		return lockedMessages;
+	}
+
+	/**
+	 * Claims the given messages, skipping those that are no longer PENDING or are being claimed
+	 * by another instance right now.
+	 *
+	 * @return List of locked messages
+	 */
+	@Override
+	public List<OutboxMessage> claimMessages(Collection<String> messageIds) {
+		if (messageIds.isEmpty()) {
+			return new ArrayList<>();
+		}
+		return withConnection("claim messages", connection -> {
+			Array ids = connection.createArrayOf("varchar", messageIds.toArray());
+			return claim(connection, "SELECT id, created_at FROM " + table + " WHERE id = ANY(?) AND status = 'PENDING' FOR UPDATE SKIP LOCKED",
+					statement -> statement.setArray(3, ids));
+		});
+	}
+
+	private List<OutboxMessage> claim(String candidates, Binder binder) {
+		return withConnection("claim messages", connection -> claim(connection, candidates, binder));
+	}
+
+	/**
+	 * Marks the rows selected by {@code candidates} as IN_PROGRESS in one statement and returns them,
+	 * highest priority and oldest first. Parameters 1 and 2 are the owner and the lease duration, {@code binder} sets the rest.
+	 */
+	private List<OutboxMessage> claim(Connection connection, String candidates, Binder binder) throws SQLException {
+		List<OutboxMessage> lockedMessages = new ArrayList<>();
+		try (PreparedStatement statement = connection.prepareStatement("UPDATE " + table
+				+ " SET status = 'IN_PROGRESS', processed_at = now(), processed_by = ?,"
+				+ " lease_expires_at = now() + make_interval(secs => ?)"
+				+ " WHERE (id, created_at) IN (" + candidates + ")"
+				+ " RETURNING " + COLUMNS)) {
+			statement.setString(1, instanceId);
+			statement.setDouble(2, config.getLeaseDurationMs() / 1000.0);
+			binder.bind(statement);
+			try (ResultSet rows = statement.executeQuery()) {
+				while (rows.next()) {
+					OutboxMessage message = fromRow(rows);
+					claimedCreatedAt.put(message.getId(), rows.getTimestamp("created_at"));
+					lockedMessages.add(message);
+				}
+			}
+		}
+		// RETURNING has no defined order
+		lockedMessages.sort(Comparator.comparing(OutboxMessage::getPriority).reversed().thenComparing(OutboxMessage::getCreatedAt));
+		return lockedMessages;
+	}
+
+	private static OutboxMessage fromRow(ResultSet row) throws SQLException {
+		OutboxMessage message = new OutboxMessage(
+				row.getString("id"),
+				row.getString("topic"),
+				row.getString("payload"),
+				MessageProcessingStatus.valueOf(row.getString("status")),
+				row.getTimestamp("created_at"),
+				row.getTimestamp("processed_at"),
+				row.getString("processed_by"),
+				row.getInt("retry_count"));
+		message.setKey(row.getString("message_key"));
+		message.setBinaryPayload(row.getBytes("payload_binary"));
+		message.setPriority(row.getInt("priority"));
+		return message;
+	}
+
+	/**
+	 * Mark message as COMPLETED after successful publishing
+	 * @param messageId Unique message ID
+	 */
+	@Override
+	public void markMessageAsProcessed(String messageId) {
+		markMessagesAsProcessed(Collections.singletonList(messageId));
+	}
+
+	/**
+	 * Mark a batch of messages as COMPLETED with one JDBC batch.
+	 * @param messageIds Unique message IDs
+	 */
+	@Override
+	public void markMessagesAsProcessed(Collection<String> messageIds) {
+		if (messageIds.isEmpty()) {
+			return;
+		}
+		int updated = executeBatch("acknowledge messages", "UPDATE " + table
+				+ " SET status = 'COMPLETED', lease_expires_at = NULL WHERE " + HELD_BY_THIS_INSTANCE, messageIds);
+		if (updated < messageIds.size()) {
+			logger.warn("{} of {} messages are no longer held by this instance, ignoring their acknowledgement.",
+					messageIds.size() - updated, messageIds.size());
+		}
+		logger.debug("Updated {} messages, set status to {}.", updated, MessageProcessingStatus.COMPLETED);
+	}
+
+	/**
+	 * Handle failures by retrying or marking the message as FAILED.
+	 * @param messageId Unique message ID
+	 * @param maxRetries Maximum retry attempts
+	 */
+	@Override
+	public void markMessageAsFailed(String messageId, int maxRetries) {
+		markMessagesAsFailed(Collections.singletonList(messageId), maxRetries);
+	}
+
+	/**
+	 * Handle failures of a batch of messages with one JDBC batch. Each message either returns to
+	 * PENDING (or, with a retry back-off, becomes SCHEDULED until its {@code next_attempt_at}) with an
+	 * incremented retry count or becomes FAILED once {@code maxRetries} has been reached.
+	 * @param messageIds Unique message IDs
+	 * @param maxRetries Maximum retry attempts
+	 */
+	@Override
+	public void markMessagesAsFailed(Collection<String> messageIds, int maxRetries) {
+		if (messageIds.isEmpty()) {
+			return;
+		}
+		RetryBackoff backoff = config.getRetryBackoff();
+		if (backoff == null) {
+			executeBatch("mark messages as failed", "UPDATE " + table + " SET"
+					+ " status = CASE WHEN retry_count >= ? THEN 'FAILED' ELSE 'PENDING' END,"
+					+ " retry_count = CASE WHEN retry_count >= ? THEN retry_count ELSE retry_count + 1 END,"
+					+ " processed_by = NULL, lease_expires_at = NULL"
+					+ " WHERE " + HELD_BY_THIS_INSTANCE, messageIds, maxRetries, maxRetries);
+		} else {
+			executeBatch("mark messages as failed", "UPDATE " + table + " SET"
+					+ " status = CASE WHEN retry_count >= ? THEN 'FAILED' ELSE 'SCHEDULED' END,"
+					+ " retry_count = CASE WHEN retry_count >= ? THEN retry_count ELSE retry_count + 1 END,"
+					+ " next_attempt_at = CASE WHEN retry_count >= ? THEN NULL ELSE now() + make_interval(secs =>"
+					+ " LEAST(" + backoff.getMaxDelayMs() + ", " + backoff.getInitialDelayMs() + " * power(" + backoff.getMultiplier() + ", retry_count))"
+					+ " * (1 - " + backoff.getJitter() + " * random()) / 1000.0) END,"
+					+ " processed_by = NULL, lease_expires_at = NULL"
+					+ " WHERE " + HELD_BY_THIS_INSTANCE, messageIds, maxRetries, maxRetries, maxRetries);
+		}
+		logger.warn("Updated {} failed messages, set status to {} or {} depending on their retry count.", messageIds.size(),
+				backoff != null ? MessageProcessingStatus.SCHEDULED : MessageProcessingStatus.PENDING, MessageProcessingStatus.FAILED);
+	}
+
+	/**
+	 * Runs {@code sql}, which ends in {@link #HELD_BY_THIS_INSTANCE}, once per message id, binding
+	 * {@code parameters} first, then the id, its creation time and this instance's id. Messages
+	 * this instance has not claimed are skipped, the update would not match them anyway. The ids are
+	 * forgotten only once the batch has run, so a failed batch can be applied again.
+	 *
+	 * @return the number of updated rows.
+	 */
+	private int executeBatch(String action, String sql, Collection<String> messageIds, int... parameters) {
+		List<String> held = new ArrayList<>(messageIds.size());
+		List<Timestamp> createdAt = new ArrayList<>(messageIds.size());
+		for (String messageId : messageIds) {
+			Timestamp created = claimedCreatedAt.get(messageId);
+			if (created != null) {
+				held.add(messageId);
+				createdAt.add(created);
+			}
+		}
+		if (held.isEmpty()) {
+			return 0;
+		}
+		int batchUpdated = withConnection(action, connection -> {
+			try (PreparedStatement statement = connection.prepareStatement(sql)) {
+				for (int i = 0; i < held.size(); i++) {
+					int index = 1;
+					for (int parameter : parameters) {
+						statement.setInt(index++, parameter);
+					}
+					statement.setString(index++, held.get(i));
+					statement.setTimestamp(index++, createdAt.get(i));
+					statement.setString(index, instanceId);
+					statement.addBatch();
+				}
+				int updated = 0;
+				for (int count : statement.executeBatch()) {
+					updated += Math.max(count, 0); // SUCCESS_NO_INFO is negative
+				}
+				return updated;
+			}
+		});
+		for (String messageId : held) {
+			claimedCreatedAt.remove(messageId);
+		}
+		return batchUpdated;
+	}
+
+	/**
+	 * Renews the lease of the given messages that this instance still holds IN_PROGRESS.
+	 */
+	@Override
+	public void extendLeases(Collection<String> messageIds) {
+		if (messageIds.isEmpty()) {
+			return;
+		}
+		int extended = withConnection("extend leases", connection -> {
+			try (PreparedStatement statement = connection.prepareStatement("UPDATE " + table
+					+ " SET lease_expires_at = now() + make_interval(secs => ?)"
+					+ " WHERE id = ANY(?) AND status = 'IN_PROGRESS' AND processed_by = ?")) {
+				statement.setDouble(1, config.getLeaseDurationMs() / 1000.0);
+				statement.setArray(2, connection.createArrayOf("varchar", messageIds.toArray()));
+				statement.setString(3, instanceId);
+				return statement.executeUpdate();
+			}
+		});
+		logger.trace("Extended the lease of {} messages.", extended);
+	}
+
+	/**
+	 * Returns every message this instance still holds IN_PROGRESS to PENDING.
+	 */
+	@Override
+	public void releaseLeases() {
+		claimedCreatedAt.clear();
+		int released = update("release leases", "UPDATE " + table
+				+ " SET status = 'PENDING', processed_by = NULL, lease_expires_at = NULL"
+				+ " WHERE status = 'IN_PROGRESS' AND processed_by = ?", instanceId);
+		logger.info("Released {} claimed messages.", released);
+	}
+
+	/**
+	 * Returns the given messages to PENDING if this instance still holds them, leaving their retry count as is.
+	 */
+	@Override
+	public void releaseMessages(Collection<String> messageIds) {
+		if (messageIds.isEmpty()) {
+			return;
+		}
+		int released = withConnection("release messages", connection -> {
+			try (PreparedStatement statement = connection.prepareStatement("UPDATE " + table
+					+ " SET status = 'PENDING', processed_by = NULL, lease_expires_at = NULL"
+					+ " WHERE id = ANY(?) AND status = 'IN_PROGRESS' AND processed_by = ?")) {
+				statement.setArray(1, connection.createArrayOf("varchar", messageIds.toArray()));
+				statement.setString(2, instanceId);
+				return statement.executeUpdate();
+			}
+		});
+		for (String messageId : messageIds) {
+			claimedCreatedAt.remove(messageId);
+		}
+		logger.debug("Released {} claimed messages.", released);
+	}
+
+	/**
+	 * Returns IN_PROGRESS messages whose lease has expired, e.g. because the owning instance died, to PENDING.
+	 */
+	@Override
+	public int reclaimExpiredLeases() {
+		int reclaimed = update("reclaim expired leases", "UPDATE " + table
+				+ " SET status = 'PENDING', processed_by = NULL, lease_expires_at = NULL"
+				+ " WHERE status = 'IN_PROGRESS' AND lease_expires_at < now()");
+		if (reclaimed > 0) {
+			logger.warn("Reclaimed {} messages with an expired lease.", reclaimed);
+		}
+		return reclaimed;
+	}
+
+	/**
+	 * Returns SCHEDULED messages whose {@code next_attempt_at} has passed to PENDING.
+	 */
+	@Override
+	public int releaseDueRetries() {
+		if (config.getRetryBackoff() == null) {
+			return 0;
+		}
+		int released = update("release due retries", "UPDATE " + table
+				+ " SET status = 'PENDING', next_attempt_at = NULL"
+				+ " WHERE status = 'SCHEDULED' AND next_attempt_at <= now()");
+		if (released > 0) {
+			logger.debug("Released {} messages due for another attempt.", released);
+		}
+		return released;
+	}
+
+	private int update(String action, String sql, Object... parameters) {
+		return withConnection(action, connection -> {
+			try (PreparedStatement statement = connection.prepareStatement(sql)) {
+				for (int i = 0; i < parameters.length; i++) {
+					statement.setObject(i + 1, parameters[i]);
+				}
+				return statement.executeUpdate();
+			}
+		});
+	}
+
+	/**
+	 * Stops the background partition maintenance.
+	 */
+	@Override
+	public void close() {
+		maintenanceScheduler.shutdown();
+	}
+
+	/**
+	 * Runs {@code work} on a connection from the data source, in auto-commit mode.
+	 */
+	private <T> T withConnection(String action, SqlWork<T> work) {
+		try (Connection connection = dataSource.getConnection()) {
+			if (!connection.getAutoCommit()) {
+				connection.setAutoCommit(true);
+			}
+			return work.apply(connection);
+		} catch (SQLException e) {
+			throw new OutboxStorageException("Failed to " + action, e);
+		}
+	}
+
+	private interface SqlWork<T> {
+		T apply(Connection connection) throws SQLException;
+	}
+
+	private interface Binder {
+		void bind(PreparedStatement statement) throws SQLException;
+	}
+}
@@ -0,0 +1,88 @@
+package io.github.djd.outbox.storage;
+
+/**
+ * Tuning options for {@link JournalOutboxStorage}.
+ * <p>
+ * The defaults are suitable for most deployments; override only what is needed, e.g.
+ * {@code new JournalOutboxConfig().withFsyncInterval(0)}.
+ * </p>
+ */
+public class JournalOutboxConfig {
+
+	private int segmentSize = 64 * 1024 * 1024;
+	private int maxRecordsPerSegment = 256 * 1024;
+	private long fsyncIntervalMs = 10; // 0 forces every save to disk before it returns
+	private long compactionIntervalMs = 60000;
+	private long leaseDurationMs = 15000;
+	private RetryBackoff retryBackoff; // null returns failed messages to PENDING at once
+
+	public int getSegmentSize() {
+		return segmentSize;
+	}
+
+	public int getMaxRecordsPerSegment() {
+		return maxRecordsPerSegment;
+	}
+
+	/**
+	 * Size of a journal segment file, and the number of records its status index has room for.
+	 * A new segment is started once either is exhausted. A single message must fit in one segment.
+	 */
+	public JournalOutboxConfig withSegmentSize(int segmentSize, int maxRecordsPerSegment) {
+		this.segmentSize = segmentSize;
+		this.maxRecordsPerSegment = maxRecordsPerSegment;
+		return this;
+	}
+
+	public long getFsyncIntervalMs() {
+		return fsyncIntervalMs;
+	}
+
+	/**
+	 * How often saved messages and status changes are forced to disk. All writes within one
+	 * interval share a single fsync; a crash of the machine (not just the process) may lose
+	 * up to one interval of them. 0 forces every save to disk before {@code saveMessage} returns.
+	 */
+	public JournalOutboxConfig withFsyncInterval(long fsyncIntervalMs) {
+		this.fsyncIntervalMs = fsyncIntervalMs;
+		return this;
+	}
+
+	public long getCompactionIntervalMs() {
+		return compactionIntervalMs;
+	}
+
+	/**
+	 * How often segments in which every message is COMPLETED or FAILED are removed.
+	 */
+	public JournalOutboxConfig withCompactionInterval(long compactionIntervalMs) {
+		this.compactionIntervalMs = compactionIntervalMs;
+		return this;
+	}
+
+	public long getLeaseDurationMs() {
+		return leaseDurationMs;
+	}
+
+	/**
+	 * How long a claim stays valid without being renewed before the message is returned to PENDING.
+	 */
+	public JournalOutboxConfig withLeaseDuration(long leaseDurationMs) {
+		this.leaseDurationMs = leaseDurationMs;
+		return this;
+	}
+
+	public RetryBackoff getRetryBackoff() {
+		return retryBackoff;
+	}
+
+	/**
+	 * Schedules failed messages that have retries left following {@code backoff} instead of
+	 * returning them to PENDING at once. Due times are kept in memory; messages still scheduled
+	 * when the process stops are PENDING again after a restart.
+	 */
+	public JournalOutboxConfig withRetryBackoff(RetryBackoff backoff) {
+		this.retryBackoff = backoff;
+		return this;
+	}
+}
@@ -0,0 +1,558 @@
+package io.github.djd.outbox.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.github.djd.outbox.model.OutboxMessage;
+
+/**
+ * Local, durable {@link OutboxStorage} for deployments without MongoDB (edge nodes, sidecars).
+ * <p>
+ * Messages are appended to a segmented journal of memory-mapped files in {@code directory};
+ * their PENDING / IN_PROGRESS / SCHEDULED / COMPLETED / FAILED state and retry count live in a memory-mapped
+ * status index next to each segment (see {@link JournalSegment}), so a save is a memory copy and
+ * acknowledging a message is a one-byte write. Changes are forced to disk by a background thread
+ * once per fsync interval (group commit). Segments in which every message is COMPLETED or FAILED
+ * are removed in the background; the FAILED records are kept in a {@code failed-<segment>.log} file.
+ * </p>
+ * <p>
+ * The journal belongs to a single process. Claims are tracked in memory, and on restart messages
+ * that were IN_PROGRESS or SCHEDULED are returned to PENDING and delivered again (at-least-once).
+ * </p>
+ */
+public class JournalOutboxStorage implements OutboxStorage {
+
+	private static final Logger logger = LoggerFactory.getLogger(JournalOutboxStorage.class);
+
+	private final Path directory;
+	private final JournalOutboxConfig config;
+	private final ConcurrentSkipListMap<Long, JournalSegment> segments = new ConcurrentSkipListMap<>();
+	private final Map<String, Claim> claims = new ConcurrentHashMap<>();
+	private final PriorityQueue<Retry> retries = new PriorityQueue<>(); // SCHEDULED messages by due time; guarded by stateLock
+	private final TreeSet<Long> reopened = new TreeSet<>(); // positions before the claim cursor returned to PENDING; guarded by stateLock
+	private final ScheduledExecutorService scheduler;
+	private final Object appendLock = new Object();
+	private final Object stateLock = new Object();
+	private volatile JournalSegment active;
+
+	// first entry not looked at by a claim yet, apart from PENDING ones a filter left behind; guarded by stateLock
+	private long claimSegment;
+	private int claimOrdinal;
+
+	// first entry that may not be COMPLETED or FAILED yet; guarded by stateLock
+	private long settledSegment;
+	private int settledOrdinal;
+
+	public JournalOutboxStorage(Path directory) {
+		this(directory, new JournalOutboxConfig());
+	}
+
+	public JournalOutboxStorage(Path directory, JournalOutboxConfig config) {
+		this.directory = directory;
+		this.config = config;
+		try {
+			Files.createDirectories(directory);
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "segment-*.log")) {
+				for (Path file : files) {
+					String name = file.getFileName().toString();
+					long id = Long.parseLong(name.substring("segment-".length(), name.length() - ".log".length()));
+					segments.put(id, JournalSegment.open(directory, id, config.getSegmentSize(), config.getMaxRecordsPerSegment()));
+				}
+			}
+			if (segments.isEmpty()) {
+				segments.put(0L, JournalSegment.open(directory, 0, config.getSegmentSize(), config.getMaxRecordsPerSegment()));
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to open the outbox journal in " + directory, e);
+		}
+		for (JournalSegment segment : segments.headMap(segments.lastKey()).values()) {
+			segment.seal();
+		}
+		this.active = segments.lastEntry().getValue();
+		this.claimSegment = segments.firstKey();
+		this.settledSegment = segments.firstKey();
+		logger.info("Opened the outbox journal in {} with {} segments.", directory, segments.size());
+
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "outbox-journal");
+			thread.setDaemon(true);
+			return thread;
+		});
+		if (config.getFsyncIntervalMs() > 0) {
+			scheduler.scheduleWithFixedDelay(this::force, config.getFsyncIntervalMs(), config.getFsyncIntervalMs(), TimeUnit.MILLISECONDS);
+		}
+		scheduler.scheduleWithFixedDelay(this::compact, config.getCompactionIntervalMs(), config.getCompactionIntervalMs(), TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void saveMessage(OutboxMessage message) {
+		long createdAt = System.currentTimeMillis();
+		byte[] body = JournalSegment.encode(message, createdAt);
+		synchronized (appendLock) {
+			append(message, body, createdAt);
+			if (config.getFsyncIntervalMs() == 0) {
+				active.force();
+			}
+		}
+		logger.debug("Added message with ID {}.", message.getId());
+	}
+
+	/**
+	 * Appends the batch under one lock acquisition and, without a group-commit interval, one fsync.
+	 */
+	@Override
+	public void saveMessages(List<OutboxMessage> messages) {
+		long createdAt = System.currentTimeMillis();
+		List<byte[]> bodies = new ArrayList<>(messages.size());
+		for (OutboxMessage message : messages) {
+			bodies.add(JournalSegment.encode(message, createdAt));
+		}
+		synchronized (appendLock) {
+			for (int i = 0; i < messages.size(); i++) {
+				append(messages.get(i), bodies.get(i), createdAt);
+			}
+			if (config.getFsyncIntervalMs() == 0) {
+				force();
+			}
+		}
+		logger.debug("Added {} messages.", messages.size());
+	}
+
+	/**
+	 * Appends one record to the active segment, rolling to a new segment when it is full.
+	 * Called with the append lock held.
+	 */
+	private void append(OutboxMessage message, byte[] body, long createdAt) {
+		if (active.append(body, createdAt, message.getPriority()) < 0) {
+			roll();
+			if (active.append(body, createdAt, message.getPriority()) < 0) {
+				throw new IllegalArgumentException("Message " + message.getId() + " of " + body.length
+						+ " bytes does not fit in a journal segment of " + config.getSegmentSize() + " bytes.");
+			}
+		}
+	}
+
+	/**
+	 * Seals the active segment and starts the next one. Called with the append lock held.
+	 */
+	private void roll() {
+		JournalSegment full = active;
+		full.seal();
+		full.force();
+		long id = full.getId() + 1;
+		try {
+			JournalSegment next = JournalSegment.open(directory, id, config.getSegmentSize(), config.getMaxRecordsPerSegment());
+			segments.put(id, next);
+			active = next;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to create journal segment " + id + " in " + directory, e);
+		}
+		logger.debug("Started journal segment {}.", id);
+	}
+
+	/**
+	 * Claims up to {@code count} PENDING messages, oldest first.
+	 *
+	 * @return List of locked messages
+	 */
+	@Override
+	public List<OutboxMessage> fetchUnprocessedMessages(int count) {
+		return fetchUnprocessedMessages(count, null);
+	}
+
+	/**
+	 * Claims up to {@code count} PENDING messages created before the given time, oldest first.
+	 * Messages returned to PENDING are taken from an ordered set first; new messages are found by
+	 * scanning the status index from the claim cursor, past which no message has been looked at
+	 * yet, so a claim does not read the entries of messages that are still in flight.
+	 *
+	 * @return List of locked messages
+	 */
+	@Override
+	public List<OutboxMessage> fetchUnprocessedMessages(int count, Date createdBefore) {
+		return fetchUnprocessedMessages(count, createdBefore, null, null);
+	}
+
+	/**
+	 * Claims up to {@code count} PENDING messages of the selected topics created before the given
+	 * time, oldest first. Only the topic of the PENDING candidates is decoded to select them.
+	 *
+	 * @return List of locked messages
+	 */
+	@Override
+	public List<OutboxMessage> fetchUnprocessedMessages(int count, Date createdBefore, TopicSelector topics) {
+		return fetchUnprocessedMessages(count, createdBefore, topics, null);
+	}
+
+	/**
+	 * Claims up to {@code count} PENDING messages of the selected topics and priorities created
+	 * before the given time. The journal claims in append order whatever the priority, so priority
+	 * bands are served by selecting their range; priorities above 127 are stored as 127.
+	 *
+	 * @return List of locked messages
+	 */
+	@Override
+	public List<OutboxMessage> fetchUnprocessedMessages(int count, Date createdBefore, TopicSelector topics,
+			PriorityRange priorities) {
+		List<OutboxMessage> lockedMessages = new ArrayList<>();
+		long now = System.currentTimeMillis();
+		synchronized (stateLock) {
+			// Messages returned to PENDING behind the claim cursor are older than any ahead of it
+			Iterator<Long> iterator = reopened.iterator();
+			while (iterator.hasNext() && lockedMessages.size() < count) {
+				long position = iterator.next();
+				JournalSegment segment = segments.get(position >>> 32);
+				int ordinal = (int) position;
+				if (segment == null || segment.status(ordinal) != JournalSegment.PENDING) {
+					iterator.remove();
+				} else if (matches(segment, ordinal, createdBefore, topics, priorities)) {
+					iterator.remove();
+					lockedMessages.add(claim(segment, ordinal, now));
+				}
+			}
+			boolean contiguous = true; // everything scanned so far is claimed or not PENDING
+			for (JournalSegment segment : segments.tailMap(claimSegment, true).values()) {
+				if (lockedMessages.size() >= count) {
+					break;
+				}
+				boolean sealed = segment.isSealed(); // read before the count, which is final once sealed
+				int records = segment.getRecordCount();
+				int ordinal = segment.getId() == claimSegment ? claimOrdinal : 0;
+				for (; ordinal < records && lockedMessages.size() < count; ordinal++) {
+					if (segment.status(ordinal) == JournalSegment.PENDING) {
+						if (matches(segment, ordinal, createdBefore, topics, priorities)) {
+							lockedMessages.add(claim(segment, ordinal, now));
+						} else {
+							contiguous = false;
+						}
+					}
+					if (contiguous) {
+						claimSegment = segment.getId();
+						claimOrdinal = ordinal + 1;
+					}
+				}
+				if (contiguous && sealed && ordinal == records) {
+					claimSegment = segment.getId() + 1;
+					claimOrdinal = 0;
+				}
+			}
+		}
+		logger.debug("Fetching {} {} for processing.", lockedMessages.size(), lockedMessages.size() == 1 ? "message" : "messages");
+		return lockedMessages;
+	}
+
+	private static boolean matches(JournalSegment segment, int ordinal, Date createdBefore, TopicSelector topics,
+			PriorityRange priorities) {
+		return (createdBefore == null || segment.createdAt(ordinal) < createdBefore.getTime())
+				&& (priorities == null || priorities.matches(segment.priority(ordinal)))
+				&& (topics == null || topics.matches(segment.topic(ordinal)));
+	}
+
+	/**
+	 * Marks the entry IN_PROGRESS and tracks the claim. Called with the state lock held.
+	 */
+	private OutboxMessage claim(JournalSegment segment, int ordinal, long now) {
+		segment.setStatus(ordinal, JournalSegment.IN_PROGRESS);
+		OutboxMessage message = segment.read(ordinal);
+		message.setProcessedAt(new Date(now));
+		claims.put(message.getId(), new Claim(segment, ordinal, now));
+		return message;
+	}
+
+	/**
+	 * Returns the entry to PENDING, remembering it if the claim cursor has already passed it.
+	 * Called with the state lock held.
+	 */
+	private void reopen(JournalSegment segment, int ordinal) {
+		segment.setStatus(ordinal, JournalSegment.PENDING);
+		long position = position(segment.getId(), ordinal);
+		if (position < position(claimSegment, claimOrdinal)) {
+			reopened.add(position);
+		}
+	}
+
+	private static long position(long segmentId, int ordinal) {
+		return segmentId << 32 | ordinal;
+	}
+
+	@Override
+	public void markMessageAsProcessed(String messageId) {
+		Claim claim = claims.remove(messageId);
+		if (claim == null) {
+			logger.warn("Message with ID {} is not claimed, ignoring its acknowledgement.", messageId);
+			return;
+		}
+		synchronized (stateLock) {
+			claim.segment.setStatus(claim.ordinal, JournalSegment.COMPLETED);
+		}
+	}
+
+	@Override
+	public void markMessagesAsProcessed(Collection<String> messageIds) {
+		synchronized (stateLock) {
+			for (String messageId : messageIds) {
+				markMessageAsProcessed(messageId);
+			}
+		}
+	}
+
+	/**
+	 * Returns the message to PENDING (or, with a retry back-off, schedules its next attempt) with an
+	 * incremented retry count, or marks it FAILED once {@code maxRetries} has been reached.
+	 */
+	@Override
+	public void markMessageAsFailed(String messageId, int maxRetries) {
+		Claim claim = claims.remove(messageId);
+		if (claim == null) {
+			logger.warn("Message with ID {} is not claimed, ignoring its failure.", messageId);
+			return;
+		}
+		synchronized (stateLock) {
+			int retryCount = claim.segment.retryCount(claim.ordinal);
+			if (retryCount >= maxRetries) {
+				claim.segment.setStatus(claim.ordinal, JournalSegment.FAILED);
+				logger.warn("Message with ID {} failed after {} retries.", messageId, retryCount);
+			} else {
+				claim.segment.setRetryCount(claim.ordinal, retryCount + 1);
+				if (config.getRetryBackoff() != null) {
+					long dueAt = System.currentTimeMillis() + config.getRetryBackoff().delayMs(retryCount + 1);
+					retries.add(new Retry(claim.segment, claim.ordinal, dueAt));
+					claim.segment.setStatus(claim.ordinal, JournalSegment.SCHEDULED);
+				} else {
+					reopen(claim.segment, claim.ordinal);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void markMessagesAsFailed(Collection<String> messageIds, int maxRetries) {
+		synchronized (stateLock) {
+			for (String messageId : messageIds) {
+				markMessageAsFailed(messageId, maxRetries);
+			}
+		}
+	}
+
+	@Override
+	public void extendLeases(Collection<String> messageIds) {
+		long now = System.currentTimeMillis();
+		for (String messageId : messageIds) {
+			Claim claim = claims.get(messageId);
+			if (claim != null) {
+				claim.claimedAt = now;
+			}
+		}
+	}
+
+	@Override
+	public void releaseLeases() {
+		int released = release(Long.MAX_VALUE);
+		logger.info("Released {} claimed messages.", released);
+	}
+
+	@Override
+	public int reclaimExpiredLeases() {
+		int reclaimed = release(System.currentTimeMillis() - config.getLeaseDurationMs());
+		if (reclaimed > 0) {
+			logger.warn("Reclaimed {} messages with an expired lease.", reclaimed);
+		}
+		return reclaimed;
+	}
+
+	/**
+	 * Returns the given claimed messages to PENDING, leaving their retry count as is.
+	 */
+	@Override
+	public void releaseMessages(Collection<String> messageIds) {
+		synchronized (stateLock) {
+			for (String messageId : messageIds) {
+				Claim claim = claims.remove(messageId);
+				if (claim != null) {
+					reopen(claim.segment, claim.ordinal);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the SCHEDULED messages whose retry is due to PENDING.
+	 */
+	@Override
+	public int releaseDueRetries() {
+		int released = 0;
+		long now = System.currentTimeMillis();
+		synchronized (stateLock) {
+			while (!retries.isEmpty() && retries.peek().dueAt <= now) {
+				Retry retry = retries.poll();
+				reopen(retry.segment, retry.ordinal);
+				released++;
+			}
+		}
+		return released;
+	}
+
+	/**
+	 * Returns the messages claimed before {@code claimedBefore} to PENDING.
+	 */
+	private int release(long claimedBefore) {
+		int released = 0;
+		synchronized (stateLock) {
+			Iterator<Claim> iterator = claims.values().iterator();
+			while (iterator.hasNext()) {
+				Claim claim = iterator.next();
+				if (claim.claimedAt < claimedBefore) {
+					iterator.remove();
+					reopen(claim.segment, claim.ordinal);
+					released++;
+				}
+			}
+		}
+		return released;
+	}
+
+	/**
+	 * Forces the pending changes of all segments to disk, one fsync for everything written since the last call.
+	 */
+	private void force() {
+		try {
+			for (JournalSegment segment : segments.values()) {
+				segment.force();
+			}
+		} catch (RuntimeException e) {
+			logger.error("Failed to force the outbox journal to disk.", e);
+		}
+	}
+
+	/**
+	 * Removes the sealed segments in which every message is COMPLETED or FAILED. The FAILED records
+	 * are first copied to a {@code failed-} file.
+	 */
+	private void compact() {
+		List<JournalSegment> settled;
+		synchronized (stateLock) {
+			advanceSettledCursor();
+			settled = new ArrayList<>(segments.headMap(settledSegment).values());
+		}
+		for (JournalSegment segment : settled) {
+			try {
+				int failed = archiveFailed(segment);
+				segments.remove(segment.getId());
+				segment.delete();
+				logger.info("Compacted journal segment {} ({} messages, {} failed).", segment.getId(), segment.getRecordCount(), failed);
+			} catch (IOException e) {
+				logger.error("Failed to compact journal segment {}.", segment.getId(), e);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Moves the settled cursor past the COMPLETED and FAILED entries since the last compaction.
+	 * Called with the state lock held.
+	 */
+	private void advanceSettledCursor() {
+		for (JournalSegment segment : segments.tailMap(settledSegment, true).values()) {
+			boolean sealed = segment.isSealed(); // read before the count, which is final once sealed
+			int records = segment.getRecordCount();
+			int ordinal = segment.getId() == settledSegment ? settledOrdinal : 0;
+			while (ordinal < records && (segment.status(ordinal) == JournalSegment.COMPLETED || segment.status(ordinal) == JournalSegment.FAILED)) {
+				ordinal++;
+			}
+			if (!sealed || ordinal < records) {
+				settledSegment = segment.getId();
+				settledOrdinal = ordinal;
+				return;
+			}
+			settledSegment = segment.getId() + 1;
+			settledOrdinal = 0;
+		}
+	}
+
+	private int archiveFailed(JournalSegment segment) throws IOException {
+		List<Integer> failed = new ArrayList<>();
+		for (int ordinal = 0; ordinal < segment.getRecordCount(); ordinal++) {
+			if (segment.status(ordinal) == JournalSegment.FAILED) {
+				failed.add(ordinal);
+			}
+		}
+		if (failed.isEmpty()) {
+			return 0;
+		}
+		Path target = JournalSegment.failedPath(directory, segment.getId());
+		Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+		try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			for (int ordinal : failed) {
+				segment.copyRecord(ordinal, out);
+			}
+			out.force(true);
+		}
+		Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return failed.size();
+	}
+
+	/**
+	 * Stops the background threads and forces everything written so far to disk.
+	 */
+	@Override
+	public void close() {
+		scheduler.shutdown();
+		try {
+			scheduler.awaitTermination(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		force();
+	}
+
+	private static class Claim {
+		final JournalSegment segment;
+		final int ordinal;
+		volatile long claimedAt;
+
+		Claim(JournalSegment segment, int ordinal, long claimedAt) {
+			this.segment = segment;
+			this.ordinal = ordinal;
+			this.claimedAt = claimedAt;
+		}
+	}
+
+	private static class Retry implements Comparable<Retry> {
+		final JournalSegment segment;
+		final int ordinal;
+		final long dueAt;
+
+		Retry(JournalSegment segment, int ordinal, long dueAt) {
+			this.segment = segment;
+			this.ordinal = ordinal;
+			this.dueAt = dueAt;
+		}
+
+		@Override
+		public int compareTo(Retry other) {
+			return Long.compare(dueAt, other.dueAt);
+		}
+	}
+}
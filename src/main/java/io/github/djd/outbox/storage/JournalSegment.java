@@ -0,0 +1,373 @@
+package io.github.djd.outbox.storage;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.github.djd.outbox.model.MessageProcessingStatus;
+import io.github.djd.outbox.model.OutboxMessage;
+
+/**
+ * One segment of the {@link JournalOutboxStorage} journal: a memory-mapped data file holding
+ * the appended records and a memory-mapped status index with one fixed-size entry per record.
+ * <p>
+ * A record is {@code [int bodyLength][int crc32(body)][body]}, the body being the creation time
+ * followed by the id, topic, key and payload as length-prefixed UTF-8 strings (length -1 for null)
+ * and the length-prefixed binary payload.
+ * An index entry is {@code [int recordOffset][byte status][byte priority][short retryCount][long createdAt]},
+ * the priority being capped at 127.
+ * Only the index is updated after a record has been appended, so the data file is append-only.
+ * </p>
+ * <p>
+ * Buffer positions are set through {@link Buffer}, whose methods, unlike the covariant overrides
+ * of {@link ByteBuffer} added in Java 9, also exist on Java 8.
+ * </p>
+ * <p>
+ * Appends are serialized by the caller; status reads and updates are guarded by the caller's lock.
+ * </p>
+ */
+class JournalSegment {
+
+	private static final Logger logger = LoggerFactory.getLogger(JournalSegment.class);
+
+	static final byte EMPTY = 0;
+	static final byte PENDING = 1;
+	static final byte IN_PROGRESS = 2;
+	static final byte COMPLETED = 3;
+	static final byte FAILED = 4;
+	static final byte SCHEDULED = 5;
+
+	private static final int RECORD_HEADER_SIZE = 8;
+	private static final int INDEX_ENTRY_SIZE = 16;
+	private static final int STATUS_OFFSET = 4;
+	private static final int PRIORITY_OFFSET = 5;
+	private static final int RETRY_COUNT_OFFSET = 6;
+	private static final int CREATED_AT_OFFSET = 8;
+
+	private final long id;
+	private final Path dataPath;
+	private final Path indexPath;
+	private final MappedByteBuffer data;
+	private final MappedByteBuffer index;
+	private final int maxRecords;
+	private int writeOffset;
+	private volatile int recordCount;
+	private volatile boolean sealed;
+	private volatile boolean dirty;
+
+	private JournalSegment(long id, Path dataPath, Path indexPath, MappedByteBuffer data, MappedByteBuffer index) {
+		this.id = id;
+		this.dataPath = dataPath;
+		this.indexPath = indexPath;
+		this.data = data;
+		this.index = index;
+		this.maxRecords = index.capacity() / INDEX_ENTRY_SIZE;
+	}
+
+	static Path dataPath(Path directory, long id) {
+		return directory.resolve(String.format("segment-%016d.log", id));
+	}
+
+	static Path indexPath(Path directory, long id) {
+		return directory.resolve(String.format("segment-%016d.idx", id));
+	}
+
+	static Path failedPath(Path directory, long id) {
+		return directory.resolve(String.format("failed-%016d.log", id));
+	}
+
+	/**
+	 * Maps the segment {@code id} in {@code directory}, creating its files with the given sizes
+	 * if they do not exist yet. An existing segment is recovered: records are validated against
+	 * their checksum up to the first torn one, and IN_PROGRESS claims of the previous run are
+	 * returned to PENDING.
+	 */
+	static JournalSegment open(Path directory, long id, int segmentSize, int maxRecords) throws IOException {
+		Path dataPath = dataPath(directory, id);
+		Path indexPath = indexPath(directory, id);
+		JournalSegment segment = new JournalSegment(id, dataPath, indexPath,
+				map(dataPath, segmentSize), map(indexPath, (long) maxRecords * INDEX_ENTRY_SIZE));
+		segment.recover();
+		return segment;
+	}
+
+	private static MappedByteBuffer map(Path path, long size) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			// the mapping stays valid after the channel is closed
+			return channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(channel.size(), size));
+		}
+	}
+
+	private void recover() {
+		int count = 0;
+		int end = 0;
+		int reopened = 0;
+		while (count < maxRecords && status(count) != EMPTY) {
+			int offset = index.getInt(count * INDEX_ENTRY_SIZE);
+			if (!isValidRecord(offset)) {
+				logger.warn("Discarding torn record {} of journal segment {} and everything after it.", count, id);
+				for (int ordinal = count; ordinal < maxRecords && status(ordinal) != EMPTY; ordinal++) {
+					setStatus(ordinal, EMPTY);
+				}
+				break;
+			}
+			if (status(count) == IN_PROGRESS || status(count) == SCHEDULED) {
+				setStatus(count, PENDING);
+				reopened++;
+			}
+			end = offset + RECORD_HEADER_SIZE + data.getInt(offset);
+			count++;
+		}
+		this.writeOffset = end;
+		this.recordCount = count;
+		if (reopened > 0) {
+			logger.info("Returned {} messages claimed before the restart to PENDING in journal segment {}.", reopened, id);
+		}
+	}
+
+	private boolean isValidRecord(int offset) {
+		if (offset < 0 || offset + RECORD_HEADER_SIZE > data.capacity()) {
+			return false;
+		}
+		int length = data.getInt(offset);
+		if (length <= 0 || offset + RECORD_HEADER_SIZE + length > data.capacity()) {
+			return false;
+		}
+		return data.getInt(offset + 4) == checksum(body(offset));
+	}
+
+	/**
+	 * Appends a PENDING record.
+	 *
+	 * @return The ordinal of the record, or -1 if the segment has no room left for it.
+	 */
+	int append(byte[] body, long createdAt, int priority) {
+		int ordinal = recordCount;
+		if (sealed || ordinal >= maxRecords || writeOffset + RECORD_HEADER_SIZE + body.length > data.capacity()) {
+			return -1;
+		}
+		int offset = writeOffset;
+		data.putInt(offset, body.length);
+		data.putInt(offset + 4, checksum(body));
+		ByteBuffer target = data.duplicate();
+		((Buffer) target).position(offset + RECORD_HEADER_SIZE);
+		target.put(body);
+
+		int entry = ordinal * INDEX_ENTRY_SIZE;
+		index.putInt(entry, offset);
+		index.put(entry + PRIORITY_OFFSET, (byte) Math.min(priority, Byte.MAX_VALUE));
+		index.putShort(entry + RETRY_COUNT_OFFSET, (short) 0);
+		index.putLong(entry + CREATED_AT_OFFSET, createdAt);
+		index.put(entry + STATUS_OFFSET, PENDING); // last, a non-empty status marks the entry as written
+
+		writeOffset = offset + RECORD_HEADER_SIZE + body.length;
+		dirty = true;
+		recordCount = ordinal + 1;
+		return ordinal;
+	}
+
+	/**
+	 * Decodes the record at {@code ordinal}, with the status and retry count from the index.
+	 */
+	OutboxMessage read(int ordinal) {
+		ByteBuffer body = ByteBuffer.wrap(body(index.getInt(ordinal * INDEX_ENTRY_SIZE)));
+		Date createdAt = new Date(body.getLong());
+		String messageId = readString(body);
+		String topic = readString(body);
+		String key = readString(body);
+		String payload = readString(body);
+		byte[] binaryPayload = body.hasRemaining() ? readBytes(body) : null; // absent in records of older versions
+		OutboxMessage message = new OutboxMessage(messageId, topic, payload, statusOf(status(ordinal)), createdAt,
+				null, null, retryCount(ordinal));
+		message.setKey(key);
+		message.setBinaryPayload(binaryPayload);
+		message.setPriority(priority(ordinal));
+		return message;
+	}
+
+	/**
+	 * Decodes only the topic of the record at {@code ordinal}.
+	 */
+	String topic(int ordinal) {
+		int position = index.getInt(ordinal * INDEX_ENTRY_SIZE) + RECORD_HEADER_SIZE + 8;
+		position += 4 + Math.max(data.getInt(position), 0); // skip the id
+		int length = data.getInt(position);
+		if (length < 0) {
+			return null;
+		}
+		byte[] topic = new byte[length];
+		ByteBuffer source = data.duplicate();
+		((Buffer) source).position(position + 4);
+		source.get(topic);
+		return new String(topic, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Copies the raw record at {@code ordinal}, header included, to {@code out}.
+	 */
+	void copyRecord(int ordinal, WritableByteChannel out) throws IOException {
+		int offset = index.getInt(ordinal * INDEX_ENTRY_SIZE);
+		ByteBuffer record = data.duplicate();
+		((Buffer) record).position(offset);
+		((Buffer) record).limit(offset + RECORD_HEADER_SIZE + data.getInt(offset));
+		while (record.hasRemaining()) {
+			out.write(record);
+		}
+	}
+
+	static byte[] encode(OutboxMessage message, long createdAt) {
+		byte[] messageId = utf8(message.getId());
+		byte[] topic = utf8(message.getTopic());
+		byte[] key = utf8(message.getKey());
+		byte[] payload = utf8(message.getPayload());
+		byte[] binaryPayload = message.getBinaryPayload();
+		ByteBuffer body = ByteBuffer.allocate(8 + 20 + length(messageId) + length(topic) + length(key) + length(payload)
+				+ length(binaryPayload));
+		body.putLong(createdAt);
+		writeString(body, messageId);
+		writeString(body, topic);
+		writeString(body, key);
+		writeString(body, payload);
+		writeString(body, binaryPayload);
+		return body.array();
+	}
+
+	byte status(int ordinal) {
+		return index.get(ordinal * INDEX_ENTRY_SIZE + STATUS_OFFSET);
+	}
+
+	void setStatus(int ordinal, byte status) {
+		index.put(ordinal * INDEX_ENTRY_SIZE + STATUS_OFFSET, status);
+		dirty = true;
+	}
+
+	int priority(int ordinal) {
+		return index.get(ordinal * INDEX_ENTRY_SIZE + PRIORITY_OFFSET);
+	}
+
+	int retryCount(int ordinal) {
+		return index.getShort(ordinal * INDEX_ENTRY_SIZE + RETRY_COUNT_OFFSET);
+	}
+
+	void setRetryCount(int ordinal, int retryCount) {
+		index.putShort(ordinal * INDEX_ENTRY_SIZE + RETRY_COUNT_OFFSET, (short) Math.min(retryCount, Short.MAX_VALUE));
+		dirty = true;
+	}
+
+	long createdAt(int ordinal) {
+		return index.getLong(ordinal * INDEX_ENTRY_SIZE + CREATED_AT_OFFSET);
+	}
+
+	long getId() {
+		return id;
+	}
+
+	int getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * Stops further appends; the record count of a sealed segment is final.
+	 */
+	void seal() {
+		sealed = true;
+	}
+
+	boolean isSealed() {
+		return sealed;
+	}
+
+	/**
+	 * Forces the data and the index to disk if anything changed since the last call.
+	 */
+	void force() {
+		if (dirty) {
+			dirty = false;
+			data.force();
+			index.force();
+		}
+	}
+
+	void delete() throws IOException {
+		Files.deleteIfExists(indexPath);
+		Files.deleteIfExists(dataPath);
+	}
+
+	private byte[] body(int offset) {
+		byte[] body = new byte[data.getInt(offset)];
+		ByteBuffer source = data.duplicate();
+		((Buffer) source).position(offset + RECORD_HEADER_SIZE);
+		source.get(body);
+		return body;
+	}
+
+	private static int checksum(byte[] body) {
+		CRC32 crc = new CRC32();
+		crc.update(body, 0, body.length);
+		return (int) crc.getValue();
+	}
+
+	private static MessageProcessingStatus statusOf(byte status) {
+		switch (status) {
+		case IN_PROGRESS:
+			return MessageProcessingStatus.IN_PROGRESS;
+		case COMPLETED:
+			return MessageProcessingStatus.COMPLETED;
+		case FAILED:
+			return MessageProcessingStatus.FAILED;
+		case SCHEDULED:
+			return MessageProcessingStatus.SCHEDULED;
+		default:
+			return MessageProcessingStatus.PENDING;
+		}
+	}
+
+	private static byte[] utf8(String value) {
+		return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static int length(byte[] value) {
+		return value == null ? 0 : value.length;
+	}
+
+	private static void writeString(ByteBuffer buffer, byte[] value) {
+		if (value == null) {
+			buffer.putInt(-1);
+		} else {
+			buffer.putInt(value.length);
+			buffer.put(value);
+		}
+	}
+
+	private static byte[] readBytes(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] value = new byte[length];
+		buffer.get(value);
+		return value;
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0) {
+			return null;
+		}
+		String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+		((Buffer) buffer).position(buffer.position() + length);
+		return value;
+	}
+}
@@ -0,0 +1,114 @@
+package io.github.djd.outbox.storage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.WriteModel;
+
+/**
+ * Buffers acknowledgement writes (COMPLETED / retry / FAILED updates) and flushes them
+ * to the outbox collection with one unordered {@code bulkWrite}.
+ * <p>
+ * A flush happens on the calling thread as soon as {@code maxBatchSize} writes are buffered,
+ * and in the background every {@code maxDelayMs} for whatever is left.
+ * </p>
+ * <p>
+ * Processors stop renewing the lease of a message once its write is handed over, so
+ * {@code maxDelayMs} must stay well below the lease duration. Every write is fenced on the
+ * message still being IN_PROGRESS and held by this instance: a write that lands after the lease
+ * expired and another instance reclaimed the message matches nothing and is dropped. A lost
+ * flush is safe too: the affected messages stay IN_PROGRESS until their lease expires, and are
+ * then reclaimed and delivered again (at-least-once).
+ * </p>
+ */
+class MongoAckCoalescer implements AutoCloseable {
+
+	private static final Logger logger = LoggerFactory.getLogger(MongoAckCoalescer.class);
+
+	private final MongoCollection<Document> outboxCollection;
+	private final int maxBatchSize;
+	private final ScheduledExecutorService scheduler;
+	private final Object lock = new Object();
+	private List<WriteModel<Document>> buffer = new ArrayList<>();
+
+	MongoAckCoalescer(MongoCollection<Document> outboxCollection, int maxBatchSize, long maxDelayMs) {
+		this.outboxCollection = outboxCollection;
+		this.maxBatchSize = maxBatchSize;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "outbox-ack-coalescer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.scheduler.scheduleWithFixedDelay(this::flush, maxDelayMs, maxDelayMs, TimeUnit.MILLISECONDS);
+	}
+
+	void add(WriteModel<Document> write) {
+		List<WriteModel<Document>> full = null;
+		synchronized (lock) {
+			buffer.add(write);
+			if (buffer.size() >= maxBatchSize) {
+				full = drain();
+			}
+		}
+		if (full != null) {
+			write(full);
+		}
+	}
+
+	void addAll(Collection<? extends WriteModel<Document>> writes) {
+		List<WriteModel<Document>> full = null;
+		synchronized (lock) {
+			buffer.addAll(writes);
+			if (buffer.size() >= maxBatchSize) {
+				full = drain();
+			}
+		}
+		if (full != null) {
+			write(full);
+		}
+	}
+
+	/**
+	 * Writes everything buffered so far.
+	 */
+	void flush() {
+		List<WriteModel<Document>> writes;
+		synchronized (lock) {
+			writes = drain();
+		}
+		if (!writes.isEmpty()) {
+			write(writes);
+		}
+	}
+
+	private List<WriteModel<Document>> drain() {
+		List<WriteModel<Document>> writes = buffer;
+		buffer = new ArrayList<>();
+		return writes;
+	}
+
+	private void write(List<WriteModel<Document>> writes) {
+		try {
+			outboxCollection.bulkWrite(writes, new BulkWriteOptions().ordered(false));
+			logger.debug("Flushed {} acknowledgements.", writes.size());
+		} catch (RuntimeException e) { // anything escaping would cancel the scheduled flush
+			logger.error("Failed to flush {} acknowledgements, the messages will be redelivered.", writes.size(), e);
+		}
+	}
+
+	@Override
+	public void close() {
+		scheduler.shutdown();
+		flush();
+	}
+}
@@ -0,0 +1,94 @@
+package io.github.djd.outbox.storage;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.InsertManyOptions;
+
+/**
+ * Background schedule of a batched housekeeping run, shared by {@link MongoRetentionEngine} and
+ * {@link MongoDeadLetterQueue}, together with the copy step both use to move documents between
+ * collections.
+ */
+class MongoBatchJob implements AutoCloseable {
+
+	private static final Logger logger = LoggerFactory.getLogger(MongoBatchJob.class);
+
+	private static final int DUPLICATE_KEY = 11000;
+
+	interface Run {
+		void run() throws InterruptedException;
+	}
+
+	private final String threadName;
+	private final String description;
+	private final Run run;
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * @param threadName Name of the background thread.
+	 * @param description What a run does, for the error log, e.g. {@code "Retention run"}.
+	 */
+	MongoBatchJob(String threadName, String description, Run run) {
+		this.threadName = threadName;
+		this.description = description;
+		this.run = run;
+	}
+
+	/**
+	 * Runs the job now and then every {@code intervalMs}, until {@link #close()}.
+	 *
+	 * @return false if the job was already started.
+	 */
+	synchronized boolean start(long intervalMs) {
+		if (scheduler != null) {
+			return false;
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, threadName);
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				run.run();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (Exception e) {
+				logger.error("{} failed: ", description, e);
+			}
+		}, 0, intervalMs, TimeUnit.MILLISECONDS);
+		return true;
+	}
+
+	/**
+	 * Inserts {@code batch} into {@code collection}, skipping the documents it already holds.
+	 */
+	static void insertSkippingDuplicates(MongoCollection<Document> collection, List<Document> batch) {
+		try {
+			collection.insertMany(batch, new InsertManyOptions().ordered(false));
+		} catch (MongoBulkWriteException e) {
+			// Documents copied by an earlier, interrupted run are already there
+			boolean onlyDuplicates = e.getWriteErrors().stream().allMatch(error -> error.getCode() == DUPLICATE_KEY);
+			if (!onlyDuplicates) {
+				throw e;
+			}
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+}
@@ -0,0 +1,180 @@
+package io.github.djd.outbox.storage;
+
+import static io.github.djd.outbox.model.MongoOutboxMessageFields.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Sorts;
+
+import io.github.djd.outbox.model.MessageProcessingStatus;
+
+/**
+ * Dead-letter queue for messages that ran out of retries.
+ * <p>
+ * FAILED messages are moved from the outbox collection to {@code deadLetterCollection} in batches,
+ * with their {@code lastError}, {@code errorType} and {@code attempts} history and the time they
+ * were dead-lettered, so they no longer weigh on the outbox indexes. {@link #redrive(RedriveFilter, double)}
+ * re-enqueues a selection of them at a bounded rate, so that a large redrive neither floods the
+ * broker nor starves the claims of new messages.
+ * </p>
+ * <p>
+ * Both directions insert first and delete second, skipping documents the target already holds,
+ * so an interrupted run is completed by the next one without losing or duplicating messages.
+ * </p>
+ */
+public class MongoDeadLetterQueue implements AutoCloseable {
+
+	private static final Logger logger = LoggerFactory.getLogger(MongoDeadLetterQueue.class);
+
+	private final MongoCollection<Document> outboxCollection;
+	private final MongoCollection<Document> deadLetterCollection;
+	private final int batchSize;
+	private final long pauseBetweenBatchesMs;
+	private final MongoBatchJob job = new MongoBatchJob("outbox-dead-letter", "Dead-letter run", this::moveExhausted);
+
+	/**
+	 * @param batchSize Messages moved per batch.
+	 * @param pauseBetweenBatchesMs Pause after every batch moved to the dead-letter collection, to
+	 *            limit the write rate.
+	 */
+	public MongoDeadLetterQueue(MongoCollection<Document> outboxCollection, MongoCollection<Document> deadLetterCollection,
+			int batchSize, long pauseBetweenBatchesMs) {
+		this.outboxCollection = outboxCollection;
+		this.deadLetterCollection = deadLetterCollection;
+		this.batchSize = batchSize;
+		this.pauseBetweenBatchesMs = pauseBetweenBatchesMs;
+		ensureIndexes();
+	}
+
+	/**
+	 * Indexes for the redrive selections by topic, error type and creation time.
+	 */
+	private void ensureIndexes() {
+		new MongoOutboxIndexes(deadLetterCollection).create(Arrays.asList(
+				new IndexModel(Indexes.ascending(CREATED_AT), new IndexOptions().name("dead_letter_created")),
+				new IndexModel(Indexes.ascending(TOPIC, CREATED_AT), new IndexOptions().name("dead_letter_topic")),
+				new IndexModel(Indexes.ascending(ERROR_TYPE, CREATED_AT), new IndexOptions().name("dead_letter_error"))));
+	}
+
+	/**
+	 * Runs {@link #moveExhausted()} in the background every {@code intervalMs}.
+	 */
+	public void start(long intervalMs) {
+		if (job.start(intervalMs)) {
+			logger.info("Moving FAILED messages to {} started.", deadLetterCollection.getNamespace().getCollectionName());
+		}
+	}
+
+	/**
+	 * Moves all FAILED messages to the dead-letter collection, batch by batch.
+	 *
+	 * @return The number of moved messages.
+	 */
+	public long moveExhausted() throws InterruptedException {
+		long moved = 0;
+		while (!Thread.currentThread().isInterrupted()) {
+			List<Document> batch = outboxCollection.find(exhaustedFilter()).sort(Sorts.ascending(CREATED_AT)).limit(batchSize)
+					.into(new ArrayList<>());
+			if (batch.isEmpty()) {
+				break;
+			}
+			Date now = new Date();
+			List<Object> ids = new ArrayList<>(batch.size());
+			for (Document doc : batch) {
+				doc.remove(CLAIM_TOKEN);
+				doc.remove(LEASE_EXPIRES_AT);
+				doc.append(DEAD_LETTERED_AT, now);
+				ids.add(doc.get(ID));
+			}
+			MongoBatchJob.insertSkippingDuplicates(deadLetterCollection, batch);
+			// Re-check the status so that a message redriven in between is not removed
+			moved += outboxCollection.deleteMany(Filters.and(Filters.in(ID, ids), exhaustedFilter())).getDeletedCount();
+			if (batch.size() < batchSize) {
+				break;
+			}
+			TimeUnit.MILLISECONDS.sleep(pauseBetweenBatchesMs);
+		}
+		if (moved > 0) {
+			logger.info("Moved {} FAILED messages to the dead-letter collection.", moved);
+		}
+		return moved;
+	}
+
+	/**
+	 * Re-enqueues the dead letters selected by {@code filter} as PENDING messages, oldest first,
+	 * at no more than {@code messagesPerSecond}. They keep their id, payload and attempt history;
+	 * the retry count starts over and the creation time is reset, so they queue behind the messages
+	 * already waiting instead of ahead of them.
+	 *
+	 * @return The number of re-enqueued messages.
+	 */
+	public long redrive(RedriveFilter filter, double messagesPerSecond) throws InterruptedException {
+		Bson selection = filter.toBson();
+		int redriveBatchSize = (int) Math.max(1, Math.min(batchSize, messagesPerSecond));
+		long redriven = 0;
+		while (!Thread.currentThread().isInterrupted()) {
+			long start = System.nanoTime();
+			List<Document> batch = deadLetterCollection.find(selection).sort(Sorts.ascending(CREATED_AT)).limit(redriveBatchSize)
+					.into(new ArrayList<>());
+			if (batch.isEmpty()) {
+				break;
+			}
+			Date now = new Date();
+			List<Object> ids = new ArrayList<>(batch.size());
+			for (Document doc : batch) {
+				ids.add(doc.get(ID));
+				doc.remove(DEAD_LETTERED_AT);
+				doc.remove(PROCESSED_AT);
+				doc.remove(PROCESSED_BY);
+				doc.append(STATUS, MessageProcessingStatus.PENDING.name())
+						.append(RETRY_COUNT, 0)
+						.append(CREATED_AT, now);
+			}
+			MongoBatchJob.insertSkippingDuplicates(outboxCollection, batch);
+			deadLetterCollection.deleteMany(Filters.in(ID, ids));
+			redriven += batch.size();
+			if (batch.size() < redriveBatchSize) {
+				break;
+			}
+			long pauseNanos = (long) (batch.size() * 1_000_000_000d / messagesPerSecond) - (System.nanoTime() - start);
+			if (pauseNanos > 0) {
+				TimeUnit.NANOSECONDS.sleep(pauseNanos);
+			}
+		}
+		logger.info("Redrove {} dead-lettered messages ({}).", redriven, filter);
+		return redriven;
+	}
+
+	/**
+	 * The number of dead letters {@code filter} selects, e.g. to size a redrive.
+	 */
+	public long count(RedriveFilter filter) {
+		return deadLetterCollection.countDocuments(filter.toBson());
+	}
+
+	/**
+	 * Messages that ran out of retries.
+	 */
+	static Bson exhaustedFilter() {
+		return Filters.eq(STATUS, MessageProcessingStatus.FAILED);
+	}
+
+	@Override
+	public void close() {
+		job.close();
+	}
+}
@@ -0,0 +1,197 @@
+package io.github.djd.outbox.storage;
+
+import org.bson.Document;
+
+import com.mongodb.client.MongoCollection;
+
+/**
+ * Tuning options for {@link MongoOutboxStorage}.
+ * <p>
+ * The defaults are suitable for most deployments; override only what is needed, e.g.
+ * {@code new MongoOutboxConfig().withClaimMode(ClaimMode.SINGLE)}.
+ * </p>
+ */
+public class MongoOutboxConfig {
+
+	private ClaimMode claimMode = ClaimMode.BATCH;
+	private int ackBatchSize = 0; // 0 or 1 disables ack coalescing
+	private long ackFlushIntervalMs = 100;
+	private long leaseDurationMs = 15000;
+	private int partitionCount = 0; // 0 disables partitioning
+	private MongoCollection<Document> membershipCollection;
+	private long membershipHeartbeatIntervalMs = 5000;
+	private long membershipTimeoutMs = 15000;
+	private IndexBootstrap indexBootstrap = IndexBootstrap.WARN_ON_COLLSCAN;
+	private long completedTtlMs = 0; // 0 keeps COMPLETED messages until purged
+	private PayloadCompression payloadCompression = PayloadCompression.NONE;
+	private int compressionThresholdBytes = 1024;
+	private boolean directDecoding = false;
+	private boolean priorityClaims = false;
+	private RetryBackoff retryBackoff; // null returns failed messages to PENDING at once
+
+	public ClaimMode getClaimMode() {
+		return claimMode;
+	}
+
+	public MongoOutboxConfig withClaimMode(ClaimMode claimMode) {
+		this.claimMode = claimMode;
+		return this;
+	}
+
+	public int getAckBatchSize() {
+		return ackBatchSize;
+	}
+
+	public long getAckFlushIntervalMs() {
+		return ackFlushIntervalMs;
+	}
+
+	/**
+	 * Buffers acknowledgements in the background and writes them with one unordered
+	 * {@code bulkWrite} once {@code maxBatchSize} are pending or {@code maxDelayMs} has passed.
+	 * Keep {@code maxDelayMs} well below the {@link #withLeaseDuration(long) lease duration}.
+	 */
+	public MongoOutboxConfig withAckCoalescing(int maxBatchSize, long maxDelayMs) {
+		this.ackBatchSize = maxBatchSize;
+		this.ackFlushIntervalMs = maxDelayMs;
+		return this;
+	}
+
+	public long getLeaseDurationMs() {
+		return leaseDurationMs;
+	}
+
+	/**
+	 * How long a claim stays valid without being renewed. Claims of an instance that stops
+	 * renewing them are returned to PENDING once this has elapsed.
+	 */
+	public MongoOutboxConfig withLeaseDuration(long leaseDurationMs) {
+		this.leaseDurationMs = leaseDurationMs;
+		return this;
+	}
+
+	public int getPartitionCount() {
+		return partitionCount;
+	}
+
+	public MongoCollection<Document> getMembershipCollection() {
+		return membershipCollection;
+	}
+
+	public long getMembershipHeartbeatIntervalMs() {
+		return membershipHeartbeatIntervalMs;
+	}
+
+	public long getMembershipTimeoutMs() {
+		return membershipTimeoutMs;
+	}
+
+	/**
+	 * Assigns every saved message to one of {@code partitionCount} partitions (by ordering key or
+	 * topic) and divides the partitions among the live instances, which register in
+	 * {@code membershipCollection}. Each instance then only claims from its own partitions.
+	 * {@code partitionCount} should be well above the expected number of instances.
+	 */
+	public MongoOutboxConfig withPartitioning(int partitionCount, MongoCollection<Document> membershipCollection) {
+		this.partitionCount = partitionCount;
+		this.membershipCollection = membershipCollection;
+		return this;
+	}
+
+	/**
+	 * How often an instance renews its membership, and after how long without renewal it is
+	 * considered gone and its partitions are handed to the others.
+	 */
+	public MongoOutboxConfig withMembershipHeartbeat(long heartbeatIntervalMs, long timeoutMs) {
+		this.membershipHeartbeatIntervalMs = heartbeatIntervalMs;
+		this.membershipTimeoutMs = timeoutMs;
+		return this;
+	}
+
+	public IndexBootstrap getIndexBootstrap() {
+		return indexBootstrap;
+	}
+
+	public long getCompletedTtlMs() {
+		return completedTtlMs;
+	}
+
+	/**
+	 * Whether the outbox indexes are created on startup, and how a query that would still scan
+	 * the collection is reported.
+	 */
+	public MongoOutboxConfig withIndexBootstrap(IndexBootstrap indexBootstrap) {
+		this.indexBootstrap = indexBootstrap;
+		return this;
+	}
+
+	/**
+	 * Lets MongoDB delete COMPLETED messages {@code ttlMs} after they were created, through a
+	 * partial TTL index. An alternative to running a {@link MongoRetentionEngine}.
+	 */
+	public MongoOutboxConfig withCompletedMessageTtl(long ttlMs) {
+		this.completedTtlMs = ttlMs;
+		return this;
+	}
+
+	public PayloadCompression getPayloadCompression() {
+		return payloadCompression;
+	}
+
+	public int getCompressionThresholdBytes() {
+		return compressionThresholdBytes;
+	}
+
+	/**
+	 * Compresses text and binary payloads larger than {@code thresholdBytes} before saving them.
+	 * Documents are read back correctly whatever this setting, so it can be changed at any time.
+	 */
+	public MongoOutboxConfig withPayloadCompression(PayloadCompression compression, int thresholdBytes) {
+		this.payloadCompression = compression;
+		this.compressionThresholdBytes = thresholdBytes;
+		return this;
+	}
+
+	public boolean isDirectDecoding() {
+		return directDecoding;
+	}
+
+	/**
+	 * Decodes claimed messages with {@link OutboxMessageCodec}, straight from the BSON returned by
+	 * the server, instead of building a {@code Document} per message first.
+	 */
+	public MongoOutboxConfig withDirectDecoding(boolean directDecoding) {
+		this.directDecoding = directDecoding;
+		return this;
+	}
+
+	public boolean isPriorityClaims() {
+		return priorityClaims;
+	}
+
+	/**
+	 * Claims messages by {@link io.github.djd.outbox.model.OutboxMessage#getPriority() priority}
+	 * first and age second, instead of by age only, using the {@code outbox_claim_priority} and
+	 * {@code outbox_claim_topic_priority} indexes instead of {@code outbox_claim} and
+	 * {@code outbox_claim_topic}. The priority is stored either way, so this can be enabled later.
+	 */
+	public MongoOutboxConfig withPriorityClaims(boolean priorityClaims) {
+		this.priorityClaims = priorityClaims;
+		return this;
+	}
+
+	public RetryBackoff getRetryBackoff() {
+		return retryBackoff;
+	}
+
+	/**
+	 * Schedules failed messages that have retries left (SCHEDULED, with a {@code nextAttemptAt}
+	 * following {@code backoff}) instead of returning them to PENDING at once, so they are not
+	 * claimed again before they are due; {@link MongoOutboxStorage#releaseDueRetries()} returns them
+	 * to PENDING afterwards. The claim queries and their indexes are unaffected. Requires MongoDB 4.4.2+ for the jitter.
+	 */
+	public MongoOutboxConfig withRetryBackoff(RetryBackoff backoff) {
+		this.retryBackoff = backoff;
+		return this;
+	}
+}
@@ -0,0 +1,106 @@
+package io.github.djd.outbox.storage;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.IndexOptions;
+
+/**
+ * Creates the indexes behind the outbox queries and checks with {@code explain} that the
+ * queries actually use them.
+ */
+class MongoOutboxIndexes {
+
+	private static final Logger logger = LoggerFactory.getLogger(MongoOutboxIndexes.class);
+
+	private final MongoCollection<Document> outboxCollection;
+
+	MongoOutboxIndexes(MongoCollection<Document> outboxCollection) {
+		this.outboxCollection = outboxCollection;
+	}
+
+	/**
+	 * Creates the given indexes. Indexes that already exist with the same definition are left as they are.
+	 */
+	void create(List<IndexModel> indexes) {
+		for (IndexModel index : indexes) {
+			try {
+				outboxCollection.createIndexes(Collections.singletonList(index));
+			} catch (MongoException e) {
+				// e.g. an index with the same name but different options exists already
+				logger.warn("Could not create index {}: {}", index.getOptions().getName(), e.getMessage());
+			}
+		}
+		logger.info("Ensured {} outbox indexes.", indexes.size());
+	}
+
+	/**
+	 * Explains every query and reports those whose winning plan scans the whole collection.
+	 *
+	 * @param queries Query name to query (filter and sort) to explain.
+	 * @param failOnCollectionScan Throw instead of logging a warning.
+	 * @throws IllegalStateException if a query scans the collection and {@code failOnCollectionScan} is set.
+	 */
+	void verify(Map<String, FindIterable<Document>> queries, boolean failOnCollectionScan) {
+		for (Map.Entry<String, FindIterable<Document>> query : queries.entrySet()) {
+			Document plan;
+			try {
+				plan = query.getValue().explain();
+			} catch (MongoException e) {
+				logger.warn("Could not explain the {} query: {}", query.getKey(), e.getMessage());
+				continue;
+			}
+			Document queryPlanner = plan.get("queryPlanner", Document.class);
+			Object winningPlan = queryPlanner == null ? null : queryPlanner.get("winningPlan");
+			if (containsCollectionScan(winningPlan)) {
+				String problem = "The outbox " + query.getKey() + " query scans the whole collection, check the indexes of "
+						+ outboxCollection.getNamespace().getFullName() + ".";
+				if (failOnCollectionScan) {
+					throw new IllegalStateException(problem);
+				}
+				logger.warn(problem);
+			}
+		}
+	}
+
+	private static boolean containsCollectionScan(Object plan) {
+		if (plan instanceof Document) {
+			Document stage = (Document) plan;
+			if ("COLLSCAN".equals(stage.getString("stage"))) {
+				return true;
+			}
+			for (Object child : stage.values()) {
+				if (containsCollectionScan(child)) {
+					return true;
+				}
+			}
+		} else if (plan instanceof List) {
+			for (Object child : (List<?>) plan) {
+				if (containsCollectionScan(child)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	static IndexModel index(String name, Bson keys, Bson partialFilter) {
+		return new IndexModel(keys, new IndexOptions().name(name).partialFilterExpression(partialFilter));
+	}
+
+	static IndexModel ttlIndex(String name, Bson keys, Bson partialFilter, long expireAfterMs) {
+		return new IndexModel(keys, new IndexOptions().name(name).partialFilterExpression(partialFilter)
+				.expireAfter(TimeUnit.MILLISECONDS.toSeconds(expireAfterMs), TimeUnit.SECONDS));
+	}
+}
@@ -3,20 +3,35 @@ package io.github.djd.outbox.storage;
 import static io.github.djd.outbox.model.MongoOutboxMessageFields.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import org.bson.Document;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.conversions.Bson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
 import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.Projections;
 import com.mongodb.client.model.ReturnDocument;
 import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
 import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.result.UpdateResult;
 
 import io.github.djd.outbox.model.MessageProcessingStatus;
 import io.github.djd.outbox.model.OutboxMessage;
@@ -24,28 +39,132 @@ import io.github.djd.outbox.model.OutboxMessage;
 public class MongoOutboxStorage implements OutboxStorage {
 
 	private final MongoCollection<Document> outboxCollection;
+	private final MongoCollection<OutboxMessage> messageCollection; // null unless claims are decoded with OutboxMessageCodec
 	private final String instanceId;
+	private final MongoOutboxConfig config;
+	private final MongoAckCoalescer ackCoalescer; // null when acknowledgements are written immediately
+	private final MongoPartitionCoordinator partitionCoordinator; // null when messages are not partitioned
 
 	private static final Logger logger = LoggerFactory.getLogger(MongoOutboxStorage.class);
+
+	private static final int MAX_ATTEMPT_HISTORY = 10;
+	private static final int MAX_ERROR_LENGTH = 1000;
+	/**
+	 * Fields a processor needs from a claimed message; the claim and lease bookkeeping is left on the server.
+	 */
+	private static final Bson CLAIM_PROJECTION = Projections.include(ID, TOPIC, KEY, PAYLOAD, PAYLOAD_ENCODING, STATUS, CREATED_AT, RETRY_COUNT, PRIORITY);
 	
 	public MongoOutboxStorage(MongoCollection<Document> outboxCollection) {
+		this(outboxCollection, new MongoOutboxConfig());
+	}
+
+	public MongoOutboxStorage(MongoCollection<Document> outboxCollection, MongoOutboxConfig config) {
 		this.outboxCollection = outboxCollection;
 		this.instanceId = UUID.randomUUID().toString(); // Unique ID for this service instance
+		this.config = config;
+		this.messageCollection = config.isDirectDecoding()
+				? outboxCollection.withDocumentClass(OutboxMessage.class).withCodecRegistry(CodecRegistries.fromRegistries(
+						CodecRegistries.fromCodecs(new OutboxMessageCodec()), outboxCollection.getCodecRegistry()))
+				: null;
+		this.ackCoalescer = config.getAckBatchSize() > 1
+				? new MongoAckCoalescer(outboxCollection, config.getAckBatchSize(), config.getAckFlushIntervalMs())
+				: null;
+		this.partitionCoordinator = config.getPartitionCount() > 0
+				? new MongoPartitionCoordinator(config.getMembershipCollection(), instanceId, config.getPartitionCount(),
+						config.getMembershipHeartbeatIntervalMs(), config.getMembershipTimeoutMs())
+				: null;
+		if (config.getIndexBootstrap() != IndexBootstrap.DISABLED) {
+			ensureIndexes();
+		}
+	}
+
+	/**
+	 * Creates the indexes used by the claim, acknowledgement, lease, retry, dead-letter and retention queries, and
+	 * checks with {@code explain} that none of these queries scans the collection.
+	 * All indexes are partial on the status they serve, so that the bulk of COMPLETED messages
+	 * does not inflate the indexes on the hot path.
+	 */
+	private void ensureIndexes() {
+		MongoOutboxIndexes indexes = new MongoOutboxIndexes(outboxCollection);
+		Bson pending = Filters.eq(STATUS, MessageProcessingStatus.PENDING.name());
+		Bson inProgress = Filters.eq(STATUS, MessageProcessingStatus.IN_PROGRESS.name());
+		Bson completed = Filters.eq(STATUS, MessageProcessingStatus.COMPLETED.name());
+		Bson failed = Filters.eq(STATUS, MessageProcessingStatus.FAILED.name());
+		Bson scheduled = Filters.eq(STATUS, MessageProcessingStatus.SCHEDULED.name());
+		indexes.create(Arrays.asList(
+				config.isPriorityClaims()
+						? MongoOutboxIndexes.index("outbox_claim_priority", partitionCoordinator != null
+								? Indexes.compoundIndex(Indexes.ascending(PARTITION), claimSort())
+								: claimSort(), pending)
+						: MongoOutboxIndexes.index("outbox_claim", partitionCoordinator != null
+								? Indexes.ascending(PARTITION, CREATED_AT)
+								: Indexes.ascending(CREATED_AT), pending),
+				MongoOutboxIndexes.index(config.isPriorityClaims() ? "outbox_claim_topic_priority" : "outbox_claim_topic",
+						Indexes.compoundIndex(Indexes.ascending(TOPIC), claimSort()), pending),
+				MongoOutboxIndexes.index("outbox_claim_token", Indexes.ascending(CLAIM_TOKEN), inProgress),
+				MongoOutboxIndexes.index("outbox_lease", Indexes.ascending(LEASE_EXPIRES_AT, PROCESSED_AT), inProgress),
+				MongoOutboxIndexes.index("outbox_owner", Indexes.ascending(PROCESSED_BY), inProgress),
+				MongoOutboxIndexes.index("outbox_failed", Indexes.ascending(CREATED_AT), failed),
+				MongoOutboxIndexes.index("outbox_retry", Indexes.ascending(NEXT_ATTEMPT_AT), scheduled),
+				config.getCompletedTtlMs() > 0
+						? MongoOutboxIndexes.ttlIndex("outbox_retention", Indexes.ascending(CREATED_AT), completed, config.getCompletedTtlMs())
+						: MongoOutboxIndexes.index("outbox_retention", Indexes.ascending(CREATED_AT), completed)));
+
+		Map<String, FindIterable<Document>> queries = new LinkedHashMap<>();
+		queries.put("claim", outboxCollection.find(claimFilter()).sort(claimSort()).limit(1));
+		queries.put("claim by topic", outboxCollection.find(Filters.and(claimFilter(), Filters.eq(TOPIC, ""))).sort(claimSort()).limit(1));
+		queries.put("claim token", outboxCollection.find(Filters.and(inProgress, Filters.eq(CLAIM_TOKEN, ""))));
+		queries.put("lease reclaim", outboxCollection.find(expiredLeaseFilter(System.currentTimeMillis())));
+		queries.put("lease release", outboxCollection.find(heldByThisInstance()));
+		queries.put("retry release", outboxCollection.find(dueRetryFilter(new Date())));
+		queries.put("dead letter", outboxCollection.find(MongoDeadLetterQueue.exhaustedFilter()).sort(Sorts.ascending(CREATED_AT)).limit(1));
+		queries.put("retention", outboxCollection.find(MongoRetentionEngine.expiredFilter(new Date())).limit(1));
+		indexes.verify(queries, config.getIndexBootstrap() == IndexBootstrap.FAIL_ON_COLLSCAN);
 	}
 
 	@Override
 	public void saveMessage(OutboxMessage message) {
+		outboxCollection.insertOne(toDocument(message));
+		logger.debug("Added message with ID {}.", message.getId());
+	}
+
+	/**
+	 * Saves the batch with one unordered {@code insertMany}, i.e. one round trip and one
+	 * write-concern acknowledgement for all of them.
+	 */
+	@Override
+	public void saveMessages(List<OutboxMessage> messages) {
+		if (messages.isEmpty()) {
+			return;
+		}
+		List<Document> docs = new ArrayList<>(messages.size());
+		for (OutboxMessage message : messages) {
+			docs.add(toDocument(message));
+		}
+		outboxCollection.insertMany(docs, new InsertManyOptions().ordered(false));
+		logger.debug("Added {} messages.", messages.size());
+	}
+
+	private Document toDocument(OutboxMessage message) {
 		
-		// Fields to be set: id, topic, payload, status, createdAt;
+		// Fields to be set: id, topic, key (optional), payload (text, binary or compressed), status, createdAt;
 		
 		Document doc = new Document(ID, message.getId())
-				.append(TOPIC, message.getTopic())
-				.append(PAYLOAD, message.getPayload())
-				.append(STATUS, MessageProcessingStatus.PENDING)
+				.append(TOPIC, message.getTopic());
+		PayloadCodec.write(doc, message, config.getPayloadCompression(), config.getCompressionThresholdBytes());
+		doc.append(STATUS, MessageProcessingStatus.PENDING)
 				.append(CREATED_AT, new Date())
 				.append(RETRY_COUNT, 0);
-		outboxCollection.insertOne(doc);
-		logger.info("Added message with ID {}.", message.getId());
+		if (message.getKey() != null) {
+			doc.append(KEY, message.getKey());
+		}
+		if (message.getPriority() != 0) {
+			doc.append(PRIORITY, message.getPriority());
+		}
+		if (partitionCoordinator != null) {
+			doc.append(PARTITION, partitionOf(message));
+		}
+		return doc;
 	}
 
 	/**
@@ -54,72 +173,531 @@ public class MongoOutboxStorage implements OutboxStorage {
 	 * @return List of locked messages
 	 */
 	public List<OutboxMessage> fetchUnprocessedMessages(int count) {
+		return fetchUnprocessedMessages(count, null);
+	}
+
+	/**
+	 * Fetch a batch of messages created before the given time and mark them as PROCESSING atomically
+	 *  
+	 * @return List of locked messages
+	 */
+	@Override
+	public List<OutboxMessage> fetchUnprocessedMessages(int count, Date createdBefore) {
+		return fetchUnprocessedMessages(count, createdBefore, null, null);
+	}
+
+	/**
+	 * Fetch a batch of messages of the selected topics created before the given time and mark them
+	 * as PROCESSING atomically. Claims of a single topic use the {@code outbox_claim_topic} index;
+	 * claims excluding topics walk the regular claim index and skip the excluded ones.
+	 *
+	 * @return List of locked messages
+	 */
+	@Override
+	public List<OutboxMessage> fetchUnprocessedMessages(int count, Date createdBefore, TopicSelector topics) {
+		return fetchUnprocessedMessages(count, createdBefore, topics, null);
+	}
+
+	/**
+	 * Fetch a batch of messages of the selected topics and priorities created before the given time
+	 * and mark them as PROCESSING atomically. Messages stored without a priority have priority 0.
+	 *
+	 * @return List of locked messages
+	 */
+	@Override
+	public List<OutboxMessage> fetchUnprocessedMessages(int count, Date createdBefore, TopicSelector topics,
+			PriorityRange priorities) {
+		List<Bson> conditions = new ArrayList<>(5);
+		conditions.add(claimFilter());
+		if (createdBefore != null) {
+			conditions.add(Filters.lt(CREATED_AT, createdBefore));
+		}
+		if (topics != null) {
+			conditions.add(topics.isExcluding() ? Filters.nin(TOPIC, topics.getTopics()) : Filters.in(TOPIC, topics.getTopics()));
+		}
+		if (priorities != null && priorities.getMin() > 0) {
+			conditions.add(Filters.gte(PRIORITY, priorities.getMin()));
+		}
+		if (priorities != null && priorities.getMax() != Integer.MAX_VALUE) {
+			conditions.add(Filters.not(Filters.gte(PRIORITY, priorities.getMax()))); // also matches a missing priority
+		}
+		Bson filter = conditions.size() == 1 ? conditions.get(0) : Filters.and(conditions);
+		List<OutboxMessage> lockedMessages = config.getClaimMode() == ClaimMode.BATCH
+				? claimBatch(filter, count)
+				: claimOneByOne(filter, count);
+	    logger.info("Fetching {} {} for processing. ", lockedMessages.size(), lockedMessages.size() > 0? "messages": "message");
+	    return lockedMessages;
+	}
+
+	/**
+	 * Claims the given messages, skipping those that are no longer PENDING
+	 * (e.g. because another processor claimed them first).
+	 * 
+	 * @return List of locked messages
+	 */
+	@Override
+	public List<OutboxMessage> claimMessages(Collection<String> messageIds) {
+		if (messageIds.isEmpty()) {
+			return new ArrayList<>();
+		}
+		return claimCandidates(new ArrayList<Object>(messageIds));
+	}
+
+	/**
+	 * Claims messages with one {@code findOneAndUpdate} per message.
+	 */
+	private List<OutboxMessage> claimOneByOne(Bson filter, int count) {
 	    List<OutboxMessage> lockedMessages = new ArrayList<>();
 
 	    for (int i = 0; i < count; i++) {
-	        Document doc = outboxCollection.findOneAndUpdate(
-	            Filters.eq(STATUS, MessageProcessingStatus.PENDING),  // Pick only unprocessed messages
-	            Updates.combine(
+	        Bson update = Updates.combine(
 	                Updates.set(STATUS, MessageProcessingStatus.IN_PROGRESS),  // Lock the message
 	                Updates.set(PROCESSED_AT, System.currentTimeMillis()), // Timestamp to track processing
-	                Updates.set(PROCESSED_BY, instanceId) // Track which instance is processing
-	            ),
-	            new FindOneAndUpdateOptions()
-	                .sort(Sorts.ascending(CREATED_AT))  // Prioritize older messages
-	                .returnDocument(ReturnDocument.AFTER)  // Return updated doc
-	        );
-
-	        if (doc == null) {
+	                Updates.set(PROCESSED_BY, instanceId), // Track which instance is processing
+	                Updates.set(LEASE_EXPIRES_AT, leaseExpiry()) // Returned to PENDING unless renewed
+	            );
+	        FindOneAndUpdateOptions options = new FindOneAndUpdateOptions()
+	                .sort(claimSort())  // Prioritize urgent, then older messages
+	                .projection(CLAIM_PROJECTION)
+	                .returnDocument(ReturnDocument.AFTER);  // Return updated doc
+	        OutboxMessage message = messageCollection != null
+	                ? messageCollection.findOneAndUpdate(filter, update, options)
+	                : OutboxUtil.fromDocument(outboxCollection.findOneAndUpdate(filter, update, options));
+
+	        if (message == null) {
 	            break;  // No more messages to process
-	        } else {
-	        	OutboxMessage message = OutboxUtil.fromDocument(doc);
-	        	if(message!=null) {
-	        		lockedMessages.add(message);
-	        	}
 	        }
-	        
+	        lockedMessages.add(message);
 	    }
-	    logger.info("Fetching {} {} for processing. ", lockedMessages.size(), lockedMessages.size() > 0? "messages": "message");
 	    return lockedMessages;
 	}
 
+	/**
+	 * Claims messages in three round trips regardless of the batch size:
+	 * <ol>
+	 * <li>read the ids of the oldest {@code count} PENDING candidates,</li>
+	 * <li>tag the candidates that are still PENDING with a per-call claim token,</li>
+	 * <li>read the tagged messages back with one cursor.</li>
+	 * </ol>
+	 * The update in step 2 re-checks the PENDING status per document, so a candidate that
+	 * another instance claimed in between is skipped and never claimed twice.
+	 */
+	private List<OutboxMessage> claimBatch(Bson filter, int count) {
+		List<Object> candidateIds = outboxCollection.find(filter)
+				.sort(claimSort())
+				.projection(Projections.include(ID))
+				.limit(count)
+				.map(doc -> doc.get(ID))
+				.into(new ArrayList<>());
+		if (candidateIds.isEmpty()) {
+			return new ArrayList<>();
+		}
+		return claimCandidates(candidateIds);
+	}
+
+	/**
+	 * Tags the candidates that are still PENDING with a fresh claim token and reads them back.
+	 */
+	private List<OutboxMessage> claimCandidates(List<Object> candidateIds) {
+		String claimToken = UUID.randomUUID().toString();
+		UpdateResult result = outboxCollection.updateMany(
+				Filters.and(Filters.in(ID, candidateIds), claimFilter()),
+				Updates.combine(
+						Updates.set(STATUS, MessageProcessingStatus.IN_PROGRESS),
+						Updates.set(PROCESSED_AT, System.currentTimeMillis()),
+						Updates.set(PROCESSED_BY, instanceId),
+						Updates.set(CLAIM_TOKEN, claimToken),
+						Updates.set(LEASE_EXPIRES_AT, leaseExpiry())
+						)
+				);
+		if (result.getModifiedCount() < candidateIds.size()) {
+			logger.debug("Claimed {} of {} candidates, the rest were taken by other instances.", result.getModifiedCount(), candidateIds.size());
+		}
+		if (result.getModifiedCount() == 0) {
+			return new ArrayList<>();
+		}
+
+		Bson claimed = Filters.and(Filters.eq(STATUS, MessageProcessingStatus.IN_PROGRESS), Filters.eq(CLAIM_TOKEN, claimToken));
+		List<OutboxMessage> lockedMessages = new ArrayList<>();
+		if (messageCollection != null) {
+			return messageCollection.find(claimed).sort(claimSort()).projection(CLAIM_PROJECTION).into(lockedMessages);
+		}
+		for (Document doc : outboxCollection.find(claimed).sort(claimSort()).projection(CLAIM_PROJECTION)) {
+			OutboxMessage message = OutboxUtil.fromDocument(doc);
+			if (message != null) {
+				lockedMessages.add(message);
+			}
+		}
+		return lockedMessages;
+	}
+
+	/**
+	 * Filter matching the messages that are eligible to be claimed: PENDING and, when
+	 * partitioned, in one of the partitions this instance owns.
+	 */
+	private Bson claimFilter() {
+		Bson pending = Filters.eq(STATUS, MessageProcessingStatus.PENDING);
+		if (partitionCoordinator == null) {
+			return pending;
+		}
+		List<Integer> owned = partitionCoordinator.getOwnedPartitions();
+		List<Integer> partitions = new ArrayList<>(owned.size() + 1);
+		partitions.addAll(owned);
+		if (owned.contains(0)) {
+			partitions.add(null); // the owner of partition 0 also drains messages saved before partitioning
+		}
+		return Filters.and(pending, Filters.in(PARTITION, partitions));
+	}
+
+	/**
+	 * Partition of a message, derived from its ordering key or, without a key, its topic,
+	 * so that messages which must stay in order share a partition.
+	 */
+	private int partitionOf(OutboxMessage message) {
+		String partitionKey = message.getKey() != null ? message.getKey() : message.getTopic();
+		return partitionKey == null ? 0 : (partitionKey.hashCode() & Integer.MAX_VALUE) % partitionCoordinator.getPartitionCount();
+	}
+
+	/**
+	 * Order in which eligible messages are claimed: oldest first, or highest priority first and
+	 * oldest first within a priority.
+	 */
+	private Bson claimSort() {
+		if (config.isPriorityClaims()) {
+			return Sorts.orderBy(Sorts.descending(PRIORITY), Sorts.ascending(CREATED_AT));
+		}
+		return Sorts.ascending(CREATED_AT);
+	}
+
 	/**
 	 * Mark message as PROCESSED after successful publishing
 	 * @param messageId Unique message ID
 	 */
 	public void markMessageAsProcessed(String messageId) {
-		outboxCollection.updateOne(
-				Filters.eq(ID, messageId),
-				Updates.set(STATUS, MessageProcessingStatus.COMPLETED)
-				);
+		if (ackCoalescer != null) {
+			ackCoalescer.add(new UpdateOneModel<Document>(heldByThisInstance(Filters.eq(ID, messageId)), processedUpdate()));
+			return;
+		}
+		UpdateResult result = outboxCollection.updateOne(heldByThisInstance(Filters.eq(ID, messageId)), processedUpdate());
+		if (result.getMatchedCount() == 0) {
+			logger.warn("Message with ID {} is no longer held by this instance, ignoring its acknowledgement.", messageId);
+			return;
+		}
 		logger.debug("Updated message with ID {}, set status to {}.", messageId, MessageProcessingStatus.COMPLETED);
 	}
 
 	/**
-	 * Handle failures by retrying or marking the message as FAILED
+	 * Mark a batch of messages as PROCESSED with a single write.
+	 * @param messageIds Unique message IDs
+	 */
+	@Override
+	public void markMessagesAsProcessed(Collection<String> messageIds) {
+		if (messageIds.isEmpty()) {
+			return;
+		}
+		if (ackCoalescer != null) {
+			List<WriteModel<Document>> writes = new ArrayList<>(messageIds.size());
+			for (String messageId : messageIds) {
+				writes.add(new UpdateOneModel<Document>(heldByThisInstance(Filters.eq(ID, messageId)), processedUpdate()));
+			}
+			ackCoalescer.addAll(writes);
+			return;
+		}
+		UpdateResult result = outboxCollection.updateMany(heldByThisInstance(Filters.in(ID, messageIds)), processedUpdate());
+		if (result.getMatchedCount() < messageIds.size()) {
+			logger.warn("{} of {} messages are no longer held by this instance, ignoring their acknowledgement.",
+					messageIds.size() - result.getMatchedCount(), messageIds.size());
+		}
+		logger.debug("Updated {} messages, set status to {}.", result.getModifiedCount(), MessageProcessingStatus.COMPLETED);
+	}
+
+	/**
+	 * Handle failures by retrying or marking the message as FAILED.
+	 * The decision is taken by the server in one conditional update, without reading the message first.
 	 * @param messageId Unique message ID
 	 * @param maxRetries Maximum retry attempts
 	 */
 	public void markMessageAsFailed(String messageId, int maxRetries) {
-		Document message = outboxCollection.find(Filters.eq(ID, messageId)).first();
-		if (message != null) {
-			int currentRetries = message.getInteger(RETRY_COUNT, 0);
-			if (currentRetries >= maxRetries) {
-				outboxCollection.updateOne(
-						Filters.eq(ID, messageId),
-						Updates.set(STATUS, MessageProcessingStatus.FAILED)
-						);
-				logger.error("Updated message with ID {}, set status to {}.", messageId, MessageProcessingStatus.FAILED);
-			} else {
-				outboxCollection.updateOne(
-						Filters.eq(ID, messageId),
-						Updates.combine(
-								Updates.set(STATUS, MessageProcessingStatus.PENDING),
-								Updates.inc(RETRY_COUNT, 1)
-								)
-						);
-				logger.warn("Updated message with ID {}, retry count incremeted, set status to {}.", messageId, MessageProcessingStatus.FAILED);
-			}			
+		if (ackCoalescer != null) {
+			ackCoalescer.add(new UpdateOneModel<Document>(heldByThisInstance(Filters.eq(ID, messageId)), failedUpdate(maxRetries)));
+			return;
 		}
+		outboxCollection.updateOne(heldByThisInstance(Filters.eq(ID, messageId)), failedUpdate(maxRetries));
+		logger.warn("Updated message with ID {}, set status to {} or {} depending on its retry count.", messageId, retryStatus(), MessageProcessingStatus.FAILED);
+	}
+
+	/**
+	 * Handle failures of a batch of messages with a single write.
+	 * @param messageIds Unique message IDs
+	 * @param maxRetries Maximum retry attempts
+	 */
+	@Override
+	public void markMessagesAsFailed(Collection<String> messageIds, int maxRetries) {
+		if (messageIds.isEmpty()) {
+			return;
+		}
+		if (ackCoalescer != null) {
+			List<WriteModel<Document>> writes = new ArrayList<>(messageIds.size());
+			for (String messageId : messageIds) {
+				writes.add(new UpdateOneModel<Document>(heldByThisInstance(Filters.eq(ID, messageId)), failedUpdate(maxRetries)));
+			}
+			ackCoalescer.addAll(writes);
+			return;
+		}
+		outboxCollection.updateMany(heldByThisInstance(Filters.in(ID, messageIds)), failedUpdate(maxRetries));
+		logger.warn("Updated {} failed messages, set status to {} or {} depending on their retry count.", messageIds.size(), retryStatus(), MessageProcessingStatus.FAILED);
+	}
+
+	/**
+	 * Handles the failure like {@link #markMessageAsFailed(String, int)} and records the error as
+	 * {@code lastError} / {@code errorType} and in the {@code attempts} history.
+	 */
+	@Override
+	public void markMessageAsFailed(String messageId, int maxRetries, Throwable error) {
+		UpdateOneModel<Document> write = new UpdateOneModel<>(heldByThisInstance(Filters.eq(ID, messageId)), failedUpdate(maxRetries, error));
+		if (ackCoalescer != null) {
+			ackCoalescer.add(write);
+			return;
+		}
+		outboxCollection.updateOne(write.getFilter(), write.getUpdatePipeline());
+		logger.warn("Updated message with ID {} after {}, set status to {} or {} depending on its retry count.", messageId,
+				error != null ? error.getClass().getSimpleName() : "a failure", retryStatus(), MessageProcessingStatus.FAILED);
+	}
+
+	/**
+	 * Handles the failures of a batch of messages with one bulk write, recording each error.
+	 */
+	@Override
+	public void markMessagesAsFailed(Map<String, Throwable> errors, int maxRetries) {
+		if (errors.isEmpty()) {
+			return;
+		}
+		List<WriteModel<Document>> writes = new ArrayList<>(errors.size());
+		for (Map.Entry<String, Throwable> error : errors.entrySet()) {
+			writes.add(new UpdateOneModel<Document>(heldByThisInstance(Filters.eq(ID, error.getKey())), failedUpdate(maxRetries, error.getValue())));
+		}
+		if (ackCoalescer != null) {
+			ackCoalescer.addAll(writes);
+			return;
+		}
+		outboxCollection.bulkWrite(writes, new BulkWriteOptions().ordered(false));
+		logger.warn("Updated {} failed messages, set status to {} or {} depending on their retry count.", errors.size(), retryStatus(), MessageProcessingStatus.FAILED);
+	}
+
+	/**
+	 * Renews the lease of the given messages that this instance still holds IN_PROGRESS.
+	 */
+	@Override
+	public void extendLeases(Collection<String> messageIds) {
+		if (messageIds.isEmpty()) {
+			return;
+		}
+		UpdateResult result = outboxCollection.updateMany(heldByThisInstance(Filters.in(ID, messageIds)), Updates.set(LEASE_EXPIRES_AT, leaseExpiry()));
+		logger.trace("Extended the lease of {} messages.", result.getModifiedCount());
+	}
+
+	/**
+	 * Returns every message this instance still holds IN_PROGRESS to PENDING, so that other
+	 * instances can claim it right away. Buffered acknowledgements are flushed first, so that
+	 * messages that were already published are not released.
+	 */
+	@Override
+	public void releaseLeases() {
+		if (ackCoalescer != null) {
+			ackCoalescer.flush();
+		}
+		UpdateResult result = outboxCollection.updateMany(heldByThisInstance(), releaseUpdate());
+		logger.info("Released {} claimed messages.", result.getModifiedCount());
+	}
+
+	/**
+	 * Returns the given messages to PENDING if this instance still holds them, leaving their retry count as is.
+	 */
+	@Override
+	public void releaseMessages(Collection<String> messageIds) {
+		if (messageIds.isEmpty()) {
+			return;
+		}
+		UpdateResult result = outboxCollection.updateMany(heldByThisInstance(Filters.in(ID, messageIds)), releaseUpdate());
+		logger.debug("Released {} claimed messages.", result.getModifiedCount());
+	}
+
+	/**
+	 * Returns IN_PROGRESS messages whose lease has expired, e.g. because the owning instance
+	 * died, to PENDING. The query is served by the {@code (processingStatus, leaseExpiresAt)} index.
+	 * Messages claimed before leases were introduced are reclaimed once their claim is older
+	 * than the lease duration.
+	 */
+	@Override
+	public int reclaimExpiredLeases() {
+		UpdateResult result = outboxCollection.updateMany(expiredLeaseFilter(System.currentTimeMillis()), releaseUpdate());
+		if (result.getModifiedCount() > 0) {
+			logger.warn("Reclaimed {} messages with an expired lease.", result.getModifiedCount());
+		}
+		return (int) result.getModifiedCount();
+	}
+
+	/**
+	 * Returns SCHEDULED messages whose {@code nextAttemptAt} has passed to PENDING, through the
+	 * {@code outbox_retry} index. Does nothing unless a {@link MongoOutboxConfig#withRetryBackoff(RetryBackoff) retry back-off}
+	 * is configured.
+	 */
+	@Override
+	public int releaseDueRetries() {
+		if (config.getRetryBackoff() == null) {
+			return 0;
+		}
+		UpdateResult result = outboxCollection.updateMany(dueRetryFilter(new Date()),
+				Updates.combine(Updates.set(STATUS, MessageProcessingStatus.PENDING), Updates.unset(NEXT_ATTEMPT_AT)));
+		if (result.getModifiedCount() > 0) {
+			logger.debug("Released {} messages due for another attempt.", result.getModifiedCount());
+		}
+		return (int) result.getModifiedCount();
+	}
+
+	private static Bson dueRetryFilter(Date now) {
+		return Filters.and(Filters.eq(STATUS, MessageProcessingStatus.SCHEDULED), Filters.lte(NEXT_ATTEMPT_AT, now));
+	}
+
+	private Bson expiredLeaseFilter(long now) {
+		return Filters.and(
+				Filters.eq(STATUS, MessageProcessingStatus.IN_PROGRESS),
+				Filters.or(
+						Filters.lt(LEASE_EXPIRES_AT, new Date(now)),
+						Filters.and(Filters.eq(LEASE_EXPIRES_AT, null), Filters.lt(PROCESSED_AT, now - config.getLeaseDurationMs()))));
+	}
+
+	private Bson heldByThisInstance() {
+		return Filters.and(Filters.eq(STATUS, MessageProcessingStatus.IN_PROGRESS), Filters.eq(PROCESSED_BY, instanceId));
+	}
+
+	/**
+	 * Narrows {@code messages} to those this instance still holds, so that an acknowledgement or
+	 * failure arriving after the lease expired cannot overwrite another instance's claim.
+	 */
+	private Bson heldByThisInstance(Bson messages) {
+		return Filters.and(messages, heldByThisInstance());
+	}
+
+	private Bson releaseUpdate() {
+		return Updates.combine(
+				Updates.set(STATUS, MessageProcessingStatus.PENDING),
+				Updates.unset(PROCESSED_BY),
+				Updates.unset(CLAIM_TOKEN),
+				Updates.unset(LEASE_EXPIRES_AT));
+	}
+
+	private Date leaseExpiry() {
+		return new Date(System.currentTimeMillis() + config.getLeaseDurationMs());
+	}
+
+	/**
+	 * Flushes buffered acknowledgements and stops the background coalescer, if enabled,
+	 * and leaves the partition membership.
+	 */
+	@Override
+	public void close() {
+		if (ackCoalescer != null) {
+			ackCoalescer.close();
+		}
+		if (partitionCoordinator != null) {
+			partitionCoordinator.close();
+		}
+	}
+
+	private Bson processedUpdate() {
+		return Updates.combine(
+				Updates.set(STATUS, MessageProcessingStatus.COMPLETED),
+				Updates.unset(CLAIM_TOKEN),
+				Updates.unset(LEASE_EXPIRES_AT));
+	}
+
+	/**
+	 * Update pipeline that, in one atomic step, either returns the message to PENDING (or schedules
+	 * its next attempt) with an incremented retry count or marks it FAILED once {@code maxRetries} has been reached.
+	 */
+	private List<Bson> failedUpdate(int maxRetries) {
+		return failedUpdate(maxRetries, new Document());
+	}
+
+	/**
+	 * {@link #failedUpdate(int)} that also records the error and appends the attempt to the
+	 * message's attempt history, which keeps the last {@value #MAX_ATTEMPT_HISTORY} attempts.
+	 */
+	private List<Bson> failedUpdate(int maxRetries, Throwable error) {
+		Throwable cause = rootCause(error);
+		String errorType = cause != null ? cause.getClass().getName() : null;
+		String errorMessage = cause != null ? truncate(String.valueOf(cause.getMessage())) : null;
+		Document attempt = new Document("at", new Date())
+				.append("by", new Document("$literal", instanceId))
+				.append(ERROR_TYPE, new Document("$literal", errorType))
+				.append(LAST_ERROR, new Document("$literal", errorMessage));
+		Document attempts = new Document("$slice", Arrays.asList(
+				new Document("$concatArrays", Arrays.asList(
+						new Document("$ifNull", Arrays.asList("$" + ATTEMPTS, Collections.emptyList())),
+						Collections.singletonList(attempt))),
+				-MAX_ATTEMPT_HISTORY));
+		return failedUpdate(maxRetries, new Document()
+				.append(LAST_ERROR, new Document("$literal", errorMessage)) // user text must not be read as a field path
+				.append(ERROR_TYPE, new Document("$literal", errorType))
+				.append(ATTEMPTS, attempts));
+	}
+
+	private List<Bson> failedUpdate(int maxRetries, Document extraFields) {
+		Document retryCount = new Document("$ifNull", Arrays.asList("$" + RETRY_COUNT, 0));
+		Document exhausted = new Document("$gte", Arrays.asList(retryCount, maxRetries));
+		Document fields = new Document()
+				.append(STATUS, new Document("$cond", Arrays.asList(exhausted,
+						MessageProcessingStatus.FAILED.name(), retryStatus().name())))
+				.append(RETRY_COUNT, new Document("$cond", Arrays.asList(exhausted,
+						retryCount, new Document("$add", Arrays.asList(retryCount, 1)))));
+		if (config.getRetryBackoff() != null) {
+			fields.append(NEXT_ATTEMPT_AT, new Document("$cond", Arrays.asList(exhausted,
+					"$$REMOVE", new Document("$add", Arrays.asList("$$NOW", retryDelay(retryCount))))));
+		}
+		fields.putAll(extraFields);
+		return Arrays.asList(
+				new Document("$set", fields),
+				new Document("$unset", Arrays.asList(CLAIM_TOKEN, LEASE_EXPIRES_AT)));
+	}
+
+	/**
+	 * Status of a failed message that has retries left: SCHEDULED when retries are backed off,
+	 * PENDING when they may be claimed again right away.
+	 */
+	private MessageProcessingStatus retryStatus() {
+		return config.getRetryBackoff() != null ? MessageProcessingStatus.SCHEDULED : MessageProcessingStatus.PENDING;
+	}
+
+	/**
+	 * Expression computing the {@link RetryBackoff} delay in milliseconds from the stored retry
+	 * count, so that a batch of failures is still handled by one update. The jitter uses {@code $rand}
+	 * (MongoDB 4.4.2+).
+	 */
+	private Document retryDelay(Document retryCount) {
+		RetryBackoff backoff = config.getRetryBackoff();
+		Object delay = new Document("$min", Arrays.asList((double) backoff.getMaxDelayMs(),
+				new Document("$multiply", Arrays.asList((double) backoff.getInitialDelayMs(),
+						new Document("$pow", Arrays.asList(backoff.getMultiplier(), retryCount))))));
+		if (backoff.getJitter() > 0) {
+			delay = new Document("$multiply", Arrays.asList(delay, new Document("$subtract", Arrays.asList(1,
+					new Document("$multiply", Arrays.asList(backoff.getJitter(), new Document("$rand", new Document())))))));
+		}
+		return new Document("$toLong", delay);
+	}
+
+	/**
+	 * The innermost cause, e.g. the broker's exception rather than the publisher's wrapper around it.
+	 */
+	private static Throwable rootCause(Throwable error) {
+		Throwable cause = error;
+		while (cause != null && cause.getCause() != null && cause.getCause() != cause) {
+			cause = cause.getCause();
+		}
+		return cause;
+	}
+
+	private static String truncate(String message) {
+		return message.length() > MAX_ERROR_LENGTH ? message.substring(0, MAX_ERROR_LENGTH) : message;
 	}
 }
@@ -1,9 +1,12 @@
 package io.github.djd.outbox.storage;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 import java.util.UUID;
 
+import org.bson.conversions.Bson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -57,18 +60,76 @@ public class MongoOutboxStorage2 implements OutboxStorage {
 	 */
 	@Override
 	public List<OutboxMessage> fetchUnprocessedMessages(int batchSize) {
+		return fetchUnprocessedMessages(batchSize, null, null, null);
+	}
+
+	@Override
+	public List<OutboxMessage> fetchUnprocessedMessages(int batchSize, Date createdBefore) {
+		return fetchUnprocessedMessages(batchSize, createdBefore, null, null);
+	}
+
+	@Override
+	public List<OutboxMessage> fetchUnprocessedMessages(int batchSize, Date createdBefore, TopicSelector topics) {
+		return fetchUnprocessedMessages(batchSize, createdBefore, topics, null);
+	}
+
+	/**
+	 * Fetch a batch of messages of the selected topics and priorities created before the given time
+	 * and mark them as PROCESSING atomically, urgent and then older messages first.
+	 *
+	 * @return List of locked messages
+	 */
+	@Override
+	public List<OutboxMessage> fetchUnprocessedMessages(int batchSize, Date createdBefore, TopicSelector topics,
+			PriorityRange priorities) {
+		List<Bson> conditions = new ArrayList<>();
+		conditions.add(Filters.eq("status", "PENDING")); // Pick only unprocessed messages
+		if (createdBefore != null) {
+			conditions.add(Filters.lt("createdAt", createdBefore));
+		}
+		if (topics != null) {
+			conditions.add(topics.isExcluding() ? Filters.nin("topic", topics.getTopics()) : Filters.in("topic", topics.getTopics()));
+		}
+		if (priorities != null && priorities.getMin() > 0) {
+			conditions.add(Filters.gte("priority", priorities.getMin()));
+		}
+		if (priorities != null && priorities.getMax() != Integer.MAX_VALUE) {
+			conditions.add(Filters.not(Filters.gte("priority", priorities.getMax()))); // also matches a missing priority
+		}
+		List<OutboxMessage> lockedMessages = lock(Filters.and(conditions), batchSize);
+	    logger.info("Fetched {} unprocessed messages.", lockedMessages.size());
+	    return lockedMessages;
+	}
+
+	/**
+	 * Claims the given messages that are still PENDING.
+	 *
+	 * @return List of locked messages
+	 */
+	@Override
+	public List<OutboxMessage> claimMessages(Collection<String> messageIds) {
+		if (messageIds.isEmpty()) {
+			return new ArrayList<>();
+		}
+		return lock(Filters.and(Filters.in("_id", messageIds), Filters.eq("status", "PENDING")), messageIds.size());
+	}
+
+	/**
+	 * Locks up to {@code count} messages matching {@code filter}, one {@code findOneAndUpdate} each.
+	 */
+	private List<OutboxMessage> lock(Bson filter, int count) {
 	    List<OutboxMessage> lockedMessages = new ArrayList<>();
 
-	    for (int i = 0; i < batchSize; i++) {
+	    for (int i = 0; i < count; i++) {
 	        OutboxMessage message = outboxCollection.findOneAndUpdate(
-	            Filters.eq("status", "PENDING"),  // Pick only unprocessed messages
+	            filter,
 	            Updates.combine(
 	                Updates.set("status", "PROCESSING"),  // Lock the message
 	                Updates.set("processingAt", System.currentTimeMillis()),
 	                Updates.set("lockedBy", instanceId) // Track the instance
 	            ),
 	            new FindOneAndUpdateOptions()
-	                .sort(Sorts.ascending("createdAt"))  // Prioritize older messages
+	                .sort(Sorts.orderBy(Sorts.descending("priority"), Sorts.ascending("createdAt")))  // Prioritize urgent, then older messages
 	                .returnDocument(ReturnDocument.AFTER)  // Return updated doc
 	        );
 
@@ -77,12 +138,24 @@ public class MongoOutboxStorage2 implements OutboxStorage {
 	        }
 	        lockedMessages.add(message);
 	    }
-	    
-	    logger.info("Fetched {} unprocessed messages.", lockedMessages.size());
-	    
 	    return lockedMessages;
 	}
 
+	/**
+	 * Returns the given messages locked by this instance to PENDING, leaving their retry count as is.
+	 */
+	@Override
+	public void releaseMessages(Collection<String> messageIds) {
+		if (messageIds.isEmpty()) {
+			return;
+		}
+		long released = outboxCollection.updateMany(
+				Filters.and(Filters.in("_id", messageIds), Filters.eq("status", "PROCESSING"), Filters.eq("lockedBy", instanceId)),
+				Updates.set("status", "PENDING")
+				).getModifiedCount();
+		logger.debug("Released {} locked messages.", released);
+	}
+
 	/**
 	 * Mark message as PROCESSED after successful publishing
 	 * @param messageId Unique message ID
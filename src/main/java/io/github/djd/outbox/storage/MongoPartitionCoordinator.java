@@ -0,0 +1,127 @@
+package io.github.djd.outbox.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+
+/**
+ * Divides the outbox partitions among the live instances.
+ * <p>
+ * Every instance upserts a heartbeat, stamped with the server's time, into a small membership
+ * collection. The live members (heartbeat within the member timeout) are sorted by id and
+ * partition {@code p} is owned by the member at position {@code p % members}. Ownership is
+ * recomputed on every heartbeat, so partitions are rebalanced within one heartbeat interval after
+ * an instance joins or leaves.
+ * </p>
+ * <p>
+ * Ownership only spreads the claim queries across instances to avoid contention; it is not
+ * needed for correctness. While members disagree during a rebalance, two instances may query
+ * the same partition, and the claim itself still guarantees a message is claimed only once.
+ * </p>
+ */
+class MongoPartitionCoordinator implements AutoCloseable {
+
+	private static final Logger logger = LoggerFactory.getLogger(MongoPartitionCoordinator.class);
+
+	private static final String HEARTBEAT_AT = "heartbeatAt";
+
+	private final MongoCollection<Document> membershipCollection;
+	private final String instanceId;
+	private final int partitionCount;
+	private final long memberTimeoutMs;
+	private final ScheduledExecutorService scheduler;
+	private volatile List<Integer> ownedPartitions = Collections.emptyList();
+
+	MongoPartitionCoordinator(MongoCollection<Document> membershipCollection, String instanceId, int partitionCount,
+			long heartbeatIntervalMs, long memberTimeoutMs) {
+		this.membershipCollection = membershipCollection;
+		this.instanceId = instanceId;
+		this.partitionCount = partitionCount;
+		this.memberTimeoutMs = memberTimeoutMs;
+		heartbeat(); // know the owned partitions before the first claim
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "outbox-partition-heartbeat");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.scheduler.scheduleWithFixedDelay(this::heartbeat, heartbeatIntervalMs, heartbeatIntervalMs, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Partitions this instance currently claims from.
+	 */
+	List<Integer> getOwnedPartitions() {
+		return ownedPartitions;
+	}
+
+	int getPartitionCount() {
+		return partitionCount;
+	}
+
+	private void heartbeat() {
+		try {
+			membershipCollection.updateOne(Filters.eq("_id", instanceId), Updates.currentDate(HEARTBEAT_AT), new UpdateOptions().upsert(true));
+			membershipCollection.deleteMany(heartbeatSince("$lt"));
+
+			List<Object> members = membershipCollection.find(heartbeatSince("$gte"))
+					.projection(Projections.include("_id"))
+					.sort(Sorts.ascending("_id"))
+					.map(doc -> doc.get("_id"))
+					.into(new ArrayList<>());
+			int position = members.indexOf(instanceId);
+			List<Integer> owned = new ArrayList<>();
+			for (int partition = 0; position >= 0 && partition < partitionCount; partition++) {
+				if (partition % members.size() == position) {
+					owned.add(partition);
+				}
+			}
+			if (!owned.equals(ownedPartitions)) {
+				logger.info("Instance {} of {} now owns partitions {}.", position + 1, members.size(), owned);
+			}
+			ownedPartitions = Collections.unmodifiableList(owned);
+		} catch (MongoException e) {
+			// Keep the current ownership; peers drop this member once its heartbeat times out
+			logger.error("Partition heartbeat failed: {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * Compares the heartbeat with the member timeout on the server's clock, like the heartbeat
+	 * itself, so that instances with skewed clocks agree on who is live.
+	 */
+	private Bson heartbeatSince(String operator) {
+		Document liveSince = new Document("$subtract", Arrays.asList("$$NOW", memberTimeoutMs));
+		return Filters.expr(new Document(operator, Arrays.asList("$" + HEARTBEAT_AT, liveSince)));
+	}
+
+	/**
+	 * Leaves the membership so that the remaining instances take over the partitions right away.
+	 */
+	@Override
+	public void close() {
+		scheduler.shutdownNow();
+		try {
+			membershipCollection.deleteOne(Filters.eq("_id", instanceId));
+		} catch (MongoException e) {
+			logger.warn("Failed to leave partition membership: {}", e.getMessage());
+		}
+		ownedPartitions = Collections.emptyList();
+	}
+}
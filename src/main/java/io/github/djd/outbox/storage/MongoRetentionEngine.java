@@ -0,0 +1,131 @@
+package io.github.djd.outbox.storage;
+
+import static io.github.djd.outbox.model.MongoOutboxMessageFields.*;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.result.DeleteResult;
+
+import io.github.djd.outbox.model.MessageProcessingStatus;
+
+/**
+ * Removes COMPLETED messages older than the retention period from the outbox collection,
+ * optionally copying them to an archive collection first.
+ * <p>
+ * Messages are removed in batches of {@code batchSize} with a pause between batches, so that a
+ * large backlog is worked off without saturating the primary. Each batch is selected through
+ * the partial {@code outbox_retention} index created by {@link MongoOutboxStorage}.
+ * </p>
+ */
+public class MongoRetentionEngine implements AutoCloseable {
+
+	private static final Logger logger = LoggerFactory.getLogger(MongoRetentionEngine.class);
+
+	private final MongoCollection<Document> outboxCollection;
+	private final MongoCollection<Document> archiveCollection; // null to purge without archiving
+	private final long retentionMs;
+	private final int batchSize;
+	private final long pauseBetweenBatchesMs;
+	private final MongoBatchJob job = new MongoBatchJob("outbox-retention", "Retention run", this::runOnce);
+
+	/**
+	 * Creates an engine that deletes expired messages.
+	 *
+	 * @param retentionMs COMPLETED messages created longer ago than this are removed.
+	 * @param batchSize Messages removed per batch.
+	 * @param pauseBetweenBatchesMs Pause after every batch, to limit the write rate.
+	 */
+	public MongoRetentionEngine(MongoCollection<Document> outboxCollection, long retentionMs, int batchSize, long pauseBetweenBatchesMs) {
+		this(outboxCollection, null, retentionMs, batchSize, pauseBetweenBatchesMs);
+	}
+
+	/**
+	 * Creates an engine that moves expired messages to {@code archiveCollection}.
+	 */
+	public MongoRetentionEngine(MongoCollection<Document> outboxCollection, MongoCollection<Document> archiveCollection,
+			long retentionMs, int batchSize, long pauseBetweenBatchesMs) {
+		this.outboxCollection = outboxCollection;
+		this.archiveCollection = archiveCollection;
+		this.retentionMs = retentionMs;
+		this.batchSize = batchSize;
+		this.pauseBetweenBatchesMs = pauseBetweenBatchesMs;
+	}
+
+	/**
+	 * Runs {@link #runOnce()} in the background every {@code intervalMs}.
+	 */
+	public void start(long intervalMs) {
+		if (job.start(intervalMs)) {
+			logger.info("Retention of COMPLETED messages older than {}ms started.", retentionMs);
+		}
+	}
+
+	/**
+	 * Removes all messages that have expired by now, batch by batch.
+	 *
+	 * @return The number of removed messages.
+	 */
+	public long runOnce() throws InterruptedException {
+		Bson expired = expiredFilter(new Date(System.currentTimeMillis() - retentionMs));
+		long removed = 0;
+		while (!Thread.currentThread().isInterrupted()) {
+			int batchRemoved = removeBatch(expired);
+			removed += batchRemoved;
+			if (batchRemoved < batchSize) {
+				break;
+			}
+			TimeUnit.MILLISECONDS.sleep(pauseBetweenBatchesMs);
+		}
+		if (removed > 0) {
+			logger.info("{} {} COMPLETED messages.", archiveCollection != null ? "Archived" : "Purged", removed);
+		}
+		return removed;
+	}
+
+	private int removeBatch(Bson expired) {
+		List<Object> ids = new ArrayList<>(batchSize);
+		if (archiveCollection == null) {
+			outboxCollection.find(expired).sort(Sorts.ascending(CREATED_AT)).projection(Projections.include(ID)).limit(batchSize)
+					.map(doc -> doc.get(ID)).into(ids);
+		} else {
+			List<Document> batch = outboxCollection.find(expired).sort(Sorts.ascending(CREATED_AT)).limit(batchSize).into(new ArrayList<>());
+			if (batch.isEmpty()) {
+				return 0;
+			}
+			MongoBatchJob.insertSkippingDuplicates(archiveCollection, batch);
+			for (Document doc : batch) {
+				ids.add(doc.get(ID));
+			}
+		}
+		if (ids.isEmpty()) {
+			return 0;
+		}
+		// Re-check the status so nothing but COMPLETED messages is ever removed
+		DeleteResult result = outboxCollection.deleteMany(Filters.and(Filters.in(ID, ids), expired));
+		return (int) result.getDeletedCount();
+	}
+
+	/**
+	 * COMPLETED messages created before {@code cutoff}.
+	 */
+	static Bson expiredFilter(Date cutoff) {
+		return Filters.and(Filters.eq(STATUS, MessageProcessingStatus.COMPLETED), Filters.lt(CREATED_AT, cutoff));
+	}
+
+	@Override
+	public void close() {
+		job.close();
+	}
+}
@@ -0,0 +1,197 @@
+package io.github.djd.outbox.storage;
+
+import static io.github.djd.outbox.model.MongoOutboxMessageFields.*;
+
+import java.util.Date;
+
+import org.bson.BsonBinary;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import io.github.djd.outbox.model.MessageProcessingStatus;
+import io.github.djd.outbox.model.OutboxMessage;
+
+/**
+ * {@link Codec} reading outbox documents written by {@link MongoOutboxStorage} straight from the
+ * {@link BsonReader} into an {@link OutboxMessage}, without building an intermediate
+ * {@code Document}. Unknown fields are skipped, missing ones are left unset, and text, binary and
+ * compressed payloads are handled like {@link OutboxUtil#fromDocument(org.bson.Document)} does.
+ * <p>
+ * Register it with {@code CodecRegistries.fromCodecs(new OutboxMessageCodec())} to work with a
+ * {@code MongoCollection<OutboxMessage>}; {@link MongoOutboxConfig#withDirectDecoding(boolean)}
+ * makes the storage use it for its claims.
+ * </p>
+ */
+public class OutboxMessageCodec implements Codec<OutboxMessage> {
+
+	@Override
+	public OutboxMessage decode(BsonReader reader, DecoderContext decoderContext) {
+		String id = null;
+		String topic = null;
+		String key = null;
+		String payload = null;
+		byte[] binaryPayload = null;
+		String payloadEncoding = null;
+		MessageProcessingStatus status = null;
+		Date createdAt = null;
+		Date processedAt = null;
+		String processedBy = null;
+		int retryCount = 0;
+		int priority = 0;
+
+		reader.readStartDocument();
+		while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+			String name = reader.readName();
+			BsonType type = reader.getCurrentBsonType();
+			if (type == BsonType.NULL) {
+				reader.readNull();
+				continue;
+			}
+			switch (name) {
+			case ID:
+				id = type == BsonType.OBJECT_ID ? reader.readObjectId().toHexString() : readString(reader, type);
+				break;
+			case TOPIC:
+				topic = readString(reader, type);
+				break;
+			case KEY:
+				key = readString(reader, type);
+				break;
+			case PAYLOAD:
+				if (type == BsonType.BINARY) {
+					binaryPayload = reader.readBinaryData().getData();
+				} else {
+					payload = readString(reader, type);
+				}
+				break;
+			case PAYLOAD_ENCODING:
+				payloadEncoding = readString(reader, type);
+				break;
+			case STATUS:
+				status = statusOf(readString(reader, type));
+				break;
+			case CREATED_AT:
+				createdAt = readDate(reader, type);
+				break;
+			case PROCESSED_AT:
+				processedAt = readDate(reader, type);
+				break;
+			case PROCESSED_BY:
+				processedBy = readString(reader, type);
+				break;
+			case RETRY_COUNT:
+				retryCount = (int) readLong(reader, type);
+				break;
+			case PRIORITY:
+				priority = (int) readLong(reader, type);
+				break;
+			default:
+				reader.skipValue();
+			}
+		}
+		reader.readEndDocument();
+
+		OutboxMessage message = new OutboxMessage(id, topic, payload, status, createdAt, processedAt, processedBy, retryCount);
+		message.setKey(key);
+		message.setPriority(priority);
+		if (binaryPayload != null) {
+			PayloadCodec.setPayload(message, binaryPayload, payloadEncoding);
+		}
+		return message;
+	}
+
+	/**
+	 * Writes the message as a PENDING outbox document, with the payload uncompressed.
+	 */
+	@Override
+	public void encode(BsonWriter writer, OutboxMessage message, EncoderContext encoderContext) {
+		writer.writeStartDocument();
+		writer.writeString(ID, message.getId());
+		writeString(writer, TOPIC, message.getTopic());
+		writeString(writer, KEY, message.getKey());
+		if (message.isBinary()) {
+			writer.writeBinaryData(PAYLOAD, new BsonBinary(message.getBinaryPayload()));
+		} else {
+			writeString(writer, PAYLOAD, message.getPayload());
+		}
+		writer.writeString(STATUS, (message.getStatus() != null ? message.getStatus() : MessageProcessingStatus.PENDING).name());
+		writer.writeDateTime(CREATED_AT, (message.getCreatedAt() != null ? message.getCreatedAt() : new Date()).getTime());
+		writer.writeInt32(RETRY_COUNT, message.getRetryCount());
+		if (message.getPriority() != 0) {
+			writer.writeInt32(PRIORITY, message.getPriority());
+		}
+		writer.writeEndDocument();
+	}
+
+	@Override
+	public Class<OutboxMessage> getEncoderClass() {
+		return OutboxMessage.class;
+	}
+
+	private static void writeString(BsonWriter writer, String name, String value) {
+		if (value != null) {
+			writer.writeString(name, value);
+		}
+	}
+
+	private static String readString(BsonReader reader, BsonType type) {
+		if (type == BsonType.STRING) {
+			return reader.readString();
+		}
+		reader.skipValue();
+		return null;
+	}
+
+	private static Date readDate(BsonReader reader, BsonType type) {
+		switch (type) {
+		case DATE_TIME:
+			return new Date(reader.readDateTime());
+		case INT64:
+			return new Date(reader.readInt64()); // processedAt is stored in milliseconds
+		default:
+			reader.skipValue();
+			return null;
+		}
+	}
+
+	private static long readLong(BsonReader reader, BsonType type) {
+		switch (type) {
+		case INT32:
+			return reader.readInt32();
+		case INT64:
+			return reader.readInt64();
+		case DOUBLE:
+			return (long) reader.readDouble();
+		default:
+			reader.skipValue();
+			return 0;
+		}
+	}
+
+	/**
+	 * Maps the stored status without allocating; statuses are always stored by their enum name.
+	 */
+	private static MessageProcessingStatus statusOf(String status) {
+		if (status == null) {
+			return null;
+		}
+		switch (status) {
+		case "PENDING":
+			return MessageProcessingStatus.PENDING;
+		case "IN_PROGRESS":
+			return MessageProcessingStatus.IN_PROGRESS;
+		case "COMPLETED":
+			return MessageProcessingStatus.COMPLETED;
+		case "FAILED":
+			return MessageProcessingStatus.FAILED;
+		case "SCHEDULED":
+			return MessageProcessingStatus.SCHEDULED;
+		default:
+			return MessageProcessingStatus.valueOf(status.toUpperCase());
+		}
+	}
+}
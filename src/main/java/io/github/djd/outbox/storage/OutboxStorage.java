@@ -1,6 +1,9 @@
 package io.github.djd.outbox.storage;
 
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import io.github.djd.outbox.model.OutboxMessage;
 
@@ -21,6 +24,19 @@ public interface OutboxStorage {
      */
     public void saveMessage(OutboxMessage message);
 
+    /**
+     * Persists a batch of new messages.
+     * Implementations should override this to store the whole batch in one write;
+     * the default falls back to {@link #saveMessage(OutboxMessage)} per message.
+     *
+     * @param messages The {@link OutboxMessage} instances to be stored.
+     */
+    public default void saveMessages(List<OutboxMessage> messages) {
+        for (OutboxMessage message : messages) {
+            saveMessage(message);
+        }
+    }
+
     /**
      * Retrieves a batch of unprocessed messages from the outbox storage.
      * The messages returned by this method are typically those that have
@@ -31,10 +47,73 @@ public interface OutboxStorage {
      */
     public List<OutboxMessage> fetchUnprocessedMessages(int batchSize);
 
+    /**
+     * Retrieves a batch of unprocessed messages that were created before the given time.
+     * Used to sweep up messages that a faster path (e.g. a change stream) missed.
+     *
+     * @param batchSize The maximum number of messages to fetch in a single call.
+     * @param createdBefore Only messages created before this time are fetched; null for no limit.
+     * @return A list of {@link OutboxMessage} instances that are yet to be processed.
+     */
+    public default List<OutboxMessage> fetchUnprocessedMessages(int batchSize, Date createdBefore) {
+        if (createdBefore == null) {
+            return fetchUnprocessedMessages(batchSize);
+        }
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support fetching by age.");
+    }
+
+    /**
+     * Retrieves a batch of unprocessed messages of some topics only, created before the given time.
+     * Used to claim from each topic separately, e.g. to schedule fairly across topics.
+     *
+     * @param batchSize The maximum number of messages to fetch in a single call.
+     * @param createdBefore Only messages created before this time are fetched; null for no limit.
+     * @param topics The topics to fetch from; null for all topics.
+     * @return A list of {@link OutboxMessage} instances that are yet to be processed.
+     */
+    public default List<OutboxMessage> fetchUnprocessedMessages(int batchSize, Date createdBefore, TopicSelector topics) {
+        if (topics == null) {
+            return fetchUnprocessedMessages(batchSize, createdBefore);
+        }
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support fetching by topic.");
+    }
+
+    /**
+     * Retrieves a batch of unprocessed messages of some topics and priorities only, created before
+     * the given time. Used to serve each priority band from its own claim.
+     *
+     * @param batchSize The maximum number of messages to fetch in a single call.
+     * @param createdBefore Only messages created before this time are fetched; null for no limit.
+     * @param topics The topics to fetch from; null for all topics.
+     * @param priorities The priorities to fetch; null for all priorities.
+     * @return A list of {@link OutboxMessage} instances that are yet to be processed.
+     */
+    public default List<OutboxMessage> fetchUnprocessedMessages(int batchSize, Date createdBefore, TopicSelector topics,
+            PriorityRange priorities) {
+        if (priorities == null) {
+            return fetchUnprocessedMessages(batchSize, createdBefore, topics);
+        }
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support fetching by priority.");
+    }
+
+    /**
+     * Claims specific messages, e.g. ones announced by a change stream. Messages that are
+     * no longer unprocessed, because another processor claimed them first, are skipped,
+     * so every message is claimed at most once.
+     *
+     * @param messageIds The unique identifiers of the messages to claim.
+     * @return The messages that were claimed by this call.
+     */
+    public default List<OutboxMessage> claimMessages(Collection<String> messageIds) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support claiming by id.");
+    }
+
     /**
      * Marks a message as processed in the outbox storage.
      * Once a message has been successfully published to the messaging system,
      * it should be marked as processed to prevent duplicate processing.
+     * Storages with leases ignore the acknowledgement (and likewise a failure) of a message
+     * this instance no longer holds, e.g. because its lease expired and another instance claimed it.
      *
      * @param messageId The unique identifier of the message to be marked as processed.
      */
@@ -42,4 +121,112 @@ public interface OutboxStorage {
     
     
     public void markMessageAsFailed(String messageId, int maxRetries);
+
+    /**
+     * Marks a batch of messages as processed.
+     * Implementations should override this to acknowledge the whole batch in one write;
+     * the default falls back to {@link #markMessageAsProcessed(String)} per message.
+     *
+     * @param messageIds The unique identifiers of the messages to be marked as processed.
+     */
+    public default void markMessagesAsProcessed(Collection<String> messageIds) {
+        for (String messageId : messageIds) {
+            markMessageAsProcessed(messageId);
+        }
+    }
+
+    /**
+     * Handles the failure of a batch of messages, either returning each message for another
+     * attempt or marking it as failed once {@code maxRetries} has been reached.
+     * The default falls back to {@link #markMessageAsFailed(String, int)} per message.
+     *
+     * @param messageIds The unique identifiers of the messages that failed.
+     * @param maxRetries Maximum retry attempts.
+     */
+    public default void markMessagesAsFailed(Collection<String> messageIds, int maxRetries) {
+        for (String messageId : messageIds) {
+            markMessageAsFailed(messageId, maxRetries);
+        }
+    }
+
+    /**
+     * Handles the failure of a message like {@link #markMessageAsFailed(String, int)}, recording
+     * {@code error} as its last error and in its attempt history where the storage keeps them.
+     * The default ignores the error.
+     *
+     * @param messageId The unique identifier of the message that failed.
+     * @param maxRetries Maximum retry attempts.
+     * @param error The cause of the last failed attempt, may be null.
+     */
+    public default void markMessageAsFailed(String messageId, int maxRetries, Throwable error) {
+        markMessageAsFailed(messageId, maxRetries);
+    }
+
+    /**
+     * Handles the failure of a batch of messages like {@link #markMessagesAsFailed(Collection, int)},
+     * recording the cause of each message's last failed attempt.
+     * The default falls back to {@link #markMessageAsFailed(String, int, Throwable)} per message.
+     *
+     * @param errors The cause of the last failed attempt by message id; causes may be null.
+     * @param maxRetries Maximum retry attempts.
+     */
+    public default void markMessagesAsFailed(Map<String, Throwable> errors, int maxRetries) {
+        for (Map.Entry<String, Throwable> error : errors.entrySet()) {
+            markMessageAsFailed(error.getKey(), maxRetries, error.getValue());
+        }
+    }
+
+    /**
+     * Renews the lease on the given messages, where this instance still holds them.
+     * Called periodically by live processors with the messages they are still working on;
+     * claims that are not renewed, including ones a processor lost track of, expire and are
+     * picked up again by {@link #reclaimExpiredLeases()}.
+     *
+     * @param messageIds The unique identifiers of the messages whose lease to renew.
+     */
+    public default void extendLeases(Collection<String> messageIds) {
+    }
+
+    /**
+     * Returns all messages currently claimed by this instance to the pending state,
+     * so that other instances can process them immediately. Called on shutdown.
+     */
+    public default void releaseLeases() {
+    }
+
+    /**
+     * Returns specific messages claimed by this instance to the pending state without counting a
+     * failed attempt, e.g. because their destination is known to be unavailable.
+     *
+     * @param messageIds The unique identifiers of the messages to release.
+     */
+    public default void releaseMessages(Collection<String> messageIds) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support releasing messages by id.");
+    }
+
+    /**
+     * Returns claimed messages whose lease has expired to the pending state.
+     *
+     * @return The number of reclaimed messages.
+     */
+    public default int reclaimExpiredLeases() {
+        return 0;
+    }
+
+    /**
+     * Returns SCHEDULED messages whose next attempt is due to the pending state. Storages only
+     * schedule failed messages, instead of returning them to the pending state at once, when
+     * configured with a {@link RetryBackoff}.
+     *
+     * @return The number of released messages.
+     */
+    public default int releaseDueRetries() {
+        return 0;
+    }
+
+    /**
+     * Flushes any buffered writes and releases resources held by the storage.
+     */
+    public default void close() {
+    }
 }
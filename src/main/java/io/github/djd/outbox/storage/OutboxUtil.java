@@ -6,6 +6,7 @@ import java.util.Date;
 import java.util.concurrent.TimeUnit;
 
 import org.bson.Document;
+import org.bson.types.ObjectId;
 
 import io.github.djd.outbox.model.MessageProcessingStatus;
 import io.github.djd.outbox.model.OutboxMessage;
@@ -17,16 +18,20 @@ public class OutboxUtil {
             return null;
         }
 
-        return new OutboxMessage(
-                doc.getString(ID),  // `_id` is a string
+        OutboxMessage message = new OutboxMessage(
+                doc.get(ID) instanceof ObjectId ? doc.getObjectId(ID).toHexString() : doc.getString(ID),  // `_id` is a string unless inserted by other tools
                 doc.getString(TOPIC),
-                doc.getString(PAYLOAD),
+                doc.get(PAYLOAD) instanceof String ? doc.getString(PAYLOAD) : null, // binary payloads are set below
                 MessageProcessingStatus.valueOf(doc.getString(STATUS).toUpperCase()), // Convert string to enum
                 doc.getDate(CREATED_AT),
-                new Date(TimeUnit.MILLISECONDS.toMillis(doc.getLong(PROCESSED_AT))), // processedAt stored in milliseconds
+                doc.get(PROCESSED_AT) == null ? null : new Date(TimeUnit.MILLISECONDS.toMillis(doc.getLong(PROCESSED_AT))), // processedAt stored in milliseconds, absent until claimed
                 doc.getString(PROCESSED_BY),
                 doc.getInteger(RETRY_COUNT, 0) // Default to 0 if missing
         );
+        message.setKey(doc.getString(KEY)); // Optional ordering key
+        message.setPriority(doc.getInteger(PRIORITY, 0)); // Only stored when not 0
+        PayloadCodec.read(doc, message); // Binary and compressed payloads
+        return message;
     }
 
 }
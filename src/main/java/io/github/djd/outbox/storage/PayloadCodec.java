@@ -0,0 +1,111 @@
+package io.github.djd.outbox.storage;
+
+import static io.github.djd.outbox.model.MongoOutboxMessageFields.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.bson.Document;
+import org.bson.types.Binary;
+
+import io.github.djd.outbox.model.OutboxMessage;
+
+/**
+ * Stores message payloads in outbox documents and reads them back.
+ * <p>
+ * A text payload is a BSON string and a binary payload BSON binary, as before compression was
+ * introduced, so existing documents are read unchanged. A compressed payload is BSON binary with
+ * {@code payloadEncoding} set to {@code DEFLATE} (binary message) or {@code DEFLATE_TEXT}
+ * (UTF-8 text message).
+ * </p>
+ */
+class PayloadCodec {
+
+	static final String DEFLATE = "DEFLATE";
+	static final String DEFLATE_TEXT = "DEFLATE_TEXT";
+
+	private PayloadCodec() {
+	}
+
+	/**
+	 * Appends the payload of {@code message} to {@code doc}, compressed if it is larger than
+	 * {@code thresholdBytes} and compression makes it smaller.
+	 */
+	static void write(Document doc, OutboxMessage message, PayloadCompression compression, int thresholdBytes) {
+		if (compression == PayloadCompression.DEFLATE) {
+			byte[] raw = message.getPayloadBytes();
+			if (raw != null && raw.length > thresholdBytes) {
+				byte[] deflated = deflate(raw);
+				if (deflated.length < raw.length) {
+					doc.append(PAYLOAD, new Binary(deflated))
+							.append(PAYLOAD_ENCODING, message.isBinary() ? DEFLATE : DEFLATE_TEXT);
+					return;
+				}
+			}
+		}
+		doc.append(PAYLOAD, message.isBinary() ? new Binary(message.getBinaryPayload()) : message.getPayload());
+	}
+
+	/**
+	 * Sets the text or binary payload of {@code message} from {@code doc}, decompressing it if needed.
+	 */
+	static void read(Document doc, OutboxMessage message) {
+		Object payload = doc.get(PAYLOAD);
+		if (!(payload instanceof Binary)) {
+			return; // text payloads are set by the constructor
+		}
+		setPayload(message, ((Binary) payload).getData(), doc.getString(PAYLOAD_ENCODING));
+	}
+
+	/**
+	 * Sets the payload of {@code message} from the stored bytes and their {@code payloadEncoding}
+	 * (null for an uncompressed binary payload).
+	 */
+	static void setPayload(OutboxMessage message, byte[] bytes, String encoding) {
+		if (DEFLATE_TEXT.equals(encoding)) {
+			message.setPayload(new String(inflate(bytes), StandardCharsets.UTF_8));
+		} else {
+			message.setBinaryPayload(DEFLATE.equals(encoding) ? inflate(bytes) : bytes);
+		}
+	}
+
+	static byte[] deflate(byte[] raw) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(raw);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 16);
+			byte[] buffer = new byte[8192];
+			while (!deflater.finished()) {
+				out.write(buffer, 0, deflater.deflate(buffer));
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	static byte[] inflate(byte[] deflated) {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(deflated);
+			ByteArrayOutputStream out = new ByteArrayOutputStream(deflated.length * 4);
+			byte[] buffer = new byte[8192];
+			while (!inflater.finished()) {
+				int length = inflater.inflate(buffer);
+				if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IllegalStateException("Truncated compressed payload.");
+				}
+				out.write(buffer, 0, length);
+			}
+			return out.toByteArray();
+		} catch (DataFormatException e) {
+			throw new IllegalStateException("Corrupt compressed payload.", e);
+		} finally {
+			inflater.end();
+		}
+	}
+}
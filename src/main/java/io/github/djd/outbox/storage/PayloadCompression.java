@@ -0,0 +1,18 @@
+package io.github.djd.outbox.storage;
+
+/**
+ * Compression applied by {@link MongoOutboxStorage} to payloads above the configured size threshold.
+ */
+public enum PayloadCompression {
+
+	/**
+	 * Payloads are stored as they are: text as a BSON string, bytes as BSON binary.
+	 */
+	NONE,
+
+	/**
+	 * Payloads above the threshold are deflated ({@link java.util.zip.Deflater}, fastest level) and
+	 * stored as BSON binary, unless that does not make them smaller.
+	 */
+	DEFLATE
+}
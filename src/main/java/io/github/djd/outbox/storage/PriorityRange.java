@@ -0,0 +1,60 @@
+package io.github.djd.outbox.storage;
+
+/**
+ * Restricts a claim to the messages whose priority lies in {@code [min, max)}, e.g. to serve each
+ * priority band from its own claim.
+ */
+public final class PriorityRange {
+
+	private final int min;
+	private final int max;
+
+	private PriorityRange(int min, int max) {
+		this.min = min;
+		this.max = max;
+	}
+
+	/**
+	 * Selects priorities from {@code min} (inclusive) to {@code max} (exclusive).
+	 */
+	public static PriorityRange between(int min, int max) {
+		return new PriorityRange(min, max);
+	}
+
+	/**
+	 * Selects priorities of {@code min} and above.
+	 */
+	public static PriorityRange atLeast(int min) {
+		return new PriorityRange(min, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Selects priorities below {@code max}, including the default priority 0 if {@code max} is positive.
+	 */
+	public static PriorityRange below(int max) {
+		return new PriorityRange(0, max);
+	}
+
+	/**
+	 * The lowest priority selected; 0 means there is no lower bound.
+	 */
+	public int getMin() {
+		return min;
+	}
+
+	/**
+	 * The priority above the highest one selected; {@link Integer#MAX_VALUE} means there is no upper bound.
+	 */
+	public int getMax() {
+		return max;
+	}
+
+	public boolean matches(int priority) {
+		return priority >= min && priority < max;
+	}
+
+	@Override
+	public String toString() {
+		return "priorities [" + min + ", " + (max == Integer.MAX_VALUE ? "max" : String.valueOf(max)) + ")";
+	}
+}
@@ -0,0 +1,77 @@
+package io.github.djd.outbox.storage;
+
+import static io.github.djd.outbox.model.MongoOutboxMessageFields.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import com.mongodb.client.model.Filters;
+
+/**
+ * Selects the dead-lettered messages {@link MongoDeadLetterQueue#redrive(RedriveFilter, double)}
+ * re-enqueues. Criteria are combined with AND; an empty filter selects every dead letter.
+ */
+public class RedriveFilter {
+
+	private List<String> topics;
+	private Date createdFrom;
+	private Date createdBefore;
+	private String errorType;
+
+	/**
+	 * Only messages of the given topics.
+	 */
+	public RedriveFilter withTopics(String... topics) {
+		this.topics = Arrays.asList(topics);
+		return this;
+	}
+
+	/**
+	 * Only messages created from {@code from} (inclusive) to {@code before} (exclusive); either
+	 * bound may be null.
+	 */
+	public RedriveFilter withCreatedBetween(Date from, Date before) {
+		this.createdFrom = from;
+		this.createdBefore = before;
+		return this;
+	}
+
+	/**
+	 * Only messages whose last attempt failed with the given exception class, e.g.
+	 * {@code org.apache.kafka.common.errors.TimeoutException}; the simple class name also matches.
+	 */
+	public RedriveFilter withErrorType(String errorType) {
+		this.errorType = errorType;
+		return this;
+	}
+
+	Bson toBson() {
+		List<Bson> conditions = new ArrayList<>(4);
+		if (topics != null) {
+			conditions.add(Filters.in(TOPIC, topics));
+		}
+		if (createdFrom != null) {
+			conditions.add(Filters.gte(CREATED_AT, createdFrom));
+		}
+		if (createdBefore != null) {
+			conditions.add(Filters.lt(CREATED_AT, createdBefore));
+		}
+		if (errorType != null) {
+			conditions.add(errorType.contains(".")
+					? Filters.eq(ERROR_TYPE, errorType)
+					: Filters.regex(ERROR_TYPE, "(^|[.$])" + Pattern.quote(errorType) + "$"));
+		}
+		return conditions.isEmpty() ? new Document() : Filters.and(conditions);
+	}
+
+	@Override
+	public String toString() {
+		return "topics=" + topics + ", created=[" + createdFrom + ", " + createdBefore + "), errorType=" + errorType;
+	}
+}
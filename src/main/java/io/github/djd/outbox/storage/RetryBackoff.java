@@ -0,0 +1,90 @@
+package io.github.djd.outbox.storage;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential back-off between the attempts to publish a message: the n-th retry waits
+ * {@code initialDelay * multiplier^(n-1)}, capped at {@code maxDelay}, shortened by a random
+ * fraction of up to {@code jitter} so that messages which failed together do not all come back at once.
+ * <p>
+ * e.g. {@code new RetryBackoff().withInitialDelay(500).withMaxDelay(60000).withJitter(0.5)}
+ * </p>
+ */
+public class RetryBackoff {
+
+	private long initialDelayMs = 1000;
+	private double multiplier = 2;
+	private long maxDelayMs = 30000;
+	private double jitter = 0.2;
+
+	public long getInitialDelayMs() {
+		return initialDelayMs;
+	}
+
+	/**
+	 * Delay before the first retry.
+	 */
+	public RetryBackoff withInitialDelay(long initialDelayMs) {
+		if (initialDelayMs < 0) {
+			throw new IllegalArgumentException("The initial delay must not be negative: " + initialDelayMs);
+		}
+		this.initialDelayMs = initialDelayMs;
+		return this;
+	}
+
+	public double getMultiplier() {
+		return multiplier;
+	}
+
+	/**
+	 * Factor by which the delay grows with every further retry.
+	 */
+	public RetryBackoff withMultiplier(double multiplier) {
+		if (multiplier < 1) {
+			throw new IllegalArgumentException("The multiplier must be at least 1: " + multiplier);
+		}
+		this.multiplier = multiplier;
+		return this;
+	}
+
+	public long getMaxDelayMs() {
+		return maxDelayMs;
+	}
+
+	/**
+	 * Upper bound of the delay, before jitter.
+	 */
+	public RetryBackoff withMaxDelay(long maxDelayMs) {
+		if (maxDelayMs < 0) {
+			throw new IllegalArgumentException("The maximum delay must not be negative: " + maxDelayMs);
+		}
+		this.maxDelayMs = maxDelayMs;
+		return this;
+	}
+
+	public double getJitter() {
+		return jitter;
+	}
+
+	/**
+	 * Largest fraction, between 0 and 1, by which a delay is randomly shortened; 0 disables jitter.
+	 */
+	public RetryBackoff withJitter(double jitter) {
+		if (jitter < 0 || jitter > 1) {
+			throw new IllegalArgumentException("The jitter must be between 0 and 1: " + jitter);
+		}
+		this.jitter = jitter;
+		return this;
+	}
+
+	/**
+	 * Delay before the given retry, counted from 1, jitter included.
+	 */
+	public long delayMs(int retry) {
+		double delay = Math.min(maxDelayMs, initialDelayMs * Math.pow(multiplier, Math.max(0, retry - 1)));
+		if (jitter > 0) {
+			delay *= 1 - jitter * ThreadLocalRandom.current().nextDouble();
+		}
+		return (long) delay;
+	}
+}
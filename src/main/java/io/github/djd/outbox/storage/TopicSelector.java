@@ -0,0 +1,76 @@
+package io.github.djd.outbox.storage;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Restricts a claim to some topics: either only the given topics, or every topic except them.
+ * Used to claim from several topics separately, e.g. for fair scheduling across topics.
+ */
+public final class TopicSelector {
+
+	private final Set<String> topics;
+	private final boolean excluding;
+
+	private TopicSelector(Collection<String> topics, boolean excluding) {
+		this.topics = Collections.unmodifiableSet(new LinkedHashSet<>(topics));
+		this.excluding = excluding;
+	}
+
+	/**
+	 * Selects the messages of the given topics.
+	 */
+	public static TopicSelector only(String... topics) {
+		return new TopicSelector(Arrays.asList(topics), false);
+	}
+
+	/**
+	 * Selects the messages of all topics except the given ones.
+	 */
+	public static TopicSelector excluding(Collection<String> topics) {
+		return new TopicSelector(topics, true);
+	}
+
+	public Set<String> getTopics() {
+		return topics;
+	}
+
+	/**
+	 * Whether the selector matches all topics except {@link #getTopics()}, rather than only those.
+	 */
+	public boolean isExcluding() {
+		return excluding;
+	}
+
+	/**
+	 * This selector narrowed down to leave out {@code topics} as well.
+	 */
+	public TopicSelector without(Collection<String> topics) {
+		Set<String> remaining = new LinkedHashSet<>(this.topics);
+		if (excluding) {
+			remaining.addAll(topics);
+		} else {
+			remaining.removeAll(topics);
+		}
+		return new TopicSelector(remaining, excluding);
+	}
+
+	/**
+	 * Whether the selector cannot match any topic.
+	 */
+	public boolean isEmpty() {
+		return !excluding && topics.isEmpty();
+	}
+
+	public boolean matches(String topic) {
+		return topics.contains(topic) != excluding;
+	}
+
+	@Override
+	public String toString() {
+		return (excluding ? "all topics except " : "topics ") + topics;
+	}
+}
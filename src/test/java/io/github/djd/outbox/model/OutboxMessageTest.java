@@ -0,0 +1,67 @@
+package io.github.djd.outbox.model;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.codecs.pojo.PojoCodecProvider;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.MongoClientSettings;
+
+class OutboxMessageTest {
+
+	private final CodecRegistry registry = CodecRegistries.fromRegistries(MongoClientSettings.getDefaultCodecRegistry(),
+			CodecRegistries.fromProviders(PojoCodecProvider.builder().automatic(true).build()));
+
+	@Test
+	void pojoCodecStoresThePayloadOnce() {
+		OutboxMessage message = new OutboxMessage("orders", "hello");
+
+		BsonDocument document = encode(message);
+
+		assertEquals("hello", document.getString("payload").getValue());
+		assertFalse(document.containsKey("payloadBytes"));
+		assertFalse(document.containsKey("binary"));
+	}
+
+	@Test
+	void binaryPayloadSurvivesThePojoCodec() {
+		OutboxMessage message = new OutboxMessage("orders", "customer-7", new byte[] { 1, 2, 3 });
+
+		OutboxMessage decoded = decode(encode(message));
+
+		assertTrue(decoded.isBinary());
+		assertArrayEquals(new byte[] { 1, 2, 3 }, decoded.getPayloadBytes());
+	}
+
+	@Test
+	void textPayloadBytesAreUtf8() {
+		assertArrayEquals("grüß".getBytes(StandardCharsets.UTF_8), new OutboxMessage("orders", "grüß").getPayloadBytes());
+	}
+
+	private BsonDocument encode(OutboxMessage message) {
+		BsonDocument document = new BsonDocument();
+		codec().encode(new BsonDocumentWriter(document), message, EncoderContext.builder().build());
+		return document;
+	}
+
+	private OutboxMessage decode(BsonDocument document) {
+		return codec().decode(new BsonDocumentReader(document), DecoderContext.builder().build());
+	}
+
+	private Codec<OutboxMessage> codec() {
+		return registry.get(OutboxMessage.class);
+	}
+}
@@ -0,0 +1,158 @@
+package io.github.djd.outbox.processor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import io.github.djd.outbox.model.OutboxMessage;
+import io.github.djd.outbox.storage.OutboxStorage;
+import io.github.djd.outbox.storage.PriorityRange;
+import io.github.djd.outbox.storage.TopicSelector;
+
+class FairTopicSchedulerTest {
+
+	private final Map<String, TopicQuota> quotas = new LinkedHashMap<>();
+	private final InMemoryStorage storage = new InMemoryStorage();
+
+	@Test
+	void budgetIsSharedByWeight() {
+		quota("orders", 3);
+		quota("invoices", 1);
+		storage.add("orders", 100);
+		storage.add("invoices", 100);
+
+		Map<String, Integer> claimed = countByTopic(scheduler(0).claim(storage, 8, null, null, Collections.<String>emptySet()));
+
+		assertEquals(6, (int) claimed.get("orders"));
+		assertEquals(2, (int) claimed.get("invoices"));
+	}
+
+	@Test
+	void budgetLeftOverByAnIdleTopicGoesToTheBackloggedOnes() {
+		quota("orders", 1);
+		quota("invoices", 1);
+		storage.add("orders", 100);
+		storage.add("invoices", 1);
+
+		Map<String, Integer> claimed = countByTopic(scheduler(0).claim(storage, 10, null, null, Collections.<String>emptySet()));
+
+		assertEquals(9, (int) claimed.get("orders"));
+		assertEquals(1, (int) claimed.get("invoices"));
+	}
+
+	@Test
+	void unconfiguredTopicsShareTheDefaultClass() {
+		quota("orders", 1);
+		storage.add("orders", 100);
+		storage.add("emails", 100);
+		storage.add("audit", 100);
+
+		Map<String, Integer> claimed = countByTopic(scheduler(1).claim(storage, 10, null, null, Collections.<String>emptySet()));
+
+		assertEquals(5, (int) claimed.get("orders"));
+		assertEquals(5, claimed.getOrDefault("emails", 0) + claimed.getOrDefault("audit", 0));
+	}
+
+	@Test
+	void excludedTopicsAreLeftOut() {
+		quota("orders", 1);
+		quota("invoices", 1);
+		storage.add("orders", 100);
+		storage.add("invoices", 100);
+
+		Map<String, Integer> claimed = countByTopic(
+				scheduler(0).claim(storage, 10, null, null, Collections.singleton("orders")));
+
+		assertEquals(Collections.singletonMap("invoices", 10), claimed);
+	}
+
+	@Test
+	void rateLimitCapsATopicAcrossPolls() {
+		quota("orders", 1).messagesPerSecond = 1;
+		quotas.get("orders").burst = 3;
+		quota("invoices", 1);
+		storage.add("orders", 100);
+		storage.add("invoices", 100);
+		FairTopicScheduler scheduler = scheduler(0);
+
+		Map<String, Integer> first = countByTopic(scheduler.claim(storage, 10, null, null, Collections.<String>emptySet()));
+		Map<String, Integer> second = countByTopic(scheduler.claim(storage, 10, null, null, Collections.<String>emptySet()));
+
+		assertEquals(3, (int) first.get("orders"));
+		assertEquals(7, (int) first.get("invoices"));
+		assertEquals(Collections.singletonMap("invoices", 10), second);
+	}
+
+	private TopicQuota quota(String topic, int weight) {
+		TopicQuota quota = new TopicQuota();
+		quota.weight = weight;
+		quotas.put(topic, quota);
+		return quota;
+	}
+
+	private FairTopicScheduler scheduler(int defaultWeight) {
+		return new FairTopicScheduler(quotas, defaultWeight, FairTopicScheduler.rateLimits(quotas));
+	}
+
+	private static Map<String, Integer> countByTopic(List<OutboxMessage> messages) {
+		Map<String, Integer> counts = new HashMap<>();
+		for (OutboxMessage message : messages) {
+			counts.merge(message.getTopic(), 1, Integer::sum);
+		}
+		return counts;
+	}
+
+	/**
+	 * Claims pending messages in the order they were added, by topic selector only.
+	 */
+	private static class InMemoryStorage implements OutboxStorage {
+		private final List<OutboxMessage> pending = new ArrayList<>();
+
+		void add(String topic, int count) {
+			for (int i = 0; i < count; i++) {
+				pending.add(new OutboxMessage(topic, String.valueOf(i)));
+			}
+		}
+
+		@Override
+		public void saveMessage(OutboxMessage message) {
+			pending.add(message);
+		}
+
+		@Override
+		public List<OutboxMessage> fetchUnprocessedMessages(int batchSize) {
+			return fetchUnprocessedMessages(batchSize, null, null, null);
+		}
+
+		@Override
+		public List<OutboxMessage> fetchUnprocessedMessages(int batchSize, Date createdBefore, TopicSelector topics,
+				PriorityRange priorities) {
+			List<OutboxMessage> claimed = new ArrayList<>();
+			for (Iterator<OutboxMessage> it = pending.iterator(); it.hasNext() && claimed.size() < batchSize;) {
+				OutboxMessage message = it.next();
+				if (topics == null || topics.matches(message.getTopic())) {
+					claimed.add(message);
+					it.remove();
+				}
+			}
+			return claimed;
+		}
+
+		@Override
+		public void markMessageAsProcessed(String messageId) {
+		}
+
+		@Override
+		public void markMessageAsFailed(String messageId, int maxRetries) {
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package io.github.djd.outbox.processor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import io.github.djd.outbox.model.OutboxMessage;
+
+class OrderedLaneDispatcherTest {
+
+	private OrderedLaneDispatcher dispatcher;
+
+	@AfterEach
+	void tearDown() throws InterruptedException {
+		if (dispatcher != null) {
+			dispatcher.shutdown(5000);
+		}
+	}
+
+	@Test
+	void tasksOfOneKeyRunInDispatchOrder() throws InterruptedException {
+		dispatcher = new OrderedLaneDispatcher(4, 1000, false);
+		Map<String, List<Integer>> runs = new ConcurrentHashMap<>();
+
+		for (int i = 0; i < 100; i++) {
+			for (String key : new String[] { "customer-1", "customer-2", "customer-3" }) {
+				int sequence = i;
+				dispatcher.dispatch(key, () -> runs.computeIfAbsent(key, k -> Collections.synchronizedList(new ArrayList<>()))
+						.add(sequence));
+			}
+		}
+
+		assertTrue(dispatcher.shutdown(5000));
+		for (List<Integer> sequences : runs.values()) {
+			for (int i = 0; i < 100; i++) {
+				assertEquals(i, (int) sequences.get(i));
+			}
+		}
+	}
+
+	@Test
+	void tryDispatchIsRefusedAtTheInFlightBound() throws InterruptedException {
+		dispatcher = new OrderedLaneDispatcher(2, 2, false);
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch ran = new CountDownLatch(3);
+		Runnable blocked = () -> {
+			await(release);
+			ran.countDown();
+		};
+
+		assertTrue(dispatcher.tryDispatch("a", blocked));
+		assertTrue(dispatcher.tryDispatch("b", blocked));
+		assertEquals(0, dispatcher.availableCapacity());
+		assertFalse(dispatcher.tryDispatch("c", ran::countDown));
+
+		release.countDown();
+		dispatcher.dispatch("c", ran::countDown); // blocks until a permit is back
+		assertTrue(ran.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void shutdownReportsTasksStillRunning() throws InterruptedException {
+		dispatcher = new OrderedLaneDispatcher(1, 10, false);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger ran = new AtomicInteger();
+		dispatcher.dispatch("a", () -> {
+			await(release);
+			ran.incrementAndGet();
+		});
+		dispatcher.dispatch("a", ran::incrementAndGet);
+
+		assertFalse(dispatcher.shutdown(50));
+
+		release.countDown();
+		assertTrue(dispatcher.shutdown(5000)); // queued tasks still run after shutdown
+		assertEquals(2, ran.get());
+	}
+
+	@Test
+	void parkedKeyHoldsItsLaterTasksUntilResumedWhileOtherKeysRun() throws InterruptedException {
+		dispatcher = new OrderedLaneDispatcher(1, 10, false); // one lane, so both keys share it
+		List<String> runs = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch otherKeyRan = new CountDownLatch(1);
+		dispatcher.dispatch("a", () -> {
+			runs.add("a1 failed");
+			dispatcher.park("a");
+		});
+		dispatcher.dispatch("a", () -> runs.add("a2"));
+		dispatcher.dispatch("b", () -> {
+			runs.add("b1");
+			otherKeyRan.countDown();
+		});
+		dispatcher.dispatch("a", () -> runs.add("a3"));
+		assertTrue(otherKeyRan.await(5, TimeUnit.SECONDS));
+		awaitCapacity(8); // a2 and a3 are held
+
+		dispatcher.resume("a", () -> runs.add("a1 retried"));
+
+		assertTrue(dispatcher.shutdown(5000));
+		assertEquals(Arrays.asList("a1 failed", "b1", "a1 retried", "a2", "a3"), runs);
+		assertEquals(10, dispatcher.availableCapacity());
+	}
+
+	@Test
+	void retryThatFailsAgainKeepsTheKeyParked() throws InterruptedException {
+		dispatcher = new OrderedLaneDispatcher(2, 10, false);
+		List<String> runs = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch parked = new CountDownLatch(1);
+		dispatcher.dispatch("a", () -> {
+			dispatcher.park("a");
+			parked.countDown();
+		});
+		dispatcher.dispatch("a", () -> runs.add("a2"));
+		assertTrue(parked.await(5, TimeUnit.SECONDS));
+
+		CountDownLatch retried = new CountDownLatch(1);
+		dispatcher.resume("a", () -> {
+			dispatcher.park("a"); // failed again
+			retried.countDown();
+		});
+		assertTrue(retried.await(5, TimeUnit.SECONDS));
+		Thread.sleep(50);
+		assertTrue(runs.isEmpty());
+
+		dispatcher.resume("a", () -> runs.add("a1"));
+		assertTrue(dispatcher.shutdown(5000));
+		assertEquals(Arrays.asList("a1", "a2"), runs);
+	}
+
+	@Test
+	void laneKeyIsTheOrderingKeyOrElseTheTopic() {
+		assertEquals("customer-7", OrderedLaneDispatcher.laneKey(new OutboxMessage("orders", "customer-7", "1")));
+		assertEquals("orders", OrderedLaneDispatcher.laneKey(new OutboxMessage("orders", "1")));
+	}
+
+	private void awaitCapacity(int capacity) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (dispatcher.availableCapacity() != capacity && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(capacity, dispatcher.availableCapacity());
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
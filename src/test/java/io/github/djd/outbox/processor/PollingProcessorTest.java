@@ -0,0 +1,142 @@
+package io.github.djd.outbox.processor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.github.djd.outbox.exception.MessagePublishingException;
+import io.github.djd.outbox.model.OutboxMessage;
+import io.github.djd.outbox.publisher.MessagePublisher;
+import io.github.djd.outbox.storage.JournalOutboxConfig;
+import io.github.djd.outbox.storage.JournalOutboxStorage;
+import io.github.djd.outbox.storage.RetryBackoff;
+
+class PollingProcessorTest {
+
+	@TempDir
+	Path directory;
+
+	private JournalOutboxStorage storage;
+	private PollingProcessor processor;
+
+	@AfterEach
+	void tearDown() {
+		if (processor != null) {
+			processor.stopProcessing();
+		}
+		if (storage != null) {
+			storage.close();
+		}
+	}
+
+	@Test
+	void openCircuitPausesOnlyItsTopicUntilAProbeSucceeds() throws Exception {
+		storage = new JournalOutboxStorage(directory, new JournalOutboxConfig());
+		FlakyPublisher publisher = new FlakyPublisher("invoices");
+		processor = new PollingProcessor(storage, publisher, 10,
+				new PollingProcessorConfig().withCircuitBreaker(3, 200).withPollingInterval(10, 50).withBatchSize(10));
+		for (int i = 0; i < 50; i++) {
+			storage.saveMessage(new OutboxMessage("invoices", String.valueOf(i)));
+		}
+		for (int i = 0; i < 500; i++) {
+			storage.saveMessage(new OutboxMessage("orders", String.valueOf(i)));
+		}
+
+		processor.startProcessing();
+
+		awaitTrue(() -> publisher.published.get() == 500);
+		int failuresWhileOpen = publisher.failures.get();
+		assertTrue(failuresWhileOpen < 50, failuresWhileOpen + " failures"); // the first batch and the probes only
+		publisher.down = false;
+		awaitTrue(() -> publisher.published.get() == 550);
+		assertEquals(550, publisher.publishedIds.size());
+	}
+
+	@Test
+	void laterMessagesOfAKeyWaitForTheRetryOfAFailedOne() throws Exception {
+		storage = new JournalOutboxStorage(directory, new JournalOutboxConfig());
+		List<String> published = Collections.synchronizedList(new ArrayList<>());
+		Set<String> failedOnce = ConcurrentHashMap.newKeySet();
+		MessagePublisher publisher = new MessagePublisher() {
+			@Override
+			public void publish(OutboxMessage message) throws MessagePublishingException {
+				if (message.getPayload().equals("a-0") && failedOnce.add(message.getId())) {
+					throw new MessagePublishingException("broker unavailable");
+				}
+				published.add(message.getPayload());
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+		processor = new PollingProcessor(storage, publisher, 3, new PollingProcessorConfig().withWorkerLanes(1, 100)
+				.withRetryBackoff(new RetryBackoff().withInitialDelay(200).withJitter(0)).withPollingInterval(10, 50));
+		for (int i = 0; i < 5; i++) {
+			storage.saveMessage(new OutboxMessage("orders", "a", "a-" + i));
+		}
+		for (int i = 0; i < 5; i++) {
+			storage.saveMessage(new OutboxMessage("orders", "b", "b-" + i));
+		}
+
+		processor.startProcessing();
+
+		awaitTrue(() -> published.size() == 10);
+		List<String> ofA = new ArrayList<>();
+		for (String payload : published) {
+			if (payload.startsWith("a-")) {
+				ofA.add(payload);
+			}
+		}
+		assertEquals(Arrays.asList("a-0", "a-1", "a-2", "a-3", "a-4"), ofA);
+		assertEquals("b-4", published.get(4)); // key b was not held up by the retry on the shared lane
+	}
+
+	private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertTrue(condition.getAsBoolean());
+	}
+
+	private static class FlakyPublisher implements MessagePublisher {
+		final String failingTopic;
+		final AtomicInteger published = new AtomicInteger();
+		final AtomicInteger failures = new AtomicInteger();
+		final Set<String> publishedIds = ConcurrentHashMap.newKeySet();
+		volatile boolean down = true;
+
+		FlakyPublisher(String failingTopic) {
+			this.failingTopic = failingTopic;
+		}
+
+		@Override
+		public void publish(OutboxMessage message) throws MessagePublishingException {
+			if (down && failingTopic.equals(message.getTopic())) {
+				failures.incrementAndGet();
+				throw new MessagePublishingException("broker unavailable");
+			}
+			if (publishedIds.add(message.getId())) {
+				published.incrementAndGet();
+			}
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package io.github.djd.outbox.processor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class TimerWheelTest {
+
+	private TimerWheel wheel;
+
+	@AfterEach
+	void tearDown() {
+		if (wheel != null) {
+			wheel.stop();
+		}
+	}
+
+	@Test
+	void taskRunsNoEarlierThanItsDelay() throws InterruptedException {
+		wheel = new TimerWheel("test-wheel", 10, 64);
+		CountDownLatch ran = new CountDownLatch(1);
+		long start = System.nanoTime();
+
+		wheel.schedule(ran::countDown, 50);
+
+		assertTrue(ran.await(5, TimeUnit.SECONDS));
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 50);
+	}
+
+	@Test
+	void taskLongerThanOneTurnWaitsForItsRounds() throws InterruptedException {
+		wheel = new TimerWheel("test-wheel", 5, 4); // one turn is 20 ms
+		CountDownLatch ran = new CountDownLatch(1);
+		long start = System.nanoTime();
+
+		wheel.schedule(ran::countDown, 130);
+
+		assertFalse(ran.await(100, TimeUnit.MILLISECONDS)); // passed its bucket several times already
+		assertTrue(ran.await(5, TimeUnit.SECONDS));
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 130);
+	}
+
+	@Test
+	void tasksRunInTheOrderOfTheirDeadlines() throws InterruptedException {
+		wheel = new TimerWheel("test-wheel", 5, 8);
+		List<Integer> runs = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch ran = new CountDownLatch(4);
+
+		for (int delay : new int[] { 120, 0, 60, 30 }) {
+			wheel.schedule(() -> {
+				runs.add(delay);
+				ran.countDown();
+			}, delay);
+		}
+
+		assertTrue(ran.await(5, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList(0, 30, 60, 120), runs);
+	}
+
+	@Test
+	void failingTaskDoesNotStopTheWheel() throws InterruptedException {
+		wheel = new TimerWheel("test-wheel", 5, 8);
+		CountDownLatch ran = new CountDownLatch(1);
+
+		wheel.schedule(() -> {
+			throw new IllegalStateException("failed");
+		}, 0);
+		wheel.schedule(ran::countDown, 20);
+
+		assertTrue(ran.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void stopDropsTasksThatHaveNotRun() throws InterruptedException {
+		wheel = new TimerWheel("test-wheel", 5, 8);
+		CountDownLatch ran = new CountDownLatch(1);
+		wheel.schedule(ran::countDown, 50);
+
+		wheel.stop();
+
+		assertFalse(ran.await(200, TimeUnit.MILLISECONDS));
+	}
+}
@@ -0,0 +1,80 @@
+package io.github.djd.outbox.processor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+
+class TopicCircuitBreakersTest {
+
+	@Test
+	void opensAfterConsecutiveFailures() {
+		TopicCircuitBreakers breakers = new TopicCircuitBreakers(3, 60_000);
+
+		assertFalse(breakers.recordFailure("orders"));
+		assertFalse(breakers.recordFailure("orders"));
+		assertTrue(breakers.excludedTopics().isEmpty());
+		assertTrue(breakers.recordFailure("orders"));
+
+		assertTrue(breakers.isOpen("orders"));
+		assertFalse(breakers.isOpen("invoices"));
+		assertEquals(Collections.singleton("orders"), breakers.excludedTopics());
+	}
+
+	@Test
+	void successResetsTheFailureCount() {
+		TopicCircuitBreakers breakers = new TopicCircuitBreakers(3, 60_000);
+
+		breakers.recordFailure("orders");
+		breakers.recordFailure("orders");
+		breakers.recordSuccess("orders");
+		breakers.recordFailure("orders");
+
+		assertFalse(breakers.recordFailure("orders"));
+	}
+
+	@Test
+	void openTopicIsProbedOnceTheOpenDurationPassed() throws InterruptedException {
+		TopicCircuitBreakers breakers = new TopicCircuitBreakers(1, 50);
+		breakers.recordFailure("orders");
+
+		assertTrue(breakers.topicsToProbe().isEmpty());
+		Thread.sleep(60);
+		assertEquals(Collections.singletonList("orders"), breakers.topicsToProbe());
+
+		assertFalse(breakers.isOpen("orders")); // the probe may be published
+		assertEquals(Collections.singleton("orders"), breakers.excludedTopics()); // but nothing else claimed
+		assertTrue(breakers.topicsToProbe().isEmpty());
+	}
+
+	@Test
+	void successfulProbeResumesTheTopic() throws InterruptedException {
+		TopicCircuitBreakers breakers = new TopicCircuitBreakers(1, 10);
+		breakers.recordFailure("orders");
+		Thread.sleep(20);
+		breakers.topicsToProbe();
+
+		breakers.recordSuccess("orders");
+
+		assertFalse(breakers.isOpen("orders"));
+		assertTrue(breakers.excludedTopics().isEmpty());
+	}
+
+	@Test
+	void failedProbeOpensTheBreakerAgain() throws InterruptedException {
+		TopicCircuitBreakers breakers = new TopicCircuitBreakers(3, 50);
+		for (int i = 0; i < 3; i++) {
+			breakers.recordFailure("orders");
+		}
+		Thread.sleep(60);
+		breakers.topicsToProbe();
+
+		assertTrue(breakers.recordFailure("orders")); // a single failure is enough
+
+		assertTrue(breakers.isOpen("orders"));
+		assertTrue(breakers.topicsToProbe().isEmpty());
+	}
+}
@@ -0,0 +1,216 @@
+package io.github.djd.outbox.publisher;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.github.djd.outbox.exception.MessagePublishingException;
+import io.github.djd.outbox.model.OutboxMessage;
+
+class KafkaPublisherTest {
+
+	private MockProducer<String, byte[]> producer;
+	private KafkaPublisher publisher;
+
+	@BeforeEach
+	void setUp() {
+		producer = new MockProducer<>(false, new StringSerializer(), new ByteArraySerializer()); // completed by the test
+		publisher = new KafkaPublisher(producer, "orders");
+	}
+
+	@Test
+	void sendsAreInFlightBeforeAnyIsConfirmed() {
+		CompletableFuture<Void> first = publisher.publishAsync(new OutboxMessage("orders", "a", "1"));
+		CompletableFuture<Void> second = publisher.publishAsync(new OutboxMessage("orders", "a", "2"));
+		CompletableFuture<Void> third = publisher.publishAsync(new OutboxMessage("orders", "b", "3"));
+
+		assertEquals(3, producer.history().size());
+		assertFalse(first.isDone() || second.isDone() || third.isDone());
+	}
+
+	@Test
+	void futureCompletesOnlyFromTheBrokerCallback() {
+		CompletableFuture<Void> first = publisher.publishAsync(new OutboxMessage("orders", "1"));
+		CompletableFuture<Void> second = publisher.publishAsync(new OutboxMessage("orders", "2"));
+
+		assertTrue(producer.completeNext());
+		assertTrue(first.isDone());
+		assertFalse(first.isCompletedExceptionally());
+		assertFalse(second.isDone());
+
+		assertTrue(producer.completeNext());
+		assertTrue(second.isDone());
+		assertFalse(second.isCompletedExceptionally());
+	}
+
+	@Test
+	void failedSendFailsOnlyItsFuture() {
+		CompletableFuture<Void> failed = publisher.publishAsync(new OutboxMessage("orders", "1"));
+		CompletableFuture<Void> published = publisher.publishAsync(new OutboxMessage("orders", "2"));
+		RuntimeException brokerError = new RuntimeException("not enough replicas");
+
+		assertTrue(producer.errorNext(brokerError));
+		producer.completeNext();
+
+		ExecutionException e = assertThrows(ExecutionException.class, failed::get);
+		assertInstanceOf(MessagePublishingException.class, e.getCause());
+		assertSame(brokerError, e.getCause().getCause());
+		assertFalse(published.isCompletedExceptionally());
+	}
+
+	@Test
+	void sendRejectedByTheProducerFailsTheFuture() {
+		producer.close();
+
+		CompletableFuture<Void> result = publisher.publishAsync(new OutboxMessage("orders", "1"));
+
+		assertTrue(result.isCompletedExceptionally());
+		ExecutionException e = assertThrows(ExecutionException.class, result::get);
+		assertInstanceOf(MessagePublishingException.class, e.getCause());
+	}
+
+	@Test
+	void recordCarriesKeyPayloadAndMessageId() {
+		OutboxMessage message = new OutboxMessage("ignored", "customer-7", "{\"total\":3}");
+
+		publisher.publishAsync(message);
+
+		ProducerRecord<String, byte[]> record = producer.history().get(0);
+		assertEquals("orders", record.topic());
+		assertEquals("customer-7", record.key());
+		assertArrayEquals("{\"total\":3}".getBytes(StandardCharsets.UTF_8), record.value());
+		assertArrayEquals(message.getId().getBytes(StandardCharsets.UTF_8),
+				record.headers().lastHeader(KafkaPublisherConfig.DEFAULT_MESSAGE_ID_HEADER).value());
+	}
+
+	@Test
+	void batchSendsEverythingBeforeWaitingAndReturnsOnceAllAreConfirmed() throws Exception {
+		List<OutboxMessage> batch = Arrays.asList(new OutboxMessage("orders", "1"), new OutboxMessage("orders", "2"),
+				new OutboxMessage("orders", "3"));
+		CompletableFuture<Void> result = CompletableFuture.runAsync(() -> {
+			try {
+				publisher.publishBatch(batch);
+			} catch (MessagePublishingException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+
+		awaitSends(3);
+		assertFalse(result.isDone());
+		while (producer.completeNext()) {
+		}
+		result.get(5, TimeUnit.SECONDS);
+	}
+
+	@Test
+	void batchFailsIfAnySendFails() throws Exception {
+		List<OutboxMessage> batch = Arrays.asList(new OutboxMessage("orders", "1"), new OutboxMessage("orders", "2"));
+		CompletableFuture<Throwable> result = CompletableFuture.supplyAsync(() -> {
+			try {
+				publisher.publishBatch(batch);
+				return null;
+			} catch (MessagePublishingException e) {
+				return e;
+			}
+		});
+
+		awaitSends(2);
+		producer.completeNext();
+		producer.errorNext(new RuntimeException("record too large"));
+
+		assertInstanceOf(MessagePublishingException.class, result.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void transactionalBatchIsCommittedAsOneTransaction() throws Exception {
+		List<MockProducer<String, byte[]>> producers = new ArrayList<>();
+		KafkaPublisher transactional = transactionalPublisher(producers);
+
+		transactional.publishBatch(Arrays.asList(new OutboxMessage("orders", "1"), new OutboxMessage("invoices", "2")));
+
+		assertEquals(1, producers.size());
+		assertTrue(producers.get(0).transactionCommitted());
+		assertEquals(1, producers.get(0).commitCount());
+		assertEquals(2, producers.get(0).history().size());
+	}
+
+	@Test
+	void transactionIsAbortedOnAnyException() throws Exception {
+		List<MockProducer<String, byte[]>> producers = new ArrayList<>();
+		KafkaPublisher transactional = transactionalPublisher(producers);
+		producers.get(0).sendException = new IllegalStateException("serializer failed");
+
+		assertThrows(MessagePublishingException.class, () -> transactional.publish(new OutboxMessage("orders", "1")));
+		assertTrue(producers.get(0).transactionAborted());
+
+		producers.get(0).sendException = null;
+		transactional.publish(new OutboxMessage("orders", "2"));
+		assertEquals(1, producers.size()); // the producer is still usable
+		assertEquals(1, producers.get(0).commitCount());
+	}
+
+	@Test
+	void fencedProducerIsReplacedForTheNextTransaction() throws Exception {
+		List<MockProducer<String, byte[]>> producers = new ArrayList<>();
+		KafkaPublisher transactional = transactionalPublisher(producers);
+		producers.get(0).fenceProducer();
+
+		assertThrows(MessagePublishingException.class, () -> transactional.publish(new OutboxMessage("orders", "1")));
+		assertTrue(producers.get(0).closed());
+
+		transactional.publish(new OutboxMessage("orders", "2"));
+		assertEquals(2, producers.size());
+		assertTrue(producers.get(1).transactionInitialized());
+		assertTrue(producers.get(1).transactionCommitted());
+	}
+
+	@Test
+	void producerIsReplacedWhenTheAbortFails() throws Exception {
+		List<MockProducer<String, byte[]>> producers = new ArrayList<>();
+		KafkaPublisher transactional = transactionalPublisher(producers);
+		producers.get(0).commitTransactionException = new KafkaException("transaction timed out");
+		producers.get(0).abortTransactionException = new KafkaException("producer in error state");
+
+		assertThrows(MessagePublishingException.class, () -> transactional.publish(new OutboxMessage("orders", "1")));
+		transactional.publish(new OutboxMessage("orders", "2"));
+
+		assertEquals(2, producers.size());
+		assertTrue(producers.get(1).transactionCommitted());
+	}
+
+	private KafkaPublisher transactionalPublisher(List<MockProducer<String, byte[]>> producers) {
+		return new KafkaPublisher(() -> {
+			MockProducer<String, byte[]> created = new MockProducer<>(true, new StringSerializer(), new ByteArraySerializer());
+			producers.add(created);
+			return created;
+		}, new KafkaPublisherConfig().withTransactionalId("outbox-1"));
+	}
+
+	private void awaitSends(int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (producer.history().size() < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(count, producer.history().size());
+	}
+}
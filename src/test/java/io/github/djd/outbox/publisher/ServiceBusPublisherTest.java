@@ -0,0 +1,192 @@
+package io.github.djd.outbox.publisher;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.azure.messaging.servicebus.ServiceBusMessage;
+
+import io.github.djd.outbox.exception.MessagePublishingException;
+import io.github.djd.outbox.model.OutboxMessage;
+
+class ServiceBusPublisherTest {
+
+	private final Map<String, List<FakeSender>> created = new LinkedHashMap<>();
+	private final Map<String, FakeSender> prepared = new HashMap<>(); // handed out instead of a new sender
+	private ServiceBusPublisher publisher;
+
+	@AfterEach
+	void tearDown() {
+		if (publisher != null) {
+			publisher.close();
+		}
+	}
+
+	@Test
+	void createsOneSenderPerTopicAndReusesIt() throws Exception {
+		publisher = publisher(8);
+
+		publisher.publish(new OutboxMessage("orders", "1"));
+		publisher.publish(new OutboxMessage("orders", "2"));
+		publisher.publish(new OutboxMessage("invoices", "3"));
+
+		assertEquals(1, created.get("orders").size());
+		assertEquals(1, created.get("invoices").size());
+		assertEquals(2, sender("orders").sent.size());
+		assertFalse(sender("orders").closed);
+	}
+
+	@Test
+	void closesTheLeastRecentlyUsedSenderBeyondTheBound() throws Exception {
+		publisher = publisher(2);
+
+		publisher.publish(new OutboxMessage("a", "1"));
+		publisher.publish(new OutboxMessage("b", "2"));
+		publisher.publish(new OutboxMessage("a", "3")); // b is now the least recently used
+		publisher.publish(new OutboxMessage("c", "4"));
+
+		assertFalse(sender("a").closed);
+		assertTrue(sender("b").closed);
+		assertFalse(sender("c").closed);
+
+		publisher.publish(new OutboxMessage("b", "5"));
+		assertEquals(2, created.get("b").size());
+	}
+
+	@Test
+	void evictedSenderIsClosedOnlyAfterItsSendReturns() throws Exception {
+		publisher = publisher(1);
+		FakeSender blocked = new FakeSender();
+		blocked.blockSends = new CountDownLatch(1);
+		prepared.put("slow", blocked);
+		CompletableFuture<Void> slowSend = CompletableFuture.runAsync(() -> {
+			try {
+				publisher.publish(new OutboxMessage("slow", "1"));
+			} catch (MessagePublishingException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		assertTrue(blocked.sending.await(5, TimeUnit.SECONDS));
+
+		publisher.publish(new OutboxMessage("fast", "2")); // evicts the sender of "slow"
+
+		assertFalse(blocked.closed);
+		blocked.blockSends.countDown();
+		slowSend.get(5, TimeUnit.SECONDS);
+		assertTrue(blocked.closed);
+		assertEquals(1, blocked.sent.size());
+	}
+
+	@Test
+	void batchIsSplitWhenTheServiceBusBatchIsFull() throws Exception {
+		publisher = publisher(8);
+
+		publisher.publishBatch(Arrays.asList(new OutboxMessage("orders", "1"), new OutboxMessage("invoices", "2"),
+				new OutboxMessage("orders", "3"), new OutboxMessage("orders", "4")));
+
+		assertEquals(Arrays.asList(2, 1), sender("orders").batchSizes); // batches hold two messages
+		assertEquals(Arrays.asList(1), sender("invoices").batchSizes);
+	}
+
+	@Test
+	void closeClosesAllSenders() throws Exception {
+		publisher = publisher(8);
+		publisher.publish(new OutboxMessage("a", "1"));
+		publisher.publish(new OutboxMessage("b", "2"));
+
+		publisher.close();
+
+		assertTrue(sender("a").closed);
+		assertTrue(sender("b").closed);
+	}
+
+	private ServiceBusPublisher publisher(int maxSenders) {
+		return new ServiceBusPublisher(topic -> {
+			synchronized (created) {
+				FakeSender sender = prepared.containsKey(topic) ? prepared.remove(topic) : new FakeSender();
+				created.computeIfAbsent(topic, t -> new ArrayList<>()).add(sender);
+				return sender;
+			}
+		}, maxSenders, TimeUnit.MINUTES.toMillis(5));
+	}
+
+	private FakeSender sender(String topic) {
+		List<FakeSender> senders = created.get(topic);
+		return senders.get(senders.size() - 1);
+	}
+
+	private static class FakeSender implements ServiceBusTopicSender {
+		final List<ServiceBusMessage> sent = new ArrayList<>();
+		final List<Integer> batchSizes = new ArrayList<>();
+		final CountDownLatch sending = new CountDownLatch(1);
+		CountDownLatch blockSends; // null sends at once
+		volatile boolean closed;
+
+		@Override
+		public void sendMessage(ServiceBusMessage message) {
+			if (closed) {
+				throw new IllegalStateException("sender closed");
+			}
+			sending.countDown();
+			if (blockSends != null) {
+				try {
+					blockSends.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			if (closed) {
+				throw new IllegalStateException("sender closed during send");
+			}
+			synchronized (sent) {
+				sent.add(message);
+			}
+		}
+
+		@Override
+		public Batch createBatch() {
+			return new FakeBatch();
+		}
+
+		@Override
+		public void sendBatch(Batch batch) {
+			batchSizes.add(batch.getCount());
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+	}
+
+	private static class FakeBatch implements ServiceBusTopicSender.Batch {
+		private int count;
+
+		@Override
+		public boolean tryAddMessage(ServiceBusMessage message) {
+			if (count == 2) {
+				return false;
+			}
+			count++;
+			return true;
+		}
+
+		@Override
+		public int getCount() {
+			return count;
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package io.github.djd.outbox.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonDocument;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+
+import io.github.djd.outbox.model.OutboxMessage;
+import io.github.djd.outbox.storage.OutboxStorage;
+
+class GroupCommitWriterTest {
+
+	private GroupCommitWriter writer;
+
+	@AfterEach
+	void tearDown() {
+		if (writer != null) {
+			writer.close();
+		}
+	}
+
+	@Test
+	void concurrentMessagesAreWrittenAsOneBatch() throws Exception {
+		RecordingStorage storage = new RecordingStorage();
+		writer = new GroupCommitWriter(storage, 3, TimeUnit.SECONDS.toMicros(5)); // written once three are gathered
+
+		List<CompletableFuture<Void>> futures = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			futures.add(writer.submit(new OutboxMessage("orders", String.valueOf(i))));
+		}
+		for (CompletableFuture<Void> future : futures) {
+			future.get(5, TimeUnit.SECONDS);
+		}
+
+		assertEquals(Collections.singletonList(3), storage.batchSizes);
+	}
+
+	@Test
+	void bulkWriteErrorsFailOnlyTheirMessages() throws Exception {
+		RecordingStorage storage = new RecordingStorage();
+		storage.failure = new MongoBulkWriteException(BulkWriteResult.unacknowledged(),
+				Arrays.asList(new BulkWriteError(11000, "duplicate key", new BsonDocument(), 1)), null,
+				new ServerAddress(), Collections.<String>emptySet());
+		writer = new GroupCommitWriter(storage, 3, TimeUnit.SECONDS.toMicros(5));
+
+		CompletableFuture<Void> first = writer.submit(new OutboxMessage("orders", "1"));
+		CompletableFuture<Void> duplicate = writer.submit(new OutboxMessage("orders", "2"));
+		CompletableFuture<Void> third = writer.submit(new OutboxMessage("orders", "3"));
+
+		first.get(5, TimeUnit.SECONDS);
+		third.get(5, TimeUnit.SECONDS);
+		ExecutionException e = assertThrows(ExecutionException.class, () -> duplicate.get(5, TimeUnit.SECONDS));
+		assertInstanceOf(MongoBulkWriteException.class, e.getCause());
+	}
+
+	@Test
+	void otherErrorsFailTheWholeBatch() {
+		RecordingStorage storage = new RecordingStorage();
+		storage.failure = new IllegalStateException("connection reset");
+		writer = new GroupCommitWriter(storage, 10, TimeUnit.MILLISECONDS.toMicros(200));
+
+		CompletableFuture<Void> first = writer.submit(new OutboxMessage("orders", "1"));
+		CompletableFuture<Void> second = writer.submit(new OutboxMessage("orders", "2"));
+
+		assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS));
+		assertThrows(ExecutionException.class, () -> second.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void writerKeepsRunningAfterAnErrorFailedABatch() throws Exception {
+		RecordingStorage storage = new RecordingStorage();
+		storage.error = new StackOverflowError();
+		writer = new GroupCommitWriter(storage, 10, 100);
+
+		CompletableFuture<Void> failed = writer.submit(new OutboxMessage("orders", "1"));
+		ExecutionException e = assertThrows(ExecutionException.class, () -> failed.get(5, TimeUnit.SECONDS));
+		assertInstanceOf(StackOverflowError.class, e.getCause());
+
+		storage.error = null;
+		writer.submit(new OutboxMessage("orders", "2")).get(5, TimeUnit.SECONDS);
+	}
+
+	@Test
+	void submitAfterCloseFails() {
+		writer = new GroupCommitWriter(new RecordingStorage(), 10, 100);
+		writer.close();
+
+		CompletableFuture<Void> future = writer.submit(new OutboxMessage("orders", "1"));
+
+		assertTrue(future.isCompletedExceptionally());
+	}
+
+	private static class RecordingStorage implements OutboxStorage {
+		final List<Integer> batchSizes = new ArrayList<>();
+		RuntimeException failure;
+		volatile Error error;
+
+		@Override
+		public void saveMessages(List<OutboxMessage> messages) {
+			batchSizes.add(messages.size());
+			if (failure != null) {
+				throw failure;
+			}
+			if (error != null) {
+				throw error;
+			}
+		}
+
+		@Override
+		public void saveMessage(OutboxMessage message) {
+			saveMessages(Collections.singletonList(message));
+		}
+
+		@Override
+		public List<OutboxMessage> fetchUnprocessedMessages(int batchSize) {
+			return new ArrayList<>();
+		}
+
+		@Override
+		public void markMessageAsProcessed(String messageId) {
+		}
+
+		@Override
+		public void markMessageAsFailed(String messageId, int maxRetries) {
+		}
+	}
+}
@@ -0,0 +1,219 @@
+package io.github.djd.outbox.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.postgresql.ds.PGSimpleDataSource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import io.github.djd.outbox.exception.OutboxStorageException;
+import io.github.djd.outbox.model.MessageProcessingStatus;
+import io.github.djd.outbox.model.OutboxMessage;
+
+@Testcontainers(disabledWithoutDocker = true)
+class JdbcOutboxStorageTest {
+
+	@Container
+	private static final PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:15-alpine");
+
+	private static final AtomicInteger tables = new AtomicInteger();
+
+	private PGSimpleDataSource dataSource;
+	private String table;
+	private final List<JdbcOutboxStorage> storages = new ArrayList<>();
+
+	@BeforeEach
+	void setUp() {
+		dataSource = new PGSimpleDataSource();
+		dataSource.setUrl(postgres.getJdbcUrl());
+		dataSource.setUser(postgres.getUsername());
+		dataSource.setPassword(postgres.getPassword());
+		table = "outbox_" + tables.incrementAndGet(); // one table per test
+	}
+
+	@AfterEach
+	void tearDown() {
+		for (JdbcOutboxStorage storage : storages) {
+			storage.close();
+		}
+	}
+
+	@Test
+	void concurrentClaimersNeverClaimTheSameMessage() throws Exception {
+		JdbcOutboxStorage writer = storage(new JdbcOutboxConfig());
+		List<OutboxMessage> messages = new ArrayList<>();
+		for (int i = 0; i < 500; i++) {
+			messages.add(new OutboxMessage("orders", String.valueOf(i)));
+		}
+		writer.saveMessages(messages);
+		List<JdbcOutboxStorage> instances = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			instances.add(storage(new JdbcOutboxConfig()));
+		}
+		Set<String> claimed = ConcurrentHashMap.newKeySet();
+		AtomicInteger duplicates = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(instances.size());
+		try {
+			List<Future<?>> claimers = new ArrayList<>();
+			for (JdbcOutboxStorage instance : instances) {
+				claimers.add(executor.submit(() -> {
+					List<OutboxMessage> batch;
+					while (!(batch = instance.fetchUnprocessedMessages(20)).isEmpty()) {
+						for (OutboxMessage message : batch) {
+							if (!claimed.add(message.getId())) {
+								duplicates.incrementAndGet();
+							}
+						}
+					}
+				}));
+			}
+			for (Future<?> claimer : claimers) {
+				claimer.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		assertEquals(0, duplicates.get());
+		assertEquals(500, claimed.size());
+	}
+
+	@Test
+	void acknowledgementOfALostClaimIsIgnored() throws Exception {
+		JdbcOutboxStorage first = storage(new JdbcOutboxConfig().withLeaseDuration(1));
+		JdbcOutboxStorage second = storage(new JdbcOutboxConfig());
+		first.saveMessage(new OutboxMessage("orders", "1"));
+		String messageId = first.fetchUnprocessedMessages(1).get(0).getId();
+		Thread.sleep(50); // the lease of the first instance expires
+		assertEquals(1, second.reclaimExpiredLeases());
+		assertEquals(messageId, second.fetchUnprocessedMessages(1).get(0).getId());
+
+		first.markMessageAsProcessed(messageId);
+		assertEquals(MessageProcessingStatus.IN_PROGRESS.name(), status(messageId));
+
+		second.markMessageAsProcessed(messageId);
+		assertEquals(MessageProcessingStatus.COMPLETED.name(), status(messageId));
+	}
+
+	@Test
+	void failedMessageReturnsToPendingUntilItsRetriesAreUsedUp() throws Exception {
+		JdbcOutboxStorage storage = storage(new JdbcOutboxConfig());
+		storage.saveMessage(new OutboxMessage("orders", "1"));
+		OutboxMessage message = storage.fetchUnprocessedMessages(1).get(0);
+
+		storage.markMessageAsFailed(message.getId(), 1);
+		OutboxMessage retried = storage.fetchUnprocessedMessages(1).get(0);
+		assertEquals(1, retried.getRetryCount());
+
+		storage.markMessageAsFailed(message.getId(), 1);
+		assertEquals(MessageProcessingStatus.FAILED.name(), status(message.getId()));
+		assertTrue(storage.fetchUnprocessedMessages(1).isEmpty());
+	}
+
+	@Test
+	void createsPartitionsAheadAndDropsExpiredOnesOnceSettled() throws Exception {
+		JdbcOutboxStorage storage = storage(new JdbcOutboxConfig().withDailyPartitions(2, 7, 60 * 60 * 1000));
+		LocalDate today = LocalDate.now(ZoneOffset.UTC);
+		assertTrue(partitionExists(today.plusDays(2)));
+		LocalDate expired = today.minusDays(30);
+		execute("CREATE TABLE " + partition(expired) + " PARTITION OF " + table
+				+ " FOR VALUES FROM ('" + expired + " 00:00:00+00') TO ('" + expired.plusDays(1) + " 00:00:00+00')");
+		execute("INSERT INTO " + table + " (id, topic, status, created_at) VALUES ('old', 'orders', 'PENDING', '" + expired + " 12:00:00+00')");
+
+		storage.maintainPartitions();
+		assertTrue(partitionExists(expired)); // still holds a PENDING message
+
+		execute("UPDATE " + table + " SET status = 'FAILED' WHERE id = 'old'");
+		storage.maintainPartitions();
+		assertTrue(partitionExists(expired)); // a FAILED message is kept for inspection
+
+		execute("UPDATE " + table + " SET status = 'COMPLETED' WHERE id = 'old'");
+		storage.maintainPartitions();
+		assertFalse(partitionExists(expired));
+		assertTrue(partitionExists(today));
+	}
+
+	@Test
+	void acknowledgementThatFailedCanBeRepeated() throws Exception {
+		JdbcOutboxStorage storage = storage(new JdbcOutboxConfig());
+		storage.saveMessage(new OutboxMessage("orders", "1"));
+		String messageId = storage.fetchUnprocessedMessages(1).get(0).getId();
+
+		execute("ALTER TABLE " + table + " RENAME TO " + table + "_moved");
+		try {
+			assertThrows(OutboxStorageException.class, () -> storage.markMessageAsProcessed(messageId));
+		} finally {
+			execute("ALTER TABLE " + table + "_moved RENAME TO " + table);
+		}
+
+		storage.markMessageAsProcessed(messageId);
+		assertEquals(MessageProcessingStatus.COMPLETED.name(), status(messageId));
+	}
+
+	@Test
+	void releasedMessagesKeepTheirRetryCount() throws Exception {
+		JdbcOutboxStorage storage = storage(new JdbcOutboxConfig());
+		storage.saveMessage(new OutboxMessage("orders", "1"));
+		OutboxMessage message = storage.fetchUnprocessedMessages(1).get(0);
+
+		storage.releaseMessages(Collections.singletonList(message.getId()));
+
+		assertEquals(MessageProcessingStatus.PENDING.name(), status(message.getId()));
+		assertEquals(0, storage.fetchUnprocessedMessages(1).get(0).getRetryCount());
+	}
+
+	private JdbcOutboxStorage storage(JdbcOutboxConfig config) {
+		JdbcOutboxStorage storage = new JdbcOutboxStorage(dataSource, config.withTableName(table));
+		storages.add(storage);
+		return storage;
+	}
+
+	private String partition(LocalDate date) {
+		return table + "_p" + date.toString().replace("-", "");
+	}
+
+	private boolean partitionExists(LocalDate date) throws SQLException {
+		return query("SELECT 1 FROM pg_class WHERE relname = '" + partition(date) + "'") != null;
+	}
+
+	private String status(String messageId) throws SQLException {
+		return query("SELECT status FROM " + table + " WHERE id = '" + messageId + "'");
+	}
+
+	private String query(String sql) throws SQLException {
+		try (Connection connection = dataSource.getConnection();
+				Statement statement = connection.createStatement();
+				ResultSet rows = statement.executeQuery(sql)) {
+			return rows.next() ? rows.getString(1) : null;
+		}
+	}
+
+	private void execute(String sql) throws SQLException {
+		try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+			statement.execute(sql);
+		}
+	}
+}
@@ -0,0 +1,175 @@
+package io.github.djd.outbox.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.github.djd.outbox.model.OutboxMessage;
+
+class JournalOutboxStorageTest {
+
+	@TempDir
+	Path directory;
+
+	private JournalOutboxStorage storage;
+
+	@AfterEach
+	void tearDown() {
+		if (storage != null) {
+			storage.close();
+		}
+	}
+
+	@Test
+	void savedMessagesSurviveAReopen() {
+		storage = open(new JournalOutboxConfig());
+		OutboxMessage message = new OutboxMessage("orders", "customer-7", "{\"total\":3}");
+		message.setPriority(5);
+		storage.saveMessage(message);
+		storage.saveMessages(Arrays.asList(new OutboxMessage("orders", "2"), new OutboxMessage("invoices", "3")));
+		reopen(new JournalOutboxConfig());
+
+		List<OutboxMessage> claimed = storage.fetchUnprocessedMessages(10);
+
+		assertEquals(Arrays.asList(message.getId()), ids(claimed).subList(0, 1));
+		assertEquals(Arrays.asList("{\"total\":3}", "2", "3"), payloads(claimed));
+		assertEquals("customer-7", claimed.get(0).getKey());
+		assertEquals(5, claimed.get(0).getPriority());
+	}
+
+	@Test
+	void claimsOfThePreviousRunArePendingAgainAfterARestart() {
+		storage = open(new JournalOutboxConfig());
+		storage.saveMessages(Arrays.asList(new OutboxMessage("orders", "1"), new OutboxMessage("orders", "2"),
+				new OutboxMessage("orders", "3")));
+		List<OutboxMessage> claimed = storage.fetchUnprocessedMessages(2);
+		storage.markMessageAsProcessed(claimed.get(0).getId());
+		reopen(new JournalOutboxConfig());
+
+		assertEquals(Arrays.asList("2", "3"), payloads(storage.fetchUnprocessedMessages(10)));
+	}
+
+	@Test
+	void tornRecordIsDiscardedOnRecovery() throws Exception {
+		storage = open(new JournalOutboxConfig());
+		storage.saveMessage(new OutboxMessage("orders", "intact"));
+		storage.saveMessage(new OutboxMessage("orders", "torn"));
+		storage.close();
+		corruptLastByte(JournalSegment.dataPath(directory, 0));
+		storage = open(new JournalOutboxConfig());
+
+		assertEquals(Arrays.asList("intact"), payloads(storage.fetchUnprocessedMessages(10)));
+		storage.saveMessage(new OutboxMessage("orders", "after"));
+		assertEquals(Arrays.asList("after"), payloads(storage.fetchUnprocessedMessages(10)));
+	}
+
+	@Test
+	void releasedMessageIsClaimedBeforeNewerOnes() {
+		storage = open(new JournalOutboxConfig());
+		storage.saveMessages(Arrays.asList(new OutboxMessage("orders", "1"), new OutboxMessage("orders", "2"),
+				new OutboxMessage("orders", "3")));
+		OutboxMessage first = storage.fetchUnprocessedMessages(1).get(0);
+		storage.fetchUnprocessedMessages(1); // "2" stays in flight
+		storage.releaseMessages(Collections.singletonList(first.getId()));
+		storage.saveMessage(new OutboxMessage("orders", "4"));
+
+		assertEquals(Arrays.asList("1", "3", "4"), payloads(storage.fetchUnprocessedMessages(10)));
+		assertTrue(storage.fetchUnprocessedMessages(10).isEmpty());
+	}
+
+	@Test
+	void failedMessageIsRetriedAndThenMarkedFailed() {
+		storage = open(new JournalOutboxConfig());
+		storage.saveMessages(Arrays.asList(new OutboxMessage("orders", "1"), new OutboxMessage("orders", "2")));
+		OutboxMessage message = storage.fetchUnprocessedMessages(1).get(0);
+		storage.markMessageAsFailed(message.getId(), 1);
+
+		OutboxMessage retried = storage.fetchUnprocessedMessages(1).get(0);
+		assertEquals(message.getId(), retried.getId());
+		assertEquals(1, retried.getRetryCount());
+		storage.markMessageAsFailed(message.getId(), 1);
+
+		assertEquals(Arrays.asList("2"), payloads(storage.fetchUnprocessedMessages(10)));
+	}
+
+	@Test
+	void settledSegmentsAreCompactedAndFailedRecordsArchived() throws Exception {
+		storage = open(new JournalOutboxConfig().withSegmentSize(64 * 1024, 4).withCompactionInterval(20));
+		List<OutboxMessage> messages = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			messages.add(new OutboxMessage("orders", String.valueOf(i)));
+		}
+		storage.saveMessages(messages); // segments 0 to 2
+		List<OutboxMessage> claimed = storage.fetchUnprocessedMessages(10);
+		storage.markMessageAsFailed(claimed.get(1).getId(), 0);
+		storage.markMessagesAsProcessed(ids(claimed.subList(2, 10)));
+		assertTrue(Files.exists(JournalSegment.dataPath(directory, 0))); // still holds an IN_PROGRESS message
+
+		storage.markMessageAsProcessed(claimed.get(0).getId());
+
+		awaitDeleted(JournalSegment.dataPath(directory, 1));
+		assertFalse(Files.exists(JournalSegment.dataPath(directory, 0)));
+		assertTrue(Files.exists(JournalSegment.failedPath(directory, 0)));
+		assertFalse(Files.exists(JournalSegment.failedPath(directory, 1)));
+		assertTrue(Files.exists(JournalSegment.dataPath(directory, 2))); // the active segment is kept
+	}
+
+	private JournalOutboxStorage open(JournalOutboxConfig config) {
+		return new JournalOutboxStorage(directory, config);
+	}
+
+	private void reopen(JournalOutboxConfig config) {
+		storage.close();
+		storage = open(config);
+	}
+
+	private static void corruptLastByte(Path file) throws Exception {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer content = ByteBuffer.allocate((int) channel.size());
+			channel.read(content, 0);
+			int last = content.capacity() - 1;
+			while (content.get(last) == 0) {
+				last--;
+			}
+			channel.write(ByteBuffer.wrap(new byte[] { (byte) ~content.get(last) }), last);
+		}
+	}
+
+	private static void awaitDeleted(Path file) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (Files.exists(file) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertFalse(Files.exists(file));
+	}
+
+	private static List<String> ids(List<OutboxMessage> messages) {
+		List<String> ids = new ArrayList<>();
+		for (OutboxMessage message : messages) {
+			ids.add(message.getId());
+		}
+		return ids;
+	}
+
+	private static List<String> payloads(List<OutboxMessage> messages) {
+		List<String> payloads = new ArrayList<>();
+		for (OutboxMessage message : messages) {
+			payloads.add(message.getPayload());
+		}
+		return payloads;
+	}
+}
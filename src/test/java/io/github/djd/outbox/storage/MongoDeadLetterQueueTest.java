@@ -0,0 +1,147 @@
+package io.github.djd.outbox.storage;
+
+import static io.github.djd.outbox.model.MongoOutboxMessageFields.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+
+import io.github.djd.outbox.model.MessageProcessingStatus;
+
+@Testcontainers(disabledWithoutDocker = true)
+class MongoDeadLetterQueueTest {
+
+	@Container
+	private static final MongoDBContainer mongo = new MongoDBContainer("mongo:6.0");
+
+	private static final AtomicInteger collections = new AtomicInteger();
+
+	private static MongoClient client;
+
+	private MongoCollection<Document> outbox;
+	private MongoCollection<Document> deadLetters;
+	private MongoDeadLetterQueue queue;
+
+	@BeforeAll
+	static void connect() {
+		client = MongoClients.create(mongo.getConnectionString());
+	}
+
+	@AfterAll
+	static void disconnect() {
+		client.close();
+	}
+
+	@BeforeEach
+	void setUp() {
+		MongoDatabase database = client.getDatabase("outbox");
+		int n = collections.incrementAndGet(); // collections per test
+		outbox = database.getCollection("outbox_" + n);
+		deadLetters = database.getCollection("dead_letters_" + n);
+	}
+
+	@AfterEach
+	void tearDown() {
+		if (queue != null) {
+			queue.close();
+		}
+	}
+
+	@Test
+	void failedMessagesAreMovedWithTheirErrorsAndOthersStay() throws Exception {
+		for (int i = 0; i < 5; i++) {
+			outbox.insertOne(message("f" + i, "orders", MessageProcessingStatus.FAILED)
+					.append(LAST_ERROR, "broker unavailable").append(CLAIM_TOKEN, "token"));
+		}
+		outbox.insertOne(message("p", "orders", MessageProcessingStatus.PENDING));
+		outbox.insertOne(message("c", "orders", MessageProcessingStatus.COMPLETED));
+		queue = new MongoDeadLetterQueue(outbox, deadLetters, 2, 0);
+
+		assertEquals(5, queue.moveExhausted());
+
+		assertEquals(2, outbox.countDocuments());
+		assertEquals(0, outbox.countDocuments(MongoDeadLetterQueue.exhaustedFilter()));
+		assertEquals(5, deadLetters.countDocuments());
+		Document deadLetter = deadLetters.find(Filters.eq(ID, "f0")).first();
+		assertEquals("broker unavailable", deadLetter.getString(LAST_ERROR));
+		assertNotNull(deadLetter.getDate(DEAD_LETTERED_AT));
+		assertFalse(deadLetter.containsKey(CLAIM_TOKEN));
+	}
+
+	@Test
+	void interruptedMoveIsCompletedWithoutDuplicates() throws Exception {
+		outbox.insertOne(message("f0", "orders", MessageProcessingStatus.FAILED));
+		outbox.insertOne(message("f1", "orders", MessageProcessingStatus.FAILED));
+		deadLetters.insertOne(message("f0", "orders", MessageProcessingStatus.FAILED)); // copied, not yet deleted
+		queue = new MongoDeadLetterQueue(outbox, deadLetters, 10, 0);
+
+		assertEquals(2, queue.moveExhausted());
+
+		assertEquals(0, outbox.countDocuments());
+		assertEquals(2, deadLetters.countDocuments());
+	}
+
+	@Test
+	void redriveReenqueuesOnlyTheSelectionAsPending() throws Exception {
+		queue = new MongoDeadLetterQueue(outbox, deadLetters, 10, 0);
+		for (int i = 0; i < 3; i++) {
+			deadLetters.insertOne(message("o" + i, "orders", MessageProcessingStatus.FAILED).append(RETRY_COUNT, 5)
+					.append(DEAD_LETTERED_AT, new Date()));
+		}
+		deadLetters.insertOne(message("i0", "invoices", MessageProcessingStatus.FAILED));
+		RedriveFilter orders = new RedriveFilter().withTopics("orders");
+
+		assertEquals(3, queue.count(orders));
+		assertEquals(3, queue.redrive(orders, 1000));
+
+		assertEquals(3, outbox.countDocuments(Filters.eq(STATUS, MessageProcessingStatus.PENDING.name())));
+		Document redriven = outbox.find(Filters.eq(ID, "o0")).first();
+		assertEquals(0, redriven.getInteger(RETRY_COUNT).intValue());
+		assertFalse(redriven.containsKey(DEAD_LETTERED_AT));
+		assertEquals(1, deadLetters.countDocuments());
+		assertEquals(0, queue.count(orders));
+	}
+
+	@Test
+	void redriveIsThrottledToTheGivenRate() throws Exception {
+		queue = new MongoDeadLetterQueue(outbox, deadLetters, 100, 0);
+		List<Document> batch = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			batch.add(message("o" + i, "orders", MessageProcessingStatus.FAILED));
+		}
+		deadLetters.insertMany(batch);
+
+		long start = System.currentTimeMillis();
+		assertEquals(10, queue.redrive(new RedriveFilter(), 4)); // batches of 4, 4 and 2
+		long elapsed = System.currentTimeMillis() - start;
+
+		assertTrue(elapsed >= 1900, elapsed + " ms"); // a second after each full batch
+		assertEquals(10, outbox.countDocuments());
+	}
+
+	private static Document message(String id, String topic, MessageProcessingStatus status) {
+		return new Document(ID, id).append(TOPIC, topic).append(PAYLOAD, "{}").append(STATUS, status.name())
+				.append(CREATED_AT, new Date()).append(RETRY_COUNT, 3);
+	}
+}
@@ -0,0 +1,137 @@
+package io.github.djd.outbox.storage;
+
+import static io.github.djd.outbox.model.MongoOutboxMessageFields.*;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.MongoClientSettings;
+
+import io.github.djd.outbox.model.MessageProcessingStatus;
+import io.github.djd.outbox.model.OutboxMessage;
+
+class OutboxMessageCodecTest {
+
+	private final OutboxMessageCodec codec = new OutboxMessageCodec();
+
+	@Test
+	void decodesLikeFromDocument() {
+		Document doc = document("m1").append(KEY, "customer-7").append(PAYLOAD, "{\"total\":3}")
+				.append(PROCESSED_BY, "instance-1").append(PRIORITY, 5).append(CLAIM_TOKEN, "ignored");
+
+		OutboxMessage decoded = assertDecodesLikeFromDocument(doc);
+
+		assertEquals("customer-7", decoded.getKey());
+		assertEquals(5, decoded.getPriority());
+	}
+
+	@Test
+	void missingProcessedAtIsLeftUnset() {
+		OutboxMessage decoded = assertDecodesLikeFromDocument(document("m1").append(PAYLOAD, "1"));
+
+		assertNull(decoded.getProcessedAt());
+	}
+
+	@Test
+	void processedAtStoredAsMillisecondsIsADate() {
+		long processedAt = 1_700_000_000_123L;
+
+		OutboxMessage decoded = assertDecodesLikeFromDocument(document("m1").append(PAYLOAD, "1").append(PROCESSED_AT, processedAt));
+
+		assertEquals(new Date(processedAt), decoded.getProcessedAt());
+	}
+
+	@Test
+	void objectIdIsReadAsItsHexString() {
+		ObjectId id = new ObjectId();
+
+		OutboxMessage decoded = assertDecodesLikeFromDocument(document(null).append(ID, id).append(PAYLOAD, "1"));
+
+		assertEquals(id.toHexString(), decoded.getId());
+	}
+
+	@Test
+	void statusIsReadWhateverItsCase() {
+		OutboxMessage decoded = assertDecodesLikeFromDocument(document("m1").append(PAYLOAD, "1").append(STATUS, "In_Progress"));
+
+		assertEquals(MessageProcessingStatus.IN_PROGRESS, decoded.getStatus());
+	}
+
+	@Test
+	void compressedPayloadIsInflatedWhateverTheFieldOrder() {
+		byte[] text = "{\"total\":3}".getBytes(StandardCharsets.UTF_8);
+		Document doc = document("m1").append(PAYLOAD, new Binary(PayloadCodec.deflate(text)))
+				.append(PAYLOAD_ENCODING, PayloadCodec.DEFLATE_TEXT); // after the payload
+
+		OutboxMessage decoded = assertDecodesLikeFromDocument(doc);
+
+		assertEquals("{\"total\":3}", decoded.getPayload());
+	}
+
+	@Test
+	void compressedBinaryPayloadIsInflated() {
+		byte[] bytes = new byte[] { 1, 2, 3, 1, 2, 3, 1, 2, 3 };
+		Document doc = document("m1").append(PAYLOAD, new Binary(PayloadCodec.deflate(bytes)))
+				.append(PAYLOAD_ENCODING, PayloadCodec.DEFLATE);
+
+		OutboxMessage decoded = assertDecodesLikeFromDocument(doc);
+
+		assertArrayEquals(bytes, decoded.getBinaryPayload());
+	}
+
+	@Test
+	void encodedMessageDecodesToItself() {
+		OutboxMessage message = new OutboxMessage("orders", "customer-7", new byte[] { 4, 5, 6 });
+		message.setPriority(2);
+		BsonDocument bson = new BsonDocument();
+		codec.encode(new BsonDocumentWriter(bson), message, EncoderContext.builder().build());
+
+		OutboxMessage decoded = codec.decode(new BsonDocumentReader(bson), DecoderContext.builder().build());
+
+		assertEquals(message.getId(), decoded.getId());
+		assertEquals(MessageProcessingStatus.PENDING, decoded.getStatus());
+		assertArrayEquals(message.getBinaryPayload(), decoded.getBinaryPayload());
+		assertEquals(2, decoded.getPriority());
+	}
+
+	private OutboxMessage assertDecodesLikeFromDocument(Document doc) {
+		BsonDocument bson = doc.toBsonDocument(Document.class, MongoClientSettings.getDefaultCodecRegistry());
+		OutboxMessage decoded = codec.decode(new BsonDocumentReader(bson), DecoderContext.builder().build());
+		OutboxMessage expected = OutboxUtil.fromDocument(doc);
+
+		assertEquals(expected.getId(), decoded.getId());
+		assertEquals(expected.getTopic(), decoded.getTopic());
+		assertEquals(expected.getKey(), decoded.getKey());
+		assertEquals(expected.getPayload(), decoded.getPayload());
+		assertArrayEquals(expected.getBinaryPayload(), decoded.getBinaryPayload());
+		assertEquals(expected.getStatus(), decoded.getStatus());
+		assertEquals(expected.getCreatedAt(), decoded.getCreatedAt());
+		assertEquals(expected.getProcessedAt(), decoded.getProcessedAt());
+		assertEquals(expected.getProcessedBy(), decoded.getProcessedBy());
+		assertEquals(expected.getRetryCount(), decoded.getRetryCount());
+		assertEquals(expected.getPriority(), decoded.getPriority());
+		return decoded;
+	}
+
+	private static Document document(String id) {
+		Document doc = new Document();
+		if (id != null) {
+			doc.append(ID, id);
+		}
+		return doc.append(TOPIC, "orders").append(STATUS, MessageProcessingStatus.PENDING.name())
+				.append(CREATED_AT, new Date(1_700_000_000_000L)).append(RETRY_COUNT, 2);
+	}
+}
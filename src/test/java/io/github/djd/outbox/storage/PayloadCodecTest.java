@@ -0,0 +1,130 @@
+package io.github.djd.outbox.storage;
+
+import static io.github.djd.outbox.model.MongoOutboxMessageFields.*;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Random;
+
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.junit.jupiter.api.Test;
+
+import io.github.djd.outbox.model.MessageProcessingStatus;
+import io.github.djd.outbox.model.OutboxMessage;
+
+class PayloadCodecTest {
+
+	@Test
+	void binaryPayloadRoundTripsThroughDeflate() {
+		byte[] raw = repetitive(4096);
+		Document doc = write(new OutboxMessage("orders", "customer-7", raw), PayloadCompression.DEFLATE, 100);
+
+		assertEquals(PayloadCodec.DEFLATE, doc.getString(PAYLOAD_ENCODING));
+		assertTrue(((Binary) doc.get(PAYLOAD)).length() < raw.length);
+		OutboxMessage read = read(doc);
+		assertTrue(read.isBinary());
+		assertArrayEquals(raw, read.getBinaryPayload());
+	}
+
+	@Test
+	void textPayloadRoundTripsThroughDeflate() {
+		String text = repeat("{\"item\":\"grüße\",\"quantity\":3},", 100);
+		Document doc = write(new OutboxMessage("orders", text), PayloadCompression.DEFLATE, 100);
+
+		assertEquals(PayloadCodec.DEFLATE_TEXT, doc.getString(PAYLOAD_ENCODING));
+		assertInstanceOf(Binary.class, doc.get(PAYLOAD));
+		OutboxMessage read = read(doc);
+		assertFalse(read.isBinary());
+		assertEquals(text, read.getPayload());
+	}
+
+	@Test
+	void payloadUpToTheThresholdIsStoredAsIs() {
+		String text = repeat("a", 100);
+		Document doc = write(new OutboxMessage("orders", text), PayloadCompression.DEFLATE, 100);
+
+		assertEquals(text, doc.get(PAYLOAD));
+		assertFalse(doc.containsKey(PAYLOAD_ENCODING));
+	}
+
+	@Test
+	void payloadIsStoredAsIsWhenDeflateDoesNotMakeItSmaller() {
+		byte[] random = new byte[4096];
+		new Random(7).nextBytes(random);
+		Document doc = write(new OutboxMessage("orders", null, random), PayloadCompression.DEFLATE, 100);
+
+		assertArrayEquals(random, ((Binary) doc.get(PAYLOAD)).getData());
+		assertFalse(doc.containsKey(PAYLOAD_ENCODING));
+	}
+
+	@Test
+	void payloadIsNotCompressedWithoutCompression() {
+		String text = repeat("a", 4096);
+		Document doc = write(new OutboxMessage("orders", text), PayloadCompression.NONE, 100);
+
+		assertEquals(text, doc.get(PAYLOAD));
+		assertFalse(doc.containsKey(PAYLOAD_ENCODING));
+	}
+
+	@Test
+	void documentsWrittenBeforeCompressionAreReadUnchanged() {
+		Document text = legacyDocument("m1").append(PAYLOAD, "{\"total\":3}");
+		Document binary = legacyDocument("m2").append(PAYLOAD, new Binary(new byte[] { 1, 2, 3 }));
+
+		OutboxMessage readText = OutboxUtil.fromDocument(text);
+		OutboxMessage readBinary = OutboxUtil.fromDocument(binary);
+
+		assertEquals("{\"total\":3}", readText.getPayload());
+		assertFalse(readText.isBinary());
+		assertNull(readBinary.getPayload());
+		assertArrayEquals(new byte[] { 1, 2, 3 }, readBinary.getBinaryPayload());
+	}
+
+	@Test
+	void truncatedCompressedPayloadIsRejected() {
+		byte[] deflated = PayloadCodec.deflate(repetitive(4096));
+
+		assertThrows(IllegalStateException.class, () -> PayloadCodec.inflate(Arrays.copyOf(deflated, deflated.length / 2)));
+	}
+
+	private static Document write(OutboxMessage message, PayloadCompression compression, int thresholdBytes) {
+		Document doc = new Document();
+		PayloadCodec.write(doc, message, compression, thresholdBytes);
+		return doc;
+	}
+
+	private static OutboxMessage read(Document doc) {
+		OutboxMessage message = new OutboxMessage();
+		PayloadCodec.read(doc, message);
+		return message;
+	}
+
+	private static Document legacyDocument(String id) {
+		return new Document(ID, id).append(TOPIC, "orders").append(STATUS, MessageProcessingStatus.PENDING.name())
+				.append(CREATED_AT, new Date()).append(RETRY_COUNT, 0);
+	}
+
+	private static byte[] repetitive(int length) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = (byte) (i % 16);
+		}
+		return bytes;
+	}
+
+	private static String repeat(String s, int times) {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < times; i++) {
+			builder.append(s);
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,63 @@
+package io.github.djd.outbox.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+class RetryBackoffTest {
+
+	@Test
+	void delayGrowsExponentiallyUpToTheMaximum() {
+		RetryBackoff backoff = new RetryBackoff().withInitialDelay(100).withMultiplier(2).withMaxDelay(1000).withJitter(0);
+
+		long[] delays = new long[6];
+		for (int retry = 1; retry <= delays.length; retry++) {
+			delays[retry - 1] = backoff.delayMs(retry);
+		}
+
+		assertEquals("[100, 200, 400, 800, 1000, 1000]", Arrays.toString(delays));
+	}
+
+	@Test
+	void retriesBelowOneWaitTheInitialDelay() {
+		RetryBackoff backoff = new RetryBackoff().withInitialDelay(100).withJitter(0);
+
+		assertEquals(100, backoff.delayMs(0));
+		assertEquals(100, backoff.delayMs(-3));
+	}
+
+	@Test
+	void veryLateRetryWaitsTheMaximum() {
+		RetryBackoff backoff = new RetryBackoff().withInitialDelay(100).withMaxDelay(30000).withJitter(0);
+
+		assertEquals(30000, backoff.delayMs(10_000));
+	}
+
+	@Test
+	void jitterOnlyShortensTheDelayWithinItsFraction() {
+		RetryBackoff backoff = new RetryBackoff().withInitialDelay(1000).withJitter(0.5);
+		Set<Long> distinct = new HashSet<>();
+
+		for (int i = 0; i < 1000; i++) {
+			long delay = backoff.delayMs(1);
+			assertTrue(delay >= 500 && delay <= 1000, delay + " ms");
+			distinct.add(delay);
+		}
+
+		assertTrue(distinct.size() > 10); // spread, not one value
+	}
+
+	@Test
+	void invalidSettingsAreRejected() {
+		assertThrows(IllegalArgumentException.class, () -> new RetryBackoff().withInitialDelay(-1));
+		assertThrows(IllegalArgumentException.class, () -> new RetryBackoff().withMultiplier(0.5));
+		assertThrows(IllegalArgumentException.class, () -> new RetryBackoff().withMaxDelay(-1));
+		assertThrows(IllegalArgumentException.class, () -> new RetryBackoff().withJitter(1.5));
+	}
+}